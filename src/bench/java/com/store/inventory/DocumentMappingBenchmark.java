@@ -0,0 +1,140 @@
+package com.store.inventory;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks mapping models to and from BSON, one document per invocation
+ * over a rotating pool. The {@code *ViaDocument} methods go through an
+ * {@link org.bson.Document} and {@link App}'s mapping as the driver did before
+ * {@link ModelCodecs}; the {@code *ViaCodec} methods use the codecs. Decoding
+ * starts from the BSON bytes a cursor receives and encoding ends with the
+ * bytes sent, so both sides include the driver's share of the work. Run with
+ * {@code -prof gc} to compare allocation per document.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DocumentMappingBenchmark {
+  private static final int POOL = 10000;
+  private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+  private static final DecoderContext DECODE = DecoderContext.builder().build();
+  private static final EncoderContext ENCODE = EncoderContext.builder().build();
+
+  private Document[] productDocuments;
+  private Product[] products;
+  private Order[] orders;
+  private byte[][] productBytes;
+  private byte[][] productCodecBytes;
+  private byte[][] orderBytes;
+  private byte[][] orderCodecBytes;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(SyntheticData.SEED);
+    productDocuments = new Document[POOL];
+    products = new Product[POOL];
+    productBytes = new byte[POOL][];
+    productCodecBytes = new byte[POOL][];
+    for (int i = 0; i < POOL; i++) {
+      products[i] = SyntheticData.product(i, random);
+      productDocuments[i] = App.toDocument(products[i]);
+      productBytes[i] = encode(DOCUMENT_CODEC, productDocuments[i]);
+      productCodecBytes[i] = encode(ModelCodecs.PRODUCT, products[i]);
+    }
+    List<Order> generated = SyntheticData.orders(POOL, POOL);
+    orders = generated.toArray(new Order[0]);
+    orderBytes = new byte[POOL][];
+    orderCodecBytes = new byte[POOL][];
+    for (int i = 0; i < POOL; i++) {
+      orderBytes[i] = encode(DOCUMENT_CODEC, App.toDocument(orders[i]));
+      orderCodecBytes[i] = encode(ModelCodecs.ORDER, orders[i]);
+    }
+  }
+
+  private static <T> byte[] encode(Codec<T> codec, T value) {
+    BasicOutputBuffer buffer = new BasicOutputBuffer();
+    codec.encode(new BsonBinaryWriter(buffer), value, ENCODE);
+    return buffer.toByteArray();
+  }
+
+  private static <T> T decode(Codec<T> codec, byte[] bytes) {
+    return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODE);
+  }
+
+  private int nextIndex() {
+    int index = next;
+    next = next + 1 == POOL ? 0 : next + 1;
+    return index;
+  }
+
+  @Benchmark
+  public Product documentToProduct() {
+    return App.toProduct(productDocuments[nextIndex()]);
+  }
+
+  @Benchmark
+  public Document productToDocument() {
+    return App.toDocument(products[nextIndex()]);
+  }
+
+  @Benchmark
+  public Document orderToDocument() {
+    return App.toDocument(orders[nextIndex()]);
+  }
+
+  @Benchmark
+  public Product loadProductViaDocument() {
+    return App.toProduct(decode(DOCUMENT_CODEC, productBytes[nextIndex()]));
+  }
+
+  @Benchmark
+  public Product loadProductViaCodec() {
+    return decode(ModelCodecs.PRODUCT, productCodecBytes[nextIndex()]);
+  }
+
+  @Benchmark
+  public Order loadOrderViaDocument() {
+    return App.toOrder(decode(DOCUMENT_CODEC, orderBytes[nextIndex()]));
+  }
+
+  @Benchmark
+  public Order loadOrderViaCodec() {
+    return decode(ModelCodecs.ORDER, orderCodecBytes[nextIndex()]);
+  }
+
+  @Benchmark
+  public byte[] saveProductViaDocument() {
+    return encode(DOCUMENT_CODEC, App.toDocument(products[nextIndex()]));
+  }
+
+  @Benchmark
+  public byte[] saveProductViaCodec() {
+    return encode(ModelCodecs.PRODUCT, products[nextIndex()]);
+  }
+
+  @Benchmark
+  public byte[] saveOrderViaDocument() {
+    return encode(DOCUMENT_CODEC, App.toDocument(orders[nextIndex()]));
+  }
+
+  @Benchmark
+  public byte[] saveOrderViaCodec() {
+    return encode(ModelCodecs.ORDER, orders[nextIndex()]);
+  }
+}
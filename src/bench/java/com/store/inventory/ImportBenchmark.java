@@ -0,0 +1,108 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to import a product catalog of {@code scale} rows from CSV or JSON
+ * Lines into an empty embedded store, including the search index and
+ * valuation App maintains for every product, and to export it again. The
+ * five million row runs need most of the 12 GB heap; pass {@code -p scale=1000000}
+ * on smaller machines.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImportBenchmark {
+  @Param({"1000000", "5000000"})
+  public int scale;
+
+  @Param({"csv", "jsonl"})
+  public String format;
+
+  private Path directory;
+  private Path catalog;
+  private Path export;
+  private LogStorage storage;
+
+  @Setup(Level.Trial)
+  public void writeCatalog() throws IOException {
+    directory = Files.createTempDirectory("inventory-import");
+    catalog = directory.resolve("catalog." + format);
+    export = directory.resolve("export." + format);
+    Random random = new Random(SyntheticData.SEED);
+    StringBuilder line = new StringBuilder(256);
+    try (Writer out = Files.newBufferedWriter(catalog, StandardCharsets.UTF_8)) {
+      if (format.equals("csv")) {
+        out.write(String.join(",", DataTransfer.PRODUCT_COLUMNS) + "\n");
+      }
+      for (int i = 0; i < scale; i++) {
+        Product product = SyntheticData.product(i, random);
+        line.setLength(0);
+        if (format.equals("csv")) {
+          line.append(product.getSku()).append(',').append(product.getName()).append(',')
+              .append(product.getDescription()).append(',').append(product.getQuantity()).append(',')
+              .append(product.getPrice()).append(',').append(product.getSupplierId()).append(',')
+              .append(product.getDateReceived());
+        } else {
+          line.append(App.toDocument(product).toJson());
+        }
+        out.append(line).append('\n');
+      }
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void openStore() throws IOException {
+    if (storage != null) {
+      storage.close();
+    }
+    Path data = directory.resolve("data");
+    if (Files.exists(data)) {
+      delete(data);
+    }
+    storage = new LogStorage(data, LogStorage.DEFAULT_SYNC_INTERVAL_MS, LogStorage.DEFAULT_COMPACT_MIN_BYTES,
+        SyntheticData.nullPrintStream());
+    App.useStorage(storage);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    storage.close();
+    delete(directory);
+  }
+
+  private static void delete(Path root) throws IOException {
+    try (Stream<Path> files = Files.walk(root)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public DataTransfer.Result importCatalog() throws Exception {
+    try (BufferedReader in = Files.newBufferedReader(catalog, StandardCharsets.UTF_8)) {
+      return new DataTransfer(DataTransfer.Kind.PRODUCTS, DataTransfer.Format.of(catalog),
+          Runtime.getRuntime().availableProcessors(), SyntheticData.nullPrintStream()).importFrom(in);
+    }
+  }
+
+  @Benchmark
+  public long importAndExport() throws Exception {
+    importCatalog();
+    return App.exportFile(DataTransfer.Kind.PRODUCTS, export);
+  }
+}
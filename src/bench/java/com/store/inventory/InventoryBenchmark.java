@@ -0,0 +1,82 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the inventory hot paths: SKU lookup, the report totals in
+ * generateInventoryReport (read from InventoryValuation, against the full scan
+ * it replaced) and the stock decrement in createSellOrder.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InventoryBenchmark {
+  @Param({"10000", "1000000", "10000000"})
+  public int scale;
+
+  private Map<String, Product> inventory;
+  private StockEngine stockEngine;
+  private InventoryValuation valuation;
+  private String[] skus;
+  private PrintStream out;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    inventory = SyntheticData.products(scale);
+    stockEngine = new StockEngine(inventory);
+    valuation = new InventoryValuation(inventory);
+    stockEngine.addListener(valuation);
+    skus = SyntheticData.skus(scale);
+    out = SyntheticData.nullPrintStream();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Product skuLookup() {
+    String sku = skus[next];
+    next = next + 1 == skus.length ? 0 : next + 1;
+    return inventory.get(sku);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void inventoryReport() {
+    App.printReportSummary(out, valuation);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public long inventoryReportScan() {
+    long totalItems = 0;
+    long totalValue = 0;
+    for (Product product : inventory.values()) {
+      totalItems += product.getQuantity();
+      totalValue += InventoryValuation.value(product.getQuantity(), product.getPrice());
+    }
+    return totalItems ^ totalValue;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public boolean decrementStock() {
+    String sku = skus[next];
+    next = next + 1 == skus.length ? 0 : next + 1;
+    if (stockEngine.available(sku) == 0) {
+      stockEngine.update(sku, 1000, null);
+      return false;
+    }
+    StockEngine.Reservation reservation = stockEngine.newReservation();
+    reservation.add(sku, 1);
+    reservation.commit();
+    return true;
+  }
+}
@@ -0,0 +1,196 @@
+package com.store.inventory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load test against a running {@link InventoryServer}: each
+ * client sends its next request as soon as the previous one is answered,
+ * mixing product lookups, text searches, sales, stock receipts and reports
+ * the way a till does. Seeds the products first (existing SKUs are left as
+ * they are) and reports throughput and latency percentiles per request type.
+ *
+ * <pre>
+ * java -Dinventory.storage=embedded -cp target/benchmarks.jar com.store.inventory.App --serve 8080
+ * java -cp target/benchmarks.jar com.store.inventory.LoadTest http://localhost:8080 1000 30 10000
+ * </pre>
+ *
+ * Arguments are the base URL, concurrent clients, seconds to run and products
+ * to seed. Clients run on virtual threads when the JDK has them.
+ */
+public class LoadTest {
+  private static final String[] OPERATIONS = {"lookup", "search", "sale", "receive", "report"};
+  /** Cumulative percentages for {@link #OPERATIONS}. */
+  private static final int[] MIX = {60, 80, 92, 97, 100};
+
+  private final String base;
+  private final int products;
+  private final HttpClient client;
+  private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+  private final LatencyHistogram overall = new LatencyHistogram();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final AtomicInteger orderIds = new AtomicInteger();
+  private volatile String lastError;
+  private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+  LoadTest(String base, int products) {
+    this.base = base;
+    this.products = products;
+    this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(10)).build();
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String base = args.length > 0 ? args[0] : "http://localhost:" + InventoryServer.DEFAULT_PORT;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    int products = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+    LoadTest test = new LoadTest(base, products);
+    test.seed();
+    test.run(clients, seconds);
+  }
+
+  private static ExecutorService newExecutor(int threads) {
+    ExecutorService virtual = InventoryServer.newVirtualThreadExecutor();
+    return virtual != null ? virtual : Executors.newFixedThreadPool(threads);
+  }
+
+  void seed() throws InterruptedException {
+    long start = System.nanoTime();
+    ExecutorService executor = newExecutor(64);
+    Random random = new Random(SyntheticData.SEED);
+    for (int i = 0; i < products; i++) {
+      Product product = SyntheticData.product(i, random);
+      // Plenty of stock so that sales are rarely turned down.
+      product.setQuantity(1_000_000);
+      String body = App.toDocument(product).toJson();
+      executor.execute(() -> {
+        try {
+          int status = send(HttpRequest.newBuilder(URI.create(base + "/products"))
+              .POST(HttpRequest.BodyPublishers.ofString(body)).build());
+          if (status != 201 && status != 409) {
+            failed.increment();
+          }
+        } catch (IOException e) {
+          failed.increment();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.HOURS);
+    System.out.printf("Seeded %d products in %d ms, %d failed.%n", products,
+        (System.nanoTime() - start) / 1_000_000, failed.sum());
+    failed.reset();
+  }
+
+  void run(int clients, int seconds) throws InterruptedException {
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+    ExecutorService executor = newExecutor(clients);
+    for (int i = 0; i < clients; i++) {
+      executor.execute(() -> {
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+          request();
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    report(clients, elapsed);
+  }
+
+  private void request() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int pick = random.nextInt(100);
+    int operation = 0;
+    while (pick >= MIX[operation]) {
+      operation++;
+    }
+    String sku = SyntheticData.sku(random.nextInt(products));
+    HttpRequest request;
+    switch (OPERATIONS[operation]) {
+      case "lookup":
+        request = HttpRequest.newBuilder(URI.create(base + "/products/" + sku)).build();
+        break;
+      case "search":
+        request = HttpRequest.newBuilder(URI.create(base + "/products?limit=20&q=product+"
+            + random.nextInt(products))).build();
+        break;
+      case "sale":
+        request = post("/sales", "{\"_id\": \"LS-" + runId + "-" + orderIds.incrementAndGet()
+            + "\", \"customerName\": \"Load test\", \"items\": [{\"sku\": \"" + sku + "\", \"quantity\": 1}]}");
+        break;
+      case "receive":
+        request = post("/orders", "{\"_id\": \"LR-" + runId + "-" + orderIds.incrementAndGet()
+            + "\", \"supplierId\": \"SUP1\", \"items\": [{\"sku\": \"" + sku + "\", \"quantity\": 1}]}");
+        break;
+      default:
+        request = HttpRequest.newBuilder(URI.create(base + "/report")).build();
+    }
+    long start = System.nanoTime();
+    try {
+      int status = send(request);
+      if (status == 409) {
+        rejected.increment();
+      } else if (status >= 400) {
+        failed.increment();
+      }
+    } catch (IOException e) {
+      failed.increment();
+      lastError = e.toString();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    long nanos = System.nanoTime() - start;
+    latencies[operation].record(nanos);
+    overall.record(nanos);
+  }
+
+  private HttpRequest post(String path, String body) {
+    return HttpRequest.newBuilder(URI.create(base + path)).header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+  }
+
+  private int send(HttpRequest request) throws IOException, InterruptedException {
+    return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private void report(int clients, double seconds) {
+    System.out.printf("%d clients for %.1f s: %d requests, %d rejected (409), %d failed.%n", clients, seconds,
+        overall.getCount(), rejected.sum(), failed.sum());
+    if (lastError != null) {
+      System.out.println("Last failure: " + lastError);
+    }
+    System.out.printf("%-8s %10s %10s %9s %9s %9s %9s%n", "Request", "Count", "Req/s", "p50 ms", "p99 ms",
+        "p99.9 ms", "Max ms");
+    for (int i = 0; i < OPERATIONS.length; i++) {
+      print(OPERATIONS[i], latencies[i].snapshot(), seconds);
+    }
+    print("all", overall.snapshot(), seconds);
+  }
+
+  private static void print(String name, LatencyHistogram.Snapshot snapshot, double seconds) {
+    System.out.printf("%-8s %10d %10.0f %9.2f %9.2f %9.2f %9.2f%n", name, snapshot.getCount(),
+        snapshot.getCount() / seconds, snapshot.getValueAt(0.5) / 1e6, snapshot.getValueAt(0.99) / 1e6,
+        snapshot.getValueAt(0.999) / 1e6, snapshot.getMax() / 1e6);
+  }
+}
@@ -0,0 +1,102 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Places {@code batchSize} sell orders of three lines each into the embedded
+ * store, one at a time as the menu, batch mode and POST /sales do, and as one
+ * {@link OrderBatch}. Scores are invocations per second; multiply by
+ * {@code batchSize} for orders per second. With {@code journal=true} every
+ * write waits for the journal sync, which the orders of a batch share.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OrderBatchBenchmark {
+  @Param({"100000"})
+  public int scale;
+
+  @Param({"100", "1000"})
+  public int batchSize;
+
+  @Param({"false", "true"})
+  public boolean journal;
+
+  private Path directory;
+  private Storage storage;
+  private String[] skus;
+  private final Random random = new Random(SyntheticData.SEED);
+  private long next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-batch-bench");
+    Storage backing = new LogStorage(directory, LogStorage.DEFAULT_SYNC_INTERVAL_MS,
+        LogStorage.DEFAULT_COMPACT_MIN_BYTES, SyntheticData.nullPrintStream());
+    storage = journal ? new JournaledStorage(backing, directory.resolve("orders.journal"),
+        JournaledStorage.DEFAULT_RESET_BYTES, SyntheticData.nullPrintStream()) : backing;
+    App.useStorage(storage);
+    for (int i = 0; i < scale; i++) {
+      Product product = SyntheticData.product(i, random);
+      // Enough stock that no run sells out.
+      product.setQuantity(1_000_000_000);
+      App.putProduct(product);
+    }
+    App.flushWrites();
+    skus = SyntheticData.skus(scale);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    storage.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private List<OrderItem> lines() {
+    List<OrderItem> items = new ArrayList<>(3);
+    for (int i = 0; i < 3; i++) {
+      items.add(new OrderItem(skus[random.nextInt(skus.length)], 1 + random.nextInt(3)));
+    }
+    return items;
+  }
+
+  @Benchmark
+  public int oneAtATime() {
+    for (int i = 0; i < batchSize; i++) {
+      List<OrderItem> items = lines();
+      StockEngine.Reservation reservation = App.stockEngine().reserve(items);
+      try {
+        App.sellOrder(new SellOrder("SO" + next++, "Till", App.priceLines(items), LocalDate.now()), reservation);
+      } finally {
+        reservation.release();
+      }
+    }
+    return batchSize;
+  }
+
+  @Benchmark
+  public OrderBatch.Result batch() {
+    List<Order> orders = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      orders.add(new SellOrder("SO" + next++, "Till", lines(), LocalDate.now()));
+    }
+    return OrderBatch.place(orders);
+  }
+}
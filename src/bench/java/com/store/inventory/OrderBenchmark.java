@@ -0,0 +1,71 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the order listing in viewOrders, which renders the prices and
+ * totals stored on each order, against the printf loop it replaced that
+ * joined every line with the live inventory. The order count follows
+ * {@code scale}; the catalog is a tenth of that so the largest run still fits
+ * in an 8 GB heap.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OrderBenchmark {
+  @Param({"10000", "1000000", "10000000"})
+  public int scale;
+
+  private Map<String, Product> inventory;
+  private List<Order> orders;
+  private PrintStream out;
+  private TableRenderer renderer;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int productCount = Math.max(1000, scale / 10);
+    inventory = SyntheticData.products(productCount);
+    orders = SyntheticData.orders(scale, productCount);
+    out = SyntheticData.nullPrintStream();
+    renderer = new TableRenderer(SyntheticData.nullWriter(), true);
+  }
+
+  @Benchmark
+  public void viewOrders() {
+    for (Order order : orders) {
+      renderer.order(order);
+    }
+    renderer.flush();
+  }
+
+  @Benchmark
+  public void printfBaseline() {
+    for (Order order : orders) {
+      out.printf("Order ID: %s%n", order.getOrderId());
+      out.printf("Supplier ID: %s%n", order.getSupplierId());
+      out.printf("Order Date: %s%n", order.getOrderDate());
+      out.println("Items:");
+      out.printf("  %-10s %-20s %-10s %-10s %-10s%n", "SKU", "Name", "Quantity", "Price", "Total");
+      out.println("  " + String.join("", Collections.nCopies(20, "-")));
+      double orderTotal = 0;
+      for (OrderItem item : order.getItems()) {
+        Product product = inventory.get(item.getSku());
+        double itemTotal = item.getQuantity() * product.getPrice();
+        orderTotal += itemTotal;
+        out.printf("  %-10s %-20s %-10d Rs. %-9.2f Rs. %-9.2f%n",
+            item.getSku(), product.getName(), item.getQuantity(), product.getPrice(), itemTotal);
+      }
+      out.println(String.join("", Collections.nCopies(20, "-")));
+      out.println(App.ANSI_GREEN + "  Total Order Value: Rs. " + String.format("%.2f", orderTotal) + App.ANSI_RESET);
+      out.println();
+    }
+  }
+}
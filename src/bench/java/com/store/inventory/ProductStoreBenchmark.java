@@ -0,0 +1,60 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the columnar ProductStore with the HashMap of Product objects it
+ * replaced: a full valuation scan as the report used to do it, and SKU
+ * lookups. Only one layout is built per trial so the 10M run fits the heap.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ProductStoreBenchmark {
+  @Param({"10000", "1000000", "10000000"})
+  public int scale;
+
+  @Param({"map", "store"})
+  public String layout;
+
+  private Map<String, Product> products;
+  private String[] skus;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    products = layout.equals("store") ? SyntheticData.store(scale) : SyntheticData.products(scale);
+    skus = SyntheticData.skus(scale);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public long reportScan() {
+    long[] totals = new long[2];
+    if (products instanceof ProductStore) {
+      ((ProductStore) products).scan((sku, supplierId, quantity, price) -> {
+        totals[0] += quantity;
+        totals[1] += quantity * price;
+      });
+    } else {
+      for (Product product : products.values()) {
+        totals[0] += product.getQuantity();
+        totals[1] += InventoryValuation.value(product.getQuantity(), product.getPrice());
+      }
+    }
+    return totals[0] ^ totals[1];
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int skuLookup() {
+    String sku = skus[next];
+    next = next + 1 == skus.length ? 0 : next + 1;
+    return products.get(sku).getQuantity();
+  }
+}
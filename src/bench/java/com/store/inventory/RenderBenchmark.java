@@ -0,0 +1,72 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the full inventory listing through TableRenderer and through the
+ * per-row printf loop viewInventory used before, both into an autoflushing
+ * sink like stdout so encoding and flushing costs are included.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RenderBenchmark {
+  @Param({"10000", "1000000"})
+  public int scale;
+
+  private List<Product> products;
+  private OutputStream sink;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    products = new ArrayList<>(SyntheticData.products(scale).values());
+    sink = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+  }
+
+  @Benchmark
+  public void renderer() {
+    TableRenderer renderer = new TableRenderer(
+        new BufferedWriter(new OutputStreamWriter(sink, StandardCharsets.UTF_8), 1 << 16), true);
+    renderer.inventoryHeader();
+    for (Product product : products) {
+      renderer.inventoryRow(product);
+    }
+    renderer.flush();
+  }
+
+  @Benchmark
+  public void printfBaseline() {
+    PrintStream out = new PrintStream(sink, true);
+    out.printf("%-10s %-20s %-10s %-10s %-15s %-15s%n", "SKU", "Name", "Quantity", "Price", "Supplier ID",
+        "Date Received");
+    for (Product product : products) {
+      out.printf("%-10s %-20s %-10d Rs. %-9.2f %-15s %-15s%n",
+          product.getSku(),
+          product.getName(),
+          product.getQuantity(),
+          product.getPrice(),
+          product.getSupplierId(),
+          product.getDateReceived());
+    }
+    out.flush();
+  }
+}
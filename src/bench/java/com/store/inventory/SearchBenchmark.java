@@ -0,0 +1,55 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks ProductIndex lookups against a linear scan of the inventory.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+  @Param({"10000", "1000000"})
+  public int scale;
+
+  private Map<String, Product> inventory;
+  private ProductIndex index;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    inventory = SyntheticData.products(scale);
+    index = new ProductIndex(inventory);
+  }
+
+  @Benchmark
+  public List<Product> textSearch() {
+    return index.searchText("number 4242", 50);
+  }
+
+  @Benchmark
+  public List<Product> supplierLookup() {
+    return index.bySupplier("SUP42");
+  }
+
+  @Benchmark
+  public List<Product> dateRange() {
+    return index.receivedBetween("2021-03-01", "2021-03-07", 50);
+  }
+
+  @Benchmark
+  public int linearScan() {
+    int matches = 0;
+    for (Product product : inventory.values()) {
+      if (product.getDescription().toLowerCase().contains("number 4242")) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+}
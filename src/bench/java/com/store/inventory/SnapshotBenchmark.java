@@ -0,0 +1,43 @@
+package com.store.inventory;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to restore the inventory and orders from a snapshot file, the warm
+ * path of MongoStorage.open before any changes are replayed. Orders are a
+ * tenth of {@code scale}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotBenchmark {
+  @Param({"10000", "1000000", "10000000"})
+  public int scale;
+
+  private Path file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    file = Files.createTempFile("inventory", ".snapshot");
+    Snapshot.write(file, "{}", SyntheticData.products(scale), Collections.emptyMap(),
+        SyntheticData.orders(Math.max(1000, scale / 10), scale));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public Snapshot load() throws IOException {
+    return Snapshot.read(file);
+  }
+}
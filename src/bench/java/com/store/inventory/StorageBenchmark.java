@@ -0,0 +1,160 @@
+package com.store.inventory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Compares the embedded log storage with MongoDB on order write throughput
+ * and on the time to recover {@code scale} products and as many orders after
+ * a restart. The mongo runs need a server at {@code -Dinventory.mongo.uri}
+ * (a replica set, as orders use transactions) and drop the
+ * {@code inventory_bench} database; run only the embedded ones with
+ * {@code -p storage=embedded}.
+ *
+ * With {@code journal=true} orders go through a {@link JournaledStorage} and
+ * each write returns only once it is synced to disk; the concurrent variant
+ * shows how many orders share one sync.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class StorageBenchmark {
+  private static final String DATABASE = "inventory_bench";
+
+  @State(Scope.Benchmark)
+  public static class Target {
+    @Param({"embedded", "mongo"})
+    public String storage;
+
+    @Param({"10000", "100000"})
+    public int scale;
+
+    @Param({"false", "true"})
+    public boolean journal;
+
+    Path directory;
+
+    Storage create() {
+      Storage backing = storage.equals("embedded")
+          ? new LogStorage(directory, LogStorage.DEFAULT_SYNC_INTERVAL_MS, LogStorage.DEFAULT_COMPACT_MIN_BYTES,
+              SyntheticData.nullPrintStream())
+          : new MongoStorage(System.getProperty("inventory.mongo.uri", MongoStorage.DEFAULT_URI), DATABASE, null,
+              SyntheticData.nullPrintStream());
+      return journal ? new JournaledStorage(backing, directory.resolve("orders.journal"),
+          JournaledStorage.DEFAULT_RESET_BYTES, SyntheticData.nullPrintStream()) : backing;
+    }
+
+    /** Starts from an empty store holding {@code scale} products. */
+    Storage fill() throws IOException {
+      directory = Files.createTempDirectory("inventory-bench");
+      if (storage.equals("mongo")) {
+        try (MongoClient client = MongoClients.create(System.getProperty("inventory.mongo.uri",
+            MongoStorage.DEFAULT_URI))) {
+          client.getDatabase(DATABASE).drop();
+        }
+      }
+      Storage target = create();
+      target.open();
+      Random random = new Random(SyntheticData.SEED);
+      for (int i = 0; i < scale; i++) {
+        Product product = SyntheticData.product(i, random);
+        target.products().put(product.getSku(), product);
+        target.saveProduct(product);
+      }
+      target.flush();
+      return target;
+    }
+
+    void delete() throws IOException {
+      try (Stream<Path> files = Files.walk(directory)) {
+        for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Writes extends Target {
+    Storage target;
+    String[] skus;
+    final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      target = fill();
+      skus = SyntheticData.skus(scale);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      target.close();
+      delete();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Recovery extends Target {
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      Storage target = fill();
+      String[] skus = SyntheticData.skus(scale);
+      for (int i = 0; i < scale; i++) {
+        String sku = skus[i];
+        target.writeOrder(Collections.singletonMap(sku, 1), new Order("PO" + i, "SUP1",
+            Collections.singletonList(new OrderItem(sku, "Product", 1, 100)), LocalDate.of(2024, 1, 1)));
+      }
+      target.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      delete();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public Object writeOrder(Writes state) {
+    return write(state);
+  }
+
+  @Benchmark
+  @Threads(16)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public Object writeOrderConcurrent(Writes state) {
+    return write(state);
+  }
+
+  private static Object write(Writes state) {
+    int i = state.next.getAndIncrement();
+    String sku = state.skus[i % state.skus.length];
+    return state.target.writeOrder(Collections.singletonMap(sku, 1), new Order("W" + i, "SUP1",
+        Collections.singletonList(new OrderItem(sku, "Product", 1, 100)), LocalDate.of(2024, 1, 1)));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int recover(Recovery state) {
+    Storage storage = state.create();
+    storage.open();
+    storage.awaitOrders();
+    int size = storage.products().size() + storage.orders().size();
+    storage.close();
+    return size;
+  }
+}
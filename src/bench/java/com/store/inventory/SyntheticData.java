@@ -0,0 +1,117 @@
+package com.store.inventory;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Deterministic generator for benchmark data sets. The same scale and seed
+ * always produce the same products and orders so runs can be compared.
+ */
+public final class SyntheticData {
+  public static final long SEED = 42L;
+  public static final int SUPPLIERS = 1000;
+
+  private static final LocalDate EPOCH = LocalDate.of(2020, 1, 1);
+
+  private SyntheticData() {
+  }
+
+  public static String sku(int i) {
+    return "SKU" + i;
+  }
+
+  public static Product product(int i, Random random) {
+    return new Product(
+        sku(i),
+        "Product " + i,
+        "Synthetic product number " + i,
+        random.nextInt(1000),
+        (random.nextInt(100000) + 1) / 100.0,
+        "SUP" + random.nextInt(SUPPLIERS),
+        EPOCH.plusDays(random.nextInt(1500)).toString());
+  }
+
+  public static Map<String, Product> products(int count) {
+    Random random = new Random(SEED);
+    Map<String, Product> products = new HashMap<>((int) (count / 0.75f) + 1);
+    for (int i = 0; i < count; i++) {
+      Product product = product(i, random);
+      products.put(product.getSku(), product);
+    }
+    return products;
+  }
+
+  public static ProductStore store(int count) {
+    Random random = new Random(SEED);
+    ProductStore store = new ProductStore(count);
+    for (int i = 0; i < count; i++) {
+      Product product = product(i, random);
+      store.put(product.getSku(), product);
+    }
+    return store;
+  }
+
+  public static String[] skus(int count) {
+    String[] skus = new String[count];
+    for (int i = 0; i < count; i++) {
+      skus[i] = sku(i);
+    }
+    return skus;
+  }
+
+  /**
+   * Builds {@code count} orders over products {@code 0..productCount-1}. Every
+   * fourth order is a sell order; each order has one to eight lines.
+   */
+  public static List<Order> orders(int count, int productCount) {
+    Random random = new Random(SEED + 1);
+    List<Order> orders = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int lines = 1 + random.nextInt(8);
+      List<OrderItem> items = new ArrayList<>(lines);
+      for (int j = 0; j < lines; j++) {
+        int product = random.nextInt(productCount);
+        items.add(new OrderItem(sku(product), "Product " + product, 1 + random.nextInt(20),
+            1 + random.nextInt(100000)));
+      }
+      LocalDate date = EPOCH.plusDays(random.nextInt(1500));
+      if (i % 4 == 3) {
+        orders.add(new SellOrder("SO" + i, "Customer " + random.nextInt(10000), items, date));
+      } else {
+        orders.add(new Order("PO" + i, "SUP" + random.nextInt(SUPPLIERS), items, date));
+      }
+    }
+    return orders;
+  }
+
+  public static Writer nullWriter() {
+    return new Writer() {
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  public static PrintStream nullPrintStream() {
+    return new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    });
+  }
+}
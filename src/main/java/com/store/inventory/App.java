@@ -1,21 +1,39 @@
 package com.store.inventory;
 
-import com.mongodb.client.*;
-import com.mongodb.client.model.Filters;
 import org.bson.Document;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 public class App {
-  private static MongoClient mongoClient;
-  private static MongoDatabase database;
-  private static MongoCollection<Document> productCollection;
-  private static MongoCollection<Document> supplierCollection;
-  private static MongoCollection<Document> orderCollection;
-
-  private static Map<String, Product> inventory = new HashMap<>();
-  private static Map<String, Supplier> suppliers = new HashMap<>();
+  private static Storage storage;
+  private static MongoStorage mongoStorage;
+  private static JournaledStorage journaledStorage;
+  private static InventoryServer server;
+  private static StockLedger ledger;
+  private static Path ledgerDirectory;
+  private static OrderArchive archive;
+  private static Path archiveDirectory;
+
+  private static Map<String, Product> inventory = new ProductStore();
+  private static Map<String, Supplier> suppliers = new ConcurrentHashMap<>();
+  private static StockEngine stockEngine = new StockEngine(inventory);
+  private static ProductIndex productIndex = new ProductIndex(inventory);
+  private static InventoryValuation valuation = newValuation();
   private static List<Order> orders = new ArrayList<>();
+  private static PrintStream log = System.out;
+  private static SalesAnalytics analytics = new SalesAnalytics(orders, inventory, log);
+  private static ReorderEngine reorder;
+  /** Serializes adding, replacing and removing products so the index and storage see them in map order. */
+  private static final Object catalogLock = new Object();
 
   public static final String ANSI_RESET = "\u001B[0m";
   public static final String ANSI_RED = "\u001B[31m";
@@ -25,38 +43,51 @@ public class App {
   public static final String ANSI_PURPLE = "\u001B[35m";
   public static final String ANSI_CYAN = "\u001B[36m";
 
+  private static final int SEARCH_LIMIT = 50;
+  private static final int DEFAULT_PAGE_SIZE = 20;
+  private static final int REORDER_HISTORY_DAYS = 90;
+
+  private static final String[] MENU = {"Add Product", "View Inventory", "Update Product", "Remove Product",
+      "Search Product", "Generate Inventory Report", "Add Supplier", "View Suppliers", "Create Order", "View Orders",
+      "Create Sell Order", "Import Data", "Export Data", "Stock on Date", "Sales Analytics",
+      "Reorder Suggestions", "Statistics", "Exit"};
+
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("--batch")) {
+      System.exit(runBatch(args));
+    }
+    if (args.length == 2 && args[0].equals("--orders")) {
+      System.exit(runOrders(Paths.get(args[1])));
+    }
+    if (args.length == 3 && (args[0].equals("--import") || args[0].equals("--export"))) {
+      System.exit(runTransfer(args[0].equals("--import"), args[1], Paths.get(args[2])));
+    }
+    if (args.length > 0 && args[0].equals("--serve")) {
+      System.exit(runServer(args.length > 1 ? Integer.parseInt(args[1]) : InventoryServer.DEFAULT_PORT));
+    }
     try {
-      initializeMongoDB();
-      loadDataFromMongo();
+      initializeStorage();
+      loadData();
       Scanner scanner = new Scanner(System.in);
       boolean running = true;
 
       while (running) {
         System.out.println(ANSI_PURPLE + "\n---- Inventory Management System ----" + ANSI_RESET);
-        System.out.println("1. Add Product");
-        System.out.println("2. View Inventory");
-        System.out.println("3. Update Product");
-        System.out.println("4. Remove Product");
-        System.out.println("5. Search Product");
-        System.out.println("6. Generate Inventory Report");
-        System.out.println("7. Add Supplier");
-        System.out.println("8. View Suppliers");
-        System.out.println("9. Create Order");
-        System.out.println("10. View Orders");
-        System.out.println("11. Create Sell Order");
-        System.out.println("12. Exit" + ANSI_RESET);
+        for (int i = 0; i < MENU.length; i++) {
+          System.out.println((i + 1) + ". " + MENU[i]);
+        }
         System.out.print(ANSI_CYAN + "Choose an option: " + ANSI_RESET);
 
         try {
           int option = scanner.nextInt();
           scanner.nextLine();
+          long start = System.nanoTime();
           switch (option) {
             case 1:
               addProduct(scanner);
               break;
             case 2:
-              viewInventory();
+              viewInventory(scanner);
               break;
             case 3:
               updateProduct(scanner);
@@ -68,7 +99,7 @@ public class App {
               searchProduct(scanner);
               break;
             case 6:
-              generateInventoryReport();
+              generateInventoryReport(scanner);
               break;
             case 7:
               addSupplier(scanner);
@@ -80,93 +111,427 @@ public class App {
               createOrder(scanner);
               break;
             case 10:
-              viewOrders();
+              viewOrders(scanner);
               break;
             case 11:
               createSellOrder(scanner);
               break;
             case 12:
+              importData(scanner);
+              break;
+            case 13:
+              exportData(scanner);
+              break;
+            case 14:
+              stockOnDate(scanner);
+              break;
+            case 15:
+              salesAnalytics(scanner);
+              break;
+            case 16:
+              reorderSuggestions();
+              break;
+            case 17:
+              Metrics.report(System.out);
+              break;
+            case 18:
               running = false;
               break;
             default:
               System.out.println(ANSI_RED + "Invalid option! Try again." + ANSI_RESET);
           }
+          if (option >= 1 && option <= MENU.length) {
+            Metrics.MENU.get(MENU[option - 1].toLowerCase(Locale.ROOT).replace(' ', '-')).recordSince(start);
+          }
         } catch (InputMismatchException e) {
           System.out.println(ANSI_RED + "Invalid input. Please enter a number." + ANSI_RESET);
           scanner.nextLine();
         }
       }
 
-      closeMongoDB();
       scanner.close();
     } catch (Exception e) {
       System.out.println(ANSI_RED + "An unexpected error occurred: " + e.getMessage() + ANSI_RESET);
+    } finally {
+      closeStorage();
     }
   }
 
-  private static void initializeMongoDB() {
-    mongoClient = MongoClients.create("mongodb://localhost:27017/inventory");
-    database = mongoClient.getDatabase("inventory_management");
-    productCollection = database.getCollection("products");
-    supplierCollection = database.getCollection("suppliers");
-    orderCollection = database.getCollection("orders");
+  private static int runBatch(String[] args) {
+    log = System.err;
+    String input = args.length > 1 ? args[1] : "-";
+    String output = args.length > 2 ? args[2] : "-";
+    try (BufferedReader in = input.equals("-")
+        ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+        : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+        Writer out = output.equals("-")
+            ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+            : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+      initializeStorage();
+      loadData();
+      BatchRunner.Result result = new BatchRunner(in, out).run();
+      log.println(result);
+      return result.getFailed() == 0 ? 0 : 1;
+    } catch (Exception e) {
+      log.println("Batch run failed: " + e.getMessage());
+      return 2;
+    } finally {
+      closeStorage();
+    }
   }
 
-  private static void loadDataFromMongo() {
-    loadProductsFromMongo();
-    loadSuppliersFromMongo();
-    loadOrdersFromMongo();
+  /** Places a file of receive-order and sell-order lines as one batch. */
+  private static int runOrders(Path file) {
+    log = System.err;
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      initializeStorage();
+      loadData();
+      OrderBatch.Result result = OrderBatch.place(OrderBatch.read(in));
+      result.getRejected().forEach((index, error) -> log.println("Order " + (index + 1) + ": " + error));
+      log.println(result);
+      return result.getRejected().isEmpty() ? 0 : 1;
+    } catch (Exception e) {
+      log.println("Placing orders failed: " + e.getMessage());
+      return 2;
+    } finally {
+      closeStorage();
+    }
   }
 
-  private static void loadProductsFromMongo() {
-    FindIterable<Document> documents = productCollection.find();
-    for (Document doc : documents) {
-      String sku = doc.getString("_id");
-      String name = doc.getString("name");
-      String description = doc.getString("description");
-      int quantity = doc.getInteger("quantity");
-      double price = doc.getDouble("price");
-      String supplierId = doc.getString("supplierId");
-      String dateReceived = doc.getString("dateReceived");
+  private static int runTransfer(boolean importing, String kind, Path file) {
+    log = System.err;
+    try {
+      initializeStorage();
+      loadData();
+      DataTransfer.Kind type = DataTransfer.Kind.parse(kind);
+      if (!importing) {
+        log.println("Exported " + exportFile(type, file) + " " + kind + " to " + file + ".");
+        return 0;
+      }
+      DataTransfer.Result result = importFile(type, file);
+      log.println(result);
+      return result.getRejected() == 0 ? 0 : 1;
+    } catch (Exception e) {
+      log.println((importing ? "Import" : "Export") + " failed: " + e.getMessage());
+      return 2;
+    } finally {
+      closeStorage();
+    }
+  }
 
-      Product product = new Product(sku, name, description, quantity, price, supplierId, dateReceived);
-      inventory.put(sku, product);
+  private static int runServer(int port) {
+    try {
+      initializeStorage();
+      loadData();
+      reorder.setAlertListener(suggestion ->
+          log.println(ANSI_YELLOW + "Low stock: " + suggestion + ANSI_RESET));
+      server = new InventoryServer(port, log);
+      server.start();
+      log.println(ANSI_GREEN + "Serving the inventory on port " + server.getPort() + " with "
+          + server.getThreading() + "." + ANSI_RESET);
+      Thread.currentThread().join();
+      return 0;
+    } catch (InterruptedException e) {
+      return 0;
+    } catch (Exception e) {
+      log.println(ANSI_RED + "Server failed: " + e.getMessage() + ANSI_RESET);
+      return 2;
+    } finally {
+      closeStorage();
     }
   }
 
-  private static void loadSuppliersFromMongo() {
-    FindIterable<Document> documents = supplierCollection.find();
-    for (Document doc : documents) {
-      String id = doc.getString("_id");
-      String name = doc.getString("name");
-      String contact = doc.getString("contact");
+  /**
+   * Opens the storage chosen with {@code -Dinventory.storage}: {@code mongo}
+   * (the default) or {@code embedded}, a log file under
+   * {@code -Dinventory.storage.dir} for stores without a MongoDB server.
+   * Orders go through the journal at {@code -Dinventory.journal}, which
+   * defaults to orders.journal with MongoDB and to none with the log store.
+   * Metrics are written every {@code -Dinventory.metrics.intervalMs} to
+   * {@code -Dinventory.metrics.file}; an empty value turns the dump off.
+   * Stock movements go to the ledger in {@code -Dinventory.ledger.dir},
+   * which is also turned off by an empty value. Sales analytics run in
+   * MongoDB rather than in memory with {@code -Dinventory.analytics=mongo}.
+   * Reorder suggestions weigh sales with a half-life of
+   * {@code -Dinventory.reorder.halfLifeDays} and flag SKUs with less than
+   * {@code -Dinventory.reorder.coverDays} of stock, ordering enough for
+   * {@code -Dinventory.reorder.targetDays}.
+   * With MongoDB, {@code -Dinventory.cache.size} caps the products kept in
+   * memory for catalogs too large to load; orders are then read by date range
+   * and sales analytics run in MongoDB.
+   * With {@code -Dinventory.archive.dir} set, orders older than
+   * {@code -Dinventory.archive.days} move out of storage into monthly
+   * segments there when the data is loaded.
+   */
+  private static void initializeStorage() {
+    String kind = System.getProperty("inventory.storage", "mongo");
+    switch (kind) {
+      case "mongo":
+        mongoStorage = new MongoStorage(System.getProperty("inventory.mongo.uri", MongoStorage.DEFAULT_URI),
+            System.getProperty("inventory.mongo.database", MongoStorage.DEFAULT_DATABASE), snapshotPath(),
+            Integer.getInteger("inventory.cache.size", 0), log);
+        storage = mongoStorage;
+        break;
+      case "embedded":
+        storage = new LogStorage(Paths.get(System.getProperty("inventory.storage.dir", "inventory-data")),
+            Long.getLong("inventory.storage.syncMs", LogStorage.DEFAULT_SYNC_INTERVAL_MS),
+            LogStorage.DEFAULT_COMPACT_MIN_BYTES, log);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown storage: " + kind);
+    }
+    String journal = System.getProperty("inventory.journal", kind.equals("mongo") ? "orders.journal" : "");
+    if (!journal.isEmpty()) {
+      JournaledStorage journaled = new JournaledStorage(storage, Paths.get(journal),
+          Long.getLong("inventory.journal.resetBytes", JournaledStorage.DEFAULT_RESET_BYTES), log);
+      journaled.setRejectionListener(App::rollBack);
+      journaledStorage = journaled;
+      storage = journaled;
+    }
+    storage = new InstrumentedStorage(storage);
+    String metrics = System.getProperty("inventory.metrics.file", "inventory-metrics.prom");
+    if (!metrics.isEmpty()) {
+      Metrics.startDump(Paths.get(metrics), Long.getLong("inventory.metrics.intervalMs", 15000), log);
+    }
+    String ledgerDir = System.getProperty("inventory.ledger.dir", "inventory-ledger");
+    ledgerDirectory = ledgerDir.isEmpty() ? null : Paths.get(ledgerDir);
+    String archiveDir = System.getProperty("inventory.archive.dir", "");
+    archiveDirectory = archiveDir.isEmpty() ? null : Paths.get(archiveDir);
+    Runtime.getRuntime().addShutdownHook(new Thread(App::closeStorage, "storage-shutdown"));
+  }
 
-      Supplier supplier = new Supplier(id, name, contact);
-      suppliers.put(id, supplier);
+  private static void loadData() {
+    storage.open();
+    inventory = storage.products();
+    suppliers = storage.suppliers();
+    orders = storage.orders();
+    stockEngine = new StockEngine(inventory);
+    long start = System.nanoTime();
+    productIndex = mongoStorage != null ? mongoStorage.productIndex() : new ProductIndex(inventory);
+    Metrics.LOAD.get("index").recordSince(start);
+    start = System.nanoTime();
+    valuation = newValuation();
+    Metrics.LOAD.get("valuation").recordSince(start);
+    if (archiveDirectory != null) {
+      OrderArchive opened = new OrderArchive(archiveDirectory, log);
+      try {
+        opened.open();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot open the order archive", e);
+      }
+      useArchive(opened, LocalDate.now().minusDays(
+          Integer.getInteger("inventory.archive.days", OrderArchive.DEFAULT_AGE_DAYS)));
+    }
+    analytics = new SalesAnalytics(orders, inventory, log);
+    reorder = new ReorderEngine(inventory,
+        doubleProperty("inventory.reorder.halfLifeDays", ReorderEngine.DEFAULT_HALF_LIFE_DAYS),
+        doubleProperty("inventory.reorder.coverDays", ReorderEngine.DEFAULT_COVER_DAYS),
+        doubleProperty("inventory.reorder.targetDays", ReorderEngine.DEFAULT_TARGET_DAYS));
+    stockEngine.addListener(reorder);
+    if (caching()) {
+      // Only orders placed from now on are kept; seed from the recent ones in MongoDB instead.
+      reorder.start(() -> mongoStorage.ordersBetween(LocalDate.now().minusDays(REORDER_HISTORY_DAYS),
+          LocalDate.now().minusDays(1)));
+    } else {
+      reorder.start(App::orders);
+    }
+    if (ledgerDirectory != null) {
+      StockLedger opened = new StockLedger(ledgerDirectory,
+          Integer.getInteger("inventory.ledger.partitions", StockLedger.DEFAULT_PARTITIONS),
+          Long.getLong("inventory.ledger.snapshotBytes", StockLedger.DEFAULT_SNAPSHOT_BYTES), log);
+      try {
+        opened.open();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot open the stock ledger", e);
+      }
+      useLedger(opened);
+    }
+    if (mongoStorage != null && mongoStorage.followChanges(remoteChanges())) {
+      log.println(ANSI_GREEN + "Following changes made by other processes." + ANSI_RESET);
     }
   }
 
-  private static void loadOrdersFromMongo() {
-    FindIterable<Document> documents = orderCollection.find();
-    for (Document doc : documents) {
-      String orderId = doc.getString("_id");
-      String supplierId = doc.getString("supplierId");
-      List<Document> itemDocs = doc.getList("items", Document.class);
-      List<OrderItem> items = new ArrayList<>();
-      for (Document itemDoc : itemDocs) {
-        String sku = itemDoc.getString("sku");
-        int quantity = itemDoc.getInteger("quantity");
-        items.add(new OrderItem(sku, quantity));
+  private static double doubleProperty(String name, double defaultValue) {
+    String value = System.getProperty(name);
+    return value == null || value.isEmpty() ? defaultValue : Double.parseDouble(value);
+  }
+
+  /**
+   * Records stock movements in {@code ledger}, or stops recording them if it
+   * is null. Storage is the record of current stock, since it is shared with
+   * other processes and the ledger may miss its last second after a crash,
+   * so any SKU the ledger disagrees with gets a correcting entry first. When
+   * products are cached, each SKU is checked when it is first loaded instead.
+   */
+  static void useLedger(StockLedger ledger) {
+    App.ledger = ledger;
+    if (ledger == null) {
+      return;
+    }
+    if (inventory instanceof ProductCache) {
+      reconcileOnLoad(ledger, (ProductCache) inventory);
+      return;
+    }
+    long start = System.nanoTime();
+    int[] corrected = new int[1];
+    for (Product product : inventory.values()) {
+      if (reconcile(ledger, product.getSku(), product.getQuantity())) {
+        corrected[0]++;
       }
-      LocalDate orderDate = LocalDate.parse(doc.getString("orderDate"));
+    }
+    ledger.forEach((sku, quantity) -> {
+      if (quantity != 0 && !inventory.containsKey(sku)) {
+        ledger.set(sku, StockLedger.Reason.RECONCILE, 0, null);
+        corrected[0]++;
+      }
+    });
+    Metrics.LOAD.get("ledger-reconcile").recordSince(start);
+    if (corrected[0] > 0) {
+      log.println(ANSI_YELLOW + "Stock ledger: recorded " + corrected[0] + " opening or correcting entries."
+          + ANSI_RESET);
+    }
+  }
 
-      Order order = new Order(orderId, supplierId, items, orderDate);
-      orders.add(order);
+  /**
+   * Reconciles {@code ledger} with each product as {@code cache} loads it,
+   * and with a SKU it finds missing as with a removed product. A product is
+   * reconciled again when reloaded after an eviction, unless journaled orders
+   * for it have not reached MongoDB yet, which would then lag the ledger.
+   * Only cached SKUs are remembered as reconciled.
+   */
+  private static void reconcileOnLoad(StockLedger ledger, ProductCache cache) {
+    Set<String> reconciled = ConcurrentHashMap.newKeySet();
+    cache.addEvictionListener(reconciled::remove);
+    cache.addLoadListener((skus, loaded) -> {
+      if (App.ledger != ledger) {
+        return;
+      }
+      for (String sku : skus) {
+        if ((journaledStorage != null && journaledStorage.hasQueuedOrders(sku)) || !reconciled.add(sku)) {
+          continue;
+        }
+        Product product = loaded.get(sku);
+        if (product != null) {
+          reconcile(ledger, sku, product.getQuantity());
+        } else if (ledger.contains(sku) && ledger.quantity(sku) != 0) {
+          ledger.set(sku, StockLedger.Reason.RECONCILE, 0, null);
+        }
+      }
+    });
+    for (Product product : cache.cachedProducts()) {
+      if (reconciled.add(product.getSku())) {
+        reconcile(ledger, product.getSku(), product.getQuantity());
+      }
     }
   }
 
-  private static void closeMongoDB() {
-    mongoClient.close();
+  /** Records an opening or correcting entry if the ledger does not have {@code quantity} for {@code sku}. */
+  private static boolean reconcile(StockLedger ledger, String sku, int quantity) {
+    if (!ledger.contains(sku)) {
+      ledger.set(sku, StockLedger.Reason.OPENING, quantity, null);
+      return true;
+    }
+    if (ledger.quantity(sku) != quantity) {
+      ledger.set(sku, StockLedger.Reason.RECONCILE, quantity, null);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Moves orders dated before {@code cutoff} into {@code archive} and answers
+   * archived-order queries from it. Waits for the orders to load first; the
+   * sales analytics built afterwards cover only the orders left in storage.
+   */
+  static void useArchive(OrderArchive archive, LocalDate cutoff) {
+    App.archive = archive;
+    storage.awaitOrders();
+    long start = System.nanoTime();
+    try {
+      archive.archive(orders, cutoff);
+    } catch (IOException e) {
+      // No order has left memory, so the next start simply tries again.
+      log.println(ANSI_RED + "Archiving old orders failed: " + e.getMessage() + ANSI_RESET);
+    }
+    Metrics.LOAD.get("archive").recordSince(start);
+  }
+
+  /** Opens {@code storage} and loads it in place of the configured one; for tests and benchmarks. */
+  static void useStorage(Storage storage) {
+    App.storage = storage;
+    journaledStorage = storage instanceof JournaledStorage ? (JournaledStorage) storage : null;
+    loadData();
+  }
+
+  /** Snapshot file from {@code -Dinventory.snapshot}; an empty value turns snapshots off. */
+  private static Path snapshotPath() {
+    String path = System.getProperty("inventory.snapshot", "inventory.snapshot");
+    return path.isEmpty() ? null : Paths.get(path);
+  }
+
+  static Product toProduct(Document doc) {
+    String sku = doc.getString("_id");
+    String name = doc.getString("name");
+    String description = doc.getString("description");
+    int quantity = doc.getInteger("quantity");
+    double price = doc.getDouble("price");
+    String supplierId = doc.getString("supplierId");
+    String dateReceived = doc.getString("dateReceived");
+
+    return new Product(sku, name, description, quantity, price, supplierId, dateReceived);
+  }
+
+  static Supplier toSupplier(Document doc) {
+    String id = doc.getString("_id");
+    String name = doc.getString("name");
+    String contact = doc.getString("contact");
+
+    return new Supplier(id, name, contact);
+  }
+
+  static Order toOrder(Document doc) {
+    String orderId = doc.getString("_id");
+    List<Document> itemDocs = doc.getList("items", Document.class);
+    List<OrderItem> items = new ArrayList<>(itemDocs.size());
+    for (Document itemDoc : itemDocs) {
+      String sku = itemDoc.getString("sku");
+      int quantity = itemDoc.getInteger("quantity");
+      Number unitPrice = itemDoc.get("unitPrice", Number.class);
+      items.add(new OrderItem(sku, itemDoc.getString("name"), quantity, unitPrice != null ? unitPrice.longValue() : 0));
+    }
+    // A BSON date when written by ModelCodecs, an ISO string in older orders.
+    Object date = doc.get("orderDate");
+    LocalDate orderDate = date instanceof Date ? ModelCodecs.toLocalDate(((Date) date).getTime())
+        : LocalDate.parse((String) date);
+
+    String customerName = doc.getString("customerName");
+    if (customerName != null) {
+      return new SellOrder(orderId, customerName, items, orderDate);
+    }
+    return new Order(orderId, doc.getString("supplierId"), items, orderDate);
+  }
+
+  private static synchronized void closeStorage() {
+    if (server != null) {
+      // Let requests in flight finish before the storage goes away.
+      server.stop();
+      server = null;
+    }
+    if (storage != null) {
+      storage.close();
+    }
+    if (reorder != null) {
+      reorder.close();
+    }
+    if (ledger != null) {
+      try {
+        ledger.close();
+      } catch (IOException e) {
+        log.println(ANSI_RED + "Closing the stock ledger failed: " + e.getMessage() + ANSI_RESET);
+      }
+      ledger = null;
+    }
+    Metrics.stopDump();
   }
 
   private static void addProduct(Scanner scanner) {
@@ -193,8 +558,7 @@ public class App {
       String dateReceived = scanner.nextLine();
 
       Product product = new Product(sku, name, description, quantity, price, supplierId, dateReceived);
-      inventory.put(sku, product);
-      saveProductToMongo(product);
+      putProduct(product);
       System.out.println("Product added to inventory.");
     } catch (NumberFormatException e) {
       System.out.println(ANSI_RED + "Invalid input. Please enter a valid number." + ANSI_RESET);
@@ -203,23 +567,147 @@ public class App {
     }
   }
 
-  private static void viewInventory() {
-    System.out.println(ANSI_BLUE + "\n---- Inventory ----" + ANSI_RESET);
+  private static void viewInventory(Scanner scanner) {
+    try {
+      System.out.print("Sort by (sku/name/quantity/price/supplier/date, enter for none): ");
+      Comparator<Product> order = inventoryOrder(scanner.nextLine().trim().toLowerCase(Locale.ROOT));
+      System.out.print("Filter by supplier ID (enter for all): ");
+      String supplierId = scanner.nextLine().trim();
+      System.out.print("Show only quantity at or below (enter for all): ");
+      String maxQuantity = scanner.nextLine().trim();
 
-    System.out.printf("%-10s %-20s %-10s %-10s %-15s %-15s%n", "SKU", "Name", "Quantity", "Price", "Supplier ID",
-        "Date Received");
-    System.out.println(String.join("", Collections.nCopies(85, "-")));
-    for (Product product : inventory.values()) {
-      System.out.printf("%-10s %-20s %-10d Rs. %-9.2f %-15s %-15s%n",
-          product.getSku(),
-          product.getName(),
-          product.getQuantity(),
-          product.getPrice(),
-          product.getSupplierId(),
-          product.getDateReceived());
+      int max = maxQuantity.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(maxQuantity);
+      List<Product> rows;
+      while (true) {
+        rows = supplierId.isEmpty() ? new ArrayList<>(inventory.values()) : productIndex.bySupplier(supplierId);
+        try {
+          rows.removeIf(product -> product.getQuantity() > max);
+          if (order != null) {
+            rows.sort(order);
+          }
+          break;
+        } catch (IllegalStateException e) {
+          // A product was removed or replaced while filtering; list the inventory as it is now.
+        }
+      }
+      showPaged(scanner, rows, "---- Inventory ----", TableRenderer::inventoryHeader, TableRenderer::inventoryRow);
+    } catch (NumberFormatException e) {
+      System.out.println(ANSI_RED + "Invalid input. Please enter a valid number." + ANSI_RESET);
+    } catch (IllegalArgumentException | IOException | UncheckedIOException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
+    }
+  }
+
+  private static Comparator<Product> inventoryOrder(String key) {
+    switch (key) {
+      case "":
+        return null;
+      case "sku":
+        return Comparator.comparing(Product::getSku);
+      case "name":
+        return Comparator.comparing(Product::getName, Comparator.nullsFirst(Comparator.naturalOrder()));
+      case "quantity":
+        return Comparator.comparingInt(Product::getQuantity);
+      case "price":
+        return Comparator.comparingDouble(Product::getPrice);
+      case "supplier":
+        return Comparator.comparing(Product::getSupplierId, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(Product::getSku);
+      case "date":
+        return Comparator.comparing(Product::getDateReceived, Comparator.nullsFirst(Comparator.naturalOrder()));
+      default:
+        throw new IllegalArgumentException("Unknown sort key: " + key);
+    }
+  }
+
+  /**
+   * Shows {@code rows} a page at a time, or streams them in one go when a file
+   * is chosen or stdout is not a terminal.
+   */
+  private static <T> void showPaged(Scanner scanner, List<T> rows, String title,
+      Consumer<TableRenderer> header, BiConsumer<TableRenderer, T> writer) throws IOException {
+    System.out.print("Write to file (enter for screen): ");
+    String path = scanner.nextLine().trim();
+    int skipped;
+    if (!path.isEmpty()) {
+      try (Writer file = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+        TableRenderer renderer = new TableRenderer(file, false);
+        header.accept(renderer);
+        skipped = write(renderer, rows, writer);
+      }
+      System.out.println(ANSI_GREEN + "Wrote " + (rows.size() - skipped) + " rows to " + path + "." + ANSI_RESET);
+      printSkipped(skipped);
+      return;
+    }
+
+    TableRenderer renderer = new TableRenderer(
+        new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16), true);
+    renderer.title(title, ANSI_BLUE);
+    if (System.console() == null) {
+      header.accept(renderer);
+      skipped = write(renderer, rows, writer);
+      renderer.flush();
+      printSkipped(skipped);
+      return;
+    }
+
+    System.out.print("Rows per page (enter for " + DEFAULT_PAGE_SIZE + "): ");
+    String input = scanner.nextLine().trim();
+    int pageSize = input.isEmpty() ? DEFAULT_PAGE_SIZE : Integer.parseInt(input);
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Rows per page must be positive.");
+    }
+    int pages = Math.max(1, (rows.size() + pageSize - 1) / pageSize);
+    int page = 0;
+    while (true) {
+      header.accept(renderer);
+      skipped = write(renderer, rows.subList(page * pageSize, Math.min(rows.size(), (page + 1) * pageSize)), writer);
+      renderer.flush();
+      printSkipped(skipped);
+      System.out.print(ANSI_CYAN + "Page " + (page + 1) + " of " + pages + " (" + rows.size()
+          + " rows) - [n]ext, [p]revious, page number or [q]uit: " + ANSI_RESET);
+      String command = scanner.nextLine().trim().toLowerCase(Locale.ROOT);
+      if (command.equals("q")) {
+        return;
+      } else if (command.isEmpty() || command.equals("n")) {
+        if (page + 1 >= pages) {
+          return;
+        }
+        page++;
+      } else if (command.equals("p")) {
+        page = Math.max(0, page - 1);
+      } else {
+        try {
+          page = Math.min(pages, Math.max(1, Integer.parseInt(command))) - 1;
+        } catch (NumberFormatException e) {
+          System.out.println(ANSI_RED + "Invalid option! Try again." + ANSI_RESET);
+        }
+      }
+    }
+  }
+  /**
+   * Writes each row, skipping those that throw {@link IllegalStateException} because the product they view was
+   * removed or replaced after the listing was built. Returns the number skipped.
+   */
+  private static <T> int write(TableRenderer renderer, List<T> rows, BiConsumer<TableRenderer, T> writer) {
+    int skipped = 0;
+    for (T row : rows) {
+      try {
+        writer.accept(renderer, row);
+      } catch (IllegalStateException e) {
+        skipped++;
+      }
     }
+    return skipped;
   }
 
+  private static void printSkipped(int skipped) {
+    if (skipped > 0) {
+      System.out.println(ANSI_YELLOW + skipped + " row(s) changed while listing and were left out." + ANSI_RESET);
+    }
+  }
+
+
   private static void updateProduct(Scanner scanner) {
     try {
       System.out.print("Enter product SKU: ");
@@ -230,25 +718,25 @@ public class App {
 
         System.out.print("Enter new quantity (or press enter to skip): ");
         String input = scanner.nextLine();
+        Integer newQuantity = null;
         if (!input.isEmpty()) {
-          int newQuantity = Integer.parseInt(input);
+          newQuantity = Integer.parseInt(input);
           if (newQuantity < 0) {
             throw new IllegalArgumentException("Quantity cannot be negative.");
           }
-          product.setQuantity(newQuantity);
         }
 
         System.out.print("Enter new price (or press enter to skip): ");
         input = scanner.nextLine();
+        Double newPrice = null;
         if (!input.isEmpty()) {
-          double newPrice = Double.parseDouble(input);
+          newPrice = Double.parseDouble(input);
           if (newPrice < 0) {
             throw new IllegalArgumentException("Price cannot be negative.");
           }
-          product.setPrice(newPrice);
         }
 
-        updateProductInMongo(product);
+        changeProduct(product, newQuantity, newPrice);
         System.out.println("Product updated.");
       } else {
         System.out.println("Product not found in the inventory.");
@@ -263,8 +751,7 @@ public class App {
   private static void removeProduct(Scanner scanner) {
     System.out.print("Enter product SKU to remove: ");
     String sku = scanner.nextLine();
-    if (inventory.remove(sku) != null) {
-      removeProductFromMongo(sku);
+    if (deleteProduct(sku)) {
       System.out.println("Product removed from inventory.");
     } else {
       System.out.println("Product not found in the inventory.");
@@ -272,39 +759,140 @@ public class App {
   }
 
   private static void searchProduct(Scanner scanner) {
-    System.out.print("Enter product SKU to search: ");
-    String sku = scanner.nextLine();
-    Product product = inventory.get(sku);
-    if (product != null) {
-      System.out.println("Product found: " + product);
+    System.out.println("Search by: 1. SKU  2. Name/description  3. Supplier ID  4. Date received range");
+    System.out.print(ANSI_CYAN + "Choose a search type (or press enter for SKU): " + ANSI_RESET);
+    String type = scanner.nextLine().trim();
+    switch (type) {
+      case "":
+      case "1":
+        System.out.print("Enter product SKU to search: ");
+        String sku = scanner.nextLine();
+        Product product = inventory.get(sku);
+        if (product != null) {
+          System.out.println("Product found: " + product);
+        } else {
+          System.out.println("Product not found in the inventory.");
+        }
+        break;
+      case "2":
+        System.out.print("Enter search text: ");
+        printSearchResults(productIndex.searchText(scanner.nextLine(), SEARCH_LIMIT));
+        break;
+      case "3":
+        System.out.print("Enter supplier ID: ");
+        printSearchResults(productIndex.bySupplier(scanner.nextLine().trim()));
+        break;
+      case "4":
+        System.out.print("Enter start date (YYYY-MM-DD): ");
+        String from = scanner.nextLine().trim();
+        System.out.print("Enter end date (YYYY-MM-DD): ");
+        String to = scanner.nextLine().trim();
+        if (from.compareTo(to) > 0) {
+          System.out.println(ANSI_RED + "Start date must not be after end date." + ANSI_RESET);
+        } else {
+          printSearchResults(productIndex.receivedBetween(from, to, SEARCH_LIMIT));
+        }
+        break;
+      default:
+        System.out.println(ANSI_RED + "Invalid option! Try again." + ANSI_RESET);
+    }
+  }
+
+  private static void printSearchResults(List<Product> results) {
+    if (results.isEmpty()) {
+      System.out.println("No matching products found.");
+      return;
+    }
+    for (int i = 0; i < results.size() && i < SEARCH_LIMIT; i++) {
+      System.out.println(results.get(i));
+    }
+    if (results.size() > SEARCH_LIMIT) {
+      System.out.println(ANSI_YELLOW + "Showing " + SEARCH_LIMIT + " of " + results.size() + " matches." + ANSI_RESET);
     } else {
-      System.out.println("Product not found in the inventory.");
+      System.out.println(ANSI_GREEN + results.size() + " matching product(s)." + ANSI_RESET);
     }
   }
 
-  private static void generateInventoryReport() {
-    System.out.println(ANSI_YELLOW + "\n---- Inventory Report ----" + ANSI_RESET);
-    System.out.printf("%-10s %-20s %-10s %-10s %-15s %-15s %-15s%n",
-        "SKU", "Name", "Quantity", "Price", "Value", "Supplier ID", "Date Received");
-    System.out.println(String.join("", Collections.nCopies(100, "-")));
-    int totalItems = 0;
-    double totalValue = 0;
-    for (Product product : inventory.values()) {
-      double productValue = product.getQuantity() * product.getPrice();
-      totalItems += product.getQuantity();
-      totalValue += productValue;
-      System.out.printf("%-10s %-20s %-10d Rs. %-9.2f Rs. %-14.2f %-15s %-15s%n",
-          product.getSku(),
-          product.getName(),
-          product.getQuantity(),
-          product.getPrice(),
-          productValue,
-          product.getSupplierId(),
-          product.getDateReceived());
-    }
-    System.out.println(String.join("", Collections.nCopies(100, "-")));
-    System.out.println(ANSI_GREEN + "Total number of items: " + totalItems + ANSI_RESET);
-    System.out.println(ANSI_GREEN + "Total inventory value: Rs. " + String.format("%.2f", totalValue) + ANSI_RESET);
+  private static void generateInventoryReport(Scanner scanner) {
+    printReportSummary(System.out, valuation);
+    try {
+      System.out.print("Show totals by supplier? (y/n): ");
+      if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+        printSupplierTotals(System.out, valuation);
+      }
+      System.out.print("Show detailed listing? (y/n): ");
+      if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+        List<Product> rows = new ArrayList<>(inventory.values());
+        rows.sort(Comparator.comparing(Product::getSku));
+        showPaged(scanner, rows, "---- Inventory Report ----", TableRenderer::reportHeader, TableRenderer::reportRow);
+      }
+    } catch (IllegalArgumentException | IOException | UncheckedIOException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
+    }
+  }
+
+  static void printReportSummary(PrintStream out, InventoryValuation valuation) {
+    InventoryValuation.Totals total = valuation.total();
+    out.println(ANSI_YELLOW + "\n---- Inventory Report ----" + ANSI_RESET);
+    out.println(ANSI_GREEN + "Total number of products: " + total.getProducts() + ANSI_RESET);
+    out.println(ANSI_GREEN + "Total number of items: " + total.getItems() + ANSI_RESET);
+    out.println(ANSI_GREEN + "Total inventory value: Rs. " + Money.format(total.getValue()) + ANSI_RESET);
+  }
+
+  private static void printSupplierTotals(PrintStream out, InventoryValuation valuation) {
+    out.printf("%-15s %-20s %-10s %-12s %-15s%n", "Supplier ID", "Name", "Products", "Items", "Value");
+    out.println(String.join("", Collections.nCopies(75, "-")));
+    for (InventoryValuation.Totals totals : valuation.suppliers()) {
+      Supplier supplier = suppliers.get(totals.getSupplierId());
+      out.printf("%-15s %-20s %-10d %-12d Rs. %s%n",
+          totals.getSupplierId(),
+          supplier != null ? supplier.getName() : "",
+          totals.getProducts(),
+          totals.getItems(),
+          Money.format(totals.getValue()));
+    }
+  }
+
+  private static void importData(Scanner scanner) {
+    try {
+      System.out.print("Import products, suppliers or orders: ");
+      DataTransfer.Kind kind = DataTransfer.Kind.parse(scanner.nextLine());
+      System.out.print("Enter file (.csv or .jsonl): ");
+      DataTransfer.Result result = importFile(kind, Paths.get(scanner.nextLine().trim()));
+      System.out.println((result.getRejected() == 0 ? ANSI_GREEN : ANSI_YELLOW) + result + ANSI_RESET);
+    } catch (IllegalArgumentException | IOException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void exportData(Scanner scanner) {
+    try {
+      System.out.print("Export products, suppliers or orders: ");
+      DataTransfer.Kind kind = DataTransfer.Kind.parse(scanner.nextLine());
+      System.out.print("Enter file (.csv or .jsonl): ");
+      Path file = Paths.get(scanner.nextLine().trim());
+      long count = exportFile(kind, file);
+      System.out.println(ANSI_GREEN + "Exported " + count + " " + kind.name().toLowerCase(Locale.ROOT) + " to "
+          + file + "." + ANSI_RESET);
+    } catch (IllegalArgumentException | IOException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
+    }
+  }
+
+  static DataTransfer.Result importFile(DataTransfer.Kind kind, Path file) throws IOException, InterruptedException {
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return new DataTransfer(kind, DataTransfer.Format.of(file),
+          Integer.getInteger("inventory.import.threads", Runtime.getRuntime().availableProcessors()), log)
+          .importFrom(in);
+    }
+  }
+
+  static long exportFile(DataTransfer.Kind kind, Path file) throws IOException {
+    try (Writer out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+      return new DataTransfer(kind, DataTransfer.Format.of(file), 1, log).exportTo(out);
+    }
   }
 
   private static void addSupplier(Scanner scanner) {
@@ -315,9 +903,7 @@ public class App {
     System.out.print("Enter supplier contact: ");
     String contact = scanner.nextLine();
 
-    Supplier supplier = new Supplier(id, name, contact);
-    suppliers.put(id, supplier);
-    saveSupplierToMongo(supplier);
+    putSupplier(new Supplier(id, name, contact));
     System.out.println("Supplier added.");
   }
 
@@ -339,208 +925,621 @@ public class App {
       String orderId = scanner.nextLine();
       System.out.print("Enter supplier ID: ");
       String supplierId = scanner.nextLine();
+      List<OrderItem> items = readLines(scanner, false);
+      placeOrder(new Order(orderId, supplierId, items, LocalDate.now()), "Order created and inventory updated.");
+    } catch (IllegalArgumentException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
+    }
+  }
 
-      List<OrderItem> items = new ArrayList<>();
-      boolean addingItems = true;
-      while (addingItems) {
-        System.out.print("Enter product SKU (or 'done' to finish): ");
-        String sku = scanner.nextLine();
-        if (sku.equalsIgnoreCase("done")) {
-          addingItems = false;
-        } else if (inventory.containsKey(sku)) {
-          System.out.print("Enter quantity: ");
-          int quantity = Integer.parseInt(scanner.nextLine());
-          if (quantity <= 0) {
-            throw new IllegalArgumentException("Quantity must be positive.");
-          }
-          items.add(new OrderItem(sku, quantity));
+  /**
+   * Prompts for order lines until 'done'. Nothing is reserved or stored
+   * until the whole order is in, and a bad line is asked for again.
+   */
+  private static List<OrderItem> readLines(Scanner scanner, boolean sale) {
+    List<OrderItem> items = new ArrayList<>();
+    while (true) {
+      System.out.print("Enter product SKU (or 'done' to finish): ");
+      String sku = scanner.nextLine();
+      if (sku.equalsIgnoreCase("done")) {
+        return items;
+      }
+      Product product = inventory.get(sku);
+      if (product == null) {
+        System.out.println(ANSI_RED + "Product not found. Try again." + ANSI_RESET);
+        continue;
+      }
+      System.out.print(sale ? "Enter quantity (" + product.getQuantity() + " available): " : "Enter quantity: ");
+      int quantity;
+      try {
+        quantity = Integer.parseInt(scanner.nextLine().trim());
+      } catch (NumberFormatException e) {
+        System.out.println(ANSI_RED + "Invalid input. Please enter a valid number." + ANSI_RESET);
+        continue;
+      }
+      if (quantity <= 0) {
+        System.out.println(ANSI_RED + "Quantity must be positive." + ANSI_RESET);
+        continue;
+      }
+      items.add(new OrderItem(sku, quantity));
+    }
+  }
 
-          // Update inventory
-          Product product = inventory.get(sku);
-          product.setQuantity(product.getQuantity() + quantity);
-          updateProductInMongo(product);
-        } else {
-          System.out.println(ANSI_RED + "Product not found. Try again." + ANSI_RESET);
+  /** Places one order entered at the prompt, checking all its lines together. */
+  private static void placeOrder(Order order, String placed) {
+    if (order.getItems().isEmpty()) {
+      System.out.println(ANSI_YELLOW + "No items added to the order." + ANSI_RESET);
+      return;
+    }
+    OrderBatch.Result result = OrderBatch.place(Collections.singletonList(order));
+    if (result.getRejected().isEmpty()) {
+      System.out.println(ANSI_GREEN + placed + ANSI_RESET);
+    } else {
+      System.out.println(ANSI_RED + "Error: " + result.getRejected().get(0) + ANSI_RESET);
+    }
+  }
+
+  private static void viewOrders(Scanner scanner) {
+    if (!storage.ordersLoaded()) {
+      System.out.println(ANSI_YELLOW + "Orders are still loading, please wait..." + ANSI_RESET);
+    }
+    storage.awaitOrders();
+    try {
+      List<Order> rows;
+      if (caching()) {
+        System.out.print("From date (YYYY-MM-DD, enter for 30 days ago): ");
+        String input = scanner.nextLine().trim();
+        LocalDate from = input.isEmpty() ? LocalDate.now().minusDays(30) : LocalDate.parse(input);
+        System.out.print("To date (YYYY-MM-DD, enter for today): ");
+        input = scanner.nextLine().trim();
+        rows = mongoStorage.ordersBetween(from, input.isEmpty() ? LocalDate.now() : LocalDate.parse(input));
+      } else {
+        synchronized (orders) {
+          rows = new ArrayList<>(orders);
         }
       }
-
-      Order order = new Order(orderId, supplierId, items, LocalDate.now());
-      orders.add(order);
-      saveOrderToMongo(order);
-      System.out.println(ANSI_GREEN + "Order created and inventory updated." + ANSI_RESET);
+      if (archive != null && archive.segmentCount() > 0) {
+        System.out.print("Also search archived orders? (y/N): ");
+        if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+          rows.addAll(searchArchive(scanner));
+        }
+      }
+      System.out.print("Sort by date (new/old, enter for none): ");
+      String sort = scanner.nextLine().trim().toLowerCase(Locale.ROOT);
+      if (sort.equals("new")) {
+        rows.sort(Comparator.comparing(Order::getOrderDate).reversed());
+      } else if (sort.equals("old")) {
+        rows.sort(Comparator.comparing(Order::getOrderDate));
+      } else if (!sort.isEmpty()) {
+        throw new IllegalArgumentException("Unknown sort order: " + sort);
+      }
+      showPaged(scanner, rows, "---- Orders ----", renderer -> {
+      }, TableRenderer::order);
+    } catch (DateTimeParseException e) {
+      System.out.println(ANSI_RED + "Invalid date. Use YYYY-MM-DD." + ANSI_RESET);
     } catch (NumberFormatException e) {
       System.out.println(ANSI_RED + "Invalid input. Please enter a valid number." + ANSI_RESET);
-    } catch (IllegalArgumentException e) {
+    } catch (IllegalArgumentException | IOException | UncheckedIOException e) {
       System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
     }
   }
 
-  private static void viewOrders() {
-    System.out.println(ANSI_BLUE + "\n---- Orders ----" + ANSI_RESET);
-    for (Order order : orders) {
-      System.out.printf("Order ID: %s%n", order.getOrderId());
-      System.out.printf("Supplier ID: %s%n", order.getSupplierId());
-      System.out.printf("Order Date: %s%n", order.getOrderDate());
-      System.out.println("Items:");
-      System.out.printf("  %-10s %-20s %-10s %-10s %-10s%n", "SKU", "Name", "Quantity", "Price", "Total");
-      System.out.println("  " + String.join("", Collections.nCopies(20, "-")));
-      double orderTotal = 0;
-      for (OrderItem item : order.getItems()) {
-        Product product = inventory.get(item.getSku());
-        double itemTotal = item.getQuantity() * product.getPrice();
-        orderTotal += itemTotal;
-        System.out.printf("  %-10s %-20s %-10d Rs. %-9.2f Rs. %-9.2f%n",
-            item.getSku(),
-            product.getName(),
-            item.getQuantity(),
-            product.getPrice(),
-            itemTotal);
+  private static List<Order> searchArchive(Scanner scanner) throws IOException {
+    System.out.print("From date (YYYY-MM-DD, enter for the first): ");
+    String input = scanner.nextLine().trim();
+    LocalDate from = input.isEmpty() ? null : LocalDate.parse(input);
+    System.out.print("To date (YYYY-MM-DD, enter for the last): ");
+    input = scanner.nextLine().trim();
+    LocalDate to = input.isEmpty() ? null : LocalDate.parse(input);
+    System.out.print("SKU (enter for any): ");
+    input = scanner.nextLine().trim();
+    OrderArchive.Scan scan = archive.query(from, to, input.isEmpty() ? null : input);
+    System.out.println(ANSI_CYAN + scan + ANSI_RESET);
+    return scan.getOrders();
+  }
+
+  private static void stockOnDate(Scanner scanner) {
+    if (ledger == null) {
+      System.out.println(ANSI_YELLOW + "The stock ledger is turned off." + ANSI_RESET);
+      return;
+    }
+    try {
+      System.out.print("Enter product SKU: ");
+      String sku = scanner.nextLine().trim();
+      System.out.print("Enter date (YYYY-MM-DD, enter for today): ");
+      String input = scanner.nextLine().trim();
+      LocalDate date = input.isEmpty() ? LocalDate.now() : LocalDate.parse(input);
+      long start = System.nanoTime();
+      int quantity = ledger.quantityOn(sku, date);
+      Metrics.STORAGE.get("ledger-query").recordSince(start);
+      System.out.println("Stock of " + sku + " at the end of " + date + ": " + quantity);
+      List<StockLedger.Movement> movements = ledger.history(sku, 10);
+      if (!movements.isEmpty()) {
+        System.out.println(ANSI_YELLOW + "---- Latest movements ----" + ANSI_RESET);
+        for (StockLedger.Movement movement : movements) {
+          String reference = movement.getReference() != null ? movement.getReference() : "";
+          System.out.printf("%tF %<tT  %-9s %+8d  %8d  %s%n", movement.getTime(), movement.getReason(),
+              movement.getDelta(), movement.getQuantity(), reference);
+        }
       }
-      System.out.println(String.join("", Collections.nCopies(20, "-")));
-      System.out.println(ANSI_GREEN + "  Total Order Value: Rs. " + String.format("%.2f", orderTotal) + ANSI_RESET);
-      System.out.println();
+    } catch (DateTimeParseException e) {
+      System.out.println(ANSI_RED + "Invalid date. Use YYYY-MM-DD." + ANSI_RESET);
+    } catch (IOException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
     }
   }
 
-  private static void saveProductToMongo(Product product) {
-    Document doc = new Document("_id", product.getSku())
-        .append("name", product.getName())
-        .append("description", product.getDescription())
-        .append("quantity", product.getQuantity())
-        .append("price", product.getPrice())
-        .append("supplierId", product.getSupplierId())
-        .append("dateReceived", product.getDateReceived());
+  private static void salesAnalytics(Scanner scanner) {
     try {
-      productCollection.insertOne(doc);
-    } catch (com.mongodb.MongoWriteException e) {
-      if (e.getError().getCategory() == com.mongodb.ErrorCategory.DUPLICATE_KEY) {
-        System.out.println(
-            ANSI_RED + "Error: Product with SKU " + product.getSku() + " already exists in the database." + ANSI_RESET);
-      } else {
-        System.out.println(ANSI_RED + "Error saving product to database: " + e.getMessage() + ANSI_RESET);
+      System.out.print("Analyse sales or receipts (s/r, enter for sales): ");
+      SalesQueries.Kind kind = scanner.nextLine().trim().equalsIgnoreCase("r")
+          ? SalesQueries.Kind.RECEIPTS : SalesQueries.Kind.SALES;
+      System.out.print("From date (YYYY-MM-DD, enter for 6 days ago): ");
+      String input = scanner.nextLine().trim();
+      LocalDate from = input.isEmpty() ? LocalDate.now().minusDays(6) : LocalDate.parse(input);
+      System.out.print("To date (YYYY-MM-DD, enter for today): ");
+      input = scanner.nextLine().trim();
+      LocalDate to = input.isEmpty() ? LocalDate.now() : LocalDate.parse(input);
+      System.out.println("Show: 1. Top SKUs by units  2. Top SKUs by value  3. Totals by supplier  4. Daily totals");
+      System.out.print(ANSI_CYAN + "Choose a view: " + ANSI_RESET);
+      String view = scanner.nextLine().trim();
+      SalesQueries queries = salesQueries();
+      long start = System.nanoTime();
+      switch (view) {
+        case "1":
+        case "2":
+          printTotals(queries.topSkus(kind, from, to, 10, view.equals("2")), "SKU");
+          break;
+        case "3":
+          printTotals(queries.suppliers(kind, from, to), "Supplier");
+          break;
+        case "4":
+          System.out.print("Supplier ID (enter for all): ");
+          String supplierId = scanner.nextLine().trim();
+          printTotals(new ArrayList<>(queries.daily(kind, supplierId.isEmpty() ? null : supplierId, from, to)
+              .values()), "Date");
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown view: " + view);
       }
+      System.out.printf("(%.2f ms)%n", (System.nanoTime() - start) / 1e6);
+    } catch (DateTimeParseException e) {
+      System.out.println(ANSI_RED + "Invalid date. Use YYYY-MM-DD." + ANSI_RESET);
+    } catch (IllegalArgumentException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
     }
   }
 
-  private static void updateProductInMongo(Product product) {
-    Document doc = new Document("quantity", product.getQuantity())
-        .append("price", product.getPrice());
-    productCollection.updateOne(Filters.eq("_id", product.getSku()), new Document("$set", doc));
+  private static void reorderSuggestions() {
+    if (reorder == null) {
+      System.out.println(ANSI_YELLOW + "Reorder suggestions are not available." + ANSI_RESET);
+      return;
+    }
+    List<ReorderEngine.Suggestion> suggestions = reorder.lowStock(20);
+    if (suggestions.isEmpty()) {
+      System.out.println(ANSI_GREEN + "Every selling product has enough stock." + ANSI_RESET);
+      return;
+    }
+    System.out.println(ANSI_YELLOW + String.format("%-20s %10s %10s %8s %10s", "SKU", "Stock", "Per day", "Days",
+        "Order") + ANSI_RESET);
+    for (ReorderEngine.Suggestion suggestion : suggestions) {
+      System.out.printf("%-20s %10d %10.2f %8.1f %10d%n", suggestion.getSku(), suggestion.getQuantity(),
+          suggestion.getDailyRate(), suggestion.getDaysOfCover(), suggestion.getOrderQuantity());
+    }
+    System.out.println(ANSI_YELLOW + "---- Draft purchase orders ----" + ANSI_RESET);
+    for (Order draft : reorder.draftOrders()) {
+      System.out.println(draft.getOrderId() + ": " + draft.getItems().size() + " lines, "
+          + Money.format(draft.getTotal()));
+    }
   }
 
-  private static void removeProductFromMongo(String sku) {
-    productCollection.deleteOne(Filters.eq("_id", sku));
+  private static void printTotals(List<SalesQueries.Total> totals, String heading) {
+    if (totals.isEmpty()) {
+      System.out.println("No orders in that range.");
+      return;
+    }
+    System.out.println(ANSI_YELLOW + String.format("%-20s %10s %14s %8s", heading, "Units", "Value", "Lines")
+        + ANSI_RESET);
+    for (SalesQueries.Total total : totals) {
+      System.out.printf("%-20s %10d %14s %8d%n", total.getKey(), total.getUnits(), Money.format(total.getValue()),
+          total.getLines());
+    }
   }
 
-  private static void saveSupplierToMongo(Supplier supplier) {
-    Document doc = new Document("_id", supplier.getId())
-        .append("name", supplier.getName())
-        .append("contact", supplier.getContact());
-    try {
-      supplierCollection.insertOne(doc);
-    } catch (com.mongodb.MongoWriteException e) {
-      if (e.getError().getCategory() == com.mongodb.ErrorCategory.DUPLICATE_KEY) {
-        System.out.println(
-            ANSI_RED + "Error: Supplier with ID " + supplier.getId() + " already exists in the database." + ANSI_RESET);
-      } else {
-        System.out.println(ANSI_RED + "Error saving supplier to database: " + e.getMessage() + ANSI_RESET);
+  static Map<String, Product> inventory() {
+    return inventory;
+  }
+
+  static Map<String, Supplier> suppliers() {
+    return suppliers;
+  }
+
+  /** The order archive, or null when archiving is off. */
+  static OrderArchive archive() {
+    return archive;
+  }
+
+  /** All orders, waiting for them to finish loading. */
+  static List<Order> orders() {
+    storage.awaitOrders();
+    return orders;
+  }
+
+  static void putProduct(Product product) {
+    synchronized (catalogLock) {
+      Product previous = replaceProduct(product);
+      storage.saveProduct(product);
+      if (reorder != null) {
+        reorder.stock(product.getSku(), product.getQuantity());
       }
+      record(product.getSku(), previous == null ? StockLedger.Reason.ADD : StockLedger.Reason.ADJUST,
+          product.getQuantity(), null, true);
     }
   }
 
-  private static void saveOrderToMongo(Order order) {
-    List<Document> itemDocuments = new ArrayList<>();
-    for (OrderItem item : order.getItems()) {
-      Document itemDoc = new Document("sku", item.getSku())
-          .append("quantity", item.getQuantity());
-      itemDocuments.add(itemDoc);
-    }
+  /**
+   * Puts {@code product} in the inventory, index and valuation in place of
+   * the product with its SKU, if any, and returns that one. Holds the SKU's
+   * lock in the stock engine so no change to the old instance comes after.
+   */
+  private static Product replaceProduct(Product product) {
+    Product[] previous = new Product[1];
+    stockEngine.locked(product.getSku(), () -> {
+      previous[0] = inventory.put(product.getSku(), product);
+      if (previous[0] != null) {
+        productIndex.remove(previous[0]);
+        valuation.remove(previous[0]);
+      }
+      productIndex.add(product);
+      valuation.add(product);
+    });
+    return previous[0];
+  }
 
-    Document doc = new Document("_id", order.getOrderId())
-        .append("supplierId", order.getSupplierId())
-        .append("items", itemDocuments)
-        .append("orderDate", order.getOrderDate().toString());
-    try {
-      orderCollection.insertOne(doc);
-    } catch (com.mongodb.MongoWriteException e) {
-      if (e.getError().getCategory() == com.mongodb.ErrorCategory.DUPLICATE_KEY) {
-        System.out.println(
-            ANSI_RED + "Error: Order with ID " + order.getOrderId() + " already exists in the database." + ANSI_RESET);
-      } else {
-        System.out.println(ANSI_RED + "Error saving order to database: " + e.getMessage() + ANSI_RESET);
+  /** Adds {@code product} unless its SKU is taken; returns whether it did. */
+  static boolean addProduct(Product product) {
+    synchronized (catalogLock) {
+      if (inventory.containsKey(product.getSku())) {
+        return false;
       }
+      putProduct(product);
+      return true;
     }
   }
 
-  private static void createSellOrder(Scanner scanner) {
-    try {
-      System.out.print("Enter sell order ID: ");
-      String orderId = scanner.nextLine();
-      System.out.print("Enter customer name: ");
-      String customerName = scanner.nextLine();
+  static StockEngine stockEngine() {
+    return stockEngine;
+  }
 
-      List<OrderItem> items = new ArrayList<>();
-      boolean addingItems = true;
-      while (addingItems) {
-        System.out.print("Enter product SKU (or 'done' to finish): ");
-        String sku = scanner.nextLine();
-        if (sku.equalsIgnoreCase("done")) {
-          addingItems = false;
-        } else if (inventory.containsKey(sku)) {
-          System.out.print("Enter quantity: ");
-          int quantity = Integer.parseInt(scanner.nextLine());
-          if (quantity <= 0) {
-            throw new IllegalArgumentException("Quantity must be positive.");
+  static ProductIndex productIndex() {
+    return productIndex;
+  }
+
+  static InventoryValuation valuation() {
+    return valuation;
+  }
+
+  private static InventoryValuation newValuation() {
+    InventoryValuation valuation = mongoStorage != null ? mongoStorage.valuation() : new InventoryValuation(inventory);
+    stockEngine.addListener(valuation);
+    return valuation;
+  }
+
+  static void changeProduct(Product product, Integer quantity, Double price) {
+    stockEngine.update(product.getSku(), quantity, price);
+    storage.updateProduct(product);
+    if (quantity != null) {
+      record(product.getSku(), StockLedger.Reason.ADJUST, quantity, null, true);
+    }
+  }
+
+  static boolean deleteProduct(String sku) {
+    synchronized (catalogLock) {
+      Product removed = inventory.remove(sku);
+      if (removed == null) {
+        return false;
+      }
+      productIndex.remove(removed);
+      valuation.remove(removed);
+      storage.removeProduct(sku);
+      if (reorder != null) {
+        reorder.removed(sku);
+      }
+      record(sku, StockLedger.Reason.REMOVE, 0, null, true);
+      return true;
+    }
+  }
+
+  /**
+   * Applies changes other processes made to products. Stock and price go
+   * through the stock engine so that reservations and listeners see them;
+   * other changes replace the product. When products are cached, only cached
+   * ones are changed and the rest are read afresh when next used.
+   */
+  private static void applyRemoteProducts(Map<String, Product> changed) {
+    synchronized (catalogLock) {
+      changed.forEach((sku, incoming) -> {
+        if (journaledStorage != null) {
+          // Orders are checked against the journal's stored stock, not the stock engine's.
+          journaledStorage.productChanged(sku, incoming);
+        }
+        Product local = inventory instanceof ProductCache ? ((ProductCache) inventory).peek(sku) : inventory.get(sku);
+        if (incoming == null) {
+          Product removed = local != null ? inventory.remove(sku) : null;
+          if (removed != null) {
+            productIndex.remove(removed);
+            valuation.remove(removed);
+            if (reorder != null) {
+              reorder.removed(sku);
+            }
+            record(sku, StockLedger.Reason.REMOVE, 0, null, true);
           }
-          Product product = inventory.get(sku);
-          if (product.getQuantity() >= quantity) {
-            items.add(new OrderItem(sku, quantity));
-            product.setQuantity(product.getQuantity() - quantity);
-            updateProductInMongo(product);
-          } else {
-            System.out.println(ANSI_RED + "Insufficient stock. Available: " + product.getQuantity() + ANSI_RESET);
+          return;
+        }
+        if (local == null && caching()) {
+          return;
+        }
+        if (local != null && Objects.equals(local.getName(), incoming.getName())
+            && Objects.equals(local.getDescription(), incoming.getDescription())
+            && Objects.equals(local.getSupplierId(), incoming.getSupplierId())
+            && Objects.equals(local.getDateReceived(), incoming.getDateReceived())) {
+          if (local.getPrice() != incoming.getPrice()) {
+            stockEngine.update(sku, null, incoming.getPrice());
           }
         } else {
-          System.out.println("Product not found. Try again.");
+          replaceProduct(incoming);
+        }
+        // Keeps back what this process has reserved, and tells the listeners if that changes the quantity.
+        stockEngine.refresh(sku, incoming.getQuantity());
+        record(sku, StockLedger.Reason.RECONCILE, incoming.getQuantity(), null, true);
+      });
+    }
+    Metrics.REMOTE.get("products").add(changed.size());
+  }
+
+  /** Applies other processes' changes as the change stream hands them over. */
+  static MongoChangeFeed.Handler remoteChanges() {
+    return new MongoChangeFeed.Handler() {
+      @Override
+      public void productsChanged(Map<String, Product> products) {
+        applyRemoteProducts(products);
+      }
+
+      @Override
+      public void suppliersChanged(Map<String, Supplier> changed) {
+        changed.forEach((id, supplier) -> {
+          if (supplier != null) {
+            suppliers.put(id, supplier);
+          } else {
+            suppliers.remove(id);
+          }
+        });
+        Metrics.REMOTE.get("suppliers").add(changed.size());
+      }
+
+      @Override
+      public void ordersAdded(List<Order> added) {
+        orders.addAll(added);
+        analytics.update();
+        for (Order order : added) {
+          if (order instanceof SellOrder && reorder != null) {
+            order.getItems().forEach(item -> reorder.sale(item.getSku(), item.getQuantity()));
+          }
         }
+        Metrics.REMOTE.get("orders").add(added.size());
       }
+    };
+  }
 
-      if (!items.isEmpty()) {
-        SellOrder sellOrder = new SellOrder(orderId, customerName, items, LocalDate.now());
-        orders.add(sellOrder);
-        saveSellOrderToMongo(sellOrder);
-        System.out.println(ANSI_GREEN + "Sell order created." + ANSI_RESET);
-      } else {
-        System.out.println(ANSI_YELLOW + "No items added to the sell order." + ANSI_RESET);
+  /**
+   * Copies {@code items} with each product's current name and price, so the
+   * order keeps the values it was placed at.
+   */
+  static List<OrderItem> priceLines(List<OrderItem> items) {
+    List<OrderItem> priced = new ArrayList<>(items.size());
+    for (OrderItem item : items) {
+      Product product = inventory.get(item.getSku());
+      if (product == null) {
+        throw new IllegalArgumentException("Product not found: " + item.getSku());
       }
-    } catch (NumberFormatException e) {
-      System.out.println(ANSI_RED + "Invalid input. Please enter a valid number." + ANSI_RESET);
-    } catch (IllegalArgumentException e) {
-      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
+      priced.add(new OrderItem(item.getSku(), product.getName(), item.getQuantity(),
+          Money.toMinor(product.getPrice())));
+    }
+    return priced;
+  }
+
+  static void putSupplier(Supplier supplier) {
+    suppliers.put(supplier.getId(), supplier);
+    storage.saveSupplier(supplier);
+  }
+
+  static void receiveOrder(Order order) {
+    Map<String, Integer> deltas = new LinkedHashMap<>();
+    for (OrderItem item : order.getItems()) {
+      if (!inventory.containsKey(item.getSku())) {
+        throw new IllegalArgumentException("Product not found: " + item.getSku());
+      }
+      deltas.merge(item.getSku(), item.getQuantity(), Integer::sum);
+    }
+    Map<String, Integer> stored = storage.writeOrder(deltas, order);
+    stored.forEach(stockEngine::refresh);
+    deltas.forEach((sku, delta) -> record(sku, StockLedger.Reason.RECEIVE, delta, order.getOrderId(), false));
+    analytics.update();
+  }
+
+  static void sellOrder(SellOrder order, StockEngine.Reservation reservation) {
+    Map<String, Integer> deltas = new LinkedHashMap<>();
+    reservation.getTotals().forEach((sku, quantity) -> deltas.put(sku, -quantity));
+    Map<String, Integer> stored;
+    try {
+      stored = storage.writeOrder(deltas, order);
+    } catch (RuntimeException e) {
+      reservation.release();
+      if (e instanceof InsufficientStockException) {
+        InsufficientStockException shortage = (InsufficientStockException) e;
+        stockEngine.refresh(shortage.getSku(), shortage.getAvailable());
+      }
+      throw e;
+    }
+    reservation.commit(stored);
+    deltas.forEach((sku, delta) -> record(sku, StockLedger.Reason.SALE, delta, order.getOrderId(), false));
+    if (reorder != null) {
+      deltas.forEach((sku, delta) -> reorder.sale(sku, -delta));
+    }
+    analytics.update();
+  }
+
+  /**
+   * Stores {@code batch}, purchases and sales mixed, with one storage write.
+   * {@code reservation} holds the stock of every sale in it; it is committed
+   * if the write succeeds and released if it fails.
+   */
+  static void placeOrders(List<Order> batch, StockEngine.Reservation reservation) {
+    List<Map<String, Integer>> deltas = new ArrayList<>(batch.size());
+    for (Order order : batch) {
+      int sign = order instanceof SellOrder ? -1 : 1;
+      Map<String, Integer> orderDeltas = new LinkedHashMap<>();
+      for (OrderItem item : order.getItems()) {
+        orderDeltas.merge(item.getSku(), sign * item.getQuantity(), Integer::sum);
+      }
+      deltas.add(orderDeltas);
+    }
+    Map<String, Integer> stored;
+    try {
+      stored = storage.writeOrders(deltas, batch);
+    } catch (RuntimeException e) {
+      reservation.release();
+      if (e instanceof InsufficientStockException) {
+        InsufficientStockException shortage = (InsufficientStockException) e;
+        stockEngine.refresh(shortage.getSku(), shortage.getAvailable());
+      }
+      throw e;
+    }
+    Set<String> held = reservation.getTotals().keySet();
+    reservation.commit(stored);
+    stored.forEach((sku, quantity) -> {
+      if (!held.contains(sku)) {
+        stockEngine.refresh(sku, quantity);
+      }
+    });
+    for (int i = 0; i < batch.size(); i++) {
+      String orderId = batch.get(i).getOrderId();
+      boolean sale = batch.get(i) instanceof SellOrder;
+      deltas.get(i).forEach((sku, delta) -> {
+        record(sku, sale ? StockLedger.Reason.SALE : StockLedger.Reason.RECEIVE, delta, orderId, false);
+        if (sale && reorder != null) {
+          reorder.sale(sku, -delta);
+        }
+      });
+    }
+    analytics.update();
+  }
+
+  /** Undoes the stock changes of an order storage rejected after it was acknowledged. */
+  private static void rollBack(Order order, Map<String, Integer> deltas) {
+    for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+      stockEngine.revert(entry.getKey(), entry.getValue());
+      record(entry.getKey(), StockLedger.Reason.ADJUST, -entry.getValue(), order.getOrderId(), false);
     }
   }
 
-  private static void saveSellOrderToMongo(SellOrder sellOrder) {
-    List<Document> itemDocuments = new ArrayList<>();
-    for (OrderItem item : sellOrder.getItems()) {
+  /**
+   * Appends a movement to the ledger, if there is one: a change by
+   * {@code amount}, or to it when {@code absolute}. Concurrent orders append
+   * deltas so that they add up in whatever order they arrive.
+   */
+  private static void record(String sku, StockLedger.Reason reason, int amount, String reference,
+      boolean absolute) {
+    StockLedger current = ledger;
+    if (current == null) {
+      return;
+    }
+    long start = System.nanoTime();
+    if (absolute) {
+      current.set(sku, reason, amount, reference);
+    } else {
+      current.append(sku, reason, amount, reference);
+    }
+    Metrics.STORAGE.get("ledger-append").recordSince(start);
+  }
+
+  /**
+   * Sales queries from MongoDB if {@code -Dinventory.analytics=mongo} or the
+   * orders are not all in memory, otherwise from the in-memory rollups.
+   */
+  static SalesQueries salesQueries() {
+    if (mongoStorage != null
+        && (caching() || System.getProperty("inventory.analytics", "memory").equals("mongo"))) {
+      return mongoStorage.salesQueries();
+    }
+    storage.awaitOrders();
+    return analytics;
+  }
+
+  /** Whether products are cached from MongoDB rather than all in memory. */
+  static boolean caching() {
+    return mongoStorage != null && mongoStorage.isCaching();
+  }
+
+  static StockLedger ledger() {
+    return ledger;
+  }
+
+  static ReorderEngine reorder() {
+    return reorder;
+  }
+
+  /** Stores an order from an import as history, without changing stock. */
+  static void importOrder(Order order) {
+    storage.writeOrder(Collections.emptyMap(), order);
+    analytics.update();
+  }
+
+  static void flushWrites() {
+    storage.flush();
+  }
+
+  static Document toDocument(Product product) {
+    return new Document("_id", product.getSku())
+        .append("name", product.getName())
+        .append("description", product.getDescription())
+        .append("quantity", product.getQuantity())
+        .append("price", product.getPrice())
+        .append("supplierId", product.getSupplierId())
+        .append("dateReceived", product.getDateReceived());
+  }
+
+  static Document toDocument(Order order) {
+    List<Document> itemDocuments = new ArrayList<>(order.getItems().size());
+    for (OrderItem item : order.getItems()) {
       Document itemDoc = new Document("sku", item.getSku())
-          .append("quantity", item.getQuantity());
+          .append("name", item.getName())
+          .append("quantity", item.getQuantity())
+          .append("unitPrice", item.getUnitPrice());
       itemDocuments.add(itemDoc);
     }
 
-    Document doc = new Document("_id", sellOrder.getOrderId())
-        .append("customerName", sellOrder.getCustomerName())
-        .append("items", itemDocuments)
-        .append("orderDate", sellOrder.getOrderDate().toString());
+    Document doc = new Document("_id", order.getOrderId());
+    if (order instanceof SellOrder) {
+      doc.append("customerName", ((SellOrder) order).getCustomerName());
+    } else {
+      doc.append("supplierId", order.getSupplierId());
+    }
+    return doc.append("items", itemDocuments)
+        .append("total", order.getTotal())
+        .append("orderDate", order.getOrderDate().toString());
+  }
+
+  private static void createSellOrder(Scanner scanner) {
     try {
-      orderCollection.insertOne(doc);
-    } catch (com.mongodb.MongoWriteException e) {
-      if (e.getError().getCategory() == com.mongodb.ErrorCategory.DUPLICATE_KEY) {
-        System.out.println(ANSI_RED + "Error: Sell order with ID " + sellOrder.getOrderId()
-            + " already exists in the database." + ANSI_RESET);
-      } else {
-        System.out.println(ANSI_RED + "Error saving sell order to database: " + e.getMessage() + ANSI_RESET);
-      }
+      System.out.print("Enter sell order ID: ");
+      String orderId = scanner.nextLine();
+      System.out.print("Enter customer name: ");
+      String customerName = scanner.nextLine();
+      List<OrderItem> items = readLines(scanner, true);
+      placeOrder(new SellOrder(orderId, customerName, items, LocalDate.now()), "Sell order created.");
+    } catch (IllegalArgumentException e) {
+      System.out.println(ANSI_RED + "Error: " + e.getMessage() + ANSI_RESET);
     }
   }
 
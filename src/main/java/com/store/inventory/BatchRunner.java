@@ -0,0 +1,322 @@
+package com.store.inventory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs inventory commands without the interactive menu. Input is one command
+ * per line with '|' separated fields; blank lines and lines starting with '#'
+ * are ignored:
+ *
+ * <pre>
+ * add-product|SKU|name|description|quantity|price|supplierId|dateReceived
+ * update-product|SKU|quantity|price      (leave a field empty to skip it)
+ * update-quantity|SKU|quantity
+ * update-price|SKU|price
+ * remove-product|SKU
+ * add-supplier|id|name|contact
+ * receive-order|orderId|supplierId|SKU:quantity,SKU:quantity
+ * sell-order|orderId|customerName|SKU:quantity,SKU:quantity
+ * </pre>
+ *
+ * A reader thread parses lines into chunks while the calling thread applies
+ * them, and writes go through the write-behind buffer. Every command produces
+ * one tab separated status line: {@code line, OK|ERROR, command, detail}.
+ * Orders are all-or-nothing: every line is validated before stock changes.
+ */
+public class BatchRunner {
+  private static final int CHUNK_SIZE = 1024;
+  private static final List<Command> END = Collections.emptyList();
+  private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList("add-product", "update-product",
+      "update-quantity", "update-price", "remove-product", "add-supplier", "receive-order", "sell-order"));
+
+  private final BufferedReader in;
+  private final Writer out;
+  private final BlockingQueue<List<Command>> queue = new ArrayBlockingQueue<>(64);
+  private volatile IOException readError;
+
+  static class Command {
+    final long line;
+    final String[] fields;
+
+    Command(long line, String[] fields) {
+      this.line = line;
+      this.fields = fields;
+    }
+  }
+
+  public static class Result {
+    private final long succeeded;
+    private final long failed;
+    private final long nanos;
+
+    Result(long succeeded, long failed, long nanos) {
+      this.succeeded = succeeded;
+      this.failed = failed;
+      this.nanos = nanos;
+    }
+
+    public long getSucceeded() {
+      return succeeded;
+    }
+
+    public long getFailed() {
+      return failed;
+    }
+
+    public double getOpsPerMinute() {
+      return nanos == 0 ? 0 : (succeeded + failed) * 60e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Batch{succeeded=%d, failed=%d, elapsed=%d ms, throughput=%.0f ops/min}",
+          succeeded, failed, nanos / 1_000_000, getOpsPerMinute());
+    }
+  }
+
+  public BatchRunner(BufferedReader in, Writer out) {
+    this.in = in;
+    this.out = out;
+  }
+
+  public Result run() throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Thread reader = new Thread(this::readCommands, "batch-reader");
+    reader.setDaemon(true);
+    reader.start();
+
+    long succeeded = 0;
+    long failed = 0;
+    StringBuilder status = new StringBuilder(128);
+    List<Command> chunk;
+    while ((chunk = queue.take()) != END) {
+      for (Command command : chunk) {
+        status.setLength(0);
+        status.append(command.line).append('\t');
+        String name = COMMANDS.contains(command.fields[0]) ? command.fields[0] : "unknown";
+        long commandStart = System.nanoTime();
+        try {
+          String detail = execute(command.fields);
+          status.append("OK\t").append(command.fields[0]).append('\t');
+          appendClean(status, detail);
+          succeeded++;
+        } catch (RuntimeException e) {
+          status.append("ERROR\t").append(command.fields[0]).append('\t');
+          appendClean(status, e.getMessage());
+          failed++;
+          Metrics.COMMAND_ERRORS.get(name).increment();
+        }
+        Metrics.COMMANDS.get(name).recordSince(commandStart);
+        status.append('\n');
+        out.append(status);
+      }
+    }
+    if (readError != null) {
+      throw readError;
+    }
+    App.flushWrites();
+    out.flush();
+    return new Result(succeeded, failed, System.nanoTime() - start);
+  }
+
+  private void readCommands() {
+    try {
+      List<Command> chunk = new ArrayList<>(CHUNK_SIZE);
+      String line;
+      long lineNumber = 0;
+      while ((line = in.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+        chunk.add(new Command(lineNumber, line.split("\\|", -1)));
+        if (chunk.size() == CHUNK_SIZE) {
+          queue.put(chunk);
+          chunk = new ArrayList<>(CHUNK_SIZE);
+        }
+      }
+      if (!chunk.isEmpty()) {
+        queue.put(chunk);
+      }
+    } catch (IOException e) {
+      readError = e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        queue.put(END);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  static String execute(String[] f) {
+    switch (f[0]) {
+      case "add-product":
+        return addProduct(f);
+      case "update-product":
+        expect(f, 4);
+        return updateProduct(f[1], f[2], f[3]);
+      case "update-quantity":
+        expect(f, 3);
+        return updateProduct(f[1], f[2], "");
+      case "update-price":
+        expect(f, 3);
+        return updateProduct(f[1], "", f[2]);
+      case "remove-product":
+        expect(f, 2);
+        if (!App.deleteProduct(f[1])) {
+          throw new IllegalArgumentException("Product not found: " + f[1]);
+        }
+        return f[1];
+      case "add-supplier":
+        expect(f, 4);
+        if (App.suppliers().containsKey(f[1])) {
+          throw new IllegalArgumentException("Supplier with ID " + f[1] + " already exists.");
+        }
+        App.putSupplier(new Supplier(f[1], f[2], f[3]));
+        return f[1];
+      case "receive-order":
+        return receiveOrder(f);
+      case "sell-order":
+        return sellOrder(f);
+      default:
+        throw new IllegalArgumentException("Unknown command: " + f[0]);
+    }
+  }
+
+  private static String addProduct(String[] f) {
+    expect(f, 8);
+    String sku = f[1];
+    if (App.inventory().containsKey(sku)) {
+      throw new IllegalArgumentException("Product with SKU " + sku + " already exists.");
+    }
+    int quantity = parseQuantity(f[4]);
+    if (quantity < 0) {
+      throw new IllegalArgumentException("Quantity cannot be negative.");
+    }
+    double price = parsePrice(f[5]);
+    if (price < 0) {
+      throw new IllegalArgumentException("Price cannot be negative.");
+    }
+    if (!App.addProduct(new Product(sku, f[2], f[3], quantity, price, f[6], f[7]))) {
+      throw new IllegalArgumentException("Product with SKU " + sku + " already exists.");
+    }
+    return sku;
+  }
+
+  private static String updateProduct(String sku, String quantityField, String priceField) {
+    Product product = App.inventory().get(sku);
+    if (product == null) {
+      throw new IllegalArgumentException("Product not found: " + sku);
+    }
+    Integer quantity = null;
+    if (!quantityField.isEmpty()) {
+      quantity = parseQuantity(quantityField);
+      if (quantity < 0) {
+        throw new IllegalArgumentException("Quantity cannot be negative.");
+      }
+    }
+    Double price = null;
+    if (!priceField.isEmpty()) {
+      price = parsePrice(priceField);
+      if (price < 0) {
+        throw new IllegalArgumentException("Price cannot be negative.");
+      }
+    }
+    App.changeProduct(product, quantity, price);
+    return sku;
+  }
+
+  private static String receiveOrder(String[] f) {
+    expect(f, 4);
+    List<OrderItem> items = parseItems(f[3]);
+    App.receiveOrder(new Order(f[1], f[2], App.priceLines(items), LocalDate.now()));
+    return f[1];
+  }
+
+  private static String sellOrder(String[] f) {
+    expect(f, 4);
+    List<OrderItem> items = parseItems(f[3]);
+    StockEngine.Reservation reservation = App.stockEngine().reserve(items);
+    try {
+      App.sellOrder(new SellOrder(f[1], f[2], App.priceLines(items), LocalDate.now()), reservation);
+    } finally {
+      reservation.release();
+    }
+    return f[1];
+  }
+
+  /** The order on a receive-order or sell-order line, its lines not priced yet. */
+  static Order parseOrder(String[] f) {
+    switch (f[0]) {
+      case "receive-order":
+        expect(f, 4);
+        return new Order(f[1], f[2], parseItems(f[3]), LocalDate.now());
+      case "sell-order":
+        expect(f, 4);
+        return new SellOrder(f[1], f[2], parseItems(f[3]), LocalDate.now());
+      default:
+        throw new IllegalArgumentException("Not an order: " + f[0]);
+    }
+  }
+
+  private static List<OrderItem> parseItems(String field) {
+    if (field.isEmpty()) {
+      throw new IllegalArgumentException("Order has no items.");
+    }
+    String[] parts = field.split(",");
+    List<OrderItem> items = new ArrayList<>(parts.length);
+    for (String part : parts) {
+      int colon = part.lastIndexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException("Invalid item '" + part + "', expected SKU:quantity.");
+      }
+      int quantity = parseQuantity(part.substring(colon + 1));
+      if (quantity <= 0) {
+        throw new IllegalArgumentException("Quantity must be positive.");
+      }
+      items.add(new OrderItem(part.substring(0, colon), quantity));
+    }
+    return items;
+  }
+
+  private static int parseQuantity(String value) {
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid quantity: " + value);
+    }
+  }
+
+  private static double parsePrice(String value) {
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid price: " + value);
+    }
+  }
+
+  private static void expect(String[] f, int count) {
+    if (f.length != count) {
+      throw new IllegalArgumentException(f[0] + " expects " + (count - 1) + " fields but got " + (f.length - 1) + ".");
+    }
+  }
+
+  private static void appendClean(StringBuilder status, String text) {
+    if (text == null) {
+      return;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      status.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+    }
+  }
+}
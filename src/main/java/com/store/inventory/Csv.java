@@ -0,0 +1,122 @@
+package com.store.inventory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RFC 4180 style CSV: comma separated, a field holding a comma, quote or line
+ * break is quoted and its quotes doubled.
+ */
+final class Csv {
+  private Csv() {
+  }
+
+  /** Reads records, joining physical lines while a quoted field is open. */
+  static final class RecordReader {
+    private final BufferedReader in;
+    private long line;
+    private long recordLine;
+
+    RecordReader(BufferedReader in) {
+      this.in = in;
+    }
+
+    /** The next record, or null at the end of the input. */
+    String next() throws IOException {
+      String record = in.readLine();
+      if (record == null) {
+        return null;
+      }
+      recordLine = ++line;
+      if (record.indexOf('"') < 0) {
+        return record;
+      }
+      StringBuilder joined = null;
+      while (quotes(record, joined) % 2 != 0) {
+        String more = in.readLine();
+        if (more == null) {
+          break;
+        }
+        line++;
+        if (joined == null) {
+          joined = new StringBuilder(record);
+        }
+        joined.append('\n').append(more);
+      }
+      return joined == null ? record : joined.toString();
+    }
+
+    /** Line number the last record started on. */
+    long line() {
+      return recordLine;
+    }
+
+    private static int quotes(String record, StringBuilder joined) {
+      CharSequence text = joined == null ? record : joined;
+      int count = 0;
+      for (int i = 0; i < text.length(); i++) {
+        if (text.charAt(i) == '"') {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  static List<String> split(String record) {
+    List<String> fields = new ArrayList<>(8);
+    StringBuilder field = new StringBuilder(32);
+    boolean quoted = false;
+    for (int i = 0; i < record.length(); i++) {
+      char c = record.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '"' && field.length() == 0) {
+        quoted = true;
+      } else {
+        field.append(c);
+      }
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("Unterminated quoted field.");
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /** Appends {@code value} as one field, quoting it when needed; null is written as an empty field. */
+  static StringBuilder append(StringBuilder sb, String value) {
+    if (value == null) {
+      return sb;
+    }
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      return sb.append(value);
+    }
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        sb.append('"');
+      }
+      sb.append(c);
+    }
+    return sb.append('"');
+  }
+}
@@ -0,0 +1,561 @@
+package com.store.inventory;
+
+import org.bson.Document;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Streams products, suppliers or orders in and out as CSV or JSON Lines.
+ *
+ * An import reads records on one thread, parses and validates chunks of them
+ * on a pool, and applies the chunks in file order on the calling thread. At
+ * most two chunks per parser are in flight, so memory stays bounded however
+ * large the file is. Products and suppliers are upserted by ID and go to
+ * storage through its write-behind buffer; orders whose ID already exists are
+ * rejected. Rejected rows are reported with their line number and do not stop
+ * the import.
+ *
+ * CSV files start with a header naming their columns, in any order:
+ *
+ * <pre>
+ * products: sku,name,description,quantity,price,supplierId,dateReceived
+ * suppliers: id,name,contact
+ * orders: orderId,type,party,orderDate,sku,name,quantity,unitPrice
+ * </pre>
+ *
+ * Orders take one row per line; consecutive rows with the same orderId form
+ * one order, type is {@code purchase} or {@code sale} and party is the
+ * supplier ID or customer name. JSON Lines holds one document per line in the
+ * shape the HTTP API uses, with ISO date strings; on import an orderDate may
+ * also be a date in extended JSON, as mongoexport writes what MongoDB stores.
+ */
+public class DataTransfer {
+  public enum Kind {
+    PRODUCTS, SUPPLIERS, ORDERS;
+
+    public static Kind parse(String name) {
+      try {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown data kind: " + name + " (products, suppliers or orders)");
+      }
+    }
+  }
+
+  public enum Format {
+    CSV, JSONL;
+
+    /** Picks the format from the file extension. */
+    public static Format of(Path file) {
+      String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+      if (name.endsWith(".csv")) {
+        return CSV;
+      }
+      if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+        return JSONL;
+      }
+      throw new IllegalArgumentException("Cannot tell the format of " + file + "; use .csv or .jsonl.");
+    }
+  }
+
+  public static class Result {
+    private final long imported;
+    private final long rejected;
+    private final long nanos;
+
+    Result(long imported, long rejected, long nanos) {
+      this.imported = imported;
+      this.rejected = rejected;
+      this.nanos = nanos;
+    }
+
+    public long getImported() {
+      return imported;
+    }
+
+    public long getRejected() {
+      return rejected;
+    }
+
+    public double getRowsPerSecond() {
+      return nanos == 0 ? 0 : (imported + rejected) * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Import{imported=%d, rejected=%d, elapsed=%d ms, throughput=%.0f rows/s}",
+          imported, rejected, nanos / 1_000_000, getRowsPerSecond());
+    }
+  }
+
+  static final String[] PRODUCT_COLUMNS = {"sku", "name", "description", "quantity", "price", "supplierId",
+      "dateReceived"};
+  static final String[] SUPPLIER_COLUMNS = {"id", "name", "contact"};
+  static final String[] ORDER_COLUMNS = {"orderId", "type", "party", "orderDate", "sku", "name", "quantity",
+      "unitPrice"};
+  /** Columns a CSV file may leave out; they are read as empty. */
+  private static final Set<String> OPTIONAL_COLUMNS = new HashSet<>(Arrays.asList("description", "supplierId",
+      "dateReceived", "contact", "name"));
+
+  private static final int CHUNK_SIZE = 4096;
+  private static final int MAX_REPORTED_ERRORS = 100;
+
+  /** Records read from the file, with the line each one starts on. */
+  private static final class Chunk {
+    final List<String> records = new ArrayList<>(CHUNK_SIZE);
+    final long[] lines = new long[CHUNK_SIZE];
+  }
+
+  /** A parsed row, or the reason it was rejected. */
+  private static final class Row {
+    final long line;
+    final Object value;
+    final String error;
+
+    Row(long line, Object value, String error) {
+      this.line = line;
+      this.value = value;
+      this.error = error;
+    }
+  }
+
+  private static final List<Row> END = Collections.emptyList();
+
+  private final Kind kind;
+  private final Format format;
+  private final int threads;
+  private final PrintStream log;
+  private int[] columns;
+  private long reported;
+
+  public DataTransfer(Kind kind, Format format, int threads, PrintStream log) {
+    this.kind = kind;
+    this.format = format;
+    this.threads = Math.max(1, threads);
+    this.log = log;
+  }
+
+  public Result importFrom(BufferedReader in) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Csv.RecordReader records = new Csv.RecordReader(in);
+    if (format == Format.CSV) {
+      String header = records.next();
+      if (header == null) {
+        return new Result(0, 0, System.nanoTime() - start);
+      }
+      columns = columnsOf(Csv.split(header));
+    }
+
+    ExecutorService parsers = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "import-parser");
+      thread.setDaemon(true);
+      return thread;
+    });
+    BlockingQueue<Future<List<Row>>> queue = new ArrayBlockingQueue<>(threads * 2);
+    IOException[] readError = new IOException[1];
+    Thread reader = new Thread(() -> {
+      try {
+        Chunk chunk = new Chunk();
+        String record;
+        while ((record = records.next()) != null) {
+          if (record.trim().isEmpty()) {
+            continue;
+          }
+          chunk.lines[chunk.records.size()] = records.line();
+          chunk.records.add(record);
+          if (chunk.records.size() == CHUNK_SIZE) {
+            Chunk full = chunk;
+            queue.put(parsers.submit(() -> parse(full)));
+            chunk = new Chunk();
+          }
+        }
+        if (!chunk.records.isEmpty()) {
+          Chunk last = chunk;
+          queue.put(parsers.submit(() -> parse(last)));
+        }
+      } catch (IOException e) {
+        readError[0] = e;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        try {
+          queue.put(CompletableFuture.completedFuture(END));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, "import-reader");
+    reader.setDaemon(true);
+    reader.start();
+
+    long imported = 0;
+    long rejected = 0;
+    Set<String> orderIds = kind == Kind.ORDERS ? existingOrderIds() : null;
+    Row pending = null;
+    try {
+      List<Row> rows;
+      while ((rows = queue.take().get()) != END) {
+        for (Row row : rows) {
+          if (row.error != null) {
+            reject(row.line, row.error);
+            rejected++;
+            continue;
+          }
+          if (kind == Kind.ORDERS) {
+            // The rows of one order may straddle two chunks; hold each order until the next one starts.
+            if (format == Format.CSV && pending != null
+                && ((Order) pending.value).getOrderId().equals(((Order) row.value).getOrderId())) {
+              pending = new Row(pending.line, merge((Order) pending.value, (Order) row.value), null);
+              continue;
+            }
+            if (pending != null) {
+              if (applyOrder(pending, orderIds)) {
+                imported++;
+              } else {
+                rejected++;
+              }
+            }
+            pending = row;
+            continue;
+          }
+          try {
+            apply(row.value);
+            imported++;
+          } catch (IllegalArgumentException e) {
+            reject(row.line, e.getMessage());
+            rejected++;
+          }
+        }
+      }
+      if (pending != null) {
+        if (applyOrder(pending, orderIds)) {
+          imported++;
+        } else {
+          rejected++;
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new IOException("Import failed: " + e.getCause(), e.getCause());
+    } finally {
+      parsers.shutdownNow();
+    }
+    if (readError[0] != null) {
+      throw readError[0];
+    }
+    App.flushWrites();
+    if (reported < rejected) {
+      log.println(App.ANSI_YELLOW + (rejected - reported) + " more rejected rows not shown." + App.ANSI_RESET);
+    }
+    return new Result(imported, rejected, System.nanoTime() - start);
+  }
+
+  private int[] columnsOf(List<String> header) {
+    String[] expected = kind == Kind.PRODUCTS ? PRODUCT_COLUMNS : kind == Kind.SUPPLIERS ? SUPPLIER_COLUMNS
+        : ORDER_COLUMNS;
+    int[] index = new int[expected.length];
+    for (int i = 0; i < expected.length; i++) {
+      index[i] = header.indexOf(expected[i]);
+      if (index[i] < 0 && !OPTIONAL_COLUMNS.contains(expected[i])) {
+        throw new IllegalArgumentException("CSV header is missing the " + expected[i] + " column.");
+      }
+    }
+    return index;
+  }
+
+  private static Set<String> existingOrderIds() {
+    Set<String> ids = new HashSet<>();
+    List<Order> orders = App.orders();
+    synchronized (orders) {
+      for (Order order : orders) {
+        ids.add(order.getOrderId());
+      }
+    }
+    return ids;
+  }
+
+  private void reject(long line, String message) {
+    if (reported < MAX_REPORTED_ERRORS) {
+      reported++;
+      log.println(App.ANSI_RED + "Line " + line + ": " + message + App.ANSI_RESET);
+    }
+  }
+
+  private List<Row> parse(Chunk chunk) {
+    List<Row> rows = new ArrayList<>(chunk.records.size());
+    for (int i = 0; i < chunk.records.size(); i++) {
+      long line = chunk.lines[i];
+      try {
+        Object value = format == Format.CSV ? fromCsv(Csv.split(chunk.records.get(i)))
+            : fromJson(Document.parse(chunk.records.get(i)));
+        if (kind == Kind.ORDERS && format == Format.CSV && !rows.isEmpty()) {
+          Row last = rows.get(rows.size() - 1);
+          if (last.error == null && ((Order) last.value).getOrderId().equals(((Order) value).getOrderId())) {
+            rows.set(rows.size() - 1, new Row(last.line, merge((Order) last.value, (Order) value), null));
+            continue;
+          }
+        }
+        rows.add(new Row(line, value, null));
+      } catch (RuntimeException e) {
+        // Bad numbers, dates and JSON all surface as runtime errors from their parsers.
+        rows.add(new Row(line, null, e.getMessage() != null ? e.getMessage() : e.toString()));
+      }
+    }
+    return rows;
+  }
+
+  private Object fromCsv(List<String> fields) {
+    switch (kind) {
+      case PRODUCTS:
+        return product(field(fields, 0), field(fields, 1), optional(fields, 2), quantity(field(fields, 3)),
+            price(field(fields, 4)), optional(fields, 5), optional(fields, 6));
+      case SUPPLIERS:
+        return supplier(field(fields, 0), field(fields, 1), optional(fields, 2));
+      default:
+        String type = field(fields, 1);
+        if (!type.equals("purchase") && !type.equals("sale")) {
+          throw new IllegalArgumentException("Order type must be purchase or sale, not '" + type + "'.");
+        }
+        OrderItem item = item(field(fields, 4), optional(fields, 5), quantity(field(fields, 6)),
+            minor(field(fields, 7)));
+        return order(field(fields, 0), type.equals("sale"), field(fields, 2), LocalDate.parse(field(fields, 3)),
+            Collections.singletonList(item));
+    }
+  }
+
+  private Object fromJson(Document doc) {
+    switch (kind) {
+      case PRODUCTS:
+        return product(doc.getString("_id"), doc.getString("name"), doc.getString("description"),
+            intValue(doc, "quantity"), number(doc, "price").doubleValue(), doc.getString("supplierId"),
+            doc.getString("dateReceived"));
+      case SUPPLIERS:
+        return supplier(doc.getString("_id"), doc.getString("name"), doc.getString("contact"));
+      default:
+        List<Document> itemDocs = doc.getList("items", Document.class);
+        if (itemDocs == null) {
+          throw new IllegalArgumentException("Order has no items.");
+        }
+        List<OrderItem> items = new ArrayList<>(itemDocs.size());
+        for (Document itemDoc : itemDocs) {
+          items.add(item(itemDoc.getString("sku"), itemDoc.getString("name"), intValue(itemDoc, "quantity"),
+              number(itemDoc, "unitPrice").longValue()));
+        }
+        String customer = doc.getString("customerName");
+        Object orderDate = doc.get("orderDate");
+        if (orderDate == null) {
+          throw new IllegalArgumentException("Missing orderDate.");
+        }
+        return order(doc.getString("_id"), customer != null, customer != null ? customer : doc.getString("supplierId"),
+            orderDate instanceof Date ? ModelCodecs.toLocalDate(((Date) orderDate).getTime())
+                : LocalDate.parse(orderDate.toString()), items);
+    }
+  }
+
+  private String field(List<String> fields, int column) {
+    int index = columns[column];
+    return index < 0 || index >= fields.size() ? "" : fields.get(index);
+  }
+
+  private String optional(List<String> fields, int column) {
+    String value = field(fields, column);
+    return value.isEmpty() ? null : value;
+  }
+
+  private static int quantity(String value) {
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid quantity: " + value);
+    }
+  }
+
+  private static double price(String value) {
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid price: " + value);
+    }
+  }
+
+  private static long minor(String value) {
+    try {
+      return new BigDecimal(value.trim()).movePointRight(2).longValueExact();
+    } catch (NumberFormatException | ArithmeticException e) {
+      throw new IllegalArgumentException("Invalid price: " + value);
+    }
+  }
+
+  static Number number(Document doc, String key) {
+    Object value = doc.get(key);
+    if (!(value instanceof Number)) {
+      throw new IllegalArgumentException("Missing or invalid " + key + ".");
+    }
+    return (Number) value;
+  }
+
+  static int intValue(Document doc, String key) {
+    Number value = number(doc, key);
+    if (!(value instanceof Integer)) {
+      throw new IllegalArgumentException("Invalid " + key + ": " + value);
+    }
+    return value.intValue();
+  }
+
+  static Product product(String sku, String name, String description, int quantity, double price,
+      String supplierId, String dateReceived) {
+    if (sku == null || sku.isEmpty()) {
+      throw new IllegalArgumentException("Missing SKU.");
+    }
+    if (quantity < 0) {
+      throw new IllegalArgumentException("Quantity cannot be negative.");
+    }
+    if (price < 0 || Double.isNaN(price) || Double.isInfinite(price)) {
+      throw new IllegalArgumentException("Price cannot be negative.");
+    }
+    return new Product(sku, name, description, quantity, price, supplierId, dateReceived);
+  }
+
+  private static Supplier supplier(String id, String name, String contact) {
+    if (id == null || id.isEmpty()) {
+      throw new IllegalArgumentException("Missing supplier ID.");
+    }
+    return new Supplier(id, name, contact);
+  }
+
+  private static OrderItem item(String sku, String name, int quantity, long unitPrice) {
+    if (sku == null || sku.isEmpty()) {
+      throw new IllegalArgumentException("Missing SKU.");
+    }
+    if (quantity <= 0) {
+      throw new IllegalArgumentException("Quantity must be positive.");
+    }
+    if (unitPrice < 0) {
+      throw new IllegalArgumentException("Price cannot be negative.");
+    }
+    return new OrderItem(sku, name, quantity, unitPrice);
+  }
+
+  private static Order order(String orderId, boolean sale, String party, LocalDate orderDate, List<OrderItem> items) {
+    if (orderId == null || orderId.isEmpty()) {
+      throw new IllegalArgumentException("Missing order ID.");
+    }
+    if (items.isEmpty()) {
+      throw new IllegalArgumentException("Order has no items.");
+    }
+    return sale ? new SellOrder(orderId, party, items, orderDate) : new Order(orderId, party, items, orderDate);
+  }
+
+  private static Order merge(Order first, Order next) {
+    List<OrderItem> items = new ArrayList<>(first.getItems());
+    items.addAll(next.getItems());
+    return first instanceof SellOrder
+        ? new SellOrder(first.getOrderId(), ((SellOrder) first).getCustomerName(), items, first.getOrderDate())
+        : new Order(first.getOrderId(), first.getSupplierId(), items, first.getOrderDate());
+  }
+
+  private void apply(Object value) {
+    if (value instanceof Product) {
+      App.putProduct((Product) value);
+    } else {
+      App.putSupplier((Supplier) value);
+    }
+  }
+
+  private boolean applyOrder(Row row, Set<String> orderIds) {
+    Order order = (Order) row.value;
+    if (!orderIds.add(order.getOrderId())) {
+      reject(row.line, "Order with ID " + order.getOrderId() + " already exists.");
+      return false;
+    }
+    try {
+      App.importOrder(order);
+      return true;
+    } catch (IllegalArgumentException e) {
+      reject(row.line, e.getMessage());
+      return false;
+    }
+  }
+
+  /** Writes every product, supplier or order and returns how many. */
+  public long exportTo(Writer out) throws IOException {
+    StringBuilder line = new StringBuilder(256);
+    long count = 0;
+    if (format == Format.CSV) {
+      String[] header = kind == Kind.PRODUCTS ? PRODUCT_COLUMNS : kind == Kind.SUPPLIERS ? SUPPLIER_COLUMNS
+          : ORDER_COLUMNS;
+      out.write(String.join(",", header));
+      out.write('\n');
+    }
+    switch (kind) {
+      case PRODUCTS:
+        for (Product product : App.inventory().values()) {
+          line.setLength(0);
+          if (format == Format.CSV) {
+            Csv.append(line, product.getSku()).append(',');
+            Csv.append(line, product.getName()).append(',');
+            Csv.append(line, product.getDescription()).append(',');
+            line.append(product.getQuantity()).append(',');
+            Money.append(line, Money.toMinor(product.getPrice())).append(',');
+            Csv.append(line, product.getSupplierId()).append(',');
+            Csv.append(line, product.getDateReceived());
+          } else {
+            line.append(App.toDocument(product).toJson());
+          }
+          out.append(line).append('\n');
+          count++;
+        }
+        break;
+      case SUPPLIERS:
+        for (Supplier supplier : App.suppliers().values()) {
+          line.setLength(0);
+          if (format == Format.CSV) {
+            Csv.append(line, supplier.getId()).append(',');
+            Csv.append(line, supplier.getName()).append(',');
+            Csv.append(line, supplier.getContact());
+          } else {
+            line.append(new Document("_id", supplier.getId()).append("name", supplier.getName())
+                .append("contact", supplier.getContact()).toJson());
+          }
+          out.append(line).append('\n');
+          count++;
+        }
+        break;
+      default:
+        List<Order> orders = App.orders();
+        List<Order> copy;
+        synchronized (orders) {
+          copy = new ArrayList<>(orders);
+        }
+        for (Order order : copy) {
+          if (format == Format.JSONL) {
+            out.append(App.toDocument(order).toJson()).append('\n');
+            count++;
+            continue;
+          }
+          boolean sale = order instanceof SellOrder;
+          for (OrderItem item : order.getItems()) {
+            line.setLength(0);
+            Csv.append(line, order.getOrderId()).append(',');
+            line.append(sale ? "sale" : "purchase").append(',');
+            Csv.append(line, sale ? ((SellOrder) order).getCustomerName() : order.getSupplierId()).append(',');
+            line.append(order.getOrderDate()).append(',');
+            Csv.append(line, item.getSku()).append(',');
+            Csv.append(line, item.getName()).append(',');
+            line.append(item.getQuantity()).append(',');
+            Money.append(line, item.getUnitPrice());
+            out.append(line).append('\n');
+          }
+          count++;
+        }
+    }
+    out.flush();
+    return count;
+  }
+}
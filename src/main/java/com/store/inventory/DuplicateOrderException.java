@@ -0,0 +1,16 @@
+package com.store.inventory;
+
+public class DuplicateOrderException extends IllegalArgumentException {
+  private static final long serialVersionUID = 1L;
+
+  private final String orderId;
+
+  public DuplicateOrderException(String orderId) {
+    super("Order with ID " + orderId + " already exists.");
+    this.orderId = orderId;
+  }
+
+  public String getOrderId() {
+    return orderId;
+  }
+}
@@ -0,0 +1,147 @@
+package com.store.inventory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times every call that reaches another storage into
+ * {@link Metrics#STORAGE}, one series per operation. Failed calls are timed
+ * too. Accessors that only hand out the in-memory maps are passed through.
+ */
+public class InstrumentedStorage implements Storage {
+  private final Storage delegate;
+  private final LatencyHistogram open = Metrics.STORAGE.get("open");
+  private final LatencyHistogram awaitOrders = Metrics.STORAGE.get("await-orders");
+  private final LatencyHistogram saveProduct = Metrics.STORAGE.get("save-product");
+  private final LatencyHistogram updateProduct = Metrics.STORAGE.get("update-product");
+  private final LatencyHistogram removeProduct = Metrics.STORAGE.get("remove-product");
+  private final LatencyHistogram saveSupplier = Metrics.STORAGE.get("save-supplier");
+  private final LatencyHistogram writeOrder = Metrics.STORAGE.get("write-order");
+  private final LatencyHistogram writeOrders = Metrics.STORAGE.get("write-orders");
+  private final LatencyHistogram flush = Metrics.STORAGE.get("flush");
+  private final LatencyHistogram close = Metrics.STORAGE.get("close");
+
+  public InstrumentedStorage(Storage delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void open() {
+    long start = System.nanoTime();
+    try {
+      delegate.open();
+    } finally {
+      open.recordSince(start);
+    }
+  }
+
+  @Override
+  public Map<String, Product> products() {
+    return delegate.products();
+  }
+
+  @Override
+  public Map<String, Supplier> suppliers() {
+    return delegate.suppliers();
+  }
+
+  @Override
+  public List<Order> orders() {
+    return delegate.orders();
+  }
+
+  @Override
+  public boolean ordersLoaded() {
+    return delegate.ordersLoaded();
+  }
+
+  @Override
+  public void awaitOrders() {
+    long start = System.nanoTime();
+    try {
+      delegate.awaitOrders();
+    } finally {
+      awaitOrders.recordSince(start);
+    }
+  }
+
+  @Override
+  public void saveProduct(Product product) {
+    long start = System.nanoTime();
+    try {
+      delegate.saveProduct(product);
+    } finally {
+      saveProduct.recordSince(start);
+    }
+  }
+
+  @Override
+  public void updateProduct(Product product) {
+    long start = System.nanoTime();
+    try {
+      delegate.updateProduct(product);
+    } finally {
+      updateProduct.recordSince(start);
+    }
+  }
+
+  @Override
+  public void removeProduct(String sku) {
+    long start = System.nanoTime();
+    try {
+      delegate.removeProduct(sku);
+    } finally {
+      removeProduct.recordSince(start);
+    }
+  }
+
+  @Override
+  public void saveSupplier(Supplier supplier) {
+    long start = System.nanoTime();
+    try {
+      delegate.saveSupplier(supplier);
+    } finally {
+      saveSupplier.recordSince(start);
+    }
+  }
+
+  @Override
+  public Map<String, Integer> writeOrder(Map<String, Integer> deltas, Order order) {
+    long start = System.nanoTime();
+    try {
+      return delegate.writeOrder(deltas, order);
+    } finally {
+      writeOrder.recordSince(start);
+    }
+  }
+
+  @Override
+  public Map<String, Integer> writeOrders(List<Map<String, Integer>> deltas, List<Order> orders) {
+    long start = System.nanoTime();
+    try {
+      return delegate.writeOrders(deltas, orders);
+    } finally {
+      writeOrders.recordSince(start);
+    }
+  }
+
+  @Override
+  public void flush() {
+    long start = System.nanoTime();
+    try {
+      delegate.flush();
+    } finally {
+      flush.recordSince(start);
+    }
+  }
+
+  @Override
+  public void close() {
+    long start = System.nanoTime();
+    try {
+      delegate.close();
+    } finally {
+      close.recordSince(start);
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package com.store.inventory;
+
+public class InsufficientStockException extends IllegalArgumentException {
+  private static final long serialVersionUID = 1L;
+
+  private final String sku;
+  private final int available;
+
+  public InsufficientStockException(String sku, int available) {
+    super("Insufficient stock for " + sku + ". Available: " + available);
+    this.sku = sku;
+    this.available = available;
+  }
+
+  public String getSku() {
+    return sku;
+  }
+
+  public int getAvailable() {
+    return available;
+  }
+}
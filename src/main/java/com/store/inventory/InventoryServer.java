@@ -0,0 +1,514 @@
+package com.store.inventory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON API over the inventory on the JDK's HTTP server, for clients that
+ * need to work on it concurrently. Products and orders use the same
+ * documents as the MongoDB collections and JSON Lines files:
+ *
+ * <pre>
+ * POST /products              add a product; 409 if the SKU exists
+ * GET  /products/{sku}        one product
+ * GET  /products?q=text       text search; also ?supplier=ID or ?from=date&amp;to=date, with &amp;limit=n
+ * POST /orders                receive stock: {"_id", "supplierId", "items": [{"sku", "quantity"}]}
+ * POST /sales                 sell stock: {"_id", "customerName", "items": [...]}; 409 if stock is short
+ * POST /batch                 place {"orders": [...]} together with {@link OrderBatch}; lists the rejected ones
+ * GET  /report                stock totals, overall and by supplier
+ * GET  /stock/{sku}?date=d    stock at the end of a day from the {@link StockLedger}, with &amp;history=n movements
+ * GET  /analytics/top         top SKUs from {@link App#salesQueries()}: ?from&amp;to&amp;limit&amp;by=units|value
+ * GET  /analytics/suppliers   totals by supplier: ?from&amp;to
+ * GET  /analytics/daily       totals by day: ?from&amp;to&amp;supplier (all suppliers if left out)
+ * GET  /reorder?limit=n       low-stock suggestions and draft purchase orders from the {@link ReorderEngine}
+ * GET  /archive               archived orders: ?from&amp;to&amp;sku, with what the scan read
+ * GET  /metrics               {@link Metrics} in the Prometheus text format
+ * </pre>
+ *
+ * Analytics take {@code kind=sales} (the default) or {@code kind=receipts};
+ * the range defaults to the last seven days.
+ *
+ * Each exchange runs on its own virtual thread when the runtime has them
+ * (Java 21 and later) and on a fixed pool of {@code -Dinventory.http.threads}
+ * platform threads otherwise. The handlers call the same App operations as
+ * the menu and batch mode, which are safe to use from many threads.
+ */
+public class InventoryServer {
+  public static final int DEFAULT_PORT = 8080;
+
+  private static final int BACKLOG = 4096;
+  private static final int MAX_BODY = 1 << 20;
+  private static final String JSON = "application/json; charset=utf-8";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final String threading;
+  private final PrintStream log;
+
+  private interface Handler {
+    Response handle(HttpExchange exchange, String path) throws IOException;
+  }
+
+  private static final class Response {
+    final int status;
+    final String body;
+    final String contentType;
+
+    Response(int status, String body, String contentType) {
+      this.status = status;
+      this.body = body;
+      this.contentType = contentType;
+    }
+
+    static Response json(int status, Document doc) {
+      return new Response(status, doc.toJson(), JSON);
+    }
+  }
+
+  /** A failure that maps to a specific HTTP status. */
+  private static final class HttpError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    HttpError(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  public InventoryServer(int port, PrintStream log) throws IOException {
+    this.log = log;
+    server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+    ExecutorService virtual = newVirtualThreadExecutor();
+    if (virtual != null) {
+      executor = virtual;
+      threading = "virtual threads";
+    } else {
+      int threads = Integer.getInteger("inventory.http.threads", Runtime.getRuntime().availableProcessors() * 8);
+      executor = Executors.newFixedThreadPool(threads, r -> {
+        Thread thread = new Thread(r, "http-worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+      threading = threads + " platform threads";
+    }
+    server.setExecutor(executor);
+    route("/products", this::products);
+    route("/orders", (exchange, path) -> order(exchange, path, false));
+    route("/sales", (exchange, path) -> order(exchange, path, true));
+    route("/report", this::report);
+    route("/stock", this::stock);
+    route("/analytics", this::analytics);
+    route("/reorder", this::reorder);
+    route("/archive", this::archive);
+    route("/batch", this::batch);
+    route("/metrics", this::metrics);
+  }
+
+  /**
+   * An executor starting a virtual thread per task, or null when the runtime
+   * has no virtual threads. Looked up reflectively so the build keeps
+   * targeting older JDKs.
+   */
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public String getThreading() {
+    return threading;
+  }
+
+  /** Stops accepting requests, gives those in flight a second to finish and shuts the workers down. */
+  public void stop() {
+    server.stop(1);
+    executor.shutdown();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void route(String prefix, Handler handler) {
+    server.createContext(prefix, exchange -> {
+      long start = System.nanoTime();
+      Response response;
+      try {
+        response = handler.handle(exchange, exchange.getRequestURI().getRawPath().substring(prefix.length()));
+      } catch (HttpError e) {
+        response = error(e.status, e.getMessage());
+      } catch (InsufficientStockException e) {
+        response = Response.json(409, new Document("error", e.getMessage()).append("sku", e.getSku())
+            .append("available", e.getAvailable()));
+      } catch (IllegalArgumentException | JsonParseException | ClassCastException | UnsupportedOperationException
+          | DateTimeParseException e) {
+        // Document getters throw ClassCastException for a field of the wrong JSON type.
+        response = error(400, e instanceof ClassCastException ? "Invalid field type." : e.getMessage());
+      } catch (IOException | RuntimeException e) {
+        log.println(App.ANSI_RED + "Request " + exchange.getRequestMethod() + " " + exchange.getRequestURI()
+            + " failed: " + e + App.ANSI_RESET);
+        response = error(500, "Internal error.");
+      }
+      try {
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      } finally {
+        exchange.close();
+        Metrics.HTTP.get(prefix, String.valueOf(response.status)).recordSince(start);
+      }
+    });
+  }
+
+  private static Response error(int status, String message) {
+    return Response.json(status, new Document("error", message));
+  }
+
+  private static void expectRoot(String path) {
+    if (!path.isEmpty() && !path.equals("/")) {
+      throw new HttpError(404, "No such resource.");
+    }
+  }
+
+  private static void expectMethod(HttpExchange exchange, String method) {
+    if (!exchange.getRequestMethod().equals(method)) {
+      throw new HttpError(405, "Use " + method + ".");
+    }
+  }
+
+  private Response products(HttpExchange exchange, String path) throws IOException {
+    if (path.startsWith("/") && path.length() > 1) {
+      expectMethod(exchange, "GET");
+      String sku = URLDecoder.decode(path.substring(1), StandardCharsets.UTF_8);
+      Product product = App.inventory().get(sku);
+      if (product == null) {
+        throw new HttpError(404, "Product not found: " + sku);
+      }
+      return Response.json(200, App.toDocument(product));
+    }
+    expectRoot(path);
+    if (exchange.getRequestMethod().equals("POST")) {
+      Document doc = body(exchange);
+      Product product = DataTransfer.product(doc.getString("_id"), doc.getString("name"),
+          doc.getString("description"), DataTransfer.intValue(doc, "quantity"),
+          DataTransfer.number(doc, "price").doubleValue(), doc.getString("supplierId"), doc.getString("dateReceived"));
+      if (!App.addProduct(product)) {
+        throw new HttpError(409, "Product with SKU " + product.getSku() + " already exists.");
+      }
+      return Response.json(201, App.toDocument(product));
+    }
+    expectMethod(exchange, "GET");
+    Map<String, String> query = query(exchange);
+    int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 50;
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive.");
+    }
+    List<Product> results;
+    if (query.containsKey("q")) {
+      results = App.productIndex().searchText(query.get("q"), limit);
+    } else if (query.containsKey("supplier")) {
+      results = App.productIndex().bySupplier(query.get("supplier"));
+    } else if (query.containsKey("from") && query.containsKey("to")) {
+      results = App.productIndex().receivedBetween(query.get("from"), query.get("to"), limit);
+    } else {
+      throw new IllegalArgumentException("Search with q, supplier, or from and to.");
+    }
+    List<Document> docs = new ArrayList<>(Math.min(results.size(), limit));
+    for (Product product : results.subList(0, Math.min(results.size(), limit))) {
+      docs.add(App.toDocument(product));
+    }
+    return Response.json(200, new Document("products", docs));
+  }
+
+  private Response order(HttpExchange exchange, String path, boolean sale) throws IOException {
+    expectRoot(path);
+    expectMethod(exchange, "POST");
+    Document doc = body(exchange);
+    String orderId = orderId(doc);
+    // Checked before anything is reserved; a sale without one would load back as a purchase.
+    String customerName = sale ? customerName(doc) : null;
+    List<OrderItem> items = items(doc);
+    Order order;
+    if (!sale) {
+      order = new Order(orderId, doc.getString("supplierId"), App.priceLines(items), LocalDate.now());
+      App.receiveOrder(order);
+    } else {
+      StockEngine.Reservation reservation = App.stockEngine().reserve(items);
+      try {
+        order = new SellOrder(orderId, customerName, App.priceLines(items), LocalDate.now());
+        App.sellOrder((SellOrder) order, reservation);
+      } finally {
+        reservation.release();
+      }
+    }
+    return Response.json(201, App.toDocument(order));
+  }
+
+  /**
+   * Places the orders in {@code {"orders": [...]}} as one batch. Each is
+   * shaped as for POST /orders, or POST /sales when it has a customerName.
+   * Orders that fail their checks are listed with the reason; the rest are
+   * stored.
+   */
+  private Response batch(HttpExchange exchange, String path) throws IOException {
+    expectRoot(path);
+    expectMethod(exchange, "POST");
+    List<Document> docs = body(exchange).getList("orders", Document.class);
+    if (docs == null || docs.isEmpty()) {
+      throw new IllegalArgumentException("Batch has no orders.");
+    }
+    List<Order> orders = new ArrayList<>(docs.size());
+    for (Document doc : docs) {
+      orders.add(doc.containsKey("customerName")
+          ? new SellOrder(orderId(doc), customerName(doc), items(doc), LocalDate.now())
+          : new Order(orderId(doc), doc.getString("supplierId"), items(doc), LocalDate.now()));
+    }
+    OrderBatch.Result result = OrderBatch.place(orders);
+    List<String> placed = new ArrayList<>(result.getPlaced().size());
+    for (Order order : result.getPlaced()) {
+      placed.add(order.getOrderId());
+    }
+    List<Document> rejected = new ArrayList<>(result.getRejected().size());
+    result.getRejected().forEach((index, error) -> rejected.add(new Document("index", index)
+        .append("_id", orders.get(index).getOrderId())
+        .append("error", error)));
+    return Response.json(200, new Document("placed", placed)
+        .append("rejected", rejected)
+        .append("ordersPerSecond", result.getOrdersPerSecond()));
+  }
+
+  private static String orderId(Document doc) {
+    String orderId = doc.getString("_id");
+    if (orderId == null || orderId.isEmpty()) {
+      throw new IllegalArgumentException("Missing order ID.");
+    }
+    return orderId;
+  }
+
+  /** Stored orders are sales exactly when they have a customer name, so a sale must have one. */
+  private static String customerName(Document doc) {
+    String customerName = doc.getString("customerName");
+    if (customerName == null || customerName.trim().isEmpty()) {
+      throw new IllegalArgumentException("Missing customer name.");
+    }
+    return customerName;
+  }
+
+  private static List<OrderItem> items(Document doc) {
+    List<Document> itemDocs = doc.getList("items", Document.class);
+    if (itemDocs == null || itemDocs.isEmpty()) {
+      throw new IllegalArgumentException("Order has no items.");
+    }
+    List<OrderItem> items = new ArrayList<>(itemDocs.size());
+    for (Document itemDoc : itemDocs) {
+      String sku = itemDoc.getString("sku");
+      int quantity = DataTransfer.intValue(itemDoc, "quantity");
+      if (sku == null || sku.isEmpty()) {
+        throw new IllegalArgumentException("Missing SKU.");
+      }
+      if (quantity <= 0) {
+        throw new IllegalArgumentException("Quantity must be positive.");
+      }
+      items.add(new OrderItem(sku, quantity));
+    }
+    return items;
+  }
+
+  private Response report(HttpExchange exchange, String path) {
+    expectRoot(path);
+    expectMethod(exchange, "GET");
+    InventoryValuation valuation = App.valuation();
+    InventoryValuation.Totals total = valuation.total();
+    List<Document> suppliers = new ArrayList<>();
+    for (InventoryValuation.Totals totals : valuation.suppliers()) {
+      Supplier supplier = App.suppliers().get(totals.getSupplierId());
+      suppliers.add(new Document("supplierId", totals.getSupplierId())
+          .append("name", supplier != null ? supplier.getName() : null)
+          .append("products", totals.getProducts())
+          .append("items", totals.getItems())
+          .append("value", Money.toMajor(totals.getValue())));
+    }
+    return Response.json(200, new Document("products", total.getProducts())
+        .append("items", total.getItems())
+        .append("value", Money.toMajor(total.getValue()))
+        .append("suppliers", suppliers));
+  }
+
+  private Response stock(HttpExchange exchange, String path) throws IOException {
+    expectMethod(exchange, "GET");
+    if (!path.startsWith("/") || path.length() == 1) {
+      throw new HttpError(404, "No such resource.");
+    }
+    StockLedger ledger = App.ledger();
+    if (ledger == null) {
+      throw new HttpError(404, "The stock ledger is turned off.");
+    }
+    String sku = URLDecoder.decode(path.substring(1), StandardCharsets.UTF_8);
+    Map<String, String> query = query(exchange);
+    LocalDate date = query.containsKey("date") ? LocalDate.parse(query.get("date")) : LocalDate.now();
+    long start = System.nanoTime();
+    Document doc = new Document("sku", sku).append("date", date.toString())
+        .append("quantity", ledger.quantityOn(sku, date));
+    Metrics.STORAGE.get("ledger-query").recordSince(start);
+    if (query.containsKey("history")) {
+      List<Document> movements = new ArrayList<>();
+      for (StockLedger.Movement movement : ledger.history(sku, Integer.parseInt(query.get("history")))) {
+        movements.add(new Document("time", Instant.ofEpochMilli(movement.getTime()).toString())
+            .append("reason", movement.getReason().name())
+            .append("delta", movement.getDelta())
+            .append("quantity", movement.getQuantity())
+            .append("reference", movement.getReference()));
+      }
+      doc.append("history", movements);
+    }
+    return Response.json(200, doc);
+  }
+
+  private Response analytics(HttpExchange exchange, String path) {
+    expectMethod(exchange, "GET");
+    Map<String, String> query = query(exchange);
+    String kindName = query.getOrDefault("kind", "sales");
+    if (!kindName.equals("sales") && !kindName.equals("receipts")) {
+      throw new IllegalArgumentException("Kind must be sales or receipts.");
+    }
+    SalesQueries.Kind kind = SalesQueries.Kind.valueOf(kindName.toUpperCase(Locale.ROOT));
+    LocalDate to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : LocalDate.now();
+    LocalDate from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : to.minusDays(6);
+    SalesQueries queries = App.salesQueries();
+    List<SalesQueries.Total> totals;
+    switch (path) {
+      case "/top":
+        int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 10;
+        totals = queries.topSkus(kind, from, to, limit, query.getOrDefault("by", "units").equals("value"));
+        break;
+      case "/suppliers":
+        totals = queries.suppliers(kind, from, to);
+        break;
+      case "/daily":
+        totals = new ArrayList<>(queries.daily(kind, query.get("supplier"), from, to).values());
+        break;
+      default:
+        throw new HttpError(404, "No such resource.");
+    }
+    List<Document> docs = new ArrayList<>(totals.size());
+    for (SalesQueries.Total total : totals) {
+      docs.add(new Document("key", total.getKey())
+          .append("units", total.getUnits())
+          .append("value", Money.toMajor(total.getValue()))
+          .append("lines", total.getLines()));
+    }
+    return Response.json(200, new Document("kind", kind.name().toLowerCase(Locale.ROOT))
+        .append("from", from.toString()).append("to", to.toString()).append("totals", docs));
+  }
+
+  private Response reorder(HttpExchange exchange, String path) {
+    expectRoot(path);
+    expectMethod(exchange, "GET");
+    ReorderEngine engine = App.reorder();
+    if (engine == null) {
+      throw new HttpError(404, "Reorder suggestions are not available.");
+    }
+    Map<String, String> query = query(exchange);
+    int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : 50;
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive.");
+    }
+    List<Document> suggestions = new ArrayList<>();
+    for (ReorderEngine.Suggestion suggestion : engine.lowStock(limit)) {
+      suggestions.add(new Document("sku", suggestion.getSku())
+          .append("quantity", suggestion.getQuantity())
+          .append("dailyRate", suggestion.getDailyRate())
+          .append("daysOfCover", suggestion.getDaysOfCover())
+          .append("orderQuantity", suggestion.getOrderQuantity()));
+    }
+    List<Document> drafts = new ArrayList<>();
+    for (Order draft : engine.draftOrders()) {
+      drafts.add(App.toDocument(draft));
+    }
+    return Response.json(200, new Document("suggestions", suggestions).append("drafts", drafts));
+  }
+
+  private Response archive(HttpExchange exchange, String path) throws IOException {
+    expectRoot(path);
+    expectMethod(exchange, "GET");
+    OrderArchive archive = App.archive();
+    if (archive == null) {
+      throw new HttpError(404, "The order archive is turned off.");
+    }
+    Map<String, String> query = query(exchange);
+    OrderArchive.Scan scan = archive.query(query.containsKey("from") ? LocalDate.parse(query.get("from")) : null,
+        query.containsKey("to") ? LocalDate.parse(query.get("to")) : null, query.get("sku"));
+    List<Document> orders = new ArrayList<>(scan.getOrders().size());
+    for (Order order : scan.getOrders()) {
+      orders.add(App.toDocument(order));
+    }
+    return Response.json(200, new Document("orders", orders)
+        .append("segmentsScanned", scan.getSegmentsScanned())
+        .append("segmentsSkipped", scan.getSegmentsSkipped())
+        .append("ordersRead", scan.getOrdersRead())
+        .append("bytesRead", scan.getBytesRead())
+        .append("megabytesPerSecond", scan.getMegabytesPerSecond()));
+  }
+
+  private Response metrics(HttpExchange exchange, String path) throws IOException {
+    expectRoot(path);
+    expectMethod(exchange, "GET");
+    StringWriter out = new StringWriter();
+    Metrics.writePrometheus(out);
+    return new Response(200, out.toString(), "text/plain; version=0.0.4; charset=utf-8");
+  }
+
+  private static Document body(HttpExchange exchange) throws IOException {
+    byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+    if (bytes.length > MAX_BODY) {
+      throw new HttpError(413, "Request body is larger than " + MAX_BODY + " bytes.");
+    }
+    if (bytes.length == 0) {
+      throw new IllegalArgumentException("Request body is empty.");
+    }
+    return Document.parse(new String(bytes, StandardCharsets.UTF_8));
+  }
+
+  private static Map<String, String> query(HttpExchange exchange) {
+    Map<String, String> params = new HashMap<>();
+    String raw = exchange.getRequestURI().getRawQuery();
+    if (raw == null) {
+      return params;
+    }
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+      params.put(key, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+    }
+    return params;
+  }
+}
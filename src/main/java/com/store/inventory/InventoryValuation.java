@@ -0,0 +1,151 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Running item counts and stock value for the whole inventory and for each
+ * supplier, kept in paise so the totals stay exact however many changes are
+ * applied. Registered as a {@link StockEngine.Listener} it sees every stock
+ * and price change; products added or removed outside the engine are passed
+ * to {@link #add(Product)} and {@link #remove(Product)}.
+ *
+ * Changes are matched to products by SKU, not by instance, since a cache may
+ * load a product again as a new instance. Callers replace a product while
+ * holding its SKU's lock in the engine, so a change to the old instance cannot
+ * land on the new one's totals.
+ */
+public class InventoryValuation implements StockEngine.Listener {
+  public static final class Totals {
+    private final String supplierId;
+    private int products;
+    private long items;
+    private long value;
+
+    Totals(String supplierId) {
+      this.supplierId = supplierId;
+    }
+
+    private Totals copy() {
+      Totals copy = new Totals(supplierId);
+      copy.products = products;
+      copy.items = items;
+      copy.value = value;
+      return copy;
+    }
+
+    public String getSupplierId() {
+      return supplierId;
+    }
+
+    public int getProducts() {
+      return products;
+    }
+
+    public long getItems() {
+      return items;
+    }
+
+    /** Stock value in paise. */
+    public long getValue() {
+      return value;
+    }
+  }
+
+  private final Totals global = new Totals(null);
+  private final Map<String, Totals> bySupplier = new ConcurrentHashMap<>();
+  /** SKUs removed and not added back, whose late changes are ignored. */
+  private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+  /** Starts from nothing; totals computed elsewhere are added with {@link #add(String, int, long, long)}. */
+  public InventoryValuation() {
+  }
+
+  public InventoryValuation(Map<String, Product> products) {
+    if (products instanceof ProductStore) {
+      ((ProductStore) products).scan((sku, supplierId, quantity, price) ->
+          apply(supplierId, 1, quantity, quantity * price));
+    } else {
+      for (Product product : products.values()) {
+        add(product);
+      }
+    }
+  }
+
+  public static long value(int quantity, double price) {
+    return quantity * Money.toMinor(price);
+  }
+
+  /** Adds the totals of {@code products} products of one supplier, with their value in paise. */
+  public void add(String supplierId, int products, long items, long value) {
+    apply(supplierId, products, items, value);
+  }
+
+  public void add(Product product) {
+    removed.remove(product.getSku());
+    apply(product.getSupplierId(), 1, product.getQuantity(), value(product.getQuantity(), product.getPrice()));
+  }
+
+  public void remove(Product product) {
+    removed.add(product.getSku());
+    apply(product.getSupplierId(), -1, -product.getQuantity(), -value(product.getQuantity(), product.getPrice()));
+  }
+
+  @Override
+  public void productChanged(Product product, int oldQuantity, double oldPrice) {
+    // A product removed from the inventory has already been taken out of the totals.
+    if (removed.contains(product.getSku())) {
+      return;
+    }
+    apply(product.getSupplierId(), 0, product.getQuantity() - oldQuantity,
+        value(product.getQuantity(), product.getPrice()) - value(oldQuantity, oldPrice));
+  }
+
+  public Totals total() {
+    synchronized (global) {
+      return global.copy();
+    }
+  }
+
+  public Totals supplier(String supplierId) {
+    Totals totals = bySupplier.get(nullToEmpty(supplierId));
+    if (totals == null) {
+      return new Totals(supplierId);
+    }
+    synchronized (totals) {
+      return totals.copy();
+    }
+  }
+
+  /** Totals of every supplier that currently has products, ordered by supplier ID. */
+  public List<Totals> suppliers() {
+    List<Totals> result = new ArrayList<>(bySupplier.size());
+    for (Totals totals : bySupplier.values()) {
+      synchronized (totals) {
+        if (totals.products > 0) {
+          result.add(totals.copy());
+        }
+      }
+    }
+    result.sort(Comparator.comparing(Totals::getSupplierId));
+    return result;
+  }
+
+  private void apply(String supplierId, int products, long items, long value) {
+    Totals supplier = bySupplier.computeIfAbsent(nullToEmpty(supplierId), Totals::new);
+    synchronized (supplier) {
+      supplier.products += products;
+      supplier.items += items;
+      supplier.value += value;
+    }
+    synchronized (global) {
+      global.products += products;
+      global.items += items;
+      global.value += value;
+    }
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
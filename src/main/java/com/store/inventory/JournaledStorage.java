@@ -0,0 +1,473 @@
+package com.store.inventory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Puts an {@link OrderJournal} in front of another storage. An order is
+ * checked against the stored stock kept here, written to the journal and
+ * acknowledged once the journal has synced it; an applier thread then writes
+ * it to the backing storage in journal order. A crash between the two loses
+ * nothing: on the next start every journaled order that the backing storage
+ * does not have yet, judged by order ID, is applied before anything else.
+ * The stored quantities start from the backing storage's products, or, when
+ * those are a {@link ProductCache}, from each product as it is loaded, and
+ * follow other processes' changes through {@link #productChanged}. With a
+ * cache, a product's stored quantity is kept only while it is cached or has
+ * journaled orders not applied yet, so it is no more than the cache holds.
+ *
+ * Orders show up in {@link #orders()} once applied, so {@link #awaitOrders()}
+ * also waits for the applier to catch up. Product writes wait for it too,
+ * since an absolute quantity must not be overtaken by an older order's delta.
+ *
+ * An order the backing storage fails to write stays at the head of the queue,
+ * and in the journal, and is retried with growing pauses. One it rejects with
+ * an {@link IllegalArgumentException}, such as a shortage after another
+ * process sold the stock, is dropped: its stock changes are taken back out
+ * of the stored quantities and passed to the rejection listener, which undoes
+ * them wherever else they were applied.
+ */
+public class JournaledStorage implements Storage {
+  /** Journal size above which it is emptied whenever the applier has caught up. */
+  public static final long DEFAULT_RESET_BYTES = 4L << 20;
+  private static final long FIRST_RETRY_MS = 100;
+  private static final long MAX_RETRY_MS = 30_000;
+
+  private final Storage delegate;
+  private final OrderJournal journal;
+  private final long resetBytes;
+  private final PrintStream log;
+
+  private final Object lock = new Object();
+  private final ArrayDeque<Applied> queue = new ArrayDeque<>();
+  /** Stored quantities including journaled orders the backing storage has not seen yet. */
+  private final Map<String, Integer> stored = new HashMap<>();
+  /** How many queued orders change each SKU. */
+  private final Map<String, Integer> queuedSkus = new HashMap<>();
+  private boolean caching;
+  private Thread applier;
+  private long applied;
+  private long failed;
+  private long rejected;
+  private boolean closing;
+  private boolean stopped;
+  private volatile BiConsumer<Order, Map<String, Integer>> rejections;
+
+  private static final class Applied {
+    final long sequence;
+    final Order order;
+    final Map<String, Integer> deltas;
+
+    Applied(long sequence, Order order, Map<String, Integer> deltas) {
+      this.sequence = sequence;
+      this.order = order;
+      this.deltas = deltas;
+    }
+  }
+
+  public JournaledStorage(Storage delegate, Path journalFile, long resetBytes, PrintStream log) {
+    this.delegate = delegate;
+    this.journal = new OrderJournal(journalFile, log);
+    this.resetBytes = resetBytes;
+    this.log = log;
+  }
+
+  @Override
+  public void open() {
+    delegate.open();
+    caching = delegate.products() instanceof ProductCache;
+    if (caching) {
+      ProductCache cache = (ProductCache) delegate.products();
+      cache.addLoadListener((skus, loaded) -> {
+        synchronized (lock) {
+          // A product evicted with orders not applied yet kept its quantity, which the load may lag.
+          loaded.forEach((sku, product) -> stored.putIfAbsent(sku, product.getQuantity()));
+        }
+      });
+      cache.addEvictionListener(sku -> {
+        synchronized (lock) {
+          forgetIfUnused(sku);
+        }
+      });
+    }
+    try {
+      List<OrderJournal.Entry> entries = journal.open();
+      if (!entries.isEmpty()) {
+        replay(entries);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open the order journal", e);
+    }
+    if (!caching) {
+      for (Product product : delegate.products().values()) {
+        stored.put(product.getSku(), product.getQuantity());
+      }
+    }
+    applier = new Thread(this::applyLoop, "order-journal-apply");
+    applier.setDaemon(true);
+    applier.start();
+  }
+
+  private void replay(List<OrderJournal.Entry> entries) throws IOException {
+    long start = System.nanoTime();
+    delegate.awaitOrders();
+    Set<String> present = new HashSet<>();
+    synchronized (delegate.orders()) {
+      for (Order order : delegate.orders()) {
+        present.add(order.getOrderId());
+      }
+    }
+    int replayed = 0;
+    for (OrderJournal.Entry entry : entries) {
+      if (present.contains(entry.getOrder().getOrderId())) {
+        continue;
+      }
+      try {
+        // There is no stock engine yet to refresh the products from what was stored.
+        delegate.writeOrder(entry.getDeltas(), entry.getOrder()).forEach((sku, quantity) -> {
+          Product product = delegate.products().get(sku);
+          if (product != null) {
+            product.setQuantity(quantity);
+          }
+          synchronized (lock) {
+            stored.put(sku, quantity);
+          }
+        });
+        replayed++;
+      } catch (IllegalArgumentException e) {
+        log.println(App.ANSI_RED + "Could not apply journaled order " + entry.getOrder().getOrderId() + ": "
+            + e.getMessage() + App.ANSI_RESET);
+      } catch (RuntimeException e) {
+        // Resetting now would lose the order; the next start replays the journal again.
+        throw new IllegalStateException("Could not apply journaled order " + entry.getOrder().getOrderId()
+            + ", keeping the journal", e);
+      }
+    }
+    delegate.flush();
+    journal.reset(0);
+    Metrics.LOAD.get("journal-replay").recordSince(start);
+    log.println(App.ANSI_GREEN + "Replayed " + replayed + " of " + entries.size() + " journaled orders."
+        + App.ANSI_RESET);
+  }
+
+  /**
+   * Takes a product as another process left it in the backing storage, or
+   * null if it was removed there. Its stored quantity becomes the backing
+   * storage's plus whatever journaled orders have not been applied yet. With
+   * a cache, products it has not loaded are left to be seeded when it does.
+   */
+  public void productChanged(String sku, Product product) {
+    synchronized (lock) {
+      if (product == null) {
+        stored.remove(sku);
+        return;
+      }
+      if (caching && !stored.containsKey(sku)) {
+        return;
+      }
+      int quantity = product.getQuantity();
+      for (Applied entry : queue) {
+        quantity += entry.deltas.getOrDefault(sku, 0);
+      }
+      stored.put(sku, quantity);
+    }
+  }
+
+  /** Whether journaled orders that change {@code sku} have not reached the backing storage yet. */
+  public boolean hasQueuedOrders(String sku) {
+    synchronized (lock) {
+      return queuedSkus.containsKey(sku);
+    }
+  }
+
+  /** Drops the stored quantity of a product the cache no longer holds and no queued order changes. */
+  private void forgetIfUnused(String sku) {
+    if (caching && !queuedSkus.containsKey(sku) && ((ProductCache) delegate.products()).peek(sku) == null) {
+      stored.remove(sku);
+    }
+  }
+
+  /** Called on the applier thread with each order the backing storage rejected and the stock changes it had made. */
+  public void setRejectionListener(BiConsumer<Order, Map<String, Integer>> rejections) {
+    this.rejections = rejections;
+  }
+
+  @Override
+  public Map<String, Product> products() {
+    return delegate.products();
+  }
+
+  @Override
+  public Map<String, Supplier> suppliers() {
+    return delegate.suppliers();
+  }
+
+  @Override
+  public List<Order> orders() {
+    return delegate.orders();
+  }
+
+  @Override
+  public boolean ordersLoaded() {
+    synchronized (lock) {
+      if (!queue.isEmpty()) {
+        return false;
+      }
+    }
+    return delegate.ordersLoaded();
+  }
+
+  @Override
+  public void awaitOrders() {
+    awaitApplied();
+    delegate.awaitOrders();
+  }
+
+  @Override
+  public void saveProduct(Product product) {
+    synchronized (lock) {
+      stored.put(product.getSku(), product.getQuantity());
+    }
+    awaitApplied();
+    delegate.saveProduct(product);
+  }
+
+  @Override
+  public void updateProduct(Product product) {
+    synchronized (lock) {
+      stored.put(product.getSku(), product.getQuantity());
+    }
+    awaitApplied();
+    delegate.updateProduct(product);
+  }
+
+  @Override
+  public void removeProduct(String sku) {
+    synchronized (lock) {
+      stored.remove(sku);
+    }
+    awaitApplied();
+    delegate.removeProduct(sku);
+  }
+
+  @Override
+  public void saveSupplier(Supplier supplier) {
+    delegate.saveSupplier(supplier);
+  }
+
+  @Override
+  public Map<String, Integer> writeOrder(Map<String, Integer> deltas, Order order) {
+    if (deltas.isEmpty()) {
+      // Imported history changes no stock, so there is nothing to keep atomic.
+      return delegate.writeOrder(deltas, order);
+    }
+    return writeOrders(Collections.singletonList(deltas), Collections.singletonList(order));
+  }
+
+  /**
+   * Journals every order under one lock and waits for a single sync covering
+   * them all. A crash during that sync may keep only the first few orders,
+   * each of them whole.
+   */
+  @Override
+  public Map<String, Integer> writeOrders(List<Map<String, Integer>> deltas, List<Order> orders) {
+    if (deltas.size() != orders.size()) {
+      throw new IllegalArgumentException("Expected deltas for each of " + orders.size() + " orders.");
+    }
+    Map<String, Integer> after = new HashMap<>();
+    long sequence = 0;
+    synchronized (lock) {
+      if (closing) {
+        throw new IllegalStateException("Storage is closed.");
+      }
+      for (Map<String, Integer> orderDeltas : deltas) {
+        for (Map.Entry<String, Integer> entry : orderDeltas.entrySet()) {
+          Integer quantity = after.containsKey(entry.getKey()) ? after.get(entry.getKey()) : stored.get(entry.getKey());
+          if (quantity == null) {
+            throw new IllegalArgumentException("Product not found: " + entry.getKey());
+          }
+          if (quantity + entry.getValue() < 0) {
+            throw new InsufficientStockException(entry.getKey(), quantity);
+          }
+          after.put(entry.getKey(), quantity + entry.getValue());
+        }
+      }
+      for (int i = 0; i < orders.size(); i++) {
+        sequence = journal.append(orders.get(i), deltas.get(i));
+        queue.add(new Applied(sequence, orders.get(i), deltas.get(i)));
+        for (String sku : deltas.get(i).keySet()) {
+          queuedSkus.merge(sku, 1, Integer::sum);
+        }
+      }
+      stored.putAll(after);
+      lock.notifyAll();
+    }
+    journal.awaitDurable(sequence);
+    return after;
+  }
+
+  /** Blocks until the applier has written every queued order to the backing storage. */
+  private void awaitApplied() {
+    synchronized (lock) {
+      while (!queue.isEmpty() && !stopped) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for journaled orders.", e);
+        }
+      }
+    }
+  }
+
+  private void applyLoop() {
+    long retryMs = 0;
+    while (true) {
+      Applied next;
+      synchronized (lock) {
+        while (queue.isEmpty() && !closing) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (queue.isEmpty() || closing && retryMs > 0) {
+          // Whatever is left stays in the journal and is replayed on the next start.
+          return;
+        }
+        next = queue.peek();
+      }
+      journal.awaitDurable(next.sequence);
+      try {
+        delegate.writeOrder(next.deltas, next.order);
+      } catch (DuplicateOrderException e) {
+        if (retryMs == 0) {
+          reject(next, e);
+        }
+        // Otherwise an earlier attempt was written after all.
+      } catch (IllegalArgumentException e) {
+        reject(next, e);
+      } catch (RuntimeException e) {
+        retryMs = retryMs == 0 ? FIRST_RETRY_MS : Math.min(retryMs * 2, MAX_RETRY_MS);
+        log.println(App.ANSI_RED + "Could not apply journaled order " + next.order.getOrderId() + ", retrying in "
+            + retryMs + " ms: " + e.getMessage() + App.ANSI_RESET);
+        if (!pause(retryMs)) {
+          return;
+        }
+        continue;
+      }
+      retryMs = 0;
+      boolean caughtUp;
+      synchronized (lock) {
+        queue.poll();
+        for (String sku : next.deltas.keySet()) {
+          if (queuedSkus.merge(sku, -1, Integer::sum) == 0) {
+            queuedSkus.remove(sku);
+            forgetIfUnused(sku);
+          }
+        }
+        applied = next.sequence;
+        caughtUp = queue.isEmpty();
+        lock.notifyAll();
+      }
+      if (caughtUp) {
+        resetIfLarge(next.sequence);
+      }
+    }
+  }
+
+  /** Waits {@code millis} before a retry; returns false if the storage is closing instead. */
+  private boolean pause(long millis) {
+    long deadline = System.nanoTime() + millis * 1_000_000;
+    synchronized (lock) {
+      failed++;
+      long remaining;
+      while (!closing && (remaining = deadline - System.nanoTime()) > 0) {
+        try {
+          lock.wait(Math.max(1, remaining / 1_000_000));
+        } catch (InterruptedException e) {
+          return false;
+        }
+      }
+      return !closing;
+    }
+  }
+
+  /** Takes a rejected order's stock changes back out and reports it. */
+  private void reject(Applied next, RuntimeException cause) {
+    synchronized (lock) {
+      for (Map.Entry<String, Integer> entry : next.deltas.entrySet()) {
+        stored.computeIfPresent(entry.getKey(), (sku, quantity) -> quantity - entry.getValue());
+      }
+      rejected++;
+    }
+    log.println(App.ANSI_RED + "Backing storage rejected journaled order " + next.order.getOrderId()
+        + ", rolling it back: " + cause.getMessage() + App.ANSI_RESET);
+    BiConsumer<Order, Map<String, Integer>> listener = rejections;
+    if (listener != null) {
+      try {
+        listener.accept(next.order, next.deltas);
+      } catch (RuntimeException e) {
+        log.println(App.ANSI_RED + "Could not roll back order " + next.order.getOrderId() + ": " + e.getMessage()
+            + App.ANSI_RESET);
+      }
+    }
+  }
+
+  private void resetIfLarge(long sequence) {
+    try {
+      if (journal.size() >= resetBytes) {
+        // The backing storage may buffer writes; they must be durable before the journal forgets them.
+        delegate.flush();
+        journal.reset(sequence);
+      }
+    } catch (IOException | RuntimeException e) {
+      log.println(App.ANSI_YELLOW + "Could not reset the order journal: " + e.getMessage() + App.ANSI_RESET);
+    }
+  }
+
+  long getJournalSyncs() {
+    return journal.getSyncs();
+  }
+
+  @Override
+  public void flush() {
+    awaitApplied();
+    delegate.flush();
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      if (applier == null || closing) {
+        return;
+      }
+      closing = true;
+      lock.notifyAll();
+    }
+    try {
+      applier.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (lock) {
+      stopped = true;
+      lock.notifyAll();
+    }
+    try {
+      delegate.flush();
+      journal.reset(applied);
+      journal.close();
+    } catch (IOException | RuntimeException e) {
+      log.println(App.ANSI_RED + "Failed to close the order journal: " + e.getMessage() + App.ANSI_RESET);
+    }
+    log.println("Order journal: " + applied + " orders in " + journal.getSyncs() + " syncs, " + failed
+        + " failed attempts, " + rejected + " rejected, " + queue.size() + " left to replay.");
+    delegate.close();
+  }
+}
@@ -0,0 +1,584 @@
+package com.store.inventory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded storage for stores without a dependable connection to MongoDB.
+ * Every change is appended to one log file as a length-prefixed, CRC-checked
+ * record, and opening the store replays the log, cutting off a torn record
+ * left by a crash.
+ *
+ * Appends collect in memory and a background thread writes and fsyncs them
+ * together every {@code syncIntervalMs}, so a crash loses at most that window,
+ * as with the write-behind buffer of the MongoDB store. Once the log has grown
+ * to twice its size after the last compaction it is rewritten with one record
+ * per live product, supplier and order.
+ */
+public class LogStorage implements Storage {
+  public static final long DEFAULT_SYNC_INTERVAL_MS = 50;
+  public static final long DEFAULT_COMPACT_MIN_BYTES = 64L << 20;
+
+  static final String LOG_FILE = "inventory.log";
+
+  private static final byte PRODUCT = 1;
+  private static final byte PRODUCT_UPDATE = 2;
+  private static final byte PRODUCT_DELETE = 3;
+  private static final byte SUPPLIER = 4;
+  private static final byte ORDER = 5;
+  private static final int MAX_RECORD = 64 << 20;
+  private static final int DRAIN_BYTES = 1 << 20;
+  private static final LatencyHistogram SYNC_TIME = Metrics.STORAGE.get("log-sync");
+
+  /** A ByteArrayOutputStream whose array can be written out without a copy. */
+  private static final class Buffer extends ByteArrayOutputStream {
+    Buffer(int size) {
+      super(size);
+    }
+
+    ByteBuffer contents() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+  private final Path directory;
+  private final Path logFile;
+  private final long syncIntervalMs;
+  private final long compactMinBytes;
+  private final PrintStream log;
+
+  private final Object lock = new Object();
+  private final Buffer payloadBytes = new Buffer(256);
+  private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+  private final CRC32 crc = new CRC32();
+  private Buffer pending = new Buffer(DRAIN_BYTES + 4096);
+  private FileChannel channel;
+  private long logBytes;
+  private long compactedBytes;
+  private long records;
+  private long syncs;
+  private long compactions;
+  private ScheduledExecutorService syncer;
+
+  private final ProductStore products = new ProductStore();
+  private final Map<String, Supplier> suppliers = new ConcurrentHashMap<>();
+  private final List<Order> orders = Collections.synchronizedList(new ArrayList<>());
+  /** Quantities as stored, which differ from the products' while reservations are open. */
+  private final Map<String, Integer> stored = new HashMap<>();
+
+  public LogStorage(Path directory, long syncIntervalMs, long compactMinBytes, PrintStream log) {
+    this.directory = directory;
+    this.logFile = directory.resolve(LOG_FILE);
+    this.syncIntervalMs = syncIntervalMs;
+    this.compactMinBytes = compactMinBytes;
+    this.log = log;
+  }
+
+  @Override
+  public void open() {
+    long start = System.nanoTime();
+    try {
+      Files.createDirectories(directory);
+      long valid = Files.exists(logFile) ? replay() : 0;
+      channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      if (channel.size() > valid) {
+        log.println(App.ANSI_YELLOW + "Discarding " + (channel.size() - valid) + " bytes of a torn write at the end of "
+            + logFile + "." + App.ANSI_RESET);
+        channel.truncate(valid);
+        channel.force(true);
+      }
+      channel.position(valid);
+      logBytes = valid;
+      compactedBytes = valid;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open " + logFile, e);
+    }
+    Metrics.LOAD.get("log-replay").recordSince(start);
+    log.println(App.ANSI_GREEN + "Loaded " + products.size() + " products, " + suppliers.size() + " suppliers and "
+        + orders.size() + " orders from " + logFile + " in " + (System.nanoTime() - start) / 1_000_000 + " ms."
+        + App.ANSI_RESET);
+    syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "log-storage-sync");
+      thread.setDaemon(true);
+      return thread;
+    });
+    syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public Map<String, Product> products() {
+    return products;
+  }
+
+  @Override
+  public Map<String, Supplier> suppliers() {
+    return suppliers;
+  }
+
+  @Override
+  public List<Order> orders() {
+    return orders;
+  }
+
+  @Override
+  public boolean ordersLoaded() {
+    return true;
+  }
+
+  @Override
+  public void awaitOrders() {
+  }
+
+  @Override
+  public void saveProduct(Product product) {
+    synchronized (lock) {
+      try {
+        payloadBytes.reset();
+        writeProduct(payload, product, product.getQuantity());
+        append();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      stored.put(product.getSku(), product.getQuantity());
+    }
+  }
+
+  @Override
+  public void updateProduct(Product product) {
+    synchronized (lock) {
+      try {
+        payloadBytes.reset();
+        payload.writeByte(PRODUCT_UPDATE);
+        writeString(payload, product.getSku());
+        payload.writeInt(product.getQuantity());
+        payload.writeLong(Money.toMinor(product.getPrice()));
+        append();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      stored.put(product.getSku(), product.getQuantity());
+    }
+  }
+
+  @Override
+  public void removeProduct(String sku) {
+    synchronized (lock) {
+      try {
+        payloadBytes.reset();
+        payload.writeByte(PRODUCT_DELETE);
+        writeString(payload, sku);
+        append();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      stored.remove(sku);
+    }
+  }
+
+  @Override
+  public void saveSupplier(Supplier supplier) {
+    synchronized (lock) {
+      try {
+        payloadBytes.reset();
+        writeSupplier(payload, supplier);
+        append();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override
+  public Map<String, Integer> writeOrder(Map<String, Integer> deltas, Order order) {
+    return writeOrders(Collections.singletonList(deltas), Collections.singletonList(order));
+  }
+
+  @Override
+  public Map<String, Integer> writeOrders(List<Map<String, Integer>> deltas, List<Order> batch) {
+    if (deltas.size() != batch.size()) {
+      throw new IllegalArgumentException("Expected deltas for each of " + batch.size() + " orders.");
+    }
+    synchronized (lock) {
+      Map<String, Integer> after = new HashMap<>();
+      for (Map<String, Integer> orderDeltas : deltas) {
+        for (Map.Entry<String, Integer> entry : orderDeltas.entrySet()) {
+          Integer quantity = after.containsKey(entry.getKey()) ? after.get(entry.getKey()) : stored.get(entry.getKey());
+          if (quantity == null) {
+            throw new IllegalArgumentException("Product not found: " + entry.getKey());
+          }
+          if (quantity + entry.getValue() < 0) {
+            throw new InsufficientStockException(entry.getKey(), quantity);
+          }
+          after.put(entry.getKey(), quantity + entry.getValue());
+        }
+      }
+      try {
+        for (int i = 0; i < batch.size(); i++) {
+          payloadBytes.reset();
+          payload.writeByte(ORDER);
+          writeOrder(payload, batch.get(i), deltas.get(i));
+          append();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      stored.putAll(after);
+      orders.addAll(batch);
+      return after;
+    }
+  }
+
+  @Override
+  public void flush() {
+    try {
+      sync();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      if (channel == null) {
+        return;
+      }
+      syncer.shutdownNow();
+      try {
+        sync();
+        channel.close();
+      } catch (IOException e) {
+        log.println(App.ANSI_RED + "Failed to close " + logFile + ": " + e.getMessage() + App.ANSI_RESET);
+      }
+      channel = null;
+      log.println("Log storage: " + records + " records, " + syncs + " syncs, " + compactions + " compactions, "
+          + logBytes + " bytes.");
+    }
+  }
+
+  /** Frames the record in {@link #payloadBytes} into the pending buffer. */
+  private void append() throws IOException {
+    if (channel == null) {
+      throw new IllegalStateException("Storage is closed.");
+    }
+    frame(payloadBytes, pending);
+    records++;
+    if (pending.size() >= DRAIN_BYTES) {
+      drain();
+    }
+  }
+
+  private void frame(Buffer record, Buffer target) {
+    crc.reset();
+    crc.update(record.contents());
+    int length = record.size();
+    target.write(length >>> 24);
+    target.write(length >>> 16);
+    target.write(length >>> 8);
+    target.write(length);
+    int checksum = (int) crc.getValue();
+    target.write(checksum >>> 24);
+    target.write(checksum >>> 16);
+    target.write(checksum >>> 8);
+    target.write(checksum);
+    target.write(record.contents().array(), 0, length);
+  }
+
+  private void drain() throws IOException {
+    ByteBuffer bytes = pending.contents();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    logBytes += pending.size();
+    pending.reset();
+  }
+
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (IOException | RuntimeException e) {
+      log.println(App.ANSI_RED + "Log storage sync failed: " + e.getMessage() + App.ANSI_RESET);
+    }
+  }
+
+  /** Writes out pending records and fsyncs them in one go; compacts when the log has doubled. */
+  private void sync() throws IOException {
+    FileChannel target;
+    synchronized (lock) {
+      if (channel == null || pending.size() == 0) {
+        return;
+      }
+      drain();
+      target = channel;
+    }
+    long start = System.nanoTime();
+    try {
+      target.force(false);
+      SYNC_TIME.recordSince(start);
+    } catch (ClosedChannelException e) {
+      synchronized (lock) {
+        if (channel == null || channel == target) {
+          throw e;
+        }
+      }
+      // A concurrent compaction replaced the channel after forcing everything drained into it.
+      return;
+    }
+    synchronized (lock) {
+      syncs++;
+      if (channel != null && logBytes >= Math.max(compactMinBytes, compactedBytes * 2)) {
+        rewrite();
+      }
+    }
+  }
+
+  /**
+   * Rewrites the log as one record per live product, supplier and order.
+   * Products are read from the shared map with their stored quantities;
+   * callers update the map before they call the storage, so anything the
+   * rewrite misses is appended again right after it. Records still pending,
+   * appended since the last drain, are already in the rewrite and dropped;
+   * written after it they would apply their stock changes a second time.
+   */
+  void compact() throws IOException {
+    synchronized (lock) {
+      if (channel != null) {
+        rewrite();
+      }
+    }
+  }
+
+  private void rewrite() throws IOException {
+    long start = System.nanoTime();
+    Path temp = directory.resolve(LOG_FILE + ".compact");
+    Buffer record = new Buffer(256);
+    DataOutputStream out = new DataOutputStream(record);
+    Buffer batch = new Buffer(DRAIN_BYTES + 4096);
+    long size = 0;
+    try (FileChannel compacted = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Product product : products.values()) {
+        Integer quantity = stored.get(product.getSku());
+        record.reset();
+        writeProduct(out, product, quantity != null ? quantity : product.getQuantity());
+        size += emit(record, batch, compacted, false);
+      }
+      for (Supplier supplier : suppliers.values()) {
+        record.reset();
+        writeSupplier(out, supplier);
+        size += emit(record, batch, compacted, false);
+      }
+      synchronized (orders) {
+        for (Order order : orders) {
+          record.reset();
+          out.writeByte(ORDER);
+          writeOrder(out, order, Collections.emptyMap());
+          size += emit(record, batch, compacted, false);
+        }
+      }
+      size += emit(null, batch, compacted, true);
+      compacted.force(true);
+    }
+    channel.close();
+    Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(logFile, StandardOpenOption.WRITE);
+    channel.position(size);
+    pending.reset();
+    logBytes = size;
+    compactedBytes = size;
+    compactions++;
+    Metrics.STORAGE.get("log-compact").recordSince(start);
+    log.println("Compacted " + logFile + " to " + size + " bytes in " + (System.nanoTime() - start) / 1_000_000
+        + " ms.");
+  }
+
+  private long emit(Buffer record, Buffer batch, FileChannel target, boolean last) throws IOException {
+    if (record != null) {
+      frame(record, batch);
+    }
+    if (batch.size() < DRAIN_BYTES && !last) {
+      return 0;
+    }
+    long written = batch.size();
+    ByteBuffer bytes = batch.contents();
+    while (bytes.hasRemaining()) {
+      target.write(bytes);
+    }
+    batch.reset();
+    return written;
+  }
+
+  /** Applies every intact record and returns the length of the intact prefix of the log. */
+  private long replay() throws IOException {
+    long valid = 0;
+    byte[] bytes = new byte[256];
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+      while (true) {
+        int length;
+        int checksum;
+        try {
+          length = in.readInt();
+          checksum = in.readInt();
+          if (length <= 0 || length > MAX_RECORD) {
+            return valid;
+          }
+          if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+          }
+          in.readFully(bytes, 0, length);
+        } catch (EOFException e) {
+          return valid;
+        }
+        crc.reset();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != checksum) {
+          return valid;
+        }
+        apply(new DataInputStream(new ByteArrayInputStream(bytes, 0, length)));
+        valid += 8 + length;
+      }
+    }
+  }
+
+  private void apply(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case PRODUCT: {
+        String sku = readString(in);
+        Product product = new Product(sku, readString(in), readString(in), in.readInt(), Money.toMajor(in.readLong()),
+            readString(in), readString(in));
+        products.put(sku, product);
+        stored.put(sku, product.getQuantity());
+        break;
+      }
+      case PRODUCT_UPDATE: {
+        String sku = readString(in);
+        int quantity = in.readInt();
+        long price = in.readLong();
+        Product product = products.get(sku);
+        if (product != null) {
+          product.setQuantity(quantity);
+          product.setPrice(Money.toMajor(price));
+          stored.put(sku, quantity);
+        }
+        break;
+      }
+      case PRODUCT_DELETE: {
+        String sku = readString(in);
+        products.remove(sku);
+        stored.remove(sku);
+        break;
+      }
+      case SUPPLIER: {
+        Supplier supplier = new Supplier(readString(in), readString(in), readString(in));
+        suppliers.put(supplier.getId(), supplier);
+        break;
+      }
+      case ORDER: {
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        orders.add(readOrder(in, deltas));
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+          Product product = products.get(entry.getKey());
+          if (product != null) {
+            product.setQuantity(product.getQuantity() + entry.getValue());
+            stored.put(entry.getKey(), product.getQuantity());
+          }
+        }
+        break;
+      }
+      default:
+        throw new IOException("Unknown record type " + type + " in " + logFile + ".");
+    }
+  }
+
+  private static void writeProduct(DataOutputStream out, Product product, int quantity) throws IOException {
+    out.writeByte(PRODUCT);
+    writeString(out, product.getSku());
+    writeString(out, product.getName());
+    writeString(out, product.getDescription());
+    out.writeInt(quantity);
+    out.writeLong(Money.toMinor(product.getPrice()));
+    writeString(out, product.getSupplierId());
+    writeString(out, product.getDateReceived());
+  }
+
+  private static void writeSupplier(DataOutputStream out, Supplier supplier) throws IOException {
+    out.writeByte(SUPPLIER);
+    writeString(out, supplier.getId());
+    writeString(out, supplier.getName());
+    writeString(out, supplier.getContact());
+  }
+
+  /** Writes an order and its stock changes; {@link OrderJournal} uses the same encoding. */
+  static void writeOrder(DataOutputStream out, Order order, Map<String, Integer> deltas) throws IOException {
+    writeString(out, order.getOrderId());
+    boolean sell = order instanceof SellOrder;
+    out.writeBoolean(sell);
+    writeString(out, sell ? ((SellOrder) order).getCustomerName() : order.getSupplierId());
+    out.writeLong(order.getOrderDate().toEpochDay());
+    out.writeInt(order.getItems().size());
+    for (OrderItem item : order.getItems()) {
+      writeString(out, item.getSku());
+      writeString(out, item.getName());
+      out.writeInt(item.getQuantity());
+      out.writeLong(item.getUnitPrice());
+    }
+    out.writeInt(deltas.size());
+    for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+      writeString(out, entry.getKey());
+      out.writeInt(entry.getValue());
+    }
+  }
+
+  /** Reads what {@link #writeOrder} wrote, putting the stock changes into {@code deltas}. */
+  static Order readOrder(DataInputStream in, Map<String, Integer> deltas) throws IOException {
+    String orderId = readString(in);
+    boolean sell = in.readBoolean();
+    String party = readString(in);
+    LocalDate orderDate = LocalDate.ofEpochDay(in.readLong());
+    int lines = in.readInt();
+    List<OrderItem> items = new ArrayList<>(lines);
+    for (int i = 0; i < lines; i++) {
+      items.add(new OrderItem(readString(in), readString(in), in.readInt(), in.readLong()));
+    }
+    int changes = in.readInt();
+    for (int i = 0; i < changes; i++) {
+      deltas.put(readString(in), in.readInt());
+    }
+    return sell ? new SellOrder(orderId, party, items, orderDate) : new Order(orderId, party, items, orderDate);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
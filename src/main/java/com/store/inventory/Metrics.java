@@ -0,0 +1,253 @@
+package com.store.inventory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide latency histograms and counters, grouped into families that
+ * share a name and label names as in the Prometheus data model. Callers on hot
+ * paths look a series up once and keep it; recording into it is lock-free.
+ * The stats menu option prints every series that has data, and
+ * {@link #startDump} writes them all periodically in the Prometheus text
+ * format, ready for a node exporter's textfile collector.
+ */
+public final class Metrics {
+  private static final List<Family<?>> FAMILIES = new CopyOnWriteArrayList<>();
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  public static final Family<LatencyHistogram> MENU = timers("inventory_menu_seconds",
+      "Time spent in an interactive menu option, prompts included.", "option");
+  public static final Family<LatencyHistogram> COMMANDS = timers("inventory_command_seconds",
+      "Batch command latency.", "command");
+  public static final Family<LongAdder> COMMAND_ERRORS = counters("inventory_command_errors_total",
+      "Batch commands that failed.", "command");
+  public static final Family<LatencyHistogram> HTTP = timers("inventory_http_seconds",
+      "HTTP request latency from the handler's start to the last byte written.", "route", "status");
+  public static final Family<LatencyHistogram> STORAGE = timers("inventory_storage_seconds",
+      "Storage call latency.", "operation");
+  public static final Family<LatencyHistogram> LOAD = timers("inventory_load_seconds",
+      "Duration of each startup load phase.", "phase");
+  public static final Family<LatencyHistogram> MONGO = timers("inventory_mongo_command_seconds",
+      "MongoDB command latency as seen by the driver.", "command");
+  public static final Family<LongAdder> MONGO_ERRORS = counters("inventory_mongo_command_failures_total",
+      "MongoDB commands that failed.", "command");
+  public static final Family<LongAdder> CACHE = counters("inventory_cache_requests_total",
+      "Cache lookups by outcome; the write-behind buffer counts a write merged into a pending one as a hit.",
+      "cache", "result");
+  public static final Family<LongAdder> EVICTIONS = counters("inventory_cache_evictions_total",
+      "Entries dropped from a bounded cache to make room.", "cache");
+  public static final Family<LongAdder> CHANGES = counters("inventory_change_stream_events_total",
+      "Changes read from the MongoDB change stream, including this process's own writes.", "collection");
+  public static final Family<LongAdder> REMOTE = counters("inventory_remote_changes_applied_total",
+      "Changes made by other processes and applied to the local state.", "collection");
+  public static final Family<LongAdder> REORDER = counters("inventory_reorder_events_total",
+      "Sales and stock changes applied by the reorder engine, and low-stock alerts it raised.", "event");
+  public static final Family<LongAdder> ARCHIVE = counters("inventory_archive_scan_total",
+      "Order archive segments scanned or skipped by queries or merged by archiving, and the orders and "
+          + "compressed bytes read.", "event");
+
+  private static ScheduledExecutorService dumper;
+  private static Path dumpFile;
+
+  private Metrics() {
+  }
+
+  /** A named group of series, one per combination of label values. */
+  public static final class Family<T> {
+    private final String name;
+    private final String help;
+    private final String[] labels;
+    private final Supplier<T> factory;
+    private final boolean timer;
+    private final ConcurrentMap<List<String>, T> series = new ConcurrentHashMap<>();
+
+    private Family(String name, String help, String[] labels, Supplier<T> factory, boolean timer) {
+      this.name = name;
+      this.help = help;
+      this.labels = labels;
+      this.factory = factory;
+      this.timer = timer;
+    }
+
+    public T get(String... values) {
+      if (values.length != labels.length) {
+        throw new IllegalArgumentException(name + " takes " + labels.length + " label values.");
+      }
+      List<String> key = Arrays.asList(values);
+      T existing = series.get(key);
+      return existing != null ? existing : series.computeIfAbsent(key, k -> factory.get());
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** Series in label order, so dumps and the stats table are stable. */
+    private SortedMap<String, T> sorted() {
+      SortedMap<String, T> result = new TreeMap<>();
+      series.forEach((values, value) -> result.put(labelText(values), value));
+      return result;
+    }
+
+    private String labelText(List<String> values) {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < labels.length; i++) {
+        text.append(i == 0 ? "" : ",").append(labels[i]).append("=\"");
+        escape(text, values.get(i)).append('"');
+      }
+      return text.toString();
+    }
+  }
+
+  private static Family<LatencyHistogram> timers(String name, String help, String... labels) {
+    Family<LatencyHistogram> family = new Family<>(name, help, labels, LatencyHistogram::new, true);
+    FAMILIES.add(family);
+    return family;
+  }
+
+  private static Family<LongAdder> counters(String name, String help, String... labels) {
+    Family<LongAdder> family = new Family<>(name, help, labels, LongAdder::new, false);
+    FAMILIES.add(family);
+    return family;
+  }
+
+  private static StringBuilder escape(StringBuilder out, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        out.append('\\').append(c);
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+    return out;
+  }
+
+  /** Writes every family in the Prometheus text exposition format; latencies are in seconds. */
+  public static void writePrometheus(Writer out) throws IOException {
+    StringBuilder line = new StringBuilder(256);
+    for (Family<?> family : FAMILIES) {
+      SortedMap<String, ?> series = family.sorted();
+      if (series.isEmpty()) {
+        continue;
+      }
+      boolean timer = family.timer;
+      out.write("# HELP " + family.name + " " + family.help + "\n");
+      out.write("# TYPE " + family.name + (timer ? " summary\n" : " counter\n"));
+      for (Map.Entry<String, ?> entry : series.entrySet()) {
+        String labels = entry.getKey();
+        if (!timer) {
+          line.setLength(0);
+          line.append(family.name).append('{').append(labels).append("} ")
+              .append(((LongAdder) entry.getValue()).sum()).append('\n');
+          out.append(line);
+          continue;
+        }
+        LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) entry.getValue()).snapshot();
+        for (double quantile : QUANTILES) {
+          line.setLength(0);
+          line.append(family.name).append('{').append(labels).append(labels.isEmpty() ? "" : ",")
+              .append("quantile=\"").append(quantile).append("\"} ")
+              .append(snapshot.getValueAt(quantile) / 1e9).append('\n');
+          out.append(line);
+        }
+        line.setLength(0);
+        line.append(family.name).append("_sum{").append(labels).append("} ").append(snapshot.getSum() / 1e9)
+            .append('\n');
+        line.append(family.name).append("_count{").append(labels).append("} ").append(snapshot.getCount())
+            .append('\n');
+        out.append(line);
+      }
+    }
+  }
+
+  /** Prints a table of every series with data: counts, and latency percentiles in milliseconds. */
+  public static void report(PrintStream out) {
+    out.println(App.ANSI_BLUE + String.format("%-60s %10s %9s %9s %9s %9s %9s", "Series", "Count", "Mean",
+        "p50", "p99", "p99.9", "Max") + App.ANSI_RESET);
+    for (Family<?> family : FAMILIES) {
+      for (Map.Entry<String, ?> entry : family.sorted().entrySet()) {
+        String series = family.name + "{" + entry.getKey() + "}";
+        if (entry.getValue() instanceof LongAdder) {
+          out.println(String.format("%-60s %10d", series, ((LongAdder) entry.getValue()).sum()));
+          continue;
+        }
+        LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) entry.getValue()).snapshot();
+        if (snapshot.getCount() > 0) {
+          out.println(String.format("%-60s %10d %9.3f %9.3f %9.3f %9.3f %9.3f", series, snapshot.getCount(),
+              snapshot.getMean() / 1e6, snapshot.getValueAt(0.5) / 1e6, snapshot.getValueAt(0.99) / 1e6,
+              snapshot.getValueAt(0.999) / 1e6, snapshot.getMax() / 1e6));
+        }
+      }
+    }
+  }
+
+  /**
+   * Rewrites {@code file} every {@code intervalMs} until {@link #stopDump()}.
+   * Each dump goes to a temporary file first and is moved into place, so a
+   * reader never sees half of one.
+   */
+  public static synchronized void startDump(Path file, long intervalMs, PrintStream log) {
+    stopDump();
+    dumpFile = file;
+    dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "metrics-dump");
+      thread.setDaemon(true);
+      return thread;
+    });
+    dumper.scheduleWithFixedDelay(() -> {
+      try {
+        dump(file);
+      } catch (IOException | UncheckedIOException e) {
+        log.println(App.ANSI_YELLOW + "Could not write metrics to " + file + ": " + e.getMessage() + App.ANSI_RESET);
+      }
+    }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops the periodic dump after writing one last time. */
+  public static synchronized void stopDump() {
+    if (dumper == null) {
+      return;
+    }
+    dumper.shutdown();
+    try {
+      dumper.awaitTermination(5, TimeUnit.SECONDS);
+      dump(dumpFile);
+    } catch (IOException e) {
+      // Shutting down; the previous dump stays in place.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    dumper = null;
+  }
+
+  static void dump(Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        writePrometheus(out);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
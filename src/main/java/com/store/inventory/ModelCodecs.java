@@ -0,0 +1,360 @@
+package com.store.inventory;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps the model classes to and from BSON directly, without building an
+ * {@link org.bson.Document} in between. Fields are read by name, so documents
+ * written by {@link App#toDocument} or by other tools decode the same way;
+ * fields the model does not have are skipped.
+ *
+ * Order dates are written as BSON dates at UTC midnight. Orders written
+ * before that have ISO date strings, which are still read, and
+ * {@link #orderDateBetween} matches both forms.
+ */
+public final class ModelCodecs {
+  static final long MILLIS_PER_DAY = 86_400_000L;
+
+  static final Codec<OrderItem> ORDER_ITEM = new OrderItemCodec();
+  static final Codec<Product> PRODUCT = new ProductCodec();
+  static final Codec<Supplier> SUPPLIER = new SupplierCodec();
+  static final Codec<Order> ORDER = new OrderCodec(ORDER_ITEM);
+
+  /** The driver's default codecs plus ours; {@link SellOrder} uses the order codec. */
+  public static final CodecRegistry REGISTRY = CodecRegistries.fromRegistries(
+      CodecRegistries.fromCodecs(ORDER_ITEM, PRODUCT, SUPPLIER, ORDER),
+      CodecRegistries.fromProviders(new OrderProvider()),
+      MongoClientSettings.getDefaultCodecRegistry());
+
+  private ModelCodecs() {
+  }
+
+  /** Orders dated from {@code from} to {@code to}, both inclusive, whichever form their date is stored in. */
+  static Bson orderDateBetween(LocalDate from, LocalDate to) {
+    // ISO dates compare as strings in date order.
+    return Filters.or(
+        Filters.and(Filters.gte("orderDate", from.toString()), Filters.lte("orderDate", to.toString())),
+        Filters.and(Filters.gte("orderDate", toDateTime(from)), Filters.lte("orderDate", toDateTime(to))));
+  }
+
+  /** Decodes a document that has already been read, such as a change stream's full document. */
+  static <T> T decode(Codec<T> codec, BsonDocument doc) {
+    return codec.decode(new BsonDocumentReader(doc), DecoderContext.builder().build());
+  }
+
+  static BsonDateTime toDateTime(LocalDate date) {
+    return new BsonDateTime(date.toEpochDay() * MILLIS_PER_DAY);
+  }
+
+  static LocalDate toLocalDate(long millis) {
+    return LocalDate.ofEpochDay(Math.floorDiv(millis, MILLIS_PER_DAY));
+  }
+
+  private static String readString(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    return reader.readString();
+  }
+
+  private static long readLong(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case INT32:
+        return reader.readInt32();
+      case INT64:
+        return reader.readInt64();
+      case DOUBLE:
+        return (long) reader.readDouble();
+      case NULL:
+        reader.readNull();
+        return 0;
+      default:
+        throw new BsonInvalidOperationException("Expected a number but found " + reader.getCurrentBsonType());
+    }
+  }
+
+  private static double readDouble(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case DOUBLE:
+        return reader.readDouble();
+      case INT32:
+        return reader.readInt32();
+      case INT64:
+        return reader.readInt64();
+      case DECIMAL128:
+        return reader.readDecimal128().doubleValue();
+      default:
+        throw new BsonInvalidOperationException("Expected a number but found " + reader.getCurrentBsonType());
+    }
+  }
+
+  private static LocalDate readDate(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.DATE_TIME) {
+      return toLocalDate(reader.readDateTime());
+    }
+    return LocalDate.parse(reader.readString());
+  }
+
+  private static void writeString(BsonWriter writer, String name, String value) {
+    if (value == null) {
+      writer.writeNull(name);
+    } else {
+      writer.writeString(name, value);
+    }
+  }
+
+  static class OrderItemCodec implements Codec<OrderItem> {
+    @Override
+    public OrderItem decode(BsonReader reader, DecoderContext context) {
+      String sku = null;
+      String name = null;
+      int quantity = 0;
+      long unitPrice = 0;
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        switch (reader.readName()) {
+          case "sku":
+            sku = readString(reader);
+            break;
+          case "name":
+            name = readString(reader);
+            break;
+          case "quantity":
+            quantity = (int) readLong(reader);
+            break;
+          case "unitPrice":
+            unitPrice = readLong(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.readEndDocument();
+      return new OrderItem(sku, name, quantity, unitPrice);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, OrderItem item, EncoderContext context) {
+      writer.writeStartDocument();
+      writeString(writer, "sku", item.getSku());
+      writeString(writer, "name", item.getName());
+      writer.writeInt32("quantity", item.getQuantity());
+      writer.writeInt64("unitPrice", item.getUnitPrice());
+      writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<OrderItem> getEncoderClass() {
+      return OrderItem.class;
+    }
+  }
+
+  static class ProductCodec implements Codec<Product> {
+    @Override
+    public Product decode(BsonReader reader, DecoderContext context) {
+      String sku = null;
+      String name = null;
+      String description = null;
+      int quantity = 0;
+      double price = 0;
+      String supplierId = null;
+      String dateReceived = null;
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        switch (reader.readName()) {
+          case "_id":
+            sku = readString(reader);
+            break;
+          case "name":
+            name = readString(reader);
+            break;
+          case "description":
+            description = readString(reader);
+            break;
+          case "quantity":
+            quantity = (int) readLong(reader);
+            break;
+          case "price":
+            price = readDouble(reader);
+            break;
+          case "supplierId":
+            supplierId = readString(reader);
+            break;
+          case "dateReceived":
+            dateReceived = readString(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.readEndDocument();
+      return new Product(sku, name, description, quantity, price, supplierId, dateReceived);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Product product, EncoderContext context) {
+      writer.writeStartDocument();
+      writer.writeString("_id", product.getSku());
+      writeString(writer, "name", product.getName());
+      writeString(writer, "description", product.getDescription());
+      writer.writeInt32("quantity", product.getQuantity());
+      writer.writeDouble("price", product.getPrice());
+      writeString(writer, "supplierId", product.getSupplierId());
+      // Free text entered with the product, so it stays a string.
+      writeString(writer, "dateReceived", product.getDateReceived());
+      writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Product> getEncoderClass() {
+      return Product.class;
+    }
+  }
+
+  static class SupplierCodec implements Codec<Supplier> {
+    @Override
+    public Supplier decode(BsonReader reader, DecoderContext context) {
+      String id = null;
+      String name = null;
+      String contact = null;
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        switch (reader.readName()) {
+          case "_id":
+            id = readString(reader);
+            break;
+          case "name":
+            name = readString(reader);
+            break;
+          case "contact":
+            contact = readString(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.readEndDocument();
+      return new Supplier(id, name, contact);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Supplier supplier, EncoderContext context) {
+      writer.writeStartDocument();
+      writer.writeString("_id", supplier.getId());
+      writeString(writer, "name", supplier.getName());
+      writeString(writer, "contact", supplier.getContact());
+      writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Supplier> getEncoderClass() {
+      return Supplier.class;
+    }
+  }
+
+  /** Orders with a {@code customerName} decode as {@link SellOrder}s. */
+  static class OrderCodec implements Codec<Order> {
+    private final Codec<OrderItem> itemCodec;
+
+    OrderCodec(Codec<OrderItem> itemCodec) {
+      this.itemCodec = itemCodec;
+    }
+
+    @Override
+    public Order decode(BsonReader reader, DecoderContext context) {
+      String orderId = null;
+      String supplierId = null;
+      String customerName = null;
+      List<OrderItem> items = null;
+      LocalDate orderDate = null;
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        switch (reader.readName()) {
+          case "_id":
+            orderId = readString(reader);
+            break;
+          case "supplierId":
+            supplierId = readString(reader);
+            break;
+          case "customerName":
+            customerName = readString(reader);
+            break;
+          case "items":
+            items = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+              items.add(itemCodec.decode(reader, context));
+            }
+            reader.readEndArray();
+            break;
+          case "orderDate":
+            orderDate = readDate(reader);
+            break;
+          default:
+            // Including total, which the order recomputes from its items.
+            reader.skipValue();
+        }
+      }
+      reader.readEndDocument();
+      if (items == null) {
+        items = new ArrayList<>(0);
+      }
+      if (customerName != null) {
+        return new SellOrder(orderId, customerName, items, orderDate);
+      }
+      return new Order(orderId, supplierId, items, orderDate);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Order order, EncoderContext context) {
+      writer.writeStartDocument();
+      writer.writeString("_id", order.getOrderId());
+      if (order instanceof SellOrder) {
+        writeString(writer, "customerName", ((SellOrder) order).getCustomerName());
+      } else {
+        writeString(writer, "supplierId", order.getSupplierId());
+      }
+      writer.writeStartArray("items");
+      for (OrderItem item : order.getItems()) {
+        itemCodec.encode(writer, item, context);
+      }
+      writer.writeEndArray();
+      writer.writeInt64("total", order.getTotal());
+      writer.writeDateTime("orderDate", order.getOrderDate().toEpochDay() * MILLIS_PER_DAY);
+      writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Order> getEncoderClass() {
+      return Order.class;
+    }
+  }
+
+  /** Hands out the order codec for subclasses of {@link Order} too. */
+  private static class OrderProvider implements CodecProvider {
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+      return Order.class.isAssignableFrom(clazz) ? (Codec<T>) ORDER : null;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.store.inventory;
+
+/**
+ * Fixed-point helpers for rupee amounts held as a count of paise.
+ */
+public final class Money {
+  public static final int SCALE = 100;
+
+  private Money() {
+  }
+
+  public static long toMinor(double amount) {
+    return Math.round(amount * SCALE);
+  }
+
+  public static double toMajor(long minor) {
+    return (double) minor / SCALE;
+  }
+
+  /** Appends {@code minor} as a plain decimal with two fraction digits, e.g. {@code -12.05}. */
+  public static StringBuilder append(StringBuilder sb, long minor) {
+    long whole = Math.abs(minor / SCALE);
+    long fraction = Math.abs(minor % SCALE);
+    if (minor < 0) {
+      sb.append('-');
+    }
+    sb.append(whole).append('.');
+    if (fraction < 10) {
+      sb.append('0');
+    }
+    return sb.append(fraction);
+  }
+
+  public static String format(long minor) {
+    return append(new StringBuilder(24), minor).toString();
+  }
+}
@@ -0,0 +1,252 @@
+package com.store.inventory;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the change stream of the products, suppliers and orders collections
+ * on a background thread and hands the changes to a {@link Handler}. Changes
+ * arriving within {@code coalesceMs} of the first one in a burst are handed
+ * over together, and only the latest state of each product and supplier is
+ * kept, so a SKU updated a hundred times in a burst is applied once.
+ *
+ * The resume token of the last change handed over is kept. When the stream
+ * fails it is reopened from that token after a growing pause, so nothing is
+ * missed or applied twice across a disconnect. If the server no longer has
+ * the changes since the token, following starts again from the present and
+ * the gap is logged. A document that cannot be decoded is logged and its
+ * change skipped. Change streams need a replica set; a single-node one is
+ * enough.
+ */
+public class MongoChangeFeed implements Closeable {
+  public static final long DEFAULT_COALESCE_MS = 50;
+
+  static final int MAX_BATCH = 1000;
+  private static final long MIN_BACKOFF_MS = 100;
+  private static final long MAX_BACKOFF_MS = 30_000;
+  private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+  /** Applies changes; called on the feed's thread, one batch at a time. */
+  public interface Handler {
+    /** Products by SKU, with null for deleted ones. */
+    void productsChanged(Map<String, Product> products);
+
+    /** Suppliers by ID, with null for deleted ones. */
+    void suppliersChanged(Map<String, Supplier> suppliers);
+
+    void ordersAdded(List<Order> orders);
+  }
+
+  /** The changes of one burst, the latest per document. */
+  static final class Batch {
+    private final Map<String, Product> products = new LinkedHashMap<>();
+    private final Map<String, Supplier> suppliers = new LinkedHashMap<>();
+    private final Map<String, Order> orders = new LinkedHashMap<>();
+    private int changes;
+
+    /** Adds a change to a document of the kind given by {@code collection}; {@code doc} is null for a delete. */
+    void add(String collection, String id, BsonDocument doc) {
+      switch (collection) {
+        case "products":
+          products.put(id, doc != null ? ModelCodecs.decode(ModelCodecs.PRODUCT, doc) : null);
+          break;
+        case "suppliers":
+          suppliers.put(id, doc != null ? ModelCodecs.decode(ModelCodecs.SUPPLIER, doc) : null);
+          break;
+        default:
+          // Orders are never changed once written, so only new ones matter.
+          if (doc != null) {
+            orders.put(id, ModelCodecs.decode(ModelCodecs.ORDER, doc));
+          }
+      }
+      changes++;
+    }
+
+    int size() {
+      return changes;
+    }
+
+    boolean isEmpty() {
+      return changes == 0;
+    }
+
+    void deliver(Handler handler) {
+      if (!products.isEmpty()) {
+        handler.productsChanged(products);
+      }
+      if (!suppliers.isEmpty()) {
+        handler.suppliersChanged(suppliers);
+      }
+      if (!orders.isEmpty()) {
+        handler.ordersAdded(new ArrayList<>(orders.values()));
+      }
+    }
+  }
+
+  private final MongoDatabase database;
+  private final Bson collections;
+  private final Map<String, String> kinds;
+  private final long coalesceMs;
+  private final Handler handler;
+  private final PrintStream log;
+  private volatile BsonDocument resumeToken;
+  private volatile boolean running = true;
+  private final Thread thread;
+
+  /**
+   * Starts following changes made after {@code resumeToken}. {@code kinds}
+   * maps the products, suppliers and orders collection names to
+   * {@code "products"}, {@code "suppliers"} and {@code "orders"};
+   * {@code collections} is the stage that matches their changes.
+   */
+  public MongoChangeFeed(MongoDatabase database, Bson collections, Map<String, String> kinds,
+      BsonDocument resumeToken, long coalesceMs, Handler handler, PrintStream log) {
+    this.database = database;
+    this.collections = collections;
+    this.kinds = kinds;
+    this.resumeToken = resumeToken;
+    this.coalesceMs = coalesceMs;
+    this.handler = handler;
+    this.log = log;
+    thread = new Thread(this::run, "mongo-change-feed");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** The token after the last change handed to the handler. */
+  public BsonDocument getResumeToken() {
+    return resumeToken;
+  }
+
+  private void run() {
+    long backoff = MIN_BACKOFF_MS;
+    while (running) {
+      try {
+        follow();
+        backoff = MIN_BACKOFF_MS;
+      } catch (MongoCommandException e) {
+        if (!running) {
+          return;
+        }
+        if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+          log.println(App.ANSI_RED + "Changes since the last one applied are no longer available; changes made "
+              + "meanwhile by other processes are missing until the next full load." + App.ANSI_RESET);
+          resumeToken = null;
+          continue;
+        }
+        backoff = pause(e, backoff);
+      } catch (RuntimeException e) {
+        // Anything else would end the thread and with it following, without a word.
+        if (!running) {
+          return;
+        }
+        backoff = pause(e, backoff);
+      }
+    }
+  }
+
+  private long pause(RuntimeException e, long backoff) {
+    log.println(App.ANSI_YELLOW + "Change stream failed (" + e.getMessage() + "), resuming in " + backoff + " ms."
+        + App.ANSI_RESET);
+    try {
+      Thread.sleep(backoff);
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      running = false;
+    }
+    return Math.min(backoff * 2, MAX_BACKOFF_MS);
+  }
+
+  private void follow() {
+    BsonDocument token = resumeToken;
+    List<Bson> pipeline = Collections.singletonList(collections);
+    try (MongoChangeStreamCursor<ChangeStreamDocument<BsonDocument>> cursor = (token != null
+        ? database.watch(pipeline, BsonDocument.class).resumeAfter(token)
+        : database.watch(pipeline, BsonDocument.class))
+        .fullDocument(FullDocument.UPDATE_LOOKUP)
+        .maxAwaitTime(coalesceMs, TimeUnit.MILLISECONDS)
+        .cursor()) {
+      Batch batch = new Batch();
+      long deadline = 0;
+      while (running) {
+        ChangeStreamDocument<BsonDocument> change = cursor.tryNext();
+        if (change != null && add(batch, change) && batch.size() == 1) {
+          deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesceMs);
+        }
+        if (batch.isEmpty()) {
+          // Moves past changes to other collections and keeps up with the server while idle.
+          if (cursor.getResumeToken() != null) {
+            resumeToken = cursor.getResumeToken();
+          }
+        } else if (change == null || batch.size() >= MAX_BATCH || System.nanoTime() >= deadline) {
+          long start = System.nanoTime();
+          try {
+            batch.deliver(handler);
+          } catch (RuntimeException e) {
+            log.println(App.ANSI_RED + "Applying " + batch.size() + " changes from other processes failed: "
+                + e.getMessage() + App.ANSI_RESET);
+          }
+          Metrics.STORAGE.get("change-feed-apply").recordSince(start);
+          resumeToken = cursor.getResumeToken();
+          batch = new Batch();
+        }
+      }
+    }
+  }
+
+  /** Adds the change to the batch if it is one the handler applies. */
+  private boolean add(Batch batch, ChangeStreamDocument<BsonDocument> change) {
+    String kind = change.getNamespace() != null ? kinds.get(change.getNamespace().getCollectionName()) : null;
+    if (kind == null || change.getDocumentKey() == null) {
+      return false;
+    }
+    BsonValue id = change.getDocumentKey().get("_id");
+    if (id == null || !id.isString()) {
+      return false;
+    }
+    BsonDocument doc;
+    switch (change.getOperationType()) {
+      case INSERT:
+      case UPDATE:
+      case REPLACE:
+        // A document deleted before the lookup comes without one and counts as deleted.
+        doc = change.getFullDocument();
+        break;
+      case DELETE:
+        doc = null;
+        break;
+      default:
+        return false;
+    }
+    try {
+      batch.add(kind, id.asString().getValue(), doc);
+    } catch (RuntimeException e) {
+      log.println(App.ANSI_RED + "Skipping change to " + kind + " " + id.asString().getValue()
+          + " that cannot be read: " + e + App.ANSI_RESET);
+      return false;
+    }
+    Metrics.CHANGES.get(kind).increment();
+    return true;
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    try {
+      thread.join(coalesceMs + 1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
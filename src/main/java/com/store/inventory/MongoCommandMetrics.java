@@ -0,0 +1,25 @@
+package com.store.inventory;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Driver command listener that records the round trip of every command the
+ * client sends, as the driver measured it, into {@link Metrics#MONGO} by
+ * command name. Failed commands are timed as well and also counted in
+ * {@link Metrics#MONGO_ERRORS}.
+ */
+public class MongoCommandMetrics implements CommandListener {
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    Metrics.MONGO.get(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    Metrics.MONGO.get(event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    Metrics.MONGO_ERRORS.get(event.getCommandName()).increment();
+  }
+}
@@ -0,0 +1,167 @@
+package com.store.inventory;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.connection.ClusterType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import java.util.*;
+
+/**
+ * Applies an order's stock changes on the server with {@code $inc}. A
+ * decrement only matches while {@code quantity >= n}, so two processes
+ * selling the same SKU can never take it below zero. On a replica set or
+ * sharded cluster the stock changes and the order document are written in
+ * one transaction. On a standalone server each line is applied with
+ * findOneAndUpdate and the lines already applied are reversed if a later one
+ * fails; the order document then goes through the write-behind buffer.
+ *
+ * Every call returns the stored quantity of each changed SKU so the caller can
+ * refresh just those entries of its local cache.
+ */
+public class MongoOrderWriter {
+  private static final Bson QUANTITY = Projections.include("quantity");
+
+  private final MongoClient client;
+  private final MongoCollection<Document> productCollection;
+  private final MongoCollection<Order> orderCollection;
+  private final MongoWriteBehind writeBehind;
+  private Boolean transactional;
+
+  public MongoOrderWriter(MongoClient client, MongoCollection<Document> productCollection,
+      MongoCollection<Order> orderCollection, MongoWriteBehind writeBehind) {
+    this.client = client;
+    this.productCollection = productCollection;
+    this.orderCollection = orderCollection;
+    this.writeBehind = writeBehind;
+  }
+
+  private synchronized boolean isTransactional() {
+    if (transactional == null) {
+      ClusterType type = client.getClusterDescription().getType();
+      transactional = type == ClusterType.REPLICA_SET || type == ClusterType.SHARDED;
+    }
+    return transactional;
+  }
+
+  /**
+   * Applies {@code deltas} (SKU to signed quantity change) and stores
+   * {@code order}. Throws {@link InsufficientStockException} if the stored
+   * stock of any SKU is too low, in which case nothing is written.
+   */
+  public Map<String, Integer> write(Map<String, Integer> deltas, Order order) {
+    return write(deltas, Collections.singletonList(order));
+  }
+
+  /**
+   * Applies the summed {@code deltas} of several orders and stores the
+   * orders together, in one transaction where there are transactions.
+   */
+  public Map<String, Integer> write(Map<String, Integer> deltas, List<? extends Order> orders) {
+    if (deltas.isEmpty()) {
+      orders.forEach(writeBehind::insertOrder);
+      return Collections.emptyMap();
+    }
+    // A pending absolute $set from updateProduct must not land after these increments.
+    writeBehind.flush();
+    if (isTransactional()) {
+      return writeInTransaction(deltas, orders);
+    }
+    Map<String, Integer> stored = writeSequentially(deltas);
+    orders.forEach(writeBehind::insertOrder);
+    return stored;
+  }
+
+  private static Bson filterFor(String sku, int delta) {
+    return delta < 0 ? Filters.and(Filters.eq("_id", sku), Filters.gte("quantity", -delta)) : Filters.eq("_id", sku);
+  }
+
+  private Map<String, Integer> writeInTransaction(Map<String, Integer> deltas, List<? extends Order> orders) {
+    try (ClientSession session = client.startSession()) {
+      return session.withTransaction(() -> {
+        Map<String, Integer> stored = new HashMap<>();
+        for (Document doc : productCollection.find(session, Filters.in("_id", deltas.keySet())).projection(QUANTITY)) {
+          stored.put(doc.getString("_id"), doc.getInteger("quantity"));
+        }
+        List<WriteModel<Document>> models = new ArrayList<>(deltas.size());
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+          String sku = entry.getKey();
+          Integer quantity = stored.get(sku);
+          if (quantity == null) {
+            throw new IllegalArgumentException("Product not found: " + sku);
+          }
+          if (quantity + entry.getValue() < 0) {
+            throw new InsufficientStockException(sku, quantity);
+          }
+          stored.put(sku, quantity + entry.getValue());
+          models.add(new UpdateOneModel<>(filterFor(sku, entry.getValue()), Updates.inc("quantity", entry.getValue())));
+        }
+        // The filters repeat the check on the server; a concurrent writer makes
+        // the transaction conflict and withTransaction retries it.
+        if (productCollection.bulkWrite(session, models, new BulkWriteOptions().ordered(true))
+            .getMatchedCount() != models.size()) {
+          throw new IllegalStateException("Stock changed while the order was being written.");
+        }
+        try {
+          if (orders.size() == 1) {
+            orderCollection.insertOne(session, orders.get(0));
+          } else {
+            orderCollection.insertMany(session, orders);
+          }
+        } catch (MongoWriteException e) {
+          if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+            throw new DuplicateOrderException(orders.get(0).getOrderId());
+          }
+          throw e;
+        } catch (MongoBulkWriteException e) {
+          BulkWriteError error = e.getWriteErrors().isEmpty() ? null : e.getWriteErrors().get(0);
+          if (error != null && error.getCategory() == ErrorCategory.DUPLICATE_KEY) {
+            throw new DuplicateOrderException(orders.get(error.getIndex()).getOrderId());
+          }
+          throw e;
+        }
+        return stored;
+      });
+    }
+  }
+
+  private Map<String, Integer> writeSequentially(Map<String, Integer> deltas) {
+    Map<String, Integer> stored = new HashMap<>();
+    FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)
+        .projection(QUANTITY);
+    for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+      String sku = entry.getKey();
+      Document after = productCollection.findOneAndUpdate(filterFor(sku, entry.getValue()),
+          Updates.inc("quantity", entry.getValue()), options);
+      if (after == null) {
+        for (Map.Entry<String, Integer> applied : deltas.entrySet()) {
+          if (!stored.containsKey(applied.getKey())) {
+            break;
+          }
+          productCollection.updateOne(Filters.eq("_id", applied.getKey()),
+              Updates.inc("quantity", -applied.getValue()));
+        }
+        Document current = productCollection.find(Filters.eq("_id", sku)).projection(QUANTITY).first();
+        if (current == null) {
+          throw new IllegalArgumentException("Product not found: " + sku);
+        }
+        throw new InsufficientStockException(sku, current.getInteger("quantity"));
+      }
+      stored.put(sku, after.getInteger("quantity"));
+    }
+    return stored;
+  }
+}
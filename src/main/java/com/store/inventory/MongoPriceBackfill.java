@@ -0,0 +1,136 @@
+package com.store.inventory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * One-off migration for orders stored before lines carried a unit price.
+ * Without one those lines load at a price of 0, and the valuation, the sales
+ * value totals and the archive all treat them as free. Each such line is
+ * given the product's current price, and its name if it has none, and the
+ * order's total is recomputed. The price a line was actually sold at is not
+ * known any more, so this is an estimate; SKUs no longer in the catalog keep
+ * 0 and are listed in the log. The migrations collection records the run so
+ * later starts skip it.
+ */
+final class MongoPriceBackfill {
+  static final String MIGRATION = "order-unit-prices";
+  private static final int BATCH_SIZE = 1000;
+
+  private MongoPriceBackfill() {
+  }
+
+  /** Prices the lines that have no unit price, unless an earlier run did; returns the orders changed. */
+  static int run(MongoDatabase database, PrintStream log) {
+    MongoCollection<Document> migrations = database.getCollection("migrations");
+    if (migrations.find(Filters.eq("_id", MIGRATION)).first() != null) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    MongoCollection<Document> orders = database.getCollection("orders");
+    MongoCollection<Document> products = database.getCollection("products");
+    Set<String> unknown = new TreeSet<>();
+    int changed = 0;
+    List<Document> batch = new ArrayList<>(BATCH_SIZE);
+    try (MongoCursor<Document> cursor = orders.find(Filters.elemMatch("items", Filters.exists("unitPrice", false)))
+        .projection(Projections.include("items")).batchSize(BATCH_SIZE).iterator()) {
+      while (cursor.hasNext()) {
+        batch.add(cursor.next());
+        if (batch.size() == BATCH_SIZE) {
+          changed += write(orders, batch, prices(products, batch), unknown);
+          batch.clear();
+        }
+      }
+    }
+    changed += write(orders, batch, prices(products, batch), unknown);
+    migrations.replaceOne(Filters.eq("_id", MIGRATION), new Document("_id", MIGRATION)
+        .append("completed", new Date()).append("orders", changed), new ReplaceOptions().upsert(true));
+    if (changed > 0) {
+      log.println(App.ANSI_YELLOW + "Priced the lines of " + changed + " orders stored without unit prices at "
+          + "today's product prices in " + (System.nanoTime() - start) / 1_000_000 + " ms." + App.ANSI_RESET);
+    }
+    if (!unknown.isEmpty()) {
+      log.println(App.ANSI_YELLOW + "No product to price order lines from, left at 0: " + String.join(", ", unknown)
+          + App.ANSI_RESET);
+    }
+    return changed;
+  }
+
+  /** The products, by SKU, with name and price, of the unpriced lines of {@code batch}. */
+  private static Map<String, Document> prices(MongoCollection<Document> products, List<Document> batch) {
+    Set<String> skus = new HashSet<>();
+    for (Document order : batch) {
+      for (Document item : order.getList("items", Document.class)) {
+        if (!item.containsKey("unitPrice")) {
+          skus.add(item.getString("sku"));
+        }
+      }
+    }
+    Map<String, Document> result = new HashMap<>();
+    if (!skus.isEmpty()) {
+      for (Document product : products.find(Filters.in("_id", skus)).projection(Projections.include("name", "price"))) {
+        result.put(product.getString("_id"), product);
+      }
+    }
+    return result;
+  }
+
+  private static int write(MongoCollection<Document> orders, List<Document> batch, Map<String, Document> products,
+      Set<String> unknown) {
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+    for (Document order : batch) {
+      List<Document> items = priceLines(order.getList("items", Document.class), products, unknown);
+      long total = 0;
+      for (Document item : items) {
+        total += item.get("quantity", Number.class).longValue() * item.get("unitPrice", Number.class).longValue();
+      }
+      // Matching on the unpriced line again leaves an order another process priced meanwhile alone.
+      models.add(new UpdateOneModel<>(Filters.and(Filters.eq("_id", order.get("_id")),
+          Filters.elemMatch("items", Filters.exists("unitPrice", false))),
+          Updates.combine(Updates.set("items", items), Updates.set("total", total))));
+    }
+    return orders.bulkWrite(models, new BulkWriteOptions().ordered(false)).getModifiedCount();
+  }
+
+  /**
+   * {@code items} with a unit price, and a name where missing, on every line
+   * that has no price, taken from {@code products}; SKUs not there are added
+   * to {@code unknown} and priced at 0.
+   */
+  static List<Document> priceLines(List<Document> items, Map<String, Document> products, Set<String> unknown) {
+    List<Document> priced = new ArrayList<>(items.size());
+    for (Document item : items) {
+      if (item.containsKey("unitPrice")) {
+        priced.add(item);
+        continue;
+      }
+      Document line = new Document(item);
+      Document product = products.get(item.getString("sku"));
+      if (product == null) {
+        unknown.add(item.getString("sku"));
+        line.append("unitPrice", 0L);
+      } else {
+        line.append("unitPrice", Money.toMinor(product.get("price", Number.class).doubleValue()));
+        if (line.getString("name") == null) {
+          line.put("name", product.getString("name"));
+        }
+      }
+      priced.add(line);
+    }
+    return priced;
+  }
+}
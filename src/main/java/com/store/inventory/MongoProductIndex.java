@@ -0,0 +1,73 @@
+package com.store.inventory;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.conversions.Bson;
+import java.util.*;
+
+/**
+ * {@link ProductIndex} queries answered from the indexes MongoDB keeps on the
+ * products collection, for when the catalog is only partly in memory in a
+ * {@link ProductCache}. Text search uses the text index, so it matches whole
+ * words and their stems rather than any part of a word. Products in the
+ * cache are returned as the cached instance; the rest are read from the
+ * results without being cached.
+ */
+public class MongoProductIndex extends ProductIndex {
+  private final MongoCollection<Product> products;
+  private final MongoWriteBehind writeBehind;
+  private final ProductCache cache;
+
+  public MongoProductIndex(MongoCollection<Product> products, MongoWriteBehind writeBehind, ProductCache cache) {
+    this.products = products;
+    this.writeBehind = writeBehind;
+    this.cache = cache;
+  }
+
+  @Override
+  public void add(Product product) {
+    // MongoDB indexes the product when the write-behind buffer stores it.
+  }
+
+  @Override
+  public void remove(Product product) {
+  }
+
+  @Override
+  public List<Product> searchText(String query, int limit) {
+    if (query.trim().isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Product> result = find(Filters.text(query),
+        Projections.fields(StartupLoader.PRODUCT_FIELDS, Projections.metaTextScore("score")),
+        Sorts.metaTextScore("score"), limit);
+    result.sort(Comparator.comparing(Product::getSku));
+    return result;
+  }
+
+  @Override
+  public List<Product> bySupplier(String supplierId) {
+    return find(Filters.eq("supplierId", supplierId), StartupLoader.PRODUCT_FIELDS, Sorts.ascending("_id"), 0);
+  }
+
+  @Override
+  public List<Product> receivedBetween(String from, String to, int limit) {
+    return find(Filters.and(Filters.gte("dateReceived", from), Filters.lte("dateReceived", to)),
+        StartupLoader.PRODUCT_FIELDS, Sorts.ascending("dateReceived"), limit);
+  }
+
+  private List<Product> find(Bson filter, Bson fields, Bson sort, int limit) {
+    // Products still in the write-behind buffer are not in MongoDB's indexes yet.
+    writeBehind.flush();
+    FindIterable<Product> found = products.find(filter).projection(fields).sort(sort).limit(limit);
+    List<Product> result = new ArrayList<>();
+    for (Product product : found) {
+      Product cached = cache.peek(product.getSku());
+      result.add(cached != null ? cached : product);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,118 @@
+package com.store.inventory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * {@link SalesQueries} answered by aggregation pipelines over the orders
+ * collection, so the grouping runs in MongoDB and only the totals come back.
+ * Useful when the orders are too many to keep in memory or are written by
+ * other processes too; orders still waiting in the local journal are not
+ * counted. Sales look up each SKU's supplier in the products collection.
+ */
+public class MongoSalesQueries implements SalesQueries {
+  /** The order date as an ISO string, whether it is stored as a date or, in older orders, a string already. */
+  private static final Document ORDER_DAY = new Document("$cond", Arrays.asList(
+      new Document("$eq", Arrays.asList(new Document("$type", "$orderDate"), "date")),
+      new Document("$dateToString", new Document("format", "%Y-%m-%d").append("date", "$orderDate")),
+      "$orderDate"));
+
+  private final MongoCollection<Document> orders;
+
+  public MongoSalesQueries(MongoDatabase database) {
+    this.orders = database.getCollection("orders");
+  }
+
+  /** Matches the orders of one kind in the range and turns them into one document per item. */
+  private static List<Bson> lines(Kind kind, LocalDate from, LocalDate to) {
+    if (from.isAfter(to)) {
+      throw new IllegalArgumentException("The range starts after it ends.");
+    }
+    List<Bson> pipeline = new ArrayList<>();
+    pipeline.add(Aggregates.match(Filters.and(
+        Filters.exists("customerName", kind == Kind.SALES),
+        ModelCodecs.orderDateBetween(from, to))));
+    pipeline.add(Aggregates.unwind("$items"));
+    return pipeline;
+  }
+
+  /** Adds the {@code supplier} field: the product's supplier for sales, the order's for receipts. */
+  private static void addSupplier(List<Bson> pipeline, Kind kind) {
+    if (kind == Kind.SALES) {
+      pipeline.add(Aggregates.lookup("products", "items.sku", "_id", "product"));
+      Document supplierId = new Document("$arrayElemAt", Arrays.asList("$product.supplierId", 0));
+      pipeline.add(Aggregates.addFields(new Field<>("supplier",
+          new Document("$ifNull", Arrays.asList(supplierId, "unknown")))));
+    } else {
+      pipeline.add(Aggregates.addFields(new Field<>("supplier",
+          new Document("$ifNull", Arrays.asList("$supplierId", "unknown")))));
+    }
+  }
+
+  private static Bson group(Object key) {
+    return Aggregates.group(key,
+        Accumulators.sum("units", "$items.quantity"),
+        Accumulators.sum("value", new Document("$multiply",
+            Arrays.asList("$items.quantity", new Document("$ifNull", Arrays.asList("$items.unitPrice", 0))))),
+        Accumulators.sum("lines", 1));
+  }
+
+  private static Total total(String key, Document doc) {
+    return new Total(key, doc.get("units", Number.class).longValue(), doc.get("value", Number.class).longValue(),
+        doc.get("lines", Number.class).longValue());
+  }
+
+  private List<Total> run(List<Bson> pipeline) {
+    List<Total> result = new ArrayList<>();
+    for (Document doc : orders.aggregate(pipeline).allowDiskUse(true)) {
+      Object key = doc.get("_id");
+      result.add(total(key != null ? key.toString() : null, doc));
+    }
+    return result;
+  }
+
+  @Override
+  public List<Total> topSkus(Kind kind, LocalDate from, LocalDate to, int limit, boolean byValue) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive.");
+    }
+    List<Bson> pipeline = lines(kind, from, to);
+    pipeline.add(group("$items.sku"));
+    pipeline.add(Aggregates.sort(byValue ? Sorts.descending("value", "units") : Sorts.descending("units", "value")));
+    pipeline.add(Aggregates.limit(limit));
+    return run(pipeline);
+  }
+
+  @Override
+  public List<Total> suppliers(Kind kind, LocalDate from, LocalDate to) {
+    List<Bson> pipeline = lines(kind, from, to);
+    addSupplier(pipeline, kind);
+    pipeline.add(group("$supplier"));
+    pipeline.add(Aggregates.sort(Sorts.descending("value")));
+    return run(pipeline);
+  }
+
+  @Override
+  public SortedMap<LocalDate, Total> daily(Kind kind, String supplierId, LocalDate from, LocalDate to) {
+    List<Bson> pipeline = lines(kind, from, to);
+    if (supplierId != null) {
+      addSupplier(pipeline, kind);
+      pipeline.add(Aggregates.match(Filters.eq("supplier", supplierId)));
+    }
+    pipeline.add(group(ORDER_DAY));
+    SortedMap<LocalDate, Total> result = new TreeMap<>();
+    for (Total total : run(pipeline)) {
+      result.put(LocalDate.parse(total.getKey()), total);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,563 @@
+package com.store.inventory;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoException;
+import com.mongodb.client.*;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the inventory in MongoDB. Product and supplier writes go through
+ * {@link MongoWriteBehind}, orders through {@link MongoOrderWriter}. Startup
+ * uses the snapshot written at the last clean exit when there is one, and a
+ * parallel {@link StartupLoader} otherwise. Models are mapped to BSON by
+ * {@link ModelCodecs}.
+ *
+ * With a cache size set, products are not loaded at all: {@link #products()}
+ * is a {@link ProductCache} reading through to the products collection, and
+ * orders are read by date range with {@link #ordersBetween} instead of being
+ * loaded, so {@link #orders()} holds only the orders placed since opening.
+ * Suppliers are still loaded. No snapshot is read or written in this mode.
+ */
+public class MongoStorage implements Storage {
+  public static final String DEFAULT_URI = "mongodb://localhost:27017/inventory";
+  public static final String DEFAULT_DATABASE = "inventory_management";
+
+  private static final long REPLAY_AWAIT_MS = 200;
+
+  private final String uri;
+  private final String databaseName;
+  private final Path snapshotPath;
+  private final PrintStream log;
+  private final int cacheSize;
+
+  private MongoClient mongoClient;
+  private MongoDatabase database;
+  private MongoCollection<Document> productCollection;
+  private MongoCollection<Document> supplierCollection;
+  private MongoCollection<Document> orderCollection;
+  /** The same collections, decoding into and encoding from the model classes. */
+  private MongoCollection<Product> productModels;
+  private MongoCollection<Supplier> supplierModels;
+  private MongoCollection<Order> orderModels;
+  private MongoWriteBehind writeBehind;
+  private StartupLoader startupLoader;
+  private MongoOrderWriter orderWriter;
+  private ProductCache cache;
+  private BsonDocument followFrom;
+  /**
+   * Where the change stream was just before loading, so replaying from it
+   * covers everything other processes changed since; null if there was none.
+   */
+  private BsonDocument loadedFrom;
+  private MongoChangeFeed changeFeed;
+  /** IDs of orders written here whose change has not come back through the feed yet. */
+  private final Set<String> localOrders = ConcurrentHashMap.newKeySet();
+
+  private Map<String, Product> products;
+  private Map<String, Supplier> suppliers;
+  private List<Order> orders;
+  private volatile boolean loaded;
+
+  /** {@code snapshotPath} may be null to turn snapshots off. */
+  public MongoStorage(String uri, String databaseName, Path snapshotPath, PrintStream log) {
+    this(uri, databaseName, snapshotPath, 0, log);
+  }
+
+  /** Keeps at most {@code cacheSize} products in memory if it is positive; see the class comment. */
+  public MongoStorage(String uri, String databaseName, Path snapshotPath, int cacheSize, PrintStream log) {
+    this.uri = uri;
+    this.databaseName = databaseName;
+    this.snapshotPath = snapshotPath;
+    this.cacheSize = cacheSize;
+    this.log = log;
+  }
+
+  @Override
+  public void open() {
+    mongoClient = MongoClients.create(MongoClientSettings.builder()
+        .applyConnectionString(new ConnectionString(uri))
+        .addCommandListener(new MongoCommandMetrics())
+        .codecRegistry(ModelCodecs.REGISTRY)
+        .build());
+    database = mongoClient.getDatabase(databaseName);
+    productCollection = database.getCollection("products");
+    supplierCollection = database.getCollection("suppliers");
+    orderCollection = database.getCollection("orders");
+    productModels = productCollection.withDocumentClass(Product.class);
+    supplierModels = supplierCollection.withDocumentClass(Supplier.class);
+    orderModels = orderCollection.withDocumentClass(Order.class);
+    writeBehind = new MongoWriteBehind(productModels, supplierModels, orderModels,
+        Integer.getInteger("inventory.writeBehind.batchSize", MongoWriteBehind.DEFAULT_BATCH_SIZE),
+        Long.getLong("inventory.writeBehind.flushMs", MongoWriteBehind.DEFAULT_FLUSH_INTERVAL_MS), log);
+    createIndexes();
+    try {
+      MongoPriceBackfill.run(database, log);
+    } catch (MongoException e) {
+      // Not recorded as done, so the next start tries again.
+      log.println(App.ANSI_YELLOW + "Could not price old order lines (" + e.getMessage() + "); they count as free."
+          + App.ANSI_RESET);
+    }
+    orderWriter = new MongoOrderWriter(mongoClient, productCollection, orderModels, writeBehind);
+
+    boolean follow = Boolean.getBoolean("inventory.followChanges");
+    if (follow || (snapshotPath != null && cacheSize <= 0)) {
+      // Taken before loading so that changes made while it runs are applied afterwards.
+      try {
+        loadedFrom = currentResumeToken();
+        followFrom = follow ? loadedFrom : null;
+      } catch (MongoException e) {
+        if (follow) {
+          log.println(App.ANSI_YELLOW + "Change streams unavailable (" + e.getMessage() + "), not following "
+              + "other processes' changes." + App.ANSI_RESET);
+        }
+      }
+    }
+    if (cacheSize > 0) {
+      openCache();
+      return;
+    }
+    boolean warm = loadSnapshot();
+    Metrics.CACHE.get("snapshot", warm ? "hit" : "miss").increment();
+    if (!warm) {
+      startupLoader = new StartupLoader(productModels, supplierModels, orderModels,
+          Integer.getInteger("inventory.load.batchSize", StartupLoader.DEFAULT_BATCH_SIZE), log);
+      startupLoader.start();
+      products = startupLoader.awaitProducts();
+      suppliers = startupLoader.awaitSuppliers();
+      orders = startupLoader.orders();
+    }
+    loaded = true;
+  }
+
+  private void openCache() {
+    long start = System.nanoTime();
+    cache = new ProductCache(cacheSize, new ProductCache.Source() {
+      @Override
+      public Map<String, Product> load(Collection<String> skus) {
+        writeBehind.awaitProducts(skus);
+        Map<String, Product> result = new HashMap<>();
+        for (Product product : productModels.find(Filters.in("_id", skus))
+            .projection(StartupLoader.PRODUCT_FIELDS)) {
+          result.put(product.getSku(), product);
+        }
+        return result;
+      }
+
+      @Override
+      public Iterator<Product> scan() {
+        writeBehind.flush();
+        return productModels.find().projection(StartupLoader.PRODUCT_FIELDS)
+            .batchSize(StartupLoader.DEFAULT_BATCH_SIZE).iterator();
+      }
+
+      @Override
+      public int count() {
+        writeBehind.flush();
+        return (int) productCollection.countDocuments();
+      }
+    });
+    products = cache;
+    suppliers = new ConcurrentHashMap<>();
+    for (Supplier supplier : supplierModels.find().projection(StartupLoader.SUPPLIER_FIELDS)) {
+      suppliers.put(supplier.getId(), supplier);
+    }
+    orders = Collections.synchronizedList(new ArrayList<>());
+    Metrics.LOAD.get("suppliers").recordSince(start);
+    log.println(App.ANSI_GREEN + "Caching up to " + cacheSize + " products; loaded " + suppliers.size()
+        + " suppliers." + App.ANSI_RESET);
+  }
+
+  /**
+   * Starts passing changes made by other processes since opening to
+   * {@code handler}, if {@code -Dinventory.followChanges=true} and the server
+   * supports change streams; returns whether it did. Changes to products with
+   * writes from this process still buffered are skipped, since those writes
+   * replace them, and so are this process's own orders.
+   */
+  public boolean followChanges(MongoChangeFeed.Handler handler) {
+    if (followFrom == null) {
+      return false;
+    }
+    Map<String, String> kinds = new HashMap<>();
+    kinds.put(productCollection.getNamespace().getCollectionName(), "products");
+    kinds.put(supplierCollection.getNamespace().getCollectionName(), "suppliers");
+    kinds.put(orderCollection.getNamespace().getCollectionName(), "orders");
+    changeFeed = new MongoChangeFeed(database, watchedCollections(), kinds, followFrom,
+        Long.getLong("inventory.followChanges.coalesceMs", MongoChangeFeed.DEFAULT_COALESCE_MS),
+        new MongoChangeFeed.Handler() {
+          @Override
+          public void productsChanged(Map<String, Product> products) {
+            products.keySet().removeIf(writeBehind::isPending);
+            if (!products.isEmpty()) {
+              handler.productsChanged(products);
+            }
+          }
+
+          @Override
+          public void suppliersChanged(Map<String, Supplier> suppliers) {
+            handler.suppliersChanged(suppliers);
+          }
+
+          @Override
+          public void ordersAdded(List<Order> orders) {
+            orders.removeIf(order -> localOrders.remove(order.getOrderId()));
+            if (!orders.isEmpty()) {
+              handler.ordersAdded(orders);
+            }
+          }
+        }, log);
+    return true;
+  }
+
+  public boolean isCaching() {
+    return cache != null;
+  }
+
+  /** Searches MongoDB's indexes when the products are cached, otherwise indexes them in memory. */
+  public ProductIndex productIndex() {
+    return cache != null ? new MongoProductIndex(productModels, writeBehind, cache) : new ProductIndex(products);
+  }
+
+  /**
+   * Values the stock in memory, or, when the products are cached, with one
+   * aggregation grouping them by supplier in MongoDB. Each product's price is
+   * rounded to paise as {@link Money#toMinor} does before it is multiplied,
+   * so the totals match what the stock engine's changes add and take away.
+   */
+  public InventoryValuation valuation() {
+    if (cache == null) {
+      return new InventoryValuation(products);
+    }
+    writeBehind.flush();
+    Document minorPrice = new Document("$floor", new Document("$add", Arrays.asList(
+        new Document("$multiply", Arrays.asList("$price", Money.SCALE)), 0.5)));
+    InventoryValuation valuation = new InventoryValuation();
+    for (Document totals : productCollection.aggregate(Arrays.asList(Aggregates.group("$supplierId",
+        Accumulators.sum("products", 1), Accumulators.sum("items", "$quantity"),
+        Accumulators.sum("value", new Document("$multiply", Arrays.asList("$quantity", minorPrice))))))) {
+      valuation.add(totals.getString("_id"), totals.get("products", Number.class).intValue(),
+          totals.get("items", Number.class).longValue(), totals.get("value", Number.class).longValue());
+    }
+    return valuation;
+  }
+
+  /** Orders dated from {@code from} to {@code to}, both inclusive, read from MongoDB in date order. */
+  public List<Order> ordersBetween(LocalDate from, LocalDate to) {
+    if (from.isAfter(to)) {
+      throw new IllegalArgumentException("The range starts after it ends.");
+    }
+    long start = System.nanoTime();
+    List<Order> result = new ArrayList<>();
+    orderModels.find(ModelCodecs.orderDateBetween(from, to)).projection(StartupLoader.ORDER_FIELDS)
+        .batchSize(StartupLoader.DEFAULT_BATCH_SIZE).into(result);
+    // MongoDB sorts every string before every date, so older orders would come first.
+    result.sort(Comparator.comparing(Order::getOrderDate));
+    Metrics.STORAGE.get("orders-between").recordSince(start);
+    return result;
+  }
+
+  private void createIndexes() {
+    try {
+      productCollection.createIndex(Indexes.compoundIndex(Indexes.text("name"), Indexes.text("description")));
+      productCollection.createIndex(Indexes.ascending("supplierId"));
+      productCollection.createIndex(Indexes.ascending("dateReceived"));
+      orderCollection.createIndex(Indexes.ascending("orderDate"));
+    } catch (MongoException e) {
+      log.println(App.ANSI_YELLOW + "Warning: could not create product indexes: " + e.getMessage() + App.ANSI_RESET);
+    }
+  }
+
+  /** Sales queries run as aggregation pipelines on this database; only valid while it is open. */
+  public SalesQueries salesQueries() {
+    return new MongoSalesQueries(database);
+  }
+
+  @Override
+  public Map<String, Product> products() {
+    return products;
+  }
+
+  @Override
+  public Map<String, Supplier> suppliers() {
+    return suppliers;
+  }
+
+  @Override
+  public List<Order> orders() {
+    return orders;
+  }
+
+  @Override
+  public boolean ordersLoaded() {
+    return startupLoader == null || startupLoader.ordersLoaded();
+  }
+
+  @Override
+  public void awaitOrders() {
+    if (startupLoader != null) {
+      startupLoader.awaitOrders();
+    }
+  }
+
+  @Override
+  public void saveProduct(Product product) {
+    writeBehind.insertProduct(product);
+  }
+
+  @Override
+  public void updateProduct(Product product) {
+    Document doc = new Document("quantity", product.getQuantity())
+        .append("price", product.getPrice());
+    writeBehind.updateProduct(product.getSku(), doc);
+  }
+
+  @Override
+  public void removeProduct(String sku) {
+    writeBehind.deleteProduct(sku);
+  }
+
+  @Override
+  public void saveSupplier(Supplier supplier) {
+    writeBehind.insertSupplier(supplier);
+  }
+
+  @Override
+  public Map<String, Integer> writeOrder(Map<String, Integer> deltas, Order order) {
+    if (followFrom != null) {
+      localOrders.add(order.getOrderId());
+    }
+    Map<String, Integer> stored;
+    try {
+      stored = orderWriter.write(deltas, order);
+    } catch (RuntimeException e) {
+      localOrders.remove(order.getOrderId());
+      throw e;
+    }
+    orders.add(order);
+    return stored;
+  }
+
+  /** Sums the deltas so each SKU is changed once, and stores the orders in the same transaction. */
+  @Override
+  public Map<String, Integer> writeOrders(List<Map<String, Integer>> deltas, List<Order> batch) {
+    if (deltas.size() != batch.size()) {
+      throw new IllegalArgumentException("Expected deltas for each of " + batch.size() + " orders.");
+    }
+    Map<String, Integer> total = new LinkedHashMap<>();
+    deltas.forEach(orderDeltas -> orderDeltas.forEach((sku, delta) -> total.merge(sku, delta, Integer::sum)));
+    if (followFrom != null) {
+      batch.forEach(order -> localOrders.add(order.getOrderId()));
+    }
+    Map<String, Integer> stored;
+    try {
+      stored = orderWriter.write(total, batch);
+    } catch (RuntimeException e) {
+      batch.forEach(order -> localOrders.remove(order.getOrderId()));
+      throw e;
+    }
+    orders.addAll(batch);
+    return stored;
+  }
+
+  @Override
+  public void flush() {
+    writeBehind.flush();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (mongoClient == null) {
+      return;
+    }
+    if (changeFeed != null) {
+      changeFeed.close();
+    }
+    if (writeBehind != null) {
+      writeBehind.close();
+      log.println("Write-behind " + writeBehind.getStats());
+    }
+    if (cache != null) {
+      log.println("Product cache: " + cache.getStats());
+    }
+    saveSnapshot();
+    mongoClient.close();
+    mongoClient = null;
+  }
+
+  /**
+   * Loads the snapshot written at the last clean exit and replays the changes
+   * made in MongoDB since it was taken. Returns false, leaving the state
+   * untouched, if there is no usable snapshot or the changes cannot be
+   * replayed; the caller then does a full load.
+   */
+  private boolean loadSnapshot() {
+    if (snapshotPath == null || !Files.exists(snapshotPath)) {
+      return false;
+    }
+    long start = System.nanoTime();
+    try {
+      Snapshot snapshot = Snapshot.read(snapshotPath);
+      if (snapshot.getResumeToken() == null) {
+        log.println(App.ANSI_YELLOW + "Snapshot has no resume token, reloading from MongoDB." + App.ANSI_RESET);
+        return false;
+      }
+      int changes = replayChanges(snapshot);
+      products = snapshot.getProducts();
+      suppliers = snapshot.getSuppliers();
+      orders = Collections.synchronizedList(snapshot.getOrders());
+      Metrics.LOAD.get("snapshot").recordSince(start);
+      log.println(App.ANSI_GREEN + "Loaded snapshot of " + products.size() + " products, " + suppliers.size()
+          + " suppliers and " + orders.size() + " orders and replayed " + changes + " changes in "
+          + (System.nanoTime() - start) / 1_000_000 + " ms." + App.ANSI_RESET);
+      return true;
+    } catch (IOException | MongoException | IllegalStateException e) {
+      log.println(App.ANSI_YELLOW + "Snapshot not usable (" + e.getMessage() + "), reloading from MongoDB."
+          + App.ANSI_RESET);
+      return false;
+    }
+  }
+
+  private Bson watchedCollections() {
+    return Aggregates.match(Filters.in("ns.coll", productCollection.getNamespace().getCollectionName(),
+        supplierCollection.getNamespace().getCollectionName(), orderCollection.getNamespace().getCollectionName()));
+  }
+
+  private int replayChanges(Snapshot snapshot) {
+    int count = 0;
+    // Indexed by ID so that each change costs the same however many orders the snapshot holds.
+    Map<String, Order> orders = new LinkedHashMap<>();
+    for (Order order : snapshot.getOrders()) {
+      orders.put(order.getOrderId(), order);
+    }
+    try (MongoChangeStreamCursor<ChangeStreamDocument<BsonDocument>> cursor = database
+        .watch(Collections.singletonList(watchedCollections()), BsonDocument.class)
+        .resumeAfter(BsonDocument.parse(snapshot.getResumeToken()))
+        .fullDocument(FullDocument.UPDATE_LOOKUP)
+        .maxAwaitTime(REPLAY_AWAIT_MS, TimeUnit.MILLISECONDS)
+        .cursor()) {
+      for (ChangeStreamDocument<BsonDocument> change = cursor.tryNext(); change != null; change = cursor.tryNext()) {
+        applyChange(snapshot, orders, change);
+        count++;
+      }
+    }
+    if (count > 0) {
+      snapshot.getOrders().clear();
+      snapshot.getOrders().addAll(orders.values());
+    }
+    return count;
+  }
+
+  private void applyChange(Snapshot snapshot, Map<String, Order> orders, ChangeStreamDocument<BsonDocument> change) {
+    String collection = change.getNamespace() != null ? change.getNamespace().getCollectionName() : null;
+    BsonDocument doc = change.getFullDocument();
+    switch (change.getOperationType()) {
+      case INSERT:
+      case UPDATE:
+      case REPLACE:
+        if (doc != null) {
+          try {
+            putInSnapshot(snapshot, orders, collection, doc);
+          } catch (RuntimeException e) {
+            // Skipping the change would leave the snapshot wrong for good; a full load reads it as stored.
+            throw new IllegalStateException("Cannot read changed document " + doc.get("_id") + " in " + collection
+                + ": " + e, e);
+          }
+        } else {
+          // The document was deleted before the lookup; treat the change as a delete.
+          removeFromSnapshot(snapshot, orders, collection, change.getDocumentKey().getString("_id").getValue());
+        }
+        return;
+      case DELETE:
+        removeFromSnapshot(snapshot, orders, collection, change.getDocumentKey().getString("_id").getValue());
+        return;
+      default:
+        throw new IllegalStateException("Collections were dropped or renamed since the snapshot was taken");
+    }
+  }
+
+  private void putInSnapshot(Snapshot snapshot, Map<String, Order> orders, String collection, BsonDocument doc) {
+    if (collection.equals(productCollection.getNamespace().getCollectionName())) {
+      Product product = ModelCodecs.decode(ModelCodecs.PRODUCT, doc);
+      snapshot.getProducts().put(product.getSku(), product);
+    } else if (collection.equals(supplierCollection.getNamespace().getCollectionName())) {
+      Supplier supplier = ModelCodecs.decode(ModelCodecs.SUPPLIER, doc);
+      snapshot.getSuppliers().put(supplier.getId(), supplier);
+    } else {
+      Order order = ModelCodecs.decode(ModelCodecs.ORDER, doc);
+      orders.put(order.getOrderId(), order);
+    }
+  }
+
+  private void removeFromSnapshot(Snapshot snapshot, Map<String, Order> orders, String collection, String id) {
+    if (collection.equals(productCollection.getNamespace().getCollectionName())) {
+      snapshot.getProducts().remove(id);
+    } else if (collection.equals(supplierCollection.getNamespace().getCollectionName())) {
+      snapshot.getSuppliers().remove(id);
+    } else {
+      orders.remove(id);
+    }
+  }
+
+  /** A resume token for the present position of the change stream; null if the server gives none. */
+  private BsonDocument currentResumeToken() {
+    try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = database
+        .watch(Collections.singletonList(watchedCollections()))
+        .maxAwaitTime(1, TimeUnit.MILLISECONDS)
+        .cursor()) {
+      BsonDocument resumeToken = cursor.getResumeToken();
+      if (resumeToken == null && cursor.tryNext() == null) {
+        resumeToken = cursor.getResumeToken();
+      }
+      return resumeToken;
+    }
+  }
+
+  /**
+   * Writes the current state to the snapshot file with a resume token taken
+   * after all buffered writes reached MongoDB. Change streams need a replica
+   * set, so on a standalone server no snapshot is written.
+   */
+  private void saveSnapshot() {
+    if (snapshotPath == null || !loaded) {
+      return;
+    }
+    awaitOrders();
+    long start = System.nanoTime();
+    try {
+      // The state holds other processes' changes up to the feed's token when following them, and only up to
+      // loading otherwise; a token taken now would make the next start skip what they did in between.
+      BsonDocument resumeToken = changeFeed != null && changeFeed.getResumeToken() != null
+          ? changeFeed.getResumeToken() : loadedFrom;
+      String token = resumeToken != null ? resumeToken.toJson() : null;
+      if (token == null) {
+        log.println(App.ANSI_YELLOW + "No change-stream resume token available, snapshot not written."
+            + App.ANSI_RESET);
+        return;
+      }
+      Snapshot.write(snapshotPath, token, products, suppliers, orders);
+      log.println("Wrote snapshot to " + snapshotPath + " in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    } catch (MongoException e) {
+      log.println(App.ANSI_YELLOW + "Change streams unavailable (" + e.getMessage() + "), snapshot not written."
+          + App.ANSI_RESET);
+    } catch (IOException | RuntimeException e) {
+      log.println(App.ANSI_RED + "Failed to write snapshot: " + e.getMessage() + App.ANSI_RESET);
+    }
+  }
+}
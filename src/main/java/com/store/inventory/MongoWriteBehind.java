@@ -0,0 +1,554 @@
+package com.store.inventory;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Buffers product, supplier and order writes and sends them to MongoDB as
+ * unordered bulk writes. Repeated writes to the same SKU are merged so only
+ * the latest state of each product is sent; suppliers are upserted by ID. A
+ * flush happens when the number of pending writes reaches the batch size,
+ * when the flush interval elapses, or when the buffer is closed.
+ *
+ * Inserted products are buffered as copies and encoded by the collections'
+ * {@link ModelCodecs} when they are flushed; updates stay {@code $set}
+ * documents until they merge into a buffered copy.
+ *
+ * Writes a flush could not send, because the server was unreachable or timed
+ * out, are kept and sent again before anything buffered after them, with the
+ * pause between attempts doubling up to {@code MAX_RETRY_MS}. Only writes the
+ * server refused, such as a duplicate key, are reported and dropped. The
+ * background flushes skip a pause that has not run out, but {@link #flush()}
+ * waits it out, since its callers go on to read what was written.
+ */
+public class MongoWriteBehind {
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+  static final long FIRST_RETRY_MS = 100;
+  static final long MAX_RETRY_MS = 30_000;
+
+  private static final LatencyHistogram FLUSH_TIME = Metrics.STORAGE.get("mongo-bulk-write");
+  private static final LongAdder MERGED = Metrics.CACHE.get("write-behind", "hit");
+  private static final LongAdder BUFFERED = Metrics.CACHE.get("write-behind", "miss");
+
+  private enum Kind {
+    INSERT, UPDATE, REPLACE, DELETE
+  }
+
+  private static class PendingProduct {
+    private Kind kind;
+    /** The whole product for INSERT and REPLACE. */
+    private Product product;
+    /** The fields to set for UPDATE. */
+    private Document fields;
+
+    PendingProduct(Kind kind, Product product, Document fields) {
+      this.kind = kind;
+      this.product = product;
+      this.fields = fields;
+    }
+  }
+
+  private final MongoCollection<Product> productCollection;
+  private final MongoCollection<Supplier> supplierCollection;
+  private final MongoCollection<Order> orderCollection;
+  private final int batchSize;
+  private final PrintStream log;
+  private final Object flushLock = new Object();
+  private final ScheduledExecutorService timer;
+  private final FlushStats stats = new FlushStats();
+
+  private Map<String, PendingProduct> pendingProducts = new LinkedHashMap<>();
+  private Map<String, PendingProduct> flushingProducts = Collections.emptyMap();
+  private List<Supplier> pendingSuppliers = new ArrayList<>();
+  private List<Order> pendingOrders = new ArrayList<>();
+  /** Writes that failed and go out again before the pending ones. */
+  private Map<String, PendingProduct> retryProducts = Collections.emptyMap();
+  private List<Supplier> retrySuppliers = Collections.emptyList();
+  private List<Order> retryOrders = Collections.emptyList();
+  private long retryMs;
+  private long retryAt;
+  private boolean closed;
+
+  public MongoWriteBehind(MongoCollection<Product> productCollection, MongoCollection<Supplier> supplierCollection,
+      MongoCollection<Order> orderCollection, int batchSize, long flushIntervalMs, PrintStream log) {
+    this.productCollection = productCollection;
+    this.supplierCollection = supplierCollection;
+    this.orderCollection = orderCollection;
+    this.batchSize = batchSize;
+    this.log = log;
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "mongo-write-behind");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  public void insertProduct(Product product) {
+    String sku = product.getSku();
+    // The caller's instance keeps changing; the buffer holds the state at this call.
+    Product copy = new Product(sku, product.getName(), product.getDescription(), product.getQuantity(),
+        product.getPrice(), product.getSupplierId(), product.getDateReceived());
+    boolean mustFlush;
+    synchronized (this) {
+      PendingProduct pending = pendingProducts.get(sku);
+      mustFlush = pending != null && pending.kind != Kind.DELETE;
+    }
+    if (mustFlush) {
+      // A second insert for the same SKU has to reach the server separately so
+      // the duplicate key is still reported.
+      flush();
+    }
+    synchronized (this) {
+      PendingProduct pending = pendingProducts.get(sku);
+      if (pending != null && pending.kind == Kind.DELETE) {
+        pending.kind = Kind.REPLACE;
+        pending.product = copy;
+        stats.recordMerge();
+      } else {
+        pendingProducts.put(sku, new PendingProduct(Kind.INSERT, copy, null));
+        BUFFERED.increment();
+      }
+    }
+    flushIfFull();
+  }
+
+  public void updateProduct(String sku, Document fields) {
+    synchronized (this) {
+      PendingProduct pending = pendingProducts.get(sku);
+      if (pending == null) {
+        pendingProducts.put(sku, new PendingProduct(Kind.UPDATE, null, fields));
+        BUFFERED.increment();
+      } else {
+        switch (pending.kind) {
+          case INSERT:
+          case REPLACE:
+            apply(pending.product, fields);
+            break;
+          case UPDATE:
+            pending.fields.putAll(fields);
+            break;
+          case DELETE:
+            // The product is already gone; there is nothing left to update.
+            break;
+        }
+        stats.recordMerge();
+      }
+    }
+    flushIfFull();
+  }
+
+  public void deleteProduct(String sku) {
+    synchronized (this) {
+      PendingProduct previous = pendingProducts.put(sku, new PendingProduct(Kind.DELETE, null, null));
+      if (previous != null) {
+        stats.recordMerge();
+      } else {
+        BUFFERED.increment();
+      }
+    }
+    flushIfFull();
+  }
+
+  /** Sets the fields {@link MongoStorage#updateProduct} changes on a buffered copy. */
+  private static void apply(Product product, Document fields) {
+    for (Map.Entry<String, Object> field : fields.entrySet()) {
+      switch (field.getKey()) {
+        case "quantity":
+          product.setQuantity(((Number) field.getValue()).intValue());
+          break;
+        case "price":
+          product.setPrice(((Number) field.getValue()).doubleValue());
+          break;
+        default:
+          throw new IllegalArgumentException("Cannot update product field " + field.getKey());
+      }
+    }
+  }
+
+  public void insertSupplier(Supplier supplier) {
+    synchronized (this) {
+      pendingSuppliers.add(supplier);
+    }
+    flushIfFull();
+  }
+
+  public void insertOrder(Order order) {
+    synchronized (this) {
+      pendingOrders.add(order);
+    }
+    flushIfFull();
+  }
+
+  /**
+   * Returns once every write buffered so far for any of {@code skus} is in
+   * MongoDB, including ones in a flush already under way, so a read that
+   * follows sees them.
+   */
+  public void awaitProducts(Collection<String> skus) {
+    synchronized (flushLock) {
+      boolean pending = false;
+      synchronized (this) {
+        for (String sku : skus) {
+          if (pendingProducts.containsKey(sku) || retryProducts.containsKey(sku)) {
+            pending = true;
+            break;
+          }
+        }
+      }
+      if (pending) {
+        flush();
+      }
+    }
+  }
+
+  /** Whether a write to {@code sku} is buffered or being flushed, so MongoDB may not have it yet. */
+  public synchronized boolean isPending(String sku) {
+    return pendingProducts.containsKey(sku) || flushingProducts.containsKey(sku) || retryProducts.containsKey(sku);
+  }
+
+  public synchronized int pendingCount() {
+    return pendingProducts.size() + pendingSuppliers.size() + pendingOrders.size();
+  }
+
+  public FlushStats getStats() {
+    return stats;
+  }
+
+  private void flushIfFull() {
+    if (pendingCount() >= batchSize) {
+      flushIfDue();
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flushIfDue();
+    } catch (RuntimeException e) {
+      log.println(App.ANSI_RED + "Error flushing writes to database: " + e.getMessage() + App.ANSI_RESET);
+    }
+  }
+
+  /**
+   * Returns once every write buffered so far is in MongoDB, retrying failed
+   * ones as their pauses run out. Throws {@link IllegalStateException} if they
+   * still have not gone out after {@code MAX_RETRY_MS}, or at once when
+   * closed; the writes stay buffered for the next attempt.
+   */
+  public void flush() {
+    long deadline = System.nanoTime() + MAX_RETRY_MS * 1_000_000;
+    synchronized (flushLock) {
+      while (!flushIfDue()) {
+        long wait;
+        int left;
+        synchronized (this) {
+          wait = retryAt - System.nanoTime();
+          left = retryProducts.size() + retrySuppliers.size() + retryOrders.size() + pendingCount();
+          if (closed || retryAt - deadline > 0) {
+            throw new IllegalStateException("Could not send " + left + " writes to the database.");
+          }
+        }
+        if (wait > 0) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry " + left + " database writes.", e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends what is buffered unless failed writes are still waiting out their
+   * pause, which newer writes must not overtake. Returns whether nothing is
+   * left to retry.
+   */
+  boolean flushIfDue() {
+    synchronized (flushLock) {
+      boolean retrying;
+      synchronized (this) {
+        retrying = !retryProducts.isEmpty() || !retrySuppliers.isEmpty() || !retryOrders.isEmpty();
+        if (retrying && !closed && System.nanoTime() - retryAt < 0) {
+          return false;
+        }
+      }
+      if (retrying && !write(retryProducts, retrySuppliers, retryOrders)) {
+        return false;
+      }
+      Map<String, PendingProduct> products;
+      List<Supplier> newSuppliers;
+      List<Order> newOrders;
+      synchronized (this) {
+        if (pendingProducts.isEmpty() && pendingSuppliers.isEmpty() && pendingOrders.isEmpty()) {
+          return true;
+        }
+        products = pendingProducts;
+        newSuppliers = pendingSuppliers;
+        newOrders = pendingOrders;
+        flushingProducts = products;
+        pendingProducts = new LinkedHashMap<>();
+        pendingSuppliers = new ArrayList<>();
+        pendingOrders = new ArrayList<>();
+      }
+      return write(products, newSuppliers, newOrders);
+    }
+  }
+
+  /** Sends one batch; what fails for want of a server is kept for a retry. Returns whether all of it went out. */
+  private boolean write(Map<String, PendingProduct> products, List<Supplier> suppliers, List<Order> orders) {
+    long start = System.nanoTime();
+    Map<String, PendingProduct> failedProducts;
+    try {
+      failedProducts = writeProducts(products);
+    } finally {
+      synchronized (this) {
+        flushingProducts = Collections.emptyMap();
+      }
+    }
+    List<Supplier> failedSuppliers = writeInserts(supplierCollection, suppliers, Supplier::getId, true,
+        "Supplier with ID", "supplier");
+    List<Order> failedOrders = writeInserts(orderCollection, orders, Order::getOrderId, false, "Order with ID",
+        "order");
+    stats.record(products.size() + suppliers.size() + orders.size(), System.nanoTime() - start);
+    FLUSH_TIME.recordSince(start);
+    int failed = failedProducts.size() + failedSuppliers.size() + failedOrders.size();
+    synchronized (this) {
+      retryProducts = failedProducts;
+      retrySuppliers = failedSuppliers;
+      retryOrders = failedOrders;
+      if (failed == 0) {
+        retryMs = 0;
+        return true;
+      }
+      retryMs = retryMs == 0 ? FIRST_RETRY_MS : Math.min(retryMs * 2, MAX_RETRY_MS);
+      retryAt = System.nanoTime() + retryMs * 1_000_000;
+      if (closed) {
+        log.println(App.ANSI_RED + "Giving up on " + (failed + pendingCount()) + " writes to the database."
+            + App.ANSI_RESET);
+      } else {
+        log.println(App.ANSI_YELLOW + "Retrying " + failed + " writes to the database in " + retryMs + " ms."
+            + App.ANSI_RESET);
+      }
+      return false;
+    }
+  }
+
+  /** The bulk write models for buffered product writes, in the order they were first buffered. */
+  private static List<WriteModel<Product>> models(Map<String, PendingProduct> products) {
+    List<WriteModel<Product>> models = new ArrayList<>(products.size());
+    for (Map.Entry<String, PendingProduct> entry : products.entrySet()) {
+      String sku = entry.getKey();
+      PendingProduct pending = entry.getValue();
+      switch (pending.kind) {
+        case INSERT:
+          models.add(new InsertOneModel<>(pending.product));
+          break;
+        case UPDATE:
+          models.add(new UpdateOneModel<>(Filters.eq("_id", sku), new Document("$set", pending.fields)));
+          break;
+        case REPLACE:
+          models.add(new ReplaceOneModel<>(Filters.eq("_id", sku), pending.product,
+              new ReplaceOptions().upsert(true)));
+          break;
+        case DELETE:
+          models.add(new DeleteOneModel<>(Filters.eq("_id", sku)));
+          break;
+      }
+    }
+    return models;
+  }
+
+  /** What the next flush would send for the products buffered now. */
+  synchronized List<WriteModel<Product>> pendingProductWrites() {
+    return models(pendingProducts);
+  }
+
+  private Map<String, PendingProduct> writeProducts(Map<String, PendingProduct> products) {
+    if (products.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    List<String> skus = new ArrayList<>(products.keySet());
+    try {
+      productCollection.bulkWrite(models(products), new BulkWriteOptions().ordered(false));
+      return Collections.emptyMap();
+    } catch (MongoBulkWriteException e) {
+      Map<String, PendingProduct> failed = new LinkedHashMap<>();
+      for (int index : reportErrors(e, skus, "Product with SKU", "product")) {
+        failed.put(skus.get(index), products.get(skus.get(index)));
+      }
+      return failed;
+    } catch (MongoException e) {
+      stats.recordFailure();
+      log.println(App.ANSI_RED + "Error saving products to database: " + e.getMessage() + App.ANSI_RESET);
+      return products;
+    }
+  }
+
+  private <T> List<T> writeInserts(MongoCollection<T> collection, List<T> values, Function<T, String> idOf,
+      boolean upsert, String label, String noun) {
+    if (values.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<WriteModel<T>> models = new ArrayList<>(values.size());
+    List<String> ids = new ArrayList<>(values.size());
+    for (T value : values) {
+      String id = idOf.apply(value);
+      models.add(upsert ? new ReplaceOneModel<>(Filters.eq("_id", id), value, new ReplaceOptions().upsert(true))
+          : new InsertOneModel<>(value));
+      ids.add(id);
+    }
+    try {
+      collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+      return Collections.emptyList();
+    } catch (MongoBulkWriteException e) {
+      List<T> failed = new ArrayList<>();
+      for (int index : reportErrors(e, ids, label, noun)) {
+        failed.add(values.get(index));
+      }
+      return failed;
+    } catch (MongoException e) {
+      stats.recordFailure();
+      log.println(App.ANSI_RED + "Error saving " + noun + "s to database: " + e.getMessage() + App.ANSI_RESET);
+      return values;
+    }
+  }
+
+  /** Reports the writes the server refused and returns the indexes of those that only timed out. */
+  private List<Integer> reportErrors(MongoBulkWriteException e, List<String> ids, String label, String noun) {
+    List<Integer> retry = new ArrayList<>();
+    for (BulkWriteError error : e.getWriteErrors()) {
+      stats.recordFailure();
+      String id = ids.get(error.getIndex());
+      ErrorCategory category = ErrorCategory.fromErrorCode(error.getCode());
+      if (category == ErrorCategory.EXECUTION_TIMEOUT) {
+        retry.add(error.getIndex());
+      } else if (category == ErrorCategory.DUPLICATE_KEY) {
+        log.println(
+            App.ANSI_RED + "Error: " + label + " " + id + " already exists in the database." + App.ANSI_RESET);
+      } else {
+        log.println(
+            App.ANSI_RED + "Error saving " + noun + " " + id + " to database: " + error.getMessage() + App.ANSI_RESET);
+      }
+    }
+    return retry;
+  }
+
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    timer.shutdown();
+    try {
+      timer.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // One last attempt; what it cannot send is logged as given up.
+    flushIfDue();
+  }
+
+  public static class FlushStats {
+    private static final int BUCKETS = 16;
+
+    private long flushes;
+    private long writes;
+    private long merged;
+    private long failures;
+    private int minBatch = Integer.MAX_VALUE;
+    private int maxBatch;
+    private long totalNanos;
+    private long maxNanos;
+    private final long[] batchSizeBuckets = new long[BUCKETS];
+
+    synchronized void recordMerge() {
+      merged++;
+      MERGED.increment();
+    }
+
+    synchronized void recordFailure() {
+      failures++;
+    }
+
+    synchronized void record(int batch, long nanos) {
+      flushes++;
+      writes += batch;
+      minBatch = Math.min(minBatch, batch);
+      maxBatch = Math.max(maxBatch, batch);
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+      int bucket = Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(Math.max(1, batch)));
+      batchSizeBuckets[bucket]++;
+    }
+
+    public synchronized long getFlushes() {
+      return flushes;
+    }
+
+    public synchronized long getWrites() {
+      return writes;
+    }
+
+    public synchronized long getMerged() {
+      return merged;
+    }
+
+    public synchronized long getFailures() {
+      return failures;
+    }
+
+    public synchronized double getAverageBatch() {
+      return flushes == 0 ? 0 : (double) writes / flushes;
+    }
+
+    public synchronized double getAverageMillis() {
+      return flushes == 0 ? 0 : totalNanos / 1e6 / flushes;
+    }
+
+    public synchronized double getMaxMillis() {
+      return maxNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+      StringBuilder histogram = new StringBuilder();
+      for (int i = 0; i < BUCKETS; i++) {
+        if (batchSizeBuckets[i] > 0) {
+          if (histogram.length() > 0) {
+            histogram.append(", ");
+          }
+          histogram.append(1 << i).append("+: ").append(batchSizeBuckets[i]);
+        }
+      }
+      return String.format(
+          "FlushStats{flushes=%d, writes=%d, merged=%d, failures=%d, batch(min/avg/max)=%d/%.1f/%d, "
+              + "latency(avg/max)=%.2f/%.2f ms, batchSizes=[%s]}",
+          flushes, writes, merged, failures, flushes == 0 ? 0 : minBatch, getAverageBatch(), maxBatch,
+          getAverageMillis(), getMaxMillis(), histogram);
+    }
+  }
+}
@@ -8,12 +8,16 @@ public class Order {
   private String supplierId;
   private List<OrderItem> items;
   private LocalDate orderDate;
+  private long total;
 
   public Order(String orderId, String supplierId, List<OrderItem> items, LocalDate orderDate) {
     this.orderId = orderId;
     this.supplierId = supplierId;
     this.items = items;
     this.orderDate = orderDate;
+    for (OrderItem item : items) {
+      total += item.getTotal();
+    }
   }
 
   public String getOrderId() {
@@ -32,6 +36,11 @@ public class Order {
     return orderDate;
   }
 
+  /** Order value in paise, the sum of the line totals. */
+  public long getTotal() {
+    return total;
+  }
+
   @Override
   public String toString() {
     return String.format("Order{orderId='%s', supplierId='%s', items=%s, orderDate=%s}",
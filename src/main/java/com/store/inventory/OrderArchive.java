@@ -0,0 +1,547 @@
+package com.store.inventory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Orders older than a cutoff, moved out of memory into one gzip-compressed
+ * segment file per month. Each segment starts with an uncompressed header
+ * holding the month's date range, its order count, a Bloom filter of the SKUs
+ * on its lines and the sorted 64-bit hashes of its order IDs; the headers are
+ * all that is kept in memory. A query reads only the segments whose date range
+ * overlaps the one asked for and whose SKU filter may hold the SKU asked for,
+ * and reports what it read and how fast.
+ *
+ * Archiving a month rewrites its segment with the orders already in it, to a
+ * temporary file that is synced and moved into place, so a segment is always
+ * whole. Orders are merged by ID, which makes archiving the same order twice
+ * harmless: a crash after a segment is written but before the orders leave
+ * memory just archives them again on the next pass.
+ *
+ * Storage that keeps archived orders, such as MongoDB, hands them back on
+ * every start. The archive remembers the cutoff it has reached, and an order
+ * dated before it whose ID hash the month's header holds is taken as archived
+ * without decompressing the segment, so a start costs no more as the archive
+ * grows. Only orders missing from the header make a segment be read and
+ * rewritten, so one added to storage later, by an import say, is archived
+ * rather than dropped. A Bloom filter would save the eight bytes an order
+ * costs here, but an order it wrongly held would leave memory without being
+ * written anywhere.
+ */
+public class OrderArchive {
+  public static final int DEFAULT_AGE_DAYS = 365;
+
+  private static final int MAGIC = 0x4f524441; // "ORDA"
+  private static final int VERSION = 2;
+  private static final String PREFIX = "orders-";
+  private static final String SUFFIX = ".seg";
+  private static final String CUTOFF_FILE = "archived-before";
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+
+  /** A Bloom filter over strings, sized for a given count and a 1% false-positive rate. */
+  static final class BloomFilter {
+    private final long[] bits;
+    private final int hashes;
+
+    private BloomFilter(long[] bits, int hashes) {
+      this.bits = bits;
+      this.hashes = hashes;
+    }
+
+    static BloomFilter forCount(int count) {
+      int n = Math.max(1, count);
+      long size = (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+      int words = (int) Math.max(1, (size + 63) / 64);
+      int hashes = (int) Math.max(1, Math.round((double) words * 64 / n * Math.log(2)));
+      return new BloomFilter(new long[words], Math.min(hashes, 16));
+    }
+
+    void add(String key) {
+      long hash = hash(key);
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      long size = (long) bits.length * 64;
+      for (int i = 0; i < hashes; i++) {
+        long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+        bits[(int) (bit >>> 6)] |= 1L << bit;
+      }
+    }
+
+    boolean mightContain(String key) {
+      long hash = hash(key);
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      long size = (long) bits.length * 64;
+      for (int i = 0; i < hashes; i++) {
+        long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+        if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void write(DataOutput out) throws IOException {
+      out.writeInt(hashes);
+      out.writeInt(bits.length);
+      for (long word : bits) {
+        out.writeLong(word);
+      }
+    }
+
+    static BloomFilter read(DataInput in) throws IOException {
+      int hashes = in.readInt();
+      int words = in.readInt();
+      if (hashes <= 0 || words <= 0 || words > 1 << 24) {
+        throw new IOException("Corrupt Bloom filter");
+      }
+      long[] bits = new long[words];
+      for (int i = 0; i < words; i++) {
+        bits[i] = in.readLong();
+      }
+      return new BloomFilter(bits, hashes);
+    }
+  }
+
+  /** FNV-1a over the chars, finished with the MurmurHash3 mixer so both halves are usable. */
+  private static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      h = (h ^ key.charAt(i)) * 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  /** The header of a segment file. */
+  static final class Segment {
+    final YearMonth month;
+    final LocalDate first;
+    final LocalDate last;
+    final int count;
+    final BloomFilter skus;
+    /** Hashes of the order IDs, sorted. */
+    final long[] orderIds;
+
+    private Segment(YearMonth month, LocalDate first, LocalDate last, int count, BloomFilter skus, long[] orderIds) {
+      this.month = month;
+      this.first = first;
+      this.last = last;
+      this.count = count;
+      this.skus = skus;
+      this.orderIds = orderIds;
+    }
+
+    boolean overlaps(LocalDate from, LocalDate to) {
+      return (from == null || !last.isBefore(from)) && (to == null || !first.isAfter(to));
+    }
+
+    boolean holds(String orderId) {
+      return Arrays.binarySearch(orderIds, hash(orderId)) >= 0;
+    }
+  }
+
+  /** The orders a query found, and what it took to find them. */
+  public static final class Scan {
+    private final List<Order> orders = new ArrayList<>();
+    private int scanned;
+    private int skipped;
+    private long ordersRead;
+    private long bytesRead;
+    private long nanos;
+
+    public List<Order> getOrders() {
+      return orders;
+    }
+
+    public int getSegmentsScanned() {
+      return scanned;
+    }
+
+    public int getSegmentsSkipped() {
+      return skipped;
+    }
+
+    public long getOrdersRead() {
+      return ordersRead;
+    }
+
+    /** Compressed bytes read from the scanned segments. */
+    public long getBytesRead() {
+      return bytesRead;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public double getMegabytesPerSecond() {
+      return nanos == 0 ? 0 : bytesRead / 1e6 / (nanos / 1e9);
+    }
+
+    public double getOrdersPerSecond() {
+      return nanos == 0 ? 0 : ordersRead / (nanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Scanned %d of %d segments, read %d orders (%.1f MB) in %.1f ms: %.1f MB/s, %.0f orders/s",
+          scanned, scanned + skipped, ordersRead, bytesRead / 1e6, nanos / 1e6, getMegabytesPerSecond(),
+          getOrdersPerSecond());
+    }
+  }
+
+  private final Path directory;
+  private final PrintStream log;
+  private final NavigableMap<YearMonth, Segment> segments = new ConcurrentSkipListMap<>();
+  /** Every order dated before this was archived by an earlier pass; null before the first. */
+  private LocalDate archivedBefore;
+
+  public OrderArchive(Path directory, PrintStream log) {
+    this.directory = directory;
+    this.log = log;
+  }
+
+  /** Reads the segment headers, dropping temporary files left by an interrupted pass. */
+  public void open() throws IOException {
+    Files.createDirectories(directory);
+    segments.clear();
+    Path cutoff = directory.resolve(CUTOFF_FILE);
+    archivedBefore = Files.exists(cutoff)
+        ? LocalDate.parse(new String(Files.readAllBytes(cutoff), StandardCharsets.UTF_8).trim()) : null;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*")) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".tmp")) {
+          Files.delete(file);
+        } else if (name.endsWith(SUFFIX)) {
+          try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            Segment segment = readHeader(in);
+            segments.put(segment.month, segment);
+          }
+        }
+      }
+    }
+  }
+
+  public int segmentCount() {
+    return segments.size();
+  }
+
+  /** Orders in the archive, from the segment headers. */
+  public long orderCount() {
+    long count = 0;
+    for (Segment segment : segments.values()) {
+      count += segment.count;
+    }
+    return count;
+  }
+
+  /**
+   * Moves the orders dated before {@code cutoff} from {@code orders} into the
+   * archive and returns how many left the list. They are removed only after
+   * every segment they went to is on disk.
+   */
+  public synchronized int archive(List<Order> orders, LocalDate cutoff) throws IOException {
+    long start = System.nanoTime();
+    Set<Order> moving = Collections.newSetFromMap(new IdentityHashMap<>());
+    Map<YearMonth, List<Order>> byMonth = new TreeMap<>();
+    synchronized (orders) {
+      for (Order order : orders) {
+        LocalDate date = order.getOrderDate();
+        if (date.isBefore(cutoff)) {
+          moving.add(order);
+          if (!isArchived(order)) {
+            byMonth.computeIfAbsent(YearMonth.from(date), m -> new ArrayList<>()).add(order);
+          }
+        }
+      }
+    }
+    if (moving.isEmpty()) {
+      return 0;
+    }
+    int written = 0;
+    for (Map.Entry<YearMonth, List<Order>> month : byMonth.entrySet()) {
+      written += merge(month.getKey(), month.getValue());
+    }
+    if (archivedBefore == null || cutoff.isAfter(archivedBefore)) {
+      writeCutoff(cutoff);
+    }
+    synchronized (orders) {
+      orders.removeIf(moving::contains);
+    }
+    Metrics.STORAGE.get("archive-write").recordSince(start);
+    log.println(App.ANSI_GREEN + "Archived " + moving.size() + " orders older than " + cutoff + " ("
+        + (moving.size() - written) + " were already archived) into " + byMonth.size() + " monthly segments in "
+        + (System.nanoTime() - start) / 1_000_000 + " ms." + App.ANSI_RESET);
+    return moving.size();
+  }
+
+  /** Whether an earlier pass archived {@code order}, judged by the headers without reading segments. */
+  private boolean isArchived(Order order) {
+    if (archivedBefore == null || !order.getOrderDate().isBefore(archivedBefore)) {
+      return false;
+    }
+    Segment segment = segments.get(YearMonth.from(order.getOrderDate()));
+    return segment != null && segment.holds(order.getOrderId());
+  }
+
+  private void writeCutoff(LocalDate cutoff) throws IOException {
+    Path file = directory.resolve(CUTOFF_FILE);
+    Path temp = directory.resolve(CUTOFF_FILE + ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        channel.write(ByteBuffer.wrap(cutoff.toString().getBytes(StandardCharsets.UTF_8)));
+        channel.force(true);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    archivedBefore = cutoff;
+  }
+
+  /** Adds the orders not already in the month's segment and rewrites it; returns how many were new. */
+  private int merge(YearMonth month, List<Order> adding) throws IOException {
+    Segment segment = segments.get(month);
+    Map<String, Order> merged = new LinkedHashMap<>();
+    List<Order> added = adding;
+    if (segment != null) {
+      added = new ArrayList<>();
+      for (Order order : adding) {
+        if (!segment.holds(order.getOrderId())) {
+          added.add(order);
+        }
+      }
+      if (added.isEmpty()) {
+        return 0;
+      }
+      Metrics.ARCHIVE.get("segments-merged").increment();
+      for (Order order : read(month).orders) {
+        merged.put(order.getOrderId(), order);
+      }
+    }
+    int before = merged.size();
+    for (Order order : added) {
+      merged.putIfAbsent(order.getOrderId(), order);
+    }
+    List<Order> sorted = new ArrayList<>(merged.values());
+    sorted.sort(Comparator.comparing(Order::getOrderDate));
+    write(month, sorted);
+    return merged.size() - before;
+  }
+
+  private void write(YearMonth month, List<Order> orders) throws IOException {
+    BloomFilter skus = BloomFilter.forCount(orders.size() * 2);
+    long[] orderIds = new long[orders.size()];
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(body, 1 << 16))) {
+      for (int i = 0; i < orders.size(); i++) {
+        Order order = orders.get(i);
+        orderIds[i] = hash(order.getOrderId());
+        for (OrderItem item : order.getItems()) {
+          skus.add(item.getSku());
+        }
+        writeOrder(out, order);
+      }
+    }
+    Arrays.sort(orderIds);
+    Path file = segmentFile(month);
+    Path temp = directory.resolve(file.getFileName() + ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(month.getYear());
+        out.writeInt(month.getMonthValue());
+        out.writeLong(orders.get(0).getOrderDate().toEpochDay());
+        out.writeLong(orders.get(orders.size() - 1).getOrderDate().toEpochDay());
+        out.writeInt(orders.size());
+        skus.write(out);
+        for (long orderId : orderIds) {
+          out.writeLong(orderId);
+        }
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.flush();
+        channel.force(true);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    segments.put(month, new Segment(month, orders.get(0).getOrderDate(),
+        orders.get(orders.size() - 1).getOrderDate(), orders.size(), skus, orderIds));
+  }
+
+  private Path segmentFile(YearMonth month) {
+    return directory.resolve(PREFIX + month + SUFFIX);
+  }
+
+  /**
+   * Archived orders dated from {@code from} to {@code to}, either of which may
+   * be null for no bound, that have a line for {@code sku} unless it is null.
+   */
+  public Scan query(LocalDate from, LocalDate to, String sku) throws IOException {
+    long start = System.nanoTime();
+    Scan scan = new Scan();
+    for (Segment segment : segments.values()) {
+      if (!segment.overlaps(from, to) || (sku != null && !segment.skus.mightContain(sku))) {
+        scan.skipped++;
+        continue;
+      }
+      Batch batch = read(segment.month);
+      scan.scanned++;
+      scan.ordersRead += batch.orders.size();
+      scan.bytesRead += batch.bytes;
+      for (Order order : batch.orders) {
+        LocalDate date = order.getOrderDate();
+        if ((from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to))
+            && (sku == null || hasSku(order, sku))) {
+          scan.orders.add(order);
+        }
+      }
+    }
+    scan.nanos = System.nanoTime() - start;
+    Metrics.STORAGE.get("archive-scan").recordSince(start);
+    Metrics.ARCHIVE.get("segments-scanned").add(scan.scanned);
+    Metrics.ARCHIVE.get("segments-skipped").add(scan.skipped);
+    Metrics.ARCHIVE.get("orders-read").add(scan.ordersRead);
+    Metrics.ARCHIVE.get("bytes-read").add(scan.bytesRead);
+    return scan;
+  }
+
+  /** The archived order with {@code orderId}, or null; reads only segments whose header holds its ID. */
+  public Order find(String orderId) throws IOException {
+    for (Segment segment : segments.values()) {
+      if (segment.holds(orderId)) {
+        for (Order order : read(segment.month).orders) {
+          if (order.getOrderId().equals(orderId)) {
+            return order;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean hasSku(Order order, String sku) {
+    for (OrderItem item : order.getItems()) {
+      if (item.getSku().equals(sku)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Batch {
+    final List<Order> orders;
+    final long bytes;
+
+    Batch(List<Order> orders, long bytes) {
+      this.orders = orders;
+      this.bytes = bytes;
+    }
+  }
+
+  /** Reads a whole segment, taking its header from the file itself in case a pass just replaced it. */
+  private Batch read(YearMonth month) throws IOException {
+    Path file = segmentFile(month);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+      Segment header = readHeader(in);
+      int length = in.readInt();
+      DataInputStream body = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16));
+      List<Order> orders = new ArrayList<>(header.count);
+      for (int i = 0; i < header.count; i++) {
+        orders.add(readOrder(body));
+      }
+      return new Batch(orders, length);
+    } catch (EOFException e) {
+      throw new IOException("Archive segment " + file + " is truncated", e);
+    }
+  }
+
+  /** Reads a header up to the body length. */
+  private static Segment readHeader(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not an order archive segment");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported archive segment version " + version);
+    }
+    YearMonth month = YearMonth.of(in.readInt(), in.readInt());
+    LocalDate first = LocalDate.ofEpochDay(in.readLong());
+    LocalDate last = LocalDate.ofEpochDay(in.readLong());
+    int count = in.readInt();
+    if (count <= 0) {
+      throw new IOException("Corrupt archive segment header");
+    }
+    BloomFilter skus = BloomFilter.read(in);
+    long[] orderIds = new long[count];
+    for (int i = 0; i < count; i++) {
+      orderIds[i] = in.readLong();
+    }
+    return new Segment(month, first, last, count, skus, orderIds);
+  }
+
+  private static void writeOrder(DataOutputStream out, Order order) throws IOException {
+    out.writeUTF(order.getOrderId());
+    boolean sell = order instanceof SellOrder;
+    out.writeBoolean(sell);
+    writeNullable(out, sell ? ((SellOrder) order).getCustomerName() : order.getSupplierId());
+    out.writeInt((int) order.getOrderDate().toEpochDay());
+    out.writeInt(order.getItems().size());
+    for (OrderItem item : order.getItems()) {
+      out.writeUTF(item.getSku());
+      writeNullable(out, item.getName());
+      out.writeInt(item.getQuantity());
+      out.writeLong(item.getUnitPrice());
+    }
+  }
+
+  private static Order readOrder(DataInputStream in) throws IOException {
+    String orderId = in.readUTF();
+    boolean sell = in.readBoolean();
+    String party = readNullable(in);
+    LocalDate date = LocalDate.ofEpochDay(in.readInt());
+    int count = in.readInt();
+    List<OrderItem> items = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      items.add(new OrderItem(in.readUTF(), readNullable(in), in.readInt(), in.readLong()));
+    }
+    return sell ? new SellOrder(orderId, party, items, date) : new Order(orderId, party, items, date);
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
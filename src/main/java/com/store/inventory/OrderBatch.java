@@ -0,0 +1,219 @@
+package com.store.inventory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Places many purchase and sell orders in one go. Every order is checked
+ * before any stock moves: lines are validated and priced in parallel across
+ * orders, then sales are checked against the stock on hand SKU by SKU in
+ * input order, so two sales after the last units of a SKU are settled by
+ * which comes first. An order that fails a check is rejected with every
+ * problem it has and the others go ahead; their sales are reserved together
+ * and the whole lot goes to storage in a single write.
+ *
+ * Sales are checked against the stock before the batch, so a sale cannot use
+ * units that a purchase in the same batch brings in.
+ */
+public class OrderBatch {
+  private static final int MAX_ATTEMPTS = 3;
+
+  public static class Result {
+    private final List<Order> placed;
+    private final SortedMap<Integer, String> rejected;
+    private final long nanos;
+
+    Result(List<Order> placed, SortedMap<Integer, String> rejected, long nanos) {
+      this.placed = placed;
+      this.rejected = rejected;
+      this.nanos = nanos;
+    }
+
+    /** The orders stored, priced as they were placed. */
+    public List<Order> getPlaced() {
+      return placed;
+    }
+
+    /** Why each rejected order was rejected, by its position in the batch. */
+    public SortedMap<Integer, String> getRejected() {
+      return rejected;
+    }
+
+    public double getOrdersPerSecond() {
+      return nanos == 0 ? 0 : (placed.size() + rejected.size()) * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("OrderBatch{placed=%d, rejected=%d, elapsed=%d ms, throughput=%.0f orders/s}",
+          placed.size(), rejected.size(), nanos / 1_000_000, getOrdersPerSecond());
+    }
+  }
+
+  private OrderBatch() {
+  }
+
+  /**
+   * Reads {@code receive-order} and {@code sell-order} lines in the
+   * {@link BatchRunner} format. A malformed line fails the whole file, naming
+   * the line, before anything is placed.
+   */
+  public static List<Order> read(BufferedReader in) throws IOException {
+    List<Order> orders = new ArrayList<>();
+    String line;
+    long lineNumber = 0;
+    while ((line = in.readLine()) != null) {
+      lineNumber++;
+      if (line.isEmpty() || line.charAt(0) == '#') {
+        continue;
+      }
+      try {
+        orders.add(BatchRunner.parseOrder(line.split("\\|", -1)));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+      }
+    }
+    return orders;
+  }
+
+  /** Checks {@code orders}, whose lines need only a SKU and quantity, and places the ones that pass. */
+  public static Result place(List<Order> orders) {
+    long start = System.nanoTime();
+    int count = orders.size();
+    Map<String, Product> inventory = App.inventory();
+    if (inventory instanceof ProductCache) {
+      // One load for every product in the batch instead of a miss per line.
+      Set<String> skus = new HashSet<>();
+      for (Order order : orders) {
+        for (OrderItem item : order.getItems()) {
+          skus.add(item.getSku());
+        }
+      }
+      ((ProductCache) inventory).getAll(skus);
+    }
+    Order[] priced = new Order[count];
+    String[] errors = new String[count];
+    IntStream.range(0, count).parallel().forEach(i -> {
+      try {
+        priced[i] = price(orders.get(i), inventory);
+      } catch (IllegalArgumentException e) {
+        errors[i] = e.getMessage();
+      }
+    });
+    Set<String> ids = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      if (errors[i] == null && !ids.add(priced[i].getOrderId())) {
+        errors[i] = "Order ID " + priced[i].getOrderId() + " appears earlier in the batch.";
+      }
+    }
+
+    StockEngine engine = App.stockEngine();
+    for (int attempt = 1; ; attempt++) {
+      String[] outcome = errors.clone();
+      List<OrderItem> sold = checkStock(priced, outcome, engine);
+      StockEngine.Reservation reservation = engine.newReservation();
+      try {
+        if (!sold.isEmpty()) {
+          reservation.addAll(sold);
+        }
+        List<Order> placed = new ArrayList<>(count);
+        SortedMap<Integer, String> rejected = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+          if (outcome[i] == null) {
+            placed.add(priced[i]);
+          } else {
+            rejected.put(i, outcome[i]);
+          }
+        }
+        if (!placed.isEmpty()) {
+          App.placeOrders(placed, reservation);
+        }
+        return new Result(placed, rejected, System.nanoTime() - start);
+      } catch (InsufficientStockException e) {
+        // A sale elsewhere took the stock after the check; check again against what is left.
+        if (attempt == MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        reservation.release();
+      }
+    }
+  }
+
+  /** A copy of {@code order} with every line priced, or every problem with its lines. */
+  private static Order price(Order order, Map<String, Product> inventory) {
+    String orderId = order.getOrderId();
+    if (orderId == null || orderId.isEmpty()) {
+      throw new IllegalArgumentException("Missing order ID.");
+    }
+    if (order.getItems().isEmpty()) {
+      throw new IllegalArgumentException("Order has no items.");
+    }
+    List<String> problems = new ArrayList<>();
+    List<OrderItem> lines = new ArrayList<>(order.getItems().size());
+    for (OrderItem item : order.getItems()) {
+      if (item.getQuantity() <= 0) {
+        problems.add(item.getSku() + ": quantity must be positive");
+        continue;
+      }
+      Product product = inventory.get(item.getSku());
+      if (product == null) {
+        problems.add("Product not found: " + item.getSku());
+        continue;
+      }
+      lines.add(new OrderItem(item.getSku(), product.getName(), item.getQuantity(),
+          Money.toMinor(product.getPrice())));
+    }
+    if (!problems.isEmpty()) {
+      throw new IllegalArgumentException(String.join("; ", problems) + ".");
+    }
+    if (order instanceof SellOrder) {
+      return new SellOrder(orderId, ((SellOrder) order).getCustomerName(), lines, order.getOrderDate());
+    }
+    return new Order(orderId, order.getSupplierId(), lines, order.getOrderDate());
+  }
+
+  /**
+   * Rejects, in {@code errors}, each sale the stock left by the sales before
+   * it cannot cover, and returns the lines of the sales that pass.
+   */
+  private static List<OrderItem> checkStock(Order[] priced, String[] errors, StockEngine engine) {
+    Map<String, Integer> left = new HashMap<>();
+    List<OrderItem> sold = new ArrayList<>();
+    for (int i = 0; i < priced.length; i++) {
+      if (errors[i] != null || !(priced[i] instanceof SellOrder)) {
+        continue;
+      }
+      Map<String, Integer> demand = new LinkedHashMap<>();
+      for (OrderItem item : priced[i].getItems()) {
+        demand.merge(item.getSku(), item.getQuantity(), Integer::sum);
+      }
+      List<String> shortages = new ArrayList<>();
+      for (Map.Entry<String, Integer> entry : demand.entrySet()) {
+        String sku = entry.getKey();
+        Integer available = left.get(sku);
+        if (available == null) {
+          try {
+            available = engine.available(sku);
+          } catch (IllegalArgumentException e) {
+            // Removed since it was priced.
+            available = 0;
+          }
+          left.put(sku, available);
+        }
+        if (available < entry.getValue()) {
+          shortages.add(sku + " (available " + available + ")");
+        }
+      }
+      if (!shortages.isEmpty()) {
+        errors[i] = "Insufficient stock: " + String.join(", ", shortages) + ".";
+        continue;
+      }
+      demand.forEach((sku, quantity) -> left.merge(sku, -quantity, Integer::sum));
+      sold.addAll(priced[i].getItems());
+    }
+    return sold;
+  }
+}
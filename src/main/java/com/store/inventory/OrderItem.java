@@ -1,24 +1,52 @@
 package com.store.inventory;
 
+/**
+ * One line of an order. Priced lines carry the product name and unit price
+ * (in paise) as they were when the order was placed, so listing an order never
+ * needs the live product; lines built from just a SKU and quantity are
+ * requests that have not been priced yet.
+ */
 public class OrderItem {
   private String sku;
+  private String name;
   private int quantity;
+  private long unitPrice;
 
   public OrderItem(String sku, int quantity) {
+    this(sku, null, quantity, 0);
+  }
+
+  public OrderItem(String sku, String name, int quantity, long unitPrice) {
     this.sku = sku;
+    this.name = name;
     this.quantity = quantity;
+    this.unitPrice = unitPrice;
   }
 
   public String getSku() {
     return sku;
   }
 
+  public String getName() {
+    return name;
+  }
+
   public int getQuantity() {
     return quantity;
   }
 
+  /** Unit price in paise at the time of the order. */
+  public long getUnitPrice() {
+    return unitPrice;
+  }
+
+  /** Line total in paise. */
+  public long getTotal() {
+    return unitPrice * quantity;
+  }
+
   @Override
   public String toString() {
-    return String.format("OrderItem{sku='%s', quantity=%d}", sku, quantity);
+    return String.format("OrderItem{sku='%s', quantity=%d, unitPrice=%s}", sku, quantity, Money.format(unitPrice));
   }
-}
\ No newline at end of file
+}
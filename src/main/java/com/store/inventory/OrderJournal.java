@@ -0,0 +1,257 @@
+package com.store.inventory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of orders and their stock changes, one CRC-checked entry
+ * per order. {@link #append} only buffers the entry; a committer thread writes
+ * everything buffered since its last round and covers it with one fsync, so
+ * concurrent orders share a sync instead of paying one each. While a sync is
+ * in progress new entries collect for the next round.
+ */
+public class OrderJournal implements Closeable {
+  /** An order read back from the journal, with the stock changes it made. */
+  public static final class Entry {
+    private final Order order;
+    private final Map<String, Integer> deltas;
+
+    Entry(Order order, Map<String, Integer> deltas) {
+      this.order = order;
+      this.deltas = deltas;
+    }
+
+    public Order getOrder() {
+      return order;
+    }
+
+    public Map<String, Integer> getDeltas() {
+      return deltas;
+    }
+  }
+
+  private static final int MAX_ENTRY = 16 << 20;
+  private static final LatencyHistogram COMMIT_TIME = Metrics.STORAGE.get("journal-commit");
+
+  private final Path file;
+  private final PrintStream log;
+  private final Object lock = new Object();
+  private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream(256);
+  private final DataOutputStream entry = new DataOutputStream(entryBytes);
+  private final CRC32 crc = new CRC32();
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+  private ByteArrayOutputStream spare = new ByteArrayOutputStream(1 << 16);
+  private FileChannel channel;
+  private Thread committer;
+  private long appended;
+  private long durable;
+  private long syncs;
+  private IOException failure;
+  private boolean closing;
+
+  public OrderJournal(Path file, PrintStream log) {
+    this.file = file;
+    this.log = log;
+  }
+
+  /**
+   * Opens the journal and returns the entries it holds, cutting off a torn
+   * entry left at the end by a crash.
+   */
+  public List<Entry> open() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    long valid = Files.exists(file) ? read(entries) : 0;
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (channel.size() > valid) {
+      log.println(App.ANSI_YELLOW + "Discarding " + (channel.size() - valid) + " bytes of a torn entry at the end of "
+          + file + "." + App.ANSI_RESET);
+      channel.truncate(valid);
+      channel.force(true);
+    }
+    channel.position(valid);
+    committer = new Thread(this::commitLoop, "order-journal-commit");
+    committer.setDaemon(true);
+    committer.start();
+    return entries;
+  }
+
+  /** Buffers an entry for the next group commit and returns its sequence number. */
+  public long append(Order order, Map<String, Integer> deltas) {
+    synchronized (lock) {
+      if (closing) {
+        throw new IllegalStateException("Journal is closed.");
+      }
+      entryBytes.reset();
+      try {
+        LogStorage.writeOrder(entry, order, deltas);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      byte[] bytes = entryBytes.toByteArray();
+      crc.reset();
+      crc.update(bytes);
+      writeInt(pending, bytes.length);
+      writeInt(pending, (int) crc.getValue());
+      pending.write(bytes, 0, bytes.length);
+      lock.notifyAll();
+      return ++appended;
+    }
+  }
+
+  /** Blocks until entry {@code sequence} has been synced to disk. */
+  public void awaitDurable(long sequence) {
+    synchronized (lock) {
+      while (durable < sequence) {
+        if (failure != null) {
+          throw new UncheckedIOException("Journal write failed", failure);
+        }
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for the journal.", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Empties the journal if nothing was appended after {@code sequence}, the
+   * last entry the caller has applied and flushed to the backing store.
+   * Returns whether it did.
+   */
+  public boolean reset(long sequence) throws IOException {
+    synchronized (lock) {
+      if (appended != sequence || durable != sequence) {
+        return false;
+      }
+      channel.truncate(0);
+      channel.position(0);
+      channel.force(true);
+      return true;
+    }
+  }
+
+  public long size() throws IOException {
+    return channel.size();
+  }
+
+  public long getSyncs() {
+    synchronized (lock) {
+      return syncs;
+    }
+  }
+
+  private void commitLoop() {
+    while (true) {
+      ByteArrayOutputStream batch;
+      long sequence;
+      synchronized (lock) {
+        while (pending.size() == 0 && !closing) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (pending.size() == 0) {
+          return;
+        }
+        batch = pending;
+        pending = spare;
+        spare = batch;
+        sequence = appended;
+      }
+      long start = System.nanoTime();
+      try {
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+        while (bytes.hasRemaining()) {
+          channel.write(bytes);
+        }
+        channel.force(false);
+        COMMIT_TIME.recordSince(start);
+      } catch (IOException e) {
+        synchronized (lock) {
+          failure = e;
+          lock.notifyAll();
+        }
+        log.println(App.ANSI_RED + "Order journal write failed: " + e.getMessage() + App.ANSI_RESET);
+        return;
+      }
+      synchronized (lock) {
+        batch.reset();
+        durable = sequence;
+        syncs++;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private long read(List<Entry> entries) throws IOException {
+    long valid = 0;
+    byte[] bytes = new byte[256];
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      while (true) {
+        int length;
+        int checksum;
+        try {
+          length = in.readInt();
+          checksum = in.readInt();
+          if (length <= 0 || length > MAX_ENTRY) {
+            return valid;
+          }
+          if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+          }
+          in.readFully(bytes, 0, length);
+        } catch (EOFException e) {
+          return valid;
+        }
+        crc.reset();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != checksum) {
+          return valid;
+        }
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        Order order = LogStorage.readOrder(new DataInputStream(new ByteArrayInputStream(bytes, 0, length)), deltas);
+        entries.add(new Entry(order, deltas));
+        valid += 8 + length;
+      }
+    }
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  /** Commits what is buffered and closes the file. */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (channel == null) {
+        return;
+      }
+      closing = true;
+      lock.notifyAll();
+    }
+    try {
+      committer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+    channel = null;
+  }
+}
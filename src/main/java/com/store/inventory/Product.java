@@ -4,8 +4,8 @@ public class Product {
     private String sku;
     private String name;
     private String description;
-    private int quantity;
-    private double price;
+    private volatile int quantity;
+    private volatile double price;
     private String supplierId;
     private String dateReceived;
 
@@ -20,6 +20,11 @@ public class Product {
         this.dateReceived = dateReceived;
     }
 
+    /** For subclasses that keep the remaining fields elsewhere. */
+    protected Product(String sku) {
+        this.sku = sku;
+    }
+
     public String getSku() {
         return sku;
     }
@@ -0,0 +1,528 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, read-through view of a product catalog too large to hold in
+ * memory. Lookups that miss are loaded from the {@link Source}; misses from
+ * concurrent threads are collected into one batch, so while a load is in
+ * flight every new miss joins the next one, and {@link #getAll} loads all of
+ * its misses at once.
+ *
+ * Eviction is W-TinyLFU: new entries go into a small LRU window, and an entry
+ * leaving the window only displaces the least recently used entry of the main
+ * segmented LRU if a count-min sketch of recent accesses says it is used more
+ * often. A one-off scan therefore cannot flush the SKUs that sell every day.
+ *
+ * Iterating or sizing the map goes to the source and does not change what is
+ * cached. Writes through {@link #put} and {@link #remove} only change the
+ * cache; the caller stores them. {@link LoadListener}s see every batch loaded,
+ * so state kept per product can be set up as products are first used, and
+ * {@link EvictionListener}s every product evicted, so that state can go again.
+ */
+public class ProductCache extends AbstractMap<String, Product> {
+  /** Where misses are loaded from. */
+  public interface Source {
+    /** The stored products among {@code skus}; SKUs that are not stored are left out. */
+    Map<String, Product> load(Collection<String> skus);
+
+    /** Every stored product. */
+    Iterator<Product> scan();
+
+    int count();
+  }
+
+  /** Told about each batch loaded from the source, before the lookups waiting for it return. */
+  public interface LoadListener {
+    /** {@code loaded} holds those of {@code skus} that are stored. */
+    void loaded(Collection<String> skus, Map<String, Product> loaded);
+  }
+
+  /** Told about each product evicted to make room, after the cache has let go of it. */
+  public interface EvictionListener {
+    void evicted(String sku);
+  }
+
+  static final int MAX_BATCH = 1000;
+
+  private static final LongAdder HITS = Metrics.CACHE.get("products", "hit");
+  private static final LongAdder MISSES = Metrics.CACHE.get("products", "miss");
+  private static final LongAdder EVICTIONS = Metrics.EVICTIONS.get("products");
+  private static final LatencyHistogram LOAD_TIME = Metrics.STORAGE.get("cache-load");
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  private static final class Node {
+    final String sku;
+    Product product;
+    int segment;
+    Node prev;
+    Node next;
+
+    Node(String sku, Product product) {
+      this.sku = sku;
+      this.product = product;
+    }
+  }
+
+  /** A doubly linked list with the least recently used node first. */
+  private static final class Segment {
+    final Node head = new Node(null, null);
+    int size;
+
+    Segment() {
+      head.prev = head;
+      head.next = head;
+    }
+
+    void addLast(Node node) {
+      node.prev = head.prev;
+      node.next = head;
+      head.prev.next = node;
+      head.prev = node;
+      size++;
+    }
+
+    void unlink(Node node) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+      size--;
+    }
+
+    Node first() {
+      return head.next != head ? head.next : null;
+    }
+  }
+
+  /** Four-bit counters in a count-min sketch, halved every {@code 10 * capacity} accesses so old counts fade. */
+  static final class Sketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L};
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    Sketch(int capacity) {
+      int size = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+      table = new long[size];
+      mask = size - 1;
+      sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * capacity);
+    }
+
+    private static long hash(int h, int depth) {
+      long hash = (h + SEEDS[depth]) * SEEDS[depth];
+      return hash + (hash >>> 32);
+    }
+
+    int frequency(String sku) {
+      int h = sku.hashCode();
+      int frequency = 15;
+      for (int depth = 0; depth < 4; depth++) {
+        long hash = hash(h, depth);
+        int shift = (int) (hash >>> 60) << 2;
+        frequency = Math.min(frequency, (int) (table[(int) hash & mask] >>> shift) & 15);
+      }
+      return frequency;
+    }
+
+    void increment(String sku) {
+      int h = sku.hashCode();
+      boolean added = false;
+      for (int depth = 0; depth < 4; depth++) {
+        long hash = hash(h, depth);
+        int index = (int) hash & mask;
+        int shift = (int) (hash >>> 60) << 2;
+        if (((table[index] >>> shift) & 15) != 15) {
+          table[index] += 1L << shift;
+          added = true;
+        }
+      }
+      if (added && ++additions == sampleSize) {
+        for (int i = 0; i < table.length; i++) {
+          table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+        }
+        additions /= 2;
+      }
+    }
+  }
+
+  private final Source source;
+  private final int windowMax;
+  private final int mainMax;
+  private final int protectedMax;
+  private final Map<String, Node> nodes = new HashMap<>();
+  private final Segment[] segments = {new Segment(), new Segment(), new Segment()};
+  private final Sketch sketch;
+  private final List<LoadListener> loadListeners = new CopyOnWriteArrayList<>();
+  private final List<EvictionListener> evictionListeners = new CopyOnWriteArrayList<>();
+
+  // Misses waiting for a load, and the ones queued for the next batch; guarded by this.
+  private final Map<String, CompletableFuture<Product>> loading = new HashMap<>();
+  private Map<String, CompletableFuture<Product>> queued = new LinkedHashMap<>();
+  private boolean batchInFlight;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long batches;
+  private long loaded;
+
+  public ProductCache(int capacity, Source source) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity must be positive.");
+    }
+    this.source = source;
+    this.windowMax = Math.max(1, capacity / 100);
+    this.mainMax = capacity - windowMax;
+    this.protectedMax = mainMax * 4 / 5;
+    this.sketch = new Sketch(capacity);
+  }
+
+  @Override
+  public Product get(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    String sku = (String) key;
+    CompletableFuture<Product> future;
+    synchronized (this) {
+      Product product = hit(sku);
+      if (product != null) {
+        return product;
+      }
+      future = miss(sku);
+    }
+    loadQueued();
+    return await(future);
+  }
+
+  /** Looks up all of {@code skus}, loading the ones not cached in one batch. Missing SKUs are left out. */
+  public Map<String, Product> getAll(Collection<String> skus) {
+    Map<String, Product> result = new HashMap<>();
+    Map<String, CompletableFuture<Product>> waiting = new HashMap<>();
+    synchronized (this) {
+      for (String sku : skus) {
+        if (result.containsKey(sku) || waiting.containsKey(sku)) {
+          continue;
+        }
+        Product product = hit(sku);
+        if (product != null) {
+          result.put(sku, product);
+        } else {
+          waiting.put(sku, miss(sku));
+        }
+      }
+    }
+    if (!waiting.isEmpty()) {
+      loadQueued();
+      waiting.forEach((sku, future) -> {
+        Product product = await(future);
+        if (product != null) {
+          result.put(sku, product);
+        }
+      });
+    }
+    return result;
+  }
+
+  /** Counts a miss and queues the SKU for loading unless it is already on its way; callers hold the lock. */
+  private CompletableFuture<Product> miss(String sku) {
+    misses++;
+    MISSES.increment();
+    CompletableFuture<Product> future = loading.get(sku);
+    if (future == null) {
+      future = new CompletableFuture<>();
+      loading.put(sku, future);
+      queued.put(sku, future);
+    }
+    return future;
+  }
+
+  private static Product await(CompletableFuture<Product> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+  }
+
+  /**
+   * Loads queued misses until none are left, unless another thread is
+   * already doing so; that thread then picks up what was queued meanwhile.
+   */
+  private void loadQueued() {
+    Map<String, CompletableFuture<Product>> batch;
+    synchronized (this) {
+      if (batchInFlight || queued.isEmpty()) {
+        return;
+      }
+      batchInFlight = true;
+      batch = takeBatch();
+    }
+    while (batch != null) {
+      Map<String, Product> products;
+      List<String> evicted = new ArrayList<>();
+      try {
+        long start = System.nanoTime();
+        products = source.load(batch.keySet());
+        LOAD_TIME.recordSince(start);
+        for (LoadListener listener : loadListeners) {
+          listener.loaded(batch.keySet(), products);
+        }
+      } catch (RuntimeException e) {
+        List<CompletableFuture<Product>> failed = new ArrayList<>(batch.values());
+        synchronized (this) {
+          failed.addAll(queued.values());
+          queued = new LinkedHashMap<>();
+          loading.values().removeAll(failed);
+          batchInFlight = false;
+        }
+        failed.forEach(future -> future.completeExceptionally(e));
+        return;
+      }
+      synchronized (this) {
+        batches++;
+        batch.forEach((sku, future) -> {
+          Product product = products.get(sku);
+          // A put or remove while the batch was out has already answered the lookup.
+          if (loading.remove(sku, future) && product != null) {
+            loaded++;
+            String victim = admit(sku, product);
+            if (victim != null) {
+              evicted.add(victim);
+            }
+          }
+        });
+        if (queued.isEmpty()) {
+          batchInFlight = false;
+        }
+      }
+      evicted.forEach(this::evicted);
+      batch.forEach((sku, future) -> future.complete(products.get(sku)));
+      synchronized (this) {
+        batch = batchInFlight ? takeBatch() : null;
+      }
+    }
+  }
+
+  private Map<String, CompletableFuture<Product>> takeBatch() {
+    if (queued.size() <= MAX_BATCH) {
+      Map<String, CompletableFuture<Product>> batch = queued;
+      queued = new LinkedHashMap<>();
+      return batch;
+    }
+    Map<String, CompletableFuture<Product>> batch = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, CompletableFuture<Product>>> it = queued.entrySet().iterator();
+    while (batch.size() < MAX_BATCH) {
+      Map.Entry<String, CompletableFuture<Product>> entry = it.next();
+      batch.put(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+    return batch;
+  }
+
+  /** Returns the cached product and records the access; null on a miss. */
+  private Product hit(String sku) {
+    sketch.increment(sku);
+    Node node = nodes.get(sku);
+    if (node == null) {
+      return null;
+    }
+    hits++;
+    HITS.increment();
+    Segment segment = segments[node.segment];
+    segment.unlink(node);
+    if (node.segment == PROBATION) {
+      // A second use promotes to the protected segment, demoting its oldest entry if it is full.
+      node.segment = PROTECTED;
+      segments[PROTECTED].addLast(node);
+      if (segments[PROTECTED].size > protectedMax) {
+        Node demoted = segments[PROTECTED].first();
+        segments[PROTECTED].unlink(demoted);
+        demoted.segment = PROBATION;
+        segments[PROBATION].addLast(demoted);
+      }
+    } else {
+      segment.addLast(node);
+    }
+    return node.product;
+  }
+
+  /** Caches a product that is not cached yet; returns the SKU evicted to make room, if any. */
+  private String admit(String sku, Product product) {
+    Node node = new Node(sku, product);
+    node.segment = WINDOW;
+    nodes.put(sku, node);
+    segments[WINDOW].addLast(node);
+    if (segments[WINDOW].size <= windowMax) {
+      return null;
+    }
+    Node candidate = segments[WINDOW].first();
+    segments[WINDOW].unlink(candidate);
+    if (segments[PROBATION].size + segments[PROTECTED].size < mainMax) {
+      candidate.segment = PROBATION;
+      segments[PROBATION].addLast(candidate);
+      return null;
+    }
+    Node evicted;
+    Node victim = segments[PROBATION].first();
+    if (victim == null) {
+      victim = segments[PROTECTED].first();
+    }
+    if (victim != null && sketch.frequency(candidate.sku) > sketch.frequency(victim.sku)) {
+      segments[victim.segment].unlink(victim);
+      nodes.remove(victim.sku);
+      candidate.segment = PROBATION;
+      segments[PROBATION].addLast(candidate);
+      evicted = victim;
+    } else {
+      nodes.remove(candidate.sku);
+      evicted = candidate;
+    }
+    evictions++;
+    EVICTIONS.increment();
+    return evicted.sku;
+  }
+
+  /** Tells the eviction listeners; called without holding the cache's lock, which they may take. */
+  private void evicted(String sku) {
+    for (EvictionListener listener : evictionListeners) {
+      listener.evicted(sku);
+    }
+  }
+
+  public void addLoadListener(LoadListener listener) {
+    loadListeners.add(listener);
+  }
+
+  public void addEvictionListener(EvictionListener listener) {
+    evictionListeners.add(listener);
+  }
+
+  /** The products cached now, without counting an access. */
+  public synchronized List<Product> cachedProducts() {
+    List<Product> result = new ArrayList<>(nodes.size());
+    for (Node node : nodes.values()) {
+      result.add(node.product);
+    }
+    return result;
+  }
+
+  /** The cached product without loading it or counting the access. */
+  public synchronized Product peek(String sku) {
+    Node node = nodes.get(sku);
+    return node != null ? node.product : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /** Caches {@code product}, returning the product it replaces, which is loaded if it is not cached. */
+  @Override
+  public Product put(String sku, Product product) {
+    Product previous = get(sku);
+    CompletableFuture<Product> pending;
+    String evicted = null;
+    synchronized (this) {
+      Node node = nodes.get(sku);
+      if (node != null) {
+        node.product = product;
+      } else {
+        evicted = admit(sku, product);
+      }
+      pending = loading.remove(sku);
+    }
+    if (evicted != null) {
+      evicted(evicted);
+    }
+    if (pending != null) {
+      pending.complete(product);
+    }
+    return previous;
+  }
+
+  @Override
+  public Product remove(Object key) {
+    Product previous = get(key);
+    if (previous == null) {
+      return null;
+    }
+    CompletableFuture<Product> pending;
+    synchronized (this) {
+      Node node = nodes.remove(key);
+      if (node != null) {
+        segments[node.segment].unlink(node);
+      }
+      pending = loading.remove(key);
+    }
+    if (pending != null) {
+      pending.complete(null);
+    }
+    return previous;
+  }
+
+  @Override
+  public int size() {
+    return source.count();
+  }
+
+  /** Every stored product, cached ones as the cached instance. */
+  @Override
+  public Set<Entry<String, Product>> entrySet() {
+    return new AbstractSet<Entry<String, Product>>() {
+      @Override
+      public Iterator<Entry<String, Product>> iterator() {
+        Iterator<Product> products = source.scan();
+        return new Iterator<Entry<String, Product>>() {
+          @Override
+          public boolean hasNext() {
+            return products.hasNext();
+          }
+
+          @Override
+          public Entry<String, Product> next() {
+            Product product = products.next();
+            Product cached = peek(product.getSku());
+            return new SimpleImmutableEntry<>(product.getSku(), cached != null ? cached : product);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return source.count();
+      }
+    };
+  }
+
+  public synchronized int cachedCount() {
+    return nodes.size();
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** Share of lookups answered from the cache, 0 before the first. */
+  public synchronized double hitRate() {
+    return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+
+  public synchronized String getStats() {
+    return String.format("%d of %d products cached, %d hits, %d misses (%.1f%% hit rate), %d evictions, "
+        + "%d loaded in %d batches", nodes.size(), windowMax + mainMax, hits, misses, hitRate() * 100, evictions,
+        loaded, batches);
+  }
+}
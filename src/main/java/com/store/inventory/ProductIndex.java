@@ -0,0 +1,231 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondary indexes over the inventory: a trigram index and a word prefix
+ * index over product names and descriptions, a hash index from supplier ID to
+ * SKUs and a sorted index on the received date. Kept in step with the
+ * inventory map through {@link #add(Product)} and {@link #remove(Product)}.
+ */
+public class ProductIndex {
+  private static final int GRAM = 3;
+  private static final int VERIFY_THRESHOLD = 256;
+
+  private final Map<String, Product> products;
+  private final Map<String, Set<String>> grams = new HashMap<>();
+  private final NavigableMap<String, Set<String>> words = new TreeMap<>();
+  private final Map<String, Set<String>> bySupplier = new HashMap<>();
+  private final NavigableMap<String, Set<String>> byDate = new TreeMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** An index with nothing in it, for subclasses that answer the queries elsewhere. */
+  ProductIndex() {
+    this.products = Collections.emptyMap();
+  }
+
+  public ProductIndex(Map<String, Product> products) {
+    this.products = products;
+    for (Product product : products.values()) {
+      add(product);
+    }
+  }
+
+  public void add(Product product) {
+    String sku = product.getSku();
+    lock.writeLock().lock();
+    try {
+      for (String key : textKeys(product)) {
+        if (key.length() == GRAM && key.charAt(0) != ' ') {
+          put(grams, key, sku);
+        } else {
+          put(words, key.trim(), sku);
+        }
+      }
+      put(bySupplier, nullToEmpty(product.getSupplierId()), sku);
+      put(byDate, nullToEmpty(product.getDateReceived()), sku);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public void remove(Product product) {
+    String sku = product.getSku();
+    lock.writeLock().lock();
+    try {
+      for (String key : textKeys(product)) {
+        if (key.length() == GRAM && key.charAt(0) != ' ') {
+          take(grams, key, sku);
+        } else {
+          take(words, key.trim(), sku);
+        }
+      }
+      take(bySupplier, nullToEmpty(product.getSupplierId()), sku);
+      take(byDate, nullToEmpty(product.getDateReceived()), sku);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns up to {@code limit} products whose name or description contains
+   * every word of {@code query}, ignoring case. Words shorter than three
+   * characters match as word prefixes.
+   */
+  public List<Product> searchText(String query, int limit) {
+    String[] terms = normalize(query).trim().split("\\s+");
+    lock.readLock().lock();
+    try {
+      List<Set<String>> postings = new ArrayList<>();
+      for (String term : terms) {
+        if (term.length() >= GRAM) {
+          for (int i = 0; i + GRAM <= term.length(); i++) {
+            Set<String> skus = grams.get(term.substring(i, i + GRAM));
+            if (skus == null) {
+              return Collections.emptyList();
+            }
+            postings.add(skus);
+          }
+        } else if (!term.isEmpty()) {
+          postings.add(prefixMatches(term));
+        }
+      }
+      if (postings.isEmpty()) {
+        return Collections.emptyList();
+      }
+      // Intersect from the rarest key up; once few candidates are left it is
+      // cheaper to check their text directly than to walk the larger lists.
+      postings.sort(Comparator.comparingInt(Set::size));
+      Set<String> candidates = postings.get(0);
+      for (int i = 1; i < postings.size() && candidates.size() > VERIFY_THRESHOLD; i++) {
+        candidates = intersect(candidates, postings.get(i));
+      }
+      List<Product> result = new ArrayList<>();
+      for (String sku : candidates) {
+        Product product = products.get(sku);
+        if (product != null && containsAll(product, terms)) {
+          result.add(product);
+          if (result.size() == limit) {
+            break;
+          }
+        }
+      }
+      result.sort(Comparator.comparing(Product::getSku));
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public List<Product> bySupplier(String supplierId) {
+    lock.readLock().lock();
+    try {
+      List<Product> result = resolve(bySupplier.getOrDefault(supplierId, Collections.emptySet()), Integer.MAX_VALUE);
+      result.sort(Comparator.comparing(Product::getSku));
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Products received between {@code from} and {@code to}, both inclusive, oldest first. */
+  public List<Product> receivedBetween(String from, String to, int limit) {
+    lock.readLock().lock();
+    try {
+      List<Product> result = new ArrayList<>();
+      for (Set<String> skus : byDate.subMap(from, true, to, true).values()) {
+        result.addAll(resolve(skus, limit - result.size()));
+        if (result.size() >= limit) {
+          break;
+        }
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private Set<String> prefixMatches(String prefix) {
+    Set<String> result = new HashSet<>();
+    for (Set<String> skus : words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+      result.addAll(skus);
+    }
+    return result;
+  }
+
+  private static Set<String> intersect(Set<String> a, Set<String> b) {
+    Set<String> small = a.size() <= b.size() ? a : b;
+    Set<String> large = small == a ? b : a;
+    Set<String> result = new HashSet<>();
+    for (String sku : small) {
+      if (large.contains(sku)) {
+        result.add(sku);
+      }
+    }
+    return result;
+  }
+
+  private List<Product> resolve(Set<String> skus, int limit) {
+    List<Product> result = new ArrayList<>();
+    for (String sku : skus) {
+      if (result.size() >= limit) {
+        break;
+      }
+      Product product = products.get(sku);
+      if (product != null) {
+        result.add(product);
+      }
+    }
+    return result;
+  }
+
+  private static boolean containsAll(Product product, String[] terms) {
+    String text = normalize(product.getName()) + " " + normalize(product.getDescription());
+    for (String term : terms) {
+      if (!text.contains(term)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Index keys for a product's text: every trigram of each word, plus each
+   * word prefixed with a space so the two kinds never collide.
+   */
+  private static Set<String> textKeys(Product product) {
+    Set<String> keys = new HashSet<>();
+    String text = normalize(product.getName()) + " " + normalize(product.getDescription());
+    for (String word : text.split("\\s+")) {
+      if (word.isEmpty()) {
+        continue;
+      }
+      keys.add(" " + word);
+      for (int i = 0; i + GRAM <= word.length(); i++) {
+        keys.add(word.substring(i, i + GRAM));
+      }
+    }
+    return keys;
+  }
+
+  private static String normalize(String text) {
+    return text == null ? "" : text.toLowerCase(Locale.ROOT);
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+
+  private static void put(Map<String, Set<String>> index, String key, String sku) {
+    index.computeIfAbsent(key, k -> new HashSet<>()).add(sku);
+  }
+
+  private static void take(Map<String, Set<String>> index, String key, String sku) {
+    Set<String> skus = index.get(key);
+    if (skus != null && skus.remove(sku) && skus.isEmpty()) {
+      index.remove(key);
+    }
+  }
+}
@@ -0,0 +1,523 @@
+package com.store.inventory;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Column-oriented product map. Each product occupies a slot in fixed-size
+ * chunks of parallel arrays: quantities as ints, prices as longs in paise,
+ * supplier IDs as indexes into an intern table and received dates as epoch
+ * days. SKUs are found through an open-addressing table holding each slot
+ * number next to its key's hash, so there is no entry or Product object per
+ * SKU and probing past other keys never touches their strings.
+ *
+ * {@link #get(Object)} returns a lightweight {@link Product} view over the
+ * slot; quantity and price changes made through it go straight to the
+ * columns. A view belongs to one incarnation of its slot and fails once the
+ * product is removed or replaced. {@link #put} and {@link #remove} return a
+ * detached copy of the previous product.
+ *
+ * Reads take no lock. Structural changes are serialized on the store and
+ * publish a slot through a volatile write to the index, and chunks are never
+ * copied, so a quantity written through a view is never lost to growth.
+ */
+public class ProductStore extends AbstractMap<String, Product> {
+  public interface Visitor {
+    void visit(String sku, String supplierId, int quantity, long price);
+  }
+
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final long EMPTY = 0;
+  private static final long TOMBSTONE = -1;
+  private static final int NO_DATE = Integer.MIN_VALUE;
+  private static final int RAW_DATE = Integer.MIN_VALUE + 1;
+
+  private static final class Chunk {
+    final String[] skus = new String[CHUNK_SIZE];
+    final String[] names = new String[CHUNK_SIZE];
+    final String[] descriptions = new String[CHUNK_SIZE];
+    /** Slot generation in the high half and quantity in the low half, so a view checks both in one read. */
+    final AtomicLongArray states = new AtomicLongArray(CHUNK_SIZE);
+    final AtomicLongArray prices = new AtomicLongArray(CHUNK_SIZE);
+    final int[] suppliers = new int[CHUNK_SIZE];
+    final int[] dates = new int[CHUNK_SIZE];
+  }
+
+  private static int generation(long state) {
+    return (int) (state >>> 32);
+  }
+
+  private static int quantity(long state) {
+    return (int) state;
+  }
+
+  private static long state(int generation, int quantity) {
+    return (long) generation << 32 | (quantity & 0xFFFFFFFFL);
+  }
+
+  private volatile Chunk[] chunks = new Chunk[0];
+  /**
+   * Key hash in the high half and slot + 1 in the low half, or {@link #EMPTY}
+   * or {@link #TOMBSTONE}; kept at most half full.
+   */
+  private volatile AtomicLongArray table;
+  private volatile String[] supplierIds = new String[16];
+  private final Map<String, Integer> supplierSlots = new HashMap<>();
+  /** Dates that are not ISO yyyy-MM-dd are kept as text, by slot. */
+  private final Map<Integer, String> rawDates = new ConcurrentHashMap<>();
+  private int[] freeSlots = new int[16];
+  private int freeCount;
+  private int highWater;
+  private int tombstones;
+  private volatile int size;
+
+  public ProductStore() {
+    this(16);
+  }
+
+  public ProductStore(int expectedSize) {
+    table = new AtomicLongArray(tableSize(expectedSize));
+  }
+
+  private static int tableSize(int entries) {
+    long wanted = Math.max(16L, (long) entries * 2);
+    return (int) Math.min(1 << 30, Long.highestOneBit(wanted - 1) << 1);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && find((String) key) >= 0;
+  }
+
+  @Override
+  public Product get(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    int slot = find((String) key);
+    if (slot < 0) {
+      return null;
+    }
+    Chunk chunk = chunks[slot >>> CHUNK_BITS];
+    return new Row((String) key, slot, generation(chunk.states.get(slot & CHUNK_MASK)));
+  }
+
+  @Override
+  public synchronized Product put(String sku, Product product) {
+    if (!sku.equals(product.getSku())) {
+      throw new IllegalArgumentException("Key " + sku + " does not match product SKU " + product.getSku() + ".");
+    }
+    int slot = find(sku);
+    if (slot >= 0) {
+      Product previous = detach(slot);
+      write(slot, product);
+      return previous;
+    }
+    slot = allocate();
+    write(slot, product);
+    insert(sku, slot);
+    size++;
+    return null;
+  }
+
+  @Override
+  public synchronized Product remove(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    int index = indexOf((String) key);
+    if (index < 0) {
+      return null;
+    }
+    AtomicLongArray t = table;
+    int slot = slotOf(t.get(index));
+    t.set(index, TOMBSTONE);
+    tombstones++;
+    Product removed = detach(slot);
+    clear(slot);
+    release(slot);
+    size--;
+    return removed;
+  }
+
+  @Override
+  public synchronized void clear() {
+    chunks = new Chunk[0];
+    table = new AtomicLongArray(tableSize(16));
+    rawDates.clear();
+    freeCount = 0;
+    highWater = 0;
+    tombstones = 0;
+    size = 0;
+  }
+
+  @Override
+  public Set<Entry<String, Product>> entrySet() {
+    return new AbstractSet<Entry<String, Product>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Entry<String, Product>> iterator() {
+        return new Iterator<Entry<String, Product>>() {
+          private final Chunk[] snapshot = chunks;
+          private int next = advance(0);
+
+          private int advance(int from) {
+            int limit = snapshot.length << CHUNK_BITS;
+            while (from < limit && snapshot[from >>> CHUNK_BITS].skus[from & CHUNK_MASK] == null) {
+              from++;
+            }
+            return from;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return next < snapshot.length << CHUNK_BITS;
+          }
+
+          @Override
+          public Entry<String, Product> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Chunk chunk = snapshot[next >>> CHUNK_BITS];
+            int offset = next & CHUNK_MASK;
+            Row row = new Row(chunk.skus[offset], next, generation(chunk.states.get(offset)));
+            next = advance(next + 1);
+            return new SimpleImmutableEntry<>(row.getSku(), row);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Calls {@code visitor} for every product straight from the columns,
+   * without creating views. Prices are in paise.
+   */
+  public void scan(Visitor visitor) {
+    Chunk[] snapshot = chunks;
+    String[] ids = supplierIds;
+    for (Chunk chunk : snapshot) {
+      String[] skus = chunk.skus;
+      for (int i = 0; i < CHUNK_SIZE; i++) {
+        String sku = skus[i];
+        if (sku != null) {
+          int supplier = chunk.suppliers[i];
+          visitor.visit(sku, supplier < 0 ? null : ids[supplier], quantity(chunk.states.get(i)), chunk.prices.get(i));
+        }
+      }
+    }
+  }
+
+  private int find(String sku) {
+    // Probe and read one table; a concurrent rehash may replace the field in between.
+    AtomicLongArray t = table;
+    int index = indexOf(t, sku);
+    return index < 0 ? -1 : slotOf(t.get(index));
+  }
+
+  /** Position of {@code sku} in the table, or -1. */
+  private int indexOf(String sku) {
+    return indexOf(table, sku);
+  }
+
+  private int indexOf(AtomicLongArray t, String sku) {
+    int mask = t.length() - 1;
+    int hash = hash(sku);
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      long entry = t.get(i);
+      if (entry == EMPTY) {
+        return -1;
+      }
+      if (entry != TOMBSTONE && (int) (entry >>> 32) == hash && sku.equals(skuAt(slotOf(entry)))) {
+        return i;
+      }
+    }
+  }
+
+  private static int slotOf(long entry) {
+    return (int) entry - 1;
+  }
+
+  private String skuAt(int slot) {
+    Chunk[] c = chunks;
+    int index = slot >>> CHUNK_BITS;
+    return index < c.length ? c[index].skus[slot & CHUNK_MASK] : null;
+  }
+
+  private static int hash(String sku) {
+    int h = sku.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private void insert(String sku, int slot) {
+    if ((size + tombstones + 1) * 2L > table.length()) {
+      rehash(tableSize(size + 1));
+    }
+    AtomicLongArray t = table;
+    int mask = t.length() - 1;
+    int hash = hash(sku);
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      long entry = t.get(i);
+      if (entry == EMPTY || entry == TOMBSTONE) {
+        if (entry == TOMBSTONE) {
+          tombstones--;
+        }
+        t.set(i, (long) hash << 32 | (slot + 1));
+        return;
+      }
+    }
+  }
+
+  private void rehash(int capacity) {
+    AtomicLongArray old = table;
+    AtomicLongArray fresh = new AtomicLongArray(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < old.length(); j++) {
+      long entry = old.get(j);
+      if (entry != EMPTY && entry != TOMBSTONE) {
+        int i = (int) (entry >>> 32) & mask;
+        while (fresh.get(i) != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        fresh.set(i, entry);
+      }
+    }
+    tombstones = 0;
+    table = fresh;
+  }
+
+  private int allocate() {
+    if (freeCount > 0) {
+      return freeSlots[--freeCount];
+    }
+    int slot = highWater++;
+    if (slot >>> CHUNK_BITS == chunks.length) {
+      Chunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+      grown[chunks.length] = new Chunk();
+      chunks = grown;
+    }
+    return slot;
+  }
+
+  private void release(int slot) {
+    if (freeCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+    }
+    freeSlots[freeCount++] = slot;
+  }
+
+  private void write(int slot, Product product) {
+    Chunk chunk = chunks[slot >>> CHUNK_BITS];
+    int i = slot & CHUNK_MASK;
+    chunk.states.set(i, state(generation(chunk.states.get(i)) + 1, product.getQuantity()));
+    chunk.names[i] = product.getName();
+    chunk.descriptions[i] = product.getDescription();
+    chunk.prices.set(i, Money.toMinor(product.getPrice()));
+    chunk.suppliers[i] = intern(product.getSupplierId());
+    chunk.dates[i] = encodeDate(slot, chunk.dates[i], product.getDateReceived());
+    chunk.skus[i] = product.getSku();
+  }
+
+  private void clear(int slot) {
+    Chunk chunk = chunks[slot >>> CHUNK_BITS];
+    int i = slot & CHUNK_MASK;
+    chunk.states.set(i, state(generation(chunk.states.get(i)) + 1, 0));
+    chunk.skus[i] = null;
+    chunk.names[i] = null;
+    chunk.descriptions[i] = null;
+    rawDates.remove(slot);
+  }
+
+  private Product detach(int slot) {
+    Chunk chunk = chunks[slot >>> CHUNK_BITS];
+    int i = slot & CHUNK_MASK;
+    int supplier = chunk.suppliers[i];
+    return new Product(chunk.skus[i], chunk.names[i], chunk.descriptions[i], quantity(chunk.states.get(i)),
+        Money.toMajor(chunk.prices.get(i)), supplier < 0 ? null : supplierIds[supplier],
+        decodeDate(slot, chunk.dates[i]));
+  }
+
+  private int intern(String supplierId) {
+    if (supplierId == null) {
+      return -1;
+    }
+    Integer index = supplierSlots.get(supplierId);
+    if (index == null) {
+      index = supplierSlots.size();
+      String[] ids = supplierIds;
+      if (index == ids.length) {
+        ids = Arrays.copyOf(ids, ids.length * 2);
+      }
+      ids[index] = supplierId;
+      supplierIds = ids;
+      supplierSlots.put(supplierId, index);
+    }
+    return index;
+  }
+
+  private int encodeDate(int slot, int previous, String date) {
+    if (previous == RAW_DATE) {
+      rawDates.remove(slot);
+    }
+    if (date == null) {
+      return NO_DATE;
+    }
+    int epochDay = isoEpochDay(date);
+    if (epochDay == RAW_DATE) {
+      rawDates.put(slot, date);
+    }
+    return epochDay;
+  }
+
+  /**
+   * Parses yyyy-MM-dd by hand, which is much cheaper than LocalDate.parse on
+   * a bulk load. Anything else, including dates that would not format back
+   * to the same text, gives {@link #RAW_DATE}.
+   */
+  private static int isoEpochDay(String date) {
+    if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+      return RAW_DATE;
+    }
+    int year = digits(date, 0, 4);
+    int month = digits(date, 5, 7);
+    int day = digits(date, 8, 10);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year))) {
+      return RAW_DATE;
+    }
+    return (int) LocalDate.of(year, month, day).toEpochDay();
+  }
+
+  private static int digits(String text, int from, int to) {
+    int value = 0;
+    for (int i = from; i < to; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private String decodeDate(int slot, int date) {
+    if (date == NO_DATE) {
+      return null;
+    }
+    if (date == RAW_DATE) {
+      return rawDates.get(slot);
+    }
+    return LocalDate.ofEpochDay(date).toString();
+  }
+
+  /** A product view bound to one incarnation of a slot. */
+  private final class Row extends Product {
+    private final int slot;
+    private final int generation;
+
+    Row(String sku, int slot, int generation) {
+      super(sku);
+      this.slot = slot;
+      this.generation = generation;
+    }
+
+    private Chunk chunk() {
+      Chunk chunk = chunks[slot >>> CHUNK_BITS];
+      check(chunk.states.get(slot & CHUNK_MASK));
+      return chunk;
+    }
+
+    private long check(long state) {
+      if (generation(state) != generation) {
+        throw new IllegalStateException("Product " + getSku() + " is no longer in the store.");
+      }
+      return state;
+    }
+
+    @Override
+    public String getName() {
+      return chunk().names[slot & CHUNK_MASK];
+    }
+
+    @Override
+    public String getDescription() {
+      return chunk().descriptions[slot & CHUNK_MASK];
+    }
+
+    @Override
+    public int getQuantity() {
+      return quantity(check(chunks[slot >>> CHUNK_BITS].states.get(slot & CHUNK_MASK)));
+    }
+
+    @Override
+    public void setQuantity(int quantity) {
+      AtomicLongArray states = chunks[slot >>> CHUNK_BITS].states;
+      int offset = slot & CHUNK_MASK;
+      long state;
+      do {
+        state = check(states.get(offset));
+      } while (!states.compareAndSet(offset, state, state(generation, quantity)));
+    }
+
+    @Override
+    public double getPrice() {
+      return Money.toMajor(chunk().prices.get(slot & CHUNK_MASK));
+    }
+
+    @Override
+    public void setPrice(double price) {
+      chunk().prices.set(slot & CHUNK_MASK, Money.toMinor(price));
+    }
+
+    @Override
+    public String getSupplierId() {
+      int supplier = chunk().suppliers[slot & CHUNK_MASK];
+      return supplier < 0 ? null : supplierIds[supplier];
+    }
+
+    @Override
+    public String getDateReceived() {
+      return decodeDate(slot, chunk().dates[slot & CHUNK_MASK]);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Row)) {
+        return false;
+      }
+      Row row = (Row) other;
+      return row.owner() == ProductStore.this && row.slot == slot && row.generation == generation;
+    }
+
+    private ProductStore owner() {
+      return ProductStore.this;
+    }
+
+    @Override
+    public int hashCode() {
+      return slot * 31 + generation;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Product{SKU='%s', name='%s', description='%s', quantity=%d, price=%.2f, supplierId='%s', dateReceived='%s'}",
+          getSku(), getName(), getDescription(), getQuantity(), getPrice(), getSupplierId(), getDateReceived());
+    }
+  }
+}
@@ -0,0 +1,452 @@
+package com.store.inventory;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Watches stock against demand. Each SKU's sales velocity is an exponentially
+ * decayed rate: every sale adds {@code units / tau} and the rate decays by
+ * {@code e^(-t / tau)}, with {@code tau} set from a half-life in days. Days
+ * of cover is the quantity over the current rate.
+ *
+ * Cover changes with time as well as with events, since the rate decays, but
+ * its logarithm is {@code ln q - ln r - t0 / tau + now / tau} for a rate
+ * {@code r} last updated at {@code t0}; the part before {@code now} does not
+ * change until the next event. SKUs sit in an indexed binary heap on that
+ * part, so a sale or stock change costs one O(log n) sift however many SKUs
+ * there are, and the SKUs with the least cover are read off the top without
+ * a scan.
+ *
+ * Sales and stock changes are queued by the threads making them and applied
+ * by a background thread; queries apply whatever is still queued first. A SKU
+ * whose cover falls below {@code coverDays} raises one alert until it
+ * recovers, and is suggested for reorder up to {@code targetDays} of cover.
+ */
+public class ReorderEngine implements StockEngine.Listener, Closeable {
+  public static final double DEFAULT_HALF_LIFE_DAYS = 7;
+  public static final double DEFAULT_COVER_DAYS = 14;
+  public static final double DEFAULT_TARGET_DAYS = 30;
+
+  private static final double MILLIS_PER_DAY = 86_400_000.0;
+  private static final int SALE = 0;
+  private static final int STOCK = 1;
+  private static final int REMOVE = 2;
+
+  /** A SKU below its reorder cover. */
+  public static final class Suggestion {
+    private final String sku;
+    private final int quantity;
+    private final double dailyRate;
+    private final double daysOfCover;
+    private final int orderQuantity;
+
+    Suggestion(String sku, int quantity, double dailyRate, double daysOfCover, int orderQuantity) {
+      this.sku = sku;
+      this.quantity = quantity;
+      this.dailyRate = dailyRate;
+      this.daysOfCover = daysOfCover;
+      this.orderQuantity = orderQuantity;
+    }
+
+    public String getSku() {
+      return sku;
+    }
+
+    public int getQuantity() {
+      return quantity;
+    }
+
+    /** Units sold per day, decayed to now. */
+    public double getDailyRate() {
+      return dailyRate;
+    }
+
+    public double getDaysOfCover() {
+      return daysOfCover;
+    }
+
+    /** Units that bring the SKU up to the target cover. */
+    public int getOrderQuantity() {
+      return orderQuantity;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d in stock, %.2f/day, %.1f days of cover, order %d", sku, quantity, dailyRate,
+          daysOfCover, orderQuantity);
+    }
+  }
+
+  private static final class Event {
+    final int type;
+    final String sku;
+    final int amount;
+    final long time;
+
+    Event(int type, String sku, int amount, long time) {
+      this.type = type;
+      this.sku = sku;
+      this.amount = amount;
+      this.time = time;
+    }
+  }
+
+  private final Map<String, Product> products;
+  private final double tau;
+  private final double coverDays;
+  private final double targetDays;
+  private final LongSupplier clock;
+  private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+  private volatile Consumer<Suggestion> alerts;
+  private Thread worker;
+
+  // Per-SKU state by slot, guarded by this.
+  private final Map<String, Integer> slots = new HashMap<>();
+  private String[] skus = new String[1024];
+  private int[] quantities = new int[1024];
+  private double[] rates = new double[1024];
+  private double[] updated = new double[1024];
+  private double[] keys = new double[1024];
+  private int[] positions = new int[1024];
+  private boolean[] low = new boolean[1024];
+  private int slotCount;
+  private int[] freeSlots = new int[16];
+  private int freeCount;
+
+  // The heap holds the slots of SKUs with a non-zero rate, least cover first.
+  private int[] heap = new int[1024];
+  private int heapSize;
+
+  public ReorderEngine(Map<String, Product> products, double halfLifeDays, double coverDays, double targetDays) {
+    this(products, halfLifeDays, coverDays, targetDays, System::currentTimeMillis);
+  }
+
+  ReorderEngine(Map<String, Product> products, double halfLifeDays, double coverDays, double targetDays,
+      LongSupplier clock) {
+    if (halfLifeDays <= 0 || coverDays <= 0 || targetDays < coverDays) {
+      throw new IllegalArgumentException("Half-life and cover must be positive and the target at least the cover.");
+    }
+    this.products = products;
+    this.tau = halfLifeDays / Math.log(2);
+    this.coverDays = coverDays;
+    this.targetDays = targetDays;
+    this.clock = clock;
+  }
+
+  /** Called with each SKU whose cover falls below the reorder level; on the engine's thread. */
+  public void setAlertListener(Consumer<Suggestion> alerts) {
+    this.alerts = alerts;
+  }
+
+  /**
+   * Starts the background thread. It first seeds the rates from the sales in
+   * {@code history} dated before today, which it waits for on that thread;
+   * today's sales arrive as events.
+   */
+  public synchronized void start(Supplier<List<Order>> history) {
+    worker = new Thread(() -> {
+      seed(history.get());
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          Event event = events.take();
+          synchronized (this) {
+            apply(event);
+            drain();
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "reorder-engine");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (worker != null) {
+      worker.interrupt();
+      worker = null;
+    }
+  }
+
+  private void seed(List<Order> orders) {
+    LocalDate today = today();
+    // Older sales have decayed to nothing.
+    LocalDate since = today.minusDays((long) Math.ceil(tau * 30));
+    List<Event> sales = new ArrayList<>();
+    synchronized (orders) {
+      for (Order order : orders) {
+        if (order instanceof SellOrder && order.getOrderDate().isBefore(today)
+            && !order.getOrderDate().isBefore(since)) {
+          long time = order.getOrderDate().atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+          for (OrderItem item : order.getItems()) {
+            sales.add(new Event(SALE, item.getSku(), item.getQuantity(), time));
+          }
+        }
+      }
+    }
+    synchronized (this) {
+      for (Event sale : sales) {
+        apply(sale);
+      }
+    }
+  }
+
+  private LocalDate today() {
+    return Instant.ofEpochMilli(clock.getAsLong()).atZone(ZoneId.systemDefault()).toLocalDate();
+  }
+
+  /** Records a sale of {@code units} of {@code sku} now. */
+  public void sale(String sku, int units) {
+    events.add(new Event(SALE, sku, units, clock.getAsLong()));
+  }
+
+  /** Records the SKU's new quantity, for products added or replaced outside the stock engine. */
+  public void stock(String sku, int quantity) {
+    events.add(new Event(STOCK, sku, quantity, 0));
+  }
+
+  public void removed(String sku) {
+    events.add(new Event(REMOVE, sku, 0, 0));
+  }
+
+  @Override
+  public void productChanged(Product product, int oldQuantity, double oldPrice) {
+    if (product.getQuantity() != oldQuantity) {
+      stock(product.getSku(), product.getQuantity());
+    }
+  }
+
+  /** Applies queued events; callers hold the lock. */
+  private void drain() {
+    Event event;
+    while ((event = events.poll()) != null) {
+      apply(event);
+    }
+  }
+
+  private void apply(Event event) {
+    Integer existing = slots.get(event.sku);
+    switch (event.type) {
+      case SALE: {
+        int slot = existing != null ? existing : newSlot(event.sku);
+        double time = event.time / MILLIS_PER_DAY;
+        double units = event.amount / tau;
+        if (rates[slot] == 0 || time >= updated[slot]) {
+          rates[slot] = rates[slot] * Math.exp(-(time - updated[slot]) / tau) + units;
+          updated[slot] = time;
+        } else {
+          // A sale from before the last update, when seeding: add its decayed share.
+          rates[slot] += units * Math.exp(-(updated[slot] - time) / tau);
+        }
+        Metrics.REORDER.get("sale").increment();
+        reposition(slot);
+        break;
+      }
+      case STOCK:
+        if (existing != null) {
+          quantities[existing] = event.amount;
+          Metrics.REORDER.get("stock").increment();
+          reposition(existing);
+        }
+        break;
+      default:
+        if (existing != null) {
+          removeSlot(existing);
+        }
+    }
+  }
+
+  private int newSlot(String sku) {
+    int slot;
+    if (freeCount > 0) {
+      slot = freeSlots[--freeCount];
+    } else {
+      if (slotCount == skus.length) {
+        int size = skus.length * 2;
+        skus = Arrays.copyOf(skus, size);
+        quantities = Arrays.copyOf(quantities, size);
+        rates = Arrays.copyOf(rates, size);
+        updated = Arrays.copyOf(updated, size);
+        keys = Arrays.copyOf(keys, size);
+        positions = Arrays.copyOf(positions, size);
+        low = Arrays.copyOf(low, size);
+        heap = Arrays.copyOf(heap, size);
+      }
+      slot = slotCount++;
+    }
+    Product product = products.get(sku);
+    skus[slot] = sku;
+    quantities[slot] = product != null ? product.getQuantity() : 0;
+    rates[slot] = 0;
+    updated[slot] = 0;
+    positions[slot] = -1;
+    low[slot] = false;
+    slots.put(sku, slot);
+    return slot;
+  }
+
+  private void removeSlot(int slot) {
+    if (positions[slot] >= 0) {
+      removeAt(positions[slot]);
+    }
+    slots.remove(skus[slot]);
+    skus[slot] = null;
+    if (freeCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+    }
+    freeSlots[freeCount++] = slot;
+  }
+
+  /** Recomputes the slot's heap key, moves it and raises an alert if it just went low. */
+  private void reposition(int slot) {
+    if (rates[slot] <= 0) {
+      return;
+    }
+    keys[slot] = quantities[slot] <= 0 ? Double.NEGATIVE_INFINITY
+        : Math.log(quantities[slot]) - Math.log(rates[slot]) - updated[slot] / tau;
+    if (positions[slot] < 0) {
+      positions[slot] = heapSize;
+      heap[heapSize++] = slot;
+      siftUp(heapSize - 1);
+    } else {
+      siftUp(positions[slot]);
+      siftDown(positions[slot]);
+    }
+    boolean below = keys[slot] < lowKey(clock.getAsLong());
+    if (below && !low[slot]) {
+      Metrics.REORDER.get("alert").increment();
+      Consumer<Suggestion> listener = alerts;
+      if (listener != null) {
+        listener.accept(suggestion(slot, clock.getAsLong()));
+      }
+    }
+    low[slot] = below;
+  }
+
+  /** Heap keys below this mean less than {@code coverDays} of cover at {@code now}. */
+  private double lowKey(long now) {
+    return Math.log(coverDays) - now / MILLIS_PER_DAY / tau;
+  }
+
+  private void removeAt(int position) {
+    int slot = heap[position];
+    positions[slot] = -1;
+    heapSize--;
+    if (position < heapSize) {
+      int last = heap[heapSize];
+      heap[position] = last;
+      positions[last] = position;
+      siftUp(position);
+      siftDown(positions[last]);
+    }
+  }
+
+  private void siftUp(int position) {
+    int slot = heap[position];
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (keys[heap[parent]] <= keys[slot]) {
+        break;
+      }
+      heap[position] = heap[parent];
+      positions[heap[position]] = position;
+      position = parent;
+    }
+    heap[position] = slot;
+    positions[slot] = position;
+  }
+
+  private void siftDown(int position) {
+    int slot = heap[position];
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && keys[heap[child + 1]] < keys[heap[child]]) {
+        child++;
+      }
+      if (keys[slot] <= keys[heap[child]]) {
+        break;
+      }
+      heap[position] = heap[child];
+      positions[heap[position]] = position;
+      position = child;
+    }
+    heap[position] = slot;
+    positions[slot] = position;
+  }
+
+  private Suggestion suggestion(int slot, long now) {
+    double rate = rates[slot] * Math.exp(-(now / MILLIS_PER_DAY - updated[slot]) / tau);
+    int quantity = quantities[slot];
+    double cover = quantity <= 0 ? 0 : quantity / rate;
+    int order = (int) Math.max(1, Math.ceil(rate * targetDays - Math.max(quantity, 0)));
+    return new Suggestion(skus[slot], quantity, rate, cover, order);
+  }
+
+  /** Up to {@code limit} SKUs below the reorder cover, least cover first. */
+  public synchronized List<Suggestion> lowStock(int limit) {
+    drain();
+    long now = clock.getAsLong();
+    double threshold = lowKey(now);
+    List<Suggestion> result = new ArrayList<>();
+    // Walks the heap in key order, expanding only positions that are below the threshold.
+    PriorityQueue<Integer> frontier = new PriorityQueue<>(Comparator.comparingDouble(position -> keys[heap[position]]));
+    if (heapSize > 0) {
+      frontier.add(0);
+    }
+    while (!frontier.isEmpty() && result.size() < limit) {
+      int position = frontier.poll();
+      int slot = heap[position];
+      if (keys[slot] >= threshold) {
+        break;
+      }
+      result.add(suggestion(slot, now));
+      for (int child = 2 * position + 1; child <= 2 * position + 2 && child < heapSize; child++) {
+        frontier.add(child);
+      }
+    }
+    return result;
+  }
+
+  /** Daily sales rate of {@code sku} now, 0 if it has not sold. */
+  public synchronized double dailyRate(String sku) {
+    drain();
+    Integer slot = slots.get(sku);
+    return slot == null ? 0 : suggestion(slot, clock.getAsLong()).getDailyRate();
+  }
+
+  /**
+   * Draft purchase orders for every SKU below the reorder cover, one per
+   * supplier, priced at the current prices. Nothing is stored.
+   */
+  public List<Order> draftOrders() {
+    Map<String, List<OrderItem>> bySupplier = new TreeMap<>();
+    for (Suggestion suggestion : lowStock(Integer.MAX_VALUE)) {
+      Product product = products.get(suggestion.getSku());
+      if (product == null) {
+        continue;
+      }
+      String supplierId = product.getSupplierId() != null ? product.getSupplierId() : "";
+      bySupplier.computeIfAbsent(supplierId, key -> new ArrayList<>()).add(new OrderItem(product.getSku(),
+          product.getName(), suggestion.getOrderQuantity(), Money.toMinor(product.getPrice())));
+    }
+    LocalDate today = today();
+    List<Order> drafts = new ArrayList<>(bySupplier.size());
+    bySupplier.forEach((supplierId, items) ->
+        drafts.add(new Order("DRAFT-" + (supplierId.isEmpty() ? "NONE" : supplierId) + "-" + today,
+            supplierId.isEmpty() ? null : supplierId, items, today)));
+    return drafts;
+  }
+}
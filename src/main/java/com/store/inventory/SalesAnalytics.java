@@ -0,0 +1,490 @@
+package com.store.inventory;
+
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sales and receipts rolled up by day, month and year, per SKU, per supplier
+ * and overall. A range query adds up the year and month rollups it covers
+ * entirely and the day rollups at either end, so any range costs at most a
+ * few dozen rollups whatever the number of orders. SKUs and suppliers are numbered
+ * as they are first seen and each rollup keeps its totals in primitive arrays
+ * by number, so a query adds arrays into a dense accumulator and only turns
+ * the winners back into {@link SalesQueries.Total}s.
+ *
+ * The rollups follow the orders list, which only ever grows: the first query
+ * builds them with a fork/join pass over the loaded orders, and after that
+ * {@link #update()} folds in whatever was added since. App calls it after each
+ * order it writes and every query calls it, so orders the storage adds later
+ * (such as from the journal) are picked up too. Sales count towards the
+ * supplier the product has when the order is rolled up.
+ */
+public class SalesAnalytics implements SalesQueries {
+  private static final int SPLIT = 8192;
+
+  private final List<Order> orders;
+  private final Map<String, Product> products;
+  private final PrintStream log;
+  private final Names skus = new Names();
+  private final Names suppliers = new Names();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile Rollups rollups;
+  private volatile int folded;
+
+  /** Numbers names densely from 0 in the order they are first seen; safe to use from many threads. */
+  private static final class Names {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    int id(String name) {
+      Integer id = ids.get(name);
+      if (id != null) {
+        return id;
+      }
+      synchronized (names) {
+        return ids.computeIfAbsent(name, key -> {
+          names.add(key);
+          return names.size() - 1;
+        });
+      }
+    }
+
+    /** The id of {@code name}, or -1 if it has not been seen. */
+    int find(String name) {
+      Integer id = ids.get(name);
+      return id != null ? id : -1;
+    }
+
+    String name(int id) {
+      synchronized (names) {
+        return names.get(id);
+      }
+    }
+
+    int size() {
+      synchronized (names) {
+        return names.size();
+      }
+    }
+  }
+
+  /**
+   * Units, value and lines by id, in an open-addressing table. The three sums
+   * of a slot sit next to each other in {@code data}, as they do in the
+   * accumulators the queries add them into.
+   */
+  private static final class Totals {
+    int[] keys = new int[8];
+    long[] data = new long[8 * 3];
+    int size;
+
+    void add(int id, long units, long value, long lines) {
+      int mask = keys.length - 1;
+      int slot = hash(id) & mask;
+      // Keys are stored as id + 1 so that 0 marks a free slot.
+      while (keys[slot] != 0 && keys[slot] != id + 1) {
+        slot = slot + 1 & mask;
+      }
+      if (keys[slot] == 0) {
+        if ((size + 1) * 4 > keys.length * 3) {
+          grow();
+          add(id, units, value, lines);
+          return;
+        }
+        keys[slot] = id + 1;
+        size++;
+      }
+      data[slot * 3] += units;
+      data[slot * 3 + 1] += value;
+      data[slot * 3 + 2] += lines;
+    }
+
+    int slot(int id) {
+      int mask = keys.length - 1;
+      for (int slot = hash(id) & mask; keys[slot] != 0; slot = slot + 1 & mask) {
+        if (keys[slot] == id + 1) {
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    Total total(String key, int slot) {
+      return new Total(key, data[slot * 3], data[slot * 3 + 1], data[slot * 3 + 2]);
+    }
+
+    private static int hash(int id) {
+      int h = id * 0x9E3779B9;
+      return h ^ h >>> 16;
+    }
+
+    private void grow() {
+      int[] oldKeys = keys;
+      long[] oldData = data;
+      keys = new int[oldKeys.length * 2];
+      data = new long[keys.length * 3];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) {
+          add(oldKeys[i] - 1, oldData[i * 3], oldData[i * 3 + 1], oldData[i * 3 + 2]);
+        }
+      }
+    }
+
+    void addTo(Totals other) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != 0) {
+          other.add(keys[i] - 1, data[i * 3], data[i * 3 + 1], data[i * 3 + 2]);
+        }
+      }
+    }
+
+    /** Adds into {@code sums}, which holds units, value and lines for each id in turn. */
+    void addTo(long[] sums) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != 0) {
+          int at = (keys[i] - 1) * 3;
+          sums[at] += data[i * 3];
+          sums[at + 1] += data[i * 3 + 1];
+          sums[at + 2] += data[i * 3 + 2];
+        }
+      }
+    }
+  }
+
+  /** Totals for one day or month. */
+  private static final class Bucket {
+    final Totals skus = new Totals();
+    final Totals suppliers = new Totals();
+    long units;
+    long value;
+    long lines;
+
+    void add(int sku, int supplier, long units, long value) {
+      skus.add(sku, units, value, 1);
+      suppliers.add(supplier, units, value, 1);
+      this.units += units;
+      this.value += value;
+      lines++;
+    }
+
+    void merge(Bucket other) {
+      other.skus.addTo(skus);
+      other.suppliers.addTo(suppliers);
+      units += other.units;
+      value += other.value;
+      lines += other.lines;
+    }
+  }
+
+  /** Day, month and year buckets for each {@link SalesQueries.Kind}, keyed by epoch day, month number and year. */
+  private final class Rollups {
+    final List<Map<Long, Bucket>> days = new ArrayList<>();
+    final List<Map<Long, Bucket>> months = new ArrayList<>();
+    final List<Map<Long, Bucket>> years = new ArrayList<>();
+
+    Rollups() {
+      for (int i = 0; i < Kind.values().length; i++) {
+        days.add(new HashMap<>());
+        months.add(new HashMap<>());
+        years.add(new HashMap<>());
+      }
+    }
+
+    void fold(Order order) {
+      Kind kind = order instanceof SellOrder ? Kind.SALES : Kind.RECEIPTS;
+      LocalDate date = order.getOrderDate();
+      add(days.get(kind.ordinal()).computeIfAbsent(date.toEpochDay(), key -> new Bucket()), order);
+      add(months.get(kind.ordinal()).computeIfAbsent(month(date), key -> new Bucket()), order);
+      add(years.get(kind.ordinal()).computeIfAbsent((long) date.getYear(), key -> new Bucket()), order);
+    }
+  }
+
+  /**
+   * Builds the day buckets of a range of day groups. Orders are grouped by
+   * kind and day before the pass, so each task writes buckets of its own and
+   * nothing has to be merged afterwards.
+   */
+  private final class Build extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<List<Order>> groups;
+    private final Bucket[] buckets;
+    private final int from;
+    private final int to;
+
+    Build(List<List<Order>> groups, Bucket[] buckets, int from, int to) {
+      this.groups = groups;
+      this.buckets = buckets;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      int orders = 0;
+      for (int i = from; i < to && orders <= SPLIT; i++) {
+        orders += groups.get(i).size();
+      }
+      if (orders <= SPLIT || to - from == 1) {
+        for (int i = from; i < to; i++) {
+          Bucket bucket = new Bucket();
+          for (Order order : groups.get(i)) {
+            add(bucket, order);
+          }
+          buckets[i] = bucket;
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Build(groups, buckets, from, middle), new Build(groups, buckets, middle, to));
+    }
+  }
+
+  private void add(Bucket bucket, Order order) {
+    boolean sale = order instanceof SellOrder;
+    for (OrderItem item : order.getItems()) {
+      String supplierId = order.getSupplierId();
+      if (sale) {
+        Product product = products.get(item.getSku());
+        supplierId = product != null ? product.getSupplierId() : null;
+      }
+      bucket.add(skus.id(item.getSku()), suppliers.id(supplierId != null ? supplierId : "unknown"),
+          item.getQuantity(), item.getTotal());
+    }
+  }
+
+  /** Rollups of {@code orders}; sales are attributed to suppliers through {@code products}. */
+  public SalesAnalytics(List<Order> orders, Map<String, Product> products, PrintStream log) {
+    this.orders = orders;
+    this.products = products;
+    this.log = log;
+  }
+
+  /** Folds in orders added since the last call, once the rollups have been built. */
+  public void update() {
+    lock.writeLock().lock();
+    try {
+      if (rollups != null) {
+        foldNew();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Rebuilds the rollups from every order: groups them by day, builds the day
+   * buckets in parallel and adds the days up into months and years.
+   */
+  public void rebuild() {
+    long start = System.nanoTime();
+    Order[] snapshot;
+    synchronized (orders) {
+      snapshot = orders.toArray(new Order[0]);
+    }
+    List<Map<Long, List<Order>>> byDay = new ArrayList<>();
+    for (int i = 0; i < Kind.values().length; i++) {
+      byDay.add(new HashMap<>());
+    }
+    for (Order order : snapshot) {
+      Kind kind = order instanceof SellOrder ? Kind.SALES : Kind.RECEIPTS;
+      byDay.get(kind.ordinal()).computeIfAbsent(order.getOrderDate().toEpochDay(), key -> new ArrayList<>())
+          .add(order);
+    }
+    Rollups built = new Rollups();
+    for (Kind kind : Kind.values()) {
+      List<Long> days = new ArrayList<>(byDay.get(kind.ordinal()).keySet());
+      List<List<Order>> groups = new ArrayList<>(days.size());
+      for (Long day : days) {
+        groups.add(byDay.get(kind.ordinal()).get(day));
+      }
+      Bucket[] buckets = new Bucket[groups.size()];
+      if (!groups.isEmpty()) {
+        ForkJoinPool.commonPool().invoke(new Build(groups, buckets, 0, groups.size()));
+      }
+      Map<Long, Bucket> dayBuckets = built.days.get(kind.ordinal());
+      Map<Long, Bucket> monthBuckets = built.months.get(kind.ordinal());
+      Map<Long, Bucket> yearBuckets = built.years.get(kind.ordinal());
+      for (int i = 0; i < buckets.length; i++) {
+        LocalDate date = LocalDate.ofEpochDay(days.get(i));
+        dayBuckets.put(days.get(i), buckets[i]);
+        monthBuckets.computeIfAbsent(month(date), key -> new Bucket()).merge(buckets[i]);
+      }
+      for (Map.Entry<Long, Bucket> month : monthBuckets.entrySet()) {
+        yearBuckets.computeIfAbsent(Math.floorDiv(month.getKey(), 12), key -> new Bucket()).merge(month.getValue());
+      }
+    }
+    lock.writeLock().lock();
+    try {
+      rollups = built;
+      folded = snapshot.length;
+      foldNew();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    Metrics.LOAD.get("analytics").recordSince(start);
+    log.println(App.ANSI_GREEN + "Sales analytics: rolled up " + snapshot.length + " orders in "
+        + (System.nanoTime() - start) / 1_000_000 + " ms." + App.ANSI_RESET);
+  }
+
+  private void foldNew() {
+    List<Order> added;
+    synchronized (orders) {
+      if (orders.size() == folded) {
+        return;
+      }
+      added = new ArrayList<>(orders.subList(folded, orders.size()));
+    }
+    for (Order order : added) {
+      rollups.fold(order);
+    }
+    folded += added.size();
+  }
+
+  /** Brings the rollups up to date and takes the read lock for a query. */
+  private Rollups beginQuery() {
+    if (rollups == null) {
+      synchronized (this) {
+        if (rollups == null) {
+          rebuild();
+        }
+      }
+    }
+    if (folded != orders.size()) {
+      update();
+    }
+    lock.readLock().lock();
+    return rollups;
+  }
+
+  @Override
+  public List<Total> topSkus(Kind kind, LocalDate from, LocalDate to, int limit, boolean byValue) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Limit must be positive.");
+    }
+    long[] sums = sum(kind, from, to, false);
+    int first = byValue ? 1 : 0;
+    int second = byValue ? 0 : 1;
+    Comparator<Integer> order = (a, b) -> sums[a * 3 + first] != sums[b * 3 + first]
+        ? Long.compare(sums[a * 3 + first], sums[b * 3 + first])
+        : Long.compare(sums[a * 3 + second], sums[b * 3 + second]);
+    PriorityQueue<Integer> top = new PriorityQueue<>(limit + 1, order);
+    for (int id = 0; id < sums.length / 3; id++) {
+      if (sums[id * 3 + 2] == 0) {
+        continue;
+      }
+      if (top.size() < limit) {
+        top.add(id);
+      } else if (order.compare(id, top.peek()) > 0) {
+        top.poll();
+        top.add(id);
+      }
+    }
+    List<Total> result = new ArrayList<>(top.size());
+    while (!top.isEmpty()) {
+      int id = top.poll();
+      result.add(new Total(skus.name(id), sums[id * 3], sums[id * 3 + 1], sums[id * 3 + 2]));
+    }
+    Collections.reverse(result);
+    return result;
+  }
+
+  @Override
+  public List<Total> suppliers(Kind kind, LocalDate from, LocalDate to) {
+    long[] sums = sum(kind, from, to, true);
+    List<Total> result = new ArrayList<>();
+    for (int id = 0; id < sums.length / 3; id++) {
+      if (sums[id * 3 + 2] != 0) {
+        result.add(new Total(suppliers.name(id), sums[id * 3], sums[id * 3 + 1], sums[id * 3 + 2]));
+      }
+    }
+    result.sort(Comparator.comparingLong(Total::getValue).reversed());
+    return result;
+  }
+
+  @Override
+  public SortedMap<LocalDate, Total> daily(Kind kind, String supplierId, LocalDate from, LocalDate to) {
+    checkRange(from, to);
+    SortedMap<LocalDate, Total> result = new TreeMap<>();
+    Map<Long, Bucket> days = beginQuery().days.get(kind.ordinal());
+    try {
+      int supplier = supplierId != null ? suppliers.find(supplierId) : -1;
+      if (supplierId != null && supplier < 0) {
+        return result;
+      }
+      for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+        Bucket bucket = days.get(day);
+        if (bucket == null) {
+          continue;
+        }
+        String date = LocalDate.ofEpochDay(day).toString();
+        if (supplierId == null) {
+          result.put(LocalDate.ofEpochDay(day), new Total(date, bucket.units, bucket.value, bucket.lines));
+          continue;
+        }
+        Totals totals = bucket.suppliers;
+        int slot = totals.slot(supplier);
+        if (slot >= 0) {
+          result.put(LocalDate.ofEpochDay(day), totals.total(date, slot));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return result;
+  }
+
+  /**
+   * Units, value and lines by SKU or supplier id over the range, from whole
+   * years and months where it can and single days at the ends.
+   */
+  private long[] sum(Kind kind, LocalDate from, LocalDate to, boolean bySupplier) {
+    checkRange(from, to);
+    Rollups current = beginQuery();
+    try {
+      long[] sums = new long[(bySupplier ? suppliers : skus).size() * 3];
+      Map<Long, Bucket> days = current.days.get(kind.ordinal());
+      Map<Long, Bucket> months = current.months.get(kind.ordinal());
+      Map<Long, Bucket> years = current.years.get(kind.ordinal());
+      LocalDate date = from;
+      while (!date.isAfter(to)) {
+        Bucket bucket;
+        LocalDate next;
+        if (date.getDayOfYear() == 1 && date.plusYears(1).isBefore(to.plusDays(2))) {
+          bucket = years.get((long) date.getYear());
+          next = date.plusYears(1);
+        } else if (date.getDayOfMonth() == 1 && date.plusMonths(1).isBefore(to.plusDays(2))) {
+          bucket = months.get(month(date));
+          next = date.plusMonths(1);
+        } else {
+          bucket = days.get(date.toEpochDay());
+          next = date.plusDays(1);
+        }
+        if (bucket != null) {
+          (bySupplier ? bucket.suppliers : bucket.skus).addTo(sums);
+        }
+        date = next;
+      }
+      return sums;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static void checkRange(LocalDate from, LocalDate to) {
+    if (from.isAfter(to)) {
+      throw new IllegalArgumentException("The range starts after it ends.");
+    }
+  }
+
+  private static long month(LocalDate date) {
+    return date.getYear() * 12L + date.getMonthValue() - 1;
+  }
+}
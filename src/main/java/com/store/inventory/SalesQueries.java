@@ -0,0 +1,64 @@
+package com.store.inventory;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Questions about sales and stock receipts over a range of order dates, both
+ * ends inclusive. Answered from in-memory rollups by {@link SalesAnalytics}
+ * or by aggregation pipelines in MongoDB by {@link MongoSalesQueries}. Sales
+ * count towards the supplier a product has now; receipts towards the order's
+ * supplier.
+ */
+public interface SalesQueries {
+  enum Kind {
+    SALES, RECEIPTS
+  }
+
+  /** Units, value in paise and order lines for a SKU, a supplier or a day. */
+  final class Total {
+    private final String key;
+    private final long units;
+    private final long value;
+    private final long lines;
+
+    Total(String key, long units, long value, long lines) {
+      this.key = key;
+      this.units = units;
+      this.value = value;
+      this.lines = lines;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public long getUnits() {
+      return units;
+    }
+
+    /** Value in paise. */
+    public long getValue() {
+      return value;
+    }
+
+    public long getLines() {
+      return lines;
+    }
+
+    @Override
+    public String toString() {
+      return key + ": " + units + " units, " + Money.format(value) + " in " + lines + " lines";
+    }
+  }
+
+  /** The {@code limit} SKUs with the most units, or the most value if {@code byValue}. */
+  List<Total> topSkus(Kind kind, LocalDate from, LocalDate to, int limit, boolean byValue);
+
+  /** Totals for every supplier, highest value first. */
+  List<Total> suppliers(Kind kind, LocalDate from, LocalDate to);
+
+  /** Totals for each day with orders, for one supplier or for all if {@code supplierId} is null. */
+  SortedMap<LocalDate, Total> daily(Kind kind, String supplierId, LocalDate from, LocalDate to);
+}
@@ -0,0 +1,333 @@
+package com.store.inventory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Binary image of the inventory, suppliers and orders, written through and
+ * read back from memory-mapped windows of a single file. The header carries
+ * a format version and the change-stream resume token that was current when
+ * the image was taken; a CRC32 of everything before it closes the file. Any
+ * mismatch or truncation makes {@link #read(Path)} throw, and the caller falls
+ * back to a full load.
+ *
+ * The file is written next to its final name and moved into place, so a
+ * crash while saving leaves the previous snapshot intact.
+ */
+public class Snapshot {
+  static final long MAGIC = 0x494E56534E415031L; // "INVSNAP1"
+  static final int VERSION = 1;
+
+  private static final int WINDOW = 64 << 20;
+
+  private final String resumeToken;
+  private final long createdAt;
+  private final ProductStore products;
+  private final Map<String, Supplier> suppliers;
+  private final List<Order> orders;
+
+  private Snapshot(String resumeToken, long createdAt, ProductStore products, Map<String, Supplier> suppliers,
+      List<Order> orders) {
+    this.resumeToken = resumeToken;
+    this.createdAt = createdAt;
+    this.products = products;
+    this.suppliers = suppliers;
+    this.orders = orders;
+  }
+
+  /** The change-stream resume token as extended JSON, or null. */
+  public String getResumeToken() {
+    return resumeToken;
+  }
+
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  public ProductStore getProducts() {
+    return products;
+  }
+
+  public Map<String, Supplier> getSuppliers() {
+    return suppliers;
+  }
+
+  public List<Order> getOrders() {
+    return orders;
+  }
+
+  public static void write(Path path, String resumeToken, Map<String, Product> products,
+      Map<String, Supplier> suppliers, List<Order> orders) throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedOutput out = new MappedOutput(channel)) {
+      out.putLong(MAGIC);
+      out.putInt(VERSION);
+      out.putLong(System.currentTimeMillis());
+      out.putString(resumeToken);
+
+      List<Product> productList = new ArrayList<>(products.values());
+      out.putInt(productList.size());
+      for (Product product : productList) {
+        out.putString(product.getSku());
+        out.putString(product.getName());
+        out.putString(product.getDescription());
+        out.putInt(product.getQuantity());
+        out.putLong(Money.toMinor(product.getPrice()));
+        out.putString(product.getSupplierId());
+        out.putString(product.getDateReceived());
+      }
+
+      List<Supplier> supplierList = new ArrayList<>(suppliers.values());
+      out.putInt(supplierList.size());
+      for (Supplier supplier : supplierList) {
+        out.putString(supplier.getId());
+        out.putString(supplier.getName());
+        out.putString(supplier.getContact());
+      }
+
+      List<Order> orderList;
+      synchronized (orders) {
+        orderList = new ArrayList<>(orders);
+      }
+      out.putInt(orderList.size());
+      for (Order order : orderList) {
+        out.putString(order.getOrderId());
+        boolean sell = order instanceof SellOrder;
+        out.putInt(sell ? 1 : 0);
+        out.putString(sell ? ((SellOrder) order).getCustomerName() : order.getSupplierId());
+        out.putLong(order.getOrderDate().toEpochDay());
+        out.putInt(order.getItems().size());
+        for (OrderItem item : order.getItems()) {
+          out.putString(item.getSku());
+          out.putString(item.getName());
+          out.putInt(item.getQuantity());
+          out.putLong(item.getUnitPrice());
+        }
+      }
+      out.finish();
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public static Snapshot read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedInput in = new MappedInput(channel);
+      if (in.getLong() != MAGIC) {
+        throw new IOException("Not an inventory snapshot.");
+      }
+      int version = in.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported snapshot version " + version + ".");
+      }
+      long createdAt = in.getLong();
+      String resumeToken = in.getString();
+
+      int productCount = in.getCount();
+      ProductStore products = new ProductStore(productCount);
+      for (int i = 0; i < productCount; i++) {
+        String sku = in.getString();
+        String name = in.getString();
+        String description = in.getString();
+        int quantity = in.getInt();
+        double price = Money.toMajor(in.getLong());
+        products.put(sku, new Product(sku, name, description, quantity, price, in.getString(), in.getString()));
+      }
+
+      int supplierCount = in.getCount();
+      Map<String, Supplier> suppliers = new ConcurrentHashMap<>((int) (supplierCount / 0.75f) + 1);
+      for (int i = 0; i < supplierCount; i++) {
+        Supplier supplier = new Supplier(in.getString(), in.getString(), in.getString());
+        suppliers.put(supplier.getId(), supplier);
+      }
+
+      int orderCount = in.getCount();
+      List<Order> orders = new ArrayList<>(orderCount);
+      for (int i = 0; i < orderCount; i++) {
+        String orderId = in.getString();
+        boolean sell = in.getInt() == 1;
+        String party = in.getString();
+        LocalDate orderDate = LocalDate.ofEpochDay(in.getLong());
+        int lines = in.getCount();
+        List<OrderItem> items = new ArrayList<>(lines);
+        for (int j = 0; j < lines; j++) {
+          items.add(new OrderItem(in.getString(), in.getString(), in.getInt(), in.getLong()));
+        }
+        orders.add(sell ? new SellOrder(orderId, party, items, orderDate)
+            : new Order(orderId, party, items, orderDate));
+      }
+      in.verify();
+      return new Snapshot(resumeToken, createdAt, products, suppliers, orders);
+    } catch (RuntimeException e) {
+      // A corrupt length or date surfaces as a runtime error before the checksum is reached.
+      throw new IOException("Corrupt snapshot: " + e, e);
+    }
+  }
+
+  /** Sequential writer over successive mapped windows that checksums each window as it is left. */
+  private static final class MappedOutput implements Closeable {
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    MappedOutput(FileChannel channel) throws IOException {
+      this.channel = channel;
+      map(0, 0);
+    }
+
+    private void map(long position, int atLeast) throws IOException {
+      if (window != null) {
+        checksum();
+      }
+      windowStart = position;
+      window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(WINDOW, atLeast));
+    }
+
+    private void checksum() {
+      ByteBuffer written = window.duplicate();
+      written.flip();
+      crc.update(written);
+    }
+
+    private ByteBuffer reserve(int bytes) throws IOException {
+      if (window.remaining() < bytes) {
+        map(windowStart + window.position(), bytes);
+      }
+      return window;
+    }
+
+    void putInt(int value) throws IOException {
+      reserve(4).putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      reserve(8).putLong(value);
+    }
+
+    void putString(String value) throws IOException {
+      if (value == null) {
+        putInt(-1);
+        return;
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      reserve(4 + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    void finish() throws IOException {
+      checksum();
+      long size = windowStart + window.position();
+      window.force();
+      window = null;
+      ByteBuffer trailer = ByteBuffer.allocate(8).putLong(0, crc.getValue());
+      channel.write(trailer, size);
+      channel.truncate(size + 8);
+      channel.force(true);
+    }
+
+    @Override
+    public void close() {
+      window = null;
+    }
+  }
+
+  /** Sequential reader over successive read-only mapped windows, checksumming what it consumes. */
+  private static final class MappedInput {
+    private final FileChannel channel;
+    private final long size;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] scratch = new byte[256];
+
+    MappedInput(FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.size = channel.size() - 8;
+      if (size < 0) {
+        throw new EOFException("Snapshot is truncated.");
+      }
+      map(0, 0);
+    }
+
+    private void map(long position, int atLeast) throws IOException {
+      if (window != null) {
+        checksum();
+      }
+      long length = Math.min(Math.max(WINDOW, atLeast), size - position);
+      if (length < atLeast) {
+        throw new EOFException("Snapshot is truncated.");
+      }
+      windowStart = position;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    private void checksum() {
+      ByteBuffer consumed = window.duplicate();
+      consumed.flip();
+      crc.update(consumed);
+    }
+
+    private ByteBuffer require(int bytes) throws IOException {
+      if (window.remaining() < bytes) {
+        map(windowStart + window.position(), bytes);
+      }
+      return window;
+    }
+
+    int getInt() throws IOException {
+      return require(4).getInt();
+    }
+
+    long getLong() throws IOException {
+      return require(8).getLong();
+    }
+
+    int getCount() throws IOException {
+      int count = getInt();
+      if (count < 0) {
+        throw new IOException("Negative count in snapshot.");
+      }
+      return count;
+    }
+
+    String getString() throws IOException {
+      int length = getInt();
+      if (length < 0) {
+        return null;
+      }
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      require(length).get(scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    void verify() throws IOException {
+      if (windowStart + window.position() != size) {
+        throw new IOException("Trailing data in snapshot.");
+      }
+      checksum();
+      ByteBuffer trailer = ByteBuffer.allocate(8);
+      while (trailer.hasRemaining() && channel.read(trailer, size + trailer.position()) >= 0) {
+        // Read until the 8 trailer bytes are in.
+      }
+      if (trailer.getLong(0) != crc.getValue()) {
+        throw new IOException("Snapshot checksum mismatch.");
+      }
+    }
+  }
+}
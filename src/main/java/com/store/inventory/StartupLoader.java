@@ -0,0 +1,161 @@
+package com.store.inventory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Projections;
+import org.bson.conversions.Bson;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the products, suppliers and orders collections in parallel. Only the
+ * fields the model classes need are fetched and the target collections are
+ * sized from the estimated document counts. Documents decode straight into
+ * model objects through the collections' {@link ModelCodecs}. Products and
+ * suppliers are awaited before the menu opens; orders keep streaming in the
+ * background until {@link #awaitOrders()} is called.
+ */
+public class StartupLoader {
+  public static final int DEFAULT_BATCH_SIZE = 5000;
+
+  static final Bson PRODUCT_FIELDS = Projections.include("name", "description", "quantity", "price", "supplierId",
+      "dateReceived");
+  static final Bson SUPPLIER_FIELDS = Projections.include("name", "contact");
+  static final Bson ORDER_FIELDS = Projections.include("supplierId", "customerName", "items.sku", "items.name",
+      "items.quantity", "items.unitPrice", "total", "orderDate");
+
+  private final MongoCollection<Product> productCollection;
+  private final MongoCollection<Supplier> supplierCollection;
+  private final MongoCollection<Order> orderCollection;
+  private final int batchSize;
+  private final PrintStream log;
+  private final ExecutorService executor;
+
+  private Future<Map<String, Product>> products;
+  private Future<Map<String, Supplier>> suppliers;
+  private Future<?> ordersDone;
+  private List<Order> orders;
+
+  public StartupLoader(MongoCollection<Product> productCollection, MongoCollection<Supplier> supplierCollection,
+      MongoCollection<Order> orderCollection, int batchSize, PrintStream log) {
+    this.productCollection = productCollection;
+    this.supplierCollection = supplierCollection;
+    this.orderCollection = orderCollection;
+    this.batchSize = batchSize;
+    this.log = log;
+    this.executor = Executors.newFixedThreadPool(3, r -> {
+      Thread thread = new Thread(r, "startup-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void start() {
+    products = executor.submit(this::loadProducts);
+    suppliers = executor.submit(this::loadSuppliers);
+    orders = Collections.synchronizedList(new ArrayList<>(capacity(orderCollection, 1f)));
+    ordersDone = executor.submit(this::loadOrders);
+    executor.shutdown();
+  }
+
+  public Map<String, Product> awaitProducts() {
+    return await(products);
+  }
+
+  public Map<String, Supplier> awaitSuppliers() {
+    return await(suppliers);
+  }
+
+  /**
+   * Returns the list orders are being streamed into. It is safe to add to it
+   * while loading is still in progress, but it should only be iterated after
+   * {@link #awaitOrders()} returns.
+   */
+  public List<Order> orders() {
+    return orders;
+  }
+
+  public boolean ordersLoaded() {
+    return ordersDone.isDone();
+  }
+
+  public void awaitOrders() {
+    await(ordersDone);
+  }
+
+  private Map<String, Product> loadProducts() {
+    long start = System.nanoTime();
+    Map<String, Product> result = new ProductStore(capacity(productCollection, 1f));
+    try (MongoCursor<Product> cursor = productCollection.find().projection(PRODUCT_FIELDS).batchSize(batchSize)
+        .iterator()) {
+      while (cursor.hasNext()) {
+        Product product = cursor.next();
+        result.put(product.getSku(), product);
+      }
+    }
+    report("products", result.size(), start);
+    return result;
+  }
+
+  private Map<String, Supplier> loadSuppliers() {
+    long start = System.nanoTime();
+    Map<String, Supplier> result = new ConcurrentHashMap<>(capacity(supplierCollection, 0.75f));
+    try (MongoCursor<Supplier> cursor = supplierCollection.find().projection(SUPPLIER_FIELDS).batchSize(batchSize)
+        .iterator()) {
+      while (cursor.hasNext()) {
+        Supplier supplier = cursor.next();
+        result.put(supplier.getId(), supplier);
+      }
+    }
+    report("suppliers", result.size(), start);
+    return result;
+  }
+
+  private Void loadOrders() {
+    long start = System.nanoTime();
+    int count = 0;
+    List<Order> chunk = new ArrayList<>(batchSize);
+    try (MongoCursor<Order> cursor = orderCollection.find().projection(ORDER_FIELDS).batchSize(batchSize)
+        .iterator()) {
+      while (cursor.hasNext()) {
+        chunk.add(cursor.next());
+        if (chunk.size() == batchSize) {
+          orders.addAll(chunk);
+          count += chunk.size();
+          chunk.clear();
+        }
+      }
+    }
+    orders.addAll(chunk);
+    count += chunk.size();
+    report("orders", count, start);
+    return null;
+  }
+
+  private static int capacity(MongoCollection<?> collection, float loadFactor) {
+    long estimated = collection.estimatedDocumentCount();
+    return (int) Math.min(Integer.MAX_VALUE - 8, (long) (estimated / loadFactor) + 1);
+  }
+
+  private void report(String collection, int count, long start) {
+    Metrics.LOAD.get(collection).recordSince(start);
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    log.println(App.ANSI_GREEN + "Loaded " + count + " " + collection + " in " + millis + " ms." + App.ANSI_RESET);
+  }
+
+  private static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading data.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to load data: " + e.getCause().getMessage(), e.getCause());
+    }
+  }
+}
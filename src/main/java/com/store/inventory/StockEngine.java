@@ -0,0 +1,295 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes stock and price changes per SKU with a fixed array of striped
+ * locks, so tills working on different products never contend. Sales go
+ * through {@link Reservation}s: reserving takes the stock immediately,
+ * {@link Reservation#commit()} makes it final and {@link Reservation#release()}
+ * puts it back. {@link Reservation#addAll(List)} reserves every line of an
+ * order or none of them by taking all the stripes involved in a fixed order.
+ *
+ * Listeners are notified while the stripe lock is held, so they see changes
+ * to a SKU in the order they happened.
+ */
+public class StockEngine {
+  public interface Listener {
+    void productChanged(Product product, int oldQuantity, double oldPrice);
+  }
+
+  private final Map<String, Product> products;
+  private final ReentrantLock[] stripes;
+  private final int mask;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final Map<String, Integer> held = new ConcurrentHashMap<>();
+
+  public StockEngine(Map<String, Product> products) {
+    this(products, Runtime.getRuntime().availableProcessors() * 16);
+  }
+
+  public StockEngine(Map<String, Product> products, int stripeCount) {
+    this.products = products;
+    int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+    this.stripes = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+    this.mask = size - 1;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public int available(String sku) {
+    return find(sku).getQuantity();
+  }
+
+  public void receive(String sku, int quantity) {
+    if (quantity <= 0) {
+      throw new IllegalArgumentException("Quantity must be positive.");
+    }
+    ReentrantLock lock = stripeFor(sku);
+    lock.lock();
+    try {
+      Product product = find(sku);
+      change(product, product.getQuantity() + quantity, product.getPrice());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void update(String sku, Integer quantity, Double price) {
+    if (quantity != null && quantity < 0) {
+      throw new IllegalArgumentException("Quantity cannot be negative.");
+    }
+    if (price != null && price < 0) {
+      throw new IllegalArgumentException("Price cannot be negative.");
+    }
+    ReentrantLock lock = stripeFor(sku);
+    lock.lock();
+    try {
+      Product product = find(sku);
+      change(product, quantity != null ? quantity : product.getQuantity(),
+          price != null ? price : product.getPrice());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Runs {@code action} holding the lock of {@code sku}, so no stock change to it can interleave. */
+  public void locked(String sku, Runnable action) {
+    ReentrantLock lock = stripeFor(sku);
+    lock.lock();
+    try {
+      action.run();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Undoes a stock change that storage turned down after it was applied here; unknown SKUs are skipped. */
+  public void revert(String sku, int delta) {
+    ReentrantLock lock = stripeFor(sku);
+    lock.lock();
+    try {
+      Product product = products.get(sku);
+      if (product != null) {
+        change(product, product.getQuantity() - delta, product.getPrice());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the local quantity of {@code sku} with the value read back from
+   * storage, keeping back whatever open reservations in this process hold.
+   */
+  public void refresh(String sku, int storedQuantity) {
+    ReentrantLock lock = stripeFor(sku);
+    lock.lock();
+    try {
+      Product product = products.get(sku);
+      int quantity = storedQuantity - held.getOrDefault(sku, 0);
+      if (product != null && product.getQuantity() != quantity) {
+        change(product, quantity, product.getPrice());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Reservation newReservation() {
+    return new Reservation();
+  }
+
+  public Reservation reserve(List<OrderItem> items) {
+    if (products instanceof ProductCache && items.size() > 1) {
+      // Load the order's products in one batch rather than one miss at a time.
+      List<String> skus = new ArrayList<>(items.size());
+      for (OrderItem item : items) {
+        skus.add(item.getSku());
+      }
+      ((ProductCache) products).getAll(skus);
+    }
+    Reservation reservation = new Reservation();
+    reservation.addAll(items);
+    return reservation;
+  }
+
+  private Product find(String sku) {
+    Product product = products.get(sku);
+    if (product == null) {
+      throw new IllegalArgumentException("Product not found: " + sku);
+    }
+    return product;
+  }
+
+  private ReentrantLock stripeFor(String sku) {
+    return stripes[stripeIndex(sku)];
+  }
+
+  private int stripeIndex(String sku) {
+    int h = sku.hashCode();
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  private void change(Product product, int quantity, double price) {
+    int oldQuantity = product.getQuantity();
+    double oldPrice = product.getPrice();
+    product.setQuantity(quantity);
+    product.setPrice(price);
+    for (Listener listener : listeners) {
+      listener.productChanged(product, oldQuantity, oldPrice);
+    }
+  }
+
+  private void unhold(String sku, int quantity, boolean restock, Integer storedQuantity) {
+    ReentrantLock lock = stripeFor(sku);
+    lock.lock();
+    try {
+      int remaining = held.merge(sku, -quantity, Integer::sum);
+      if (remaining == 0) {
+        held.remove(sku);
+      }
+      Product product = products.get(sku);
+      if (product == null) {
+        return;
+      }
+      if (storedQuantity != null) {
+        change(product, storedQuantity - remaining, product.getPrice());
+      } else if (restock) {
+        change(product, product.getQuantity() + quantity, product.getPrice());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stock held for one sell order. Not thread-safe itself; each till uses its
+   * own reservation.
+   */
+  public class Reservation {
+    private final List<OrderItem> lines = new ArrayList<>();
+    private boolean open = true;
+
+    public List<OrderItem> getLines() {
+      return lines;
+    }
+
+    public void add(String sku, int quantity) {
+      addAll(Collections.singletonList(new OrderItem(sku, quantity)));
+    }
+
+    public void addAll(List<OrderItem> items) {
+      checkOpen();
+      Map<String, Integer> demand = new LinkedHashMap<>();
+      for (OrderItem item : items) {
+        if (item.getQuantity() <= 0) {
+          throw new IllegalArgumentException("Quantity must be positive.");
+        }
+        demand.merge(item.getSku(), item.getQuantity(), Integer::sum);
+      }
+      int[] order = lockOrder(demand.keySet());
+      for (int stripe : order) {
+        stripes[stripe].lock();
+      }
+      try {
+        List<Product> resolved = new ArrayList<>(demand.size());
+        for (Map.Entry<String, Integer> entry : demand.entrySet()) {
+          Product product = find(entry.getKey());
+          if (product.getQuantity() < entry.getValue()) {
+            throw new InsufficientStockException(entry.getKey(), product.getQuantity());
+          }
+          resolved.add(product);
+        }
+        int i = 0;
+        for (int quantity : demand.values()) {
+          Product product = resolved.get(i++);
+          change(product, product.getQuantity() - quantity, product.getPrice());
+          held.merge(product.getSku(), quantity, Integer::sum);
+        }
+        lines.addAll(items);
+      } finally {
+        for (int j = order.length - 1; j >= 0; j--) {
+          stripes[order[j]].unlock();
+        }
+      }
+    }
+
+    public void commit() {
+      commit(Collections.emptyMap());
+    }
+
+    /**
+     * Makes the reservation final. {@code storedQuantities} holds the values
+     * storage reported after applying the sale; those SKUs are refreshed from
+     * it instead of keeping the local count.
+     */
+    public void commit(Map<String, Integer> storedQuantities) {
+      checkOpen();
+      open = false;
+      for (Map.Entry<String, Integer> entry : getTotals().entrySet()) {
+        unhold(entry.getKey(), entry.getValue(), false, storedQuantities.get(entry.getKey()));
+      }
+    }
+
+    public void release() {
+      if (!open) {
+        return;
+      }
+      open = false;
+      for (Map.Entry<String, Integer> entry : getTotals().entrySet()) {
+        unhold(entry.getKey(), entry.getValue(), true, null);
+      }
+    }
+
+    public Map<String, Integer> getTotals() {
+      Map<String, Integer> totals = new LinkedHashMap<>();
+      for (OrderItem line : lines) {
+        totals.merge(line.getSku(), line.getQuantity(), Integer::sum);
+      }
+      return totals;
+    }
+
+    private void checkOpen() {
+      if (!open) {
+        throw new IllegalStateException("Reservation is already closed.");
+      }
+    }
+
+    private int[] lockOrder(Collection<String> skus) {
+      BitSet needed = new BitSet(stripes.length);
+      for (String sku : skus) {
+        needed.set(stripeIndex(sku));
+      }
+      return needed.stream().toArray();
+    }
+  }
+}
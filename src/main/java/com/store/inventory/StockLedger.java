@@ -0,0 +1,668 @@
+package com.store.inventory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only record of every stock movement, split over partition files by
+ * SKU hash. Each entry holds the SKU, the signed change, the quantity it left
+ * and the distance back to the SKU's previous entry in the same file, so an
+ * append only touches the end of one partition and the SKU's in-memory head.
+ * The current quantity of every SKU is the projection of its entries; a
+ * snapshot of the heads is written whenever {@code snapshotBytes} have been
+ * appended, and opening the ledger loads the snapshot and replays only what
+ * follows it.
+ *
+ * A point-in-time query starts from the SKU's head and follows the back
+ * pointers until it reaches an entry no later than the requested time, so it
+ * reads only that SKU's entries newer than the time asked for.
+ *
+ * Entries are {@code [varint length][payload][crc32]} with varint-encoded
+ * fields. They are buffered and written out once 64 KB collect and every
+ * second by a syncer thread, which also fsyncs; a crash may lose the last
+ * second, which the caller reconciles from storage on the next start.
+ */
+public class StockLedger implements Closeable {
+  public enum Reason {
+    OPENING, ADD, RECEIVE, SALE, ADJUST, REMOVE, RECONCILE
+  }
+
+  /** One entry of a SKU's history. */
+  public static final class Movement {
+    private final long time;
+    private final Reason reason;
+    private final int delta;
+    private final int quantity;
+    private final String reference;
+
+    Movement(long time, Reason reason, int delta, int quantity, String reference) {
+      this.time = time;
+      this.reason = reason;
+      this.delta = delta;
+      this.quantity = quantity;
+      this.reference = reference;
+    }
+
+    /** Epoch milliseconds. */
+    public long getTime() {
+      return time;
+    }
+
+    public Reason getReason() {
+      return reason;
+    }
+
+    public int getDelta() {
+      return delta;
+    }
+
+    /** Quantity after the movement. */
+    public int getQuantity() {
+      return quantity;
+    }
+
+    /** The order ID for receipts and sales, otherwise null. */
+    public String getReference() {
+      return reference;
+    }
+  }
+
+  public static final int DEFAULT_PARTITIONS = 16;
+  public static final long DEFAULT_SNAPSHOT_BYTES = 16L << 20;
+
+  static final long MAGIC = 0x494E564C45444731L; // "INVLEDG1"
+  static final int VERSION = 1;
+  static final String SNAPSHOT_FILE = "ledger.snapshot";
+
+  private static final int FLUSH_BYTES = 64 << 10;
+  private static final long SYNC_INTERVAL_MS = 1000;
+  private static final Reason[] REASONS = Reason.values();
+
+  private final Path directory;
+  private final int configuredPartitions;
+  private final long snapshotBytes;
+  private final LongSupplier clock;
+  private final PrintStream log;
+  private Partition[] partitions;
+  private ScheduledExecutorService syncer;
+
+  private static final class Head {
+    long offset;
+    int quantity;
+    long time;
+
+    Head(long offset, int quantity, long time) {
+      this.offset = offset;
+      this.quantity = quantity;
+      this.time = time;
+    }
+  }
+
+  private static final class Partition {
+    final Path file;
+    final Map<String, Head> heads = new HashMap<>();
+    FileChannel channel;
+    long flushed;
+    byte[] buffer = new byte[FLUSH_BYTES * 2];
+    int buffered;
+    long lastTime;
+    long sinceSnapshot;
+    boolean dirty;
+
+    Partition(Path file) {
+      this.file = file;
+    }
+
+    long size() {
+      return flushed + buffered;
+    }
+
+    /** Writes out buffered entries; callers hold the partition's lock. */
+    void flush() throws IOException {
+      if (buffered == 0) {
+        return;
+      }
+      ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, buffered);
+      while (bytes.hasRemaining()) {
+        channel.write(bytes, flushed + bytes.position());
+      }
+      flushed += buffered;
+      buffered = 0;
+      dirty = true;
+    }
+  }
+
+  public StockLedger(Path directory, int partitions, long snapshotBytes, PrintStream log) {
+    this(directory, partitions, snapshotBytes, System::currentTimeMillis, log);
+  }
+
+  StockLedger(Path directory, int partitions, long snapshotBytes, LongSupplier clock, PrintStream log) {
+    this.directory = directory;
+    this.configuredPartitions = partitions;
+    this.snapshotBytes = snapshotBytes;
+    this.clock = clock;
+    this.log = log;
+  }
+
+  /**
+   * Loads the snapshot and replays the entries written after it. An existing
+   * ledger keeps the partition count it was created with.
+   */
+  public void open() throws IOException {
+    long start = System.nanoTime();
+    Files.createDirectories(directory);
+    int count = 0;
+    while (Files.exists(partitionFile(count))) {
+      count++;
+    }
+    partitions = new Partition[count > 0 ? count : configuredPartitions];
+    for (int i = 0; i < partitions.length; i++) {
+      partitions[i] = new Partition(partitionFile(i));
+      partitions[i].channel = FileChannel.open(partitions[i].file, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    long[] from = readSnapshot();
+    long entries = 0;
+    for (int i = 0; i < partitions.length; i++) {
+      entries += replay(partitions[i], from[i]);
+    }
+    Metrics.LOAD.get("ledger-replay").recordSince(start);
+    log.println(App.ANSI_GREEN + "Stock ledger: " + skuCount() + " SKUs in " + partitions.length
+        + " partitions, replayed " + entries + " entries in " + (System.nanoTime() - start) / 1_000_000 + " ms."
+        + App.ANSI_RESET);
+    syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "stock-ledger-sync");
+      thread.setDaemon(true);
+      return thread;
+    });
+    syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private Path partitionFile(int index) {
+    return directory.resolve(String.format("ledger-%02d.bin", index));
+  }
+
+  private Partition partition(String sku) {
+    return partitions[Math.floorMod(sku.hashCode(), partitions.length)];
+  }
+
+  /** Records a change of {@code delta} and returns the quantity it leaves. */
+  public int append(String sku, Reason reason, int delta, String reference) {
+    return record(sku, reason, delta, false, reference);
+  }
+
+  /** Records a change to {@code quantity}; nothing is written if the SKU already has it. */
+  public int set(String sku, Reason reason, int quantity, String reference) {
+    return record(sku, reason, quantity, true, reference);
+  }
+
+  private int record(String sku, Reason reason, int amount, boolean absolute, String reference) {
+    Partition partition = partition(sku);
+    synchronized (partition) {
+      Head head = partition.heads.get(sku);
+      int before = head != null ? head.quantity : 0;
+      int after = absolute ? amount : before + amount;
+      if (head != null && after == before) {
+        return after;
+      }
+      long time = Math.max(clock.getAsLong(), partition.lastTime);
+      long offset = partition.size();
+      byte[] sku8 = sku.getBytes(StandardCharsets.UTF_8);
+      byte[] reference8 = reference != null ? reference.getBytes(StandardCharsets.UTF_8) : null;
+      int room = 5 + 1 + 10 + 10 + 5 + 5 + 5 + sku8.length + 5 + (reference8 != null ? reference8.length : 0) + 4;
+      if (partition.buffered + room > partition.buffer.length) {
+        try {
+          partition.flush();
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot write the stock ledger", e);
+        }
+        if (room > partition.buffer.length) {
+          partition.buffer = new byte[room * 2];
+        }
+      }
+      byte[] buffer = partition.buffer;
+      // The payload starts after a length prefix sized for the largest entry.
+      int lengthAt = partition.buffered;
+      int pos = lengthAt + 5;
+      buffer[pos++] = (byte) reason.ordinal();
+      pos = putVarLong(buffer, pos, time);
+      pos = putVarLong(buffer, pos, head != null ? offset - head.offset : 0);
+      pos = putVarLong(buffer, pos, zigzag(after - before));
+      pos = putVarLong(buffer, pos, zigzag(after));
+      pos = putVarLong(buffer, pos, sku8.length);
+      System.arraycopy(sku8, 0, buffer, pos, sku8.length);
+      pos += sku8.length;
+      pos = putVarLong(buffer, pos, reference8 != null ? reference8.length + 1 : 0);
+      if (reference8 != null) {
+        System.arraycopy(reference8, 0, buffer, pos, reference8.length);
+        pos += reference8.length;
+      }
+      int payload = pos - lengthAt - 5;
+      int prefix = varLongSize(payload);
+      System.arraycopy(buffer, lengthAt + 5, buffer, lengthAt + prefix, payload);
+      putVarLong(buffer, lengthAt, payload);
+      CRC32 crc = new CRC32();
+      crc.update(buffer, lengthAt + prefix, payload);
+      pos = putInt(buffer, lengthAt + prefix + payload, (int) crc.getValue());
+      int written = pos - lengthAt;
+      partition.buffered += written;
+      partition.sinceSnapshot += written;
+      partition.lastTime = time;
+      if (head == null) {
+        partition.heads.put(sku, new Head(offset, after, time));
+      } else {
+        head.offset = offset;
+        head.quantity = after;
+        head.time = time;
+      }
+      return after;
+    }
+  }
+
+  public int quantity(String sku) {
+    Partition partition = partition(sku);
+    synchronized (partition) {
+      Head head = partition.heads.get(sku);
+      return head != null ? head.quantity : 0;
+    }
+  }
+
+  public boolean contains(String sku) {
+    Partition partition = partition(sku);
+    synchronized (partition) {
+      return partition.heads.containsKey(sku);
+    }
+  }
+
+  /** Calls {@code action} with every SKU the ledger has seen and its current quantity. */
+  public void forEach(ObjIntConsumer<String> action) {
+    for (Partition partition : partitions) {
+      List<Map.Entry<String, Head>> entries;
+      synchronized (partition) {
+        entries = new ArrayList<>(partition.heads.entrySet());
+      }
+      for (Map.Entry<String, Head> entry : entries) {
+        action.accept(entry.getKey(), entry.getValue().quantity);
+      }
+    }
+  }
+
+  public int skuCount() {
+    int count = 0;
+    for (Partition partition : partitions) {
+      synchronized (partition) {
+        count += partition.heads.size();
+      }
+    }
+    return count;
+  }
+
+  /** Stock of {@code sku} at the end of {@code date} in the system time zone. */
+  public int quantityOn(String sku, LocalDate date) throws IOException {
+    return quantityAt(sku, date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1);
+  }
+
+  /** Stock of {@code sku} at {@code time} in epoch milliseconds; 0 before its first entry. */
+  public int quantityAt(String sku, long time) throws IOException {
+    Partition partition = partition(sku);
+    synchronized (partition) {
+      Head head = partition.heads.get(sku);
+      if (head == null) {
+        return 0;
+      }
+      if (head.time <= time) {
+        return head.quantity;
+      }
+    }
+    for (Movement movement : walk(sku, time, 1)) {
+      return movement.getQuantity();
+    }
+    return 0;
+  }
+
+  /** Up to {@code limit} of the SKU's most recent movements, newest first. */
+  public List<Movement> history(String sku, int limit) throws IOException {
+    return walk(sku, Long.MAX_VALUE, limit);
+  }
+
+  /** Follows the SKU's entries back from its head, collecting those at or before {@code until}. */
+  private List<Movement> walk(String sku, long until, int limit) throws IOException {
+    Partition partition = partition(sku);
+    long offset;
+    synchronized (partition) {
+      Head head = partition.heads.get(sku);
+      if (head == null) {
+        return Collections.emptyList();
+      }
+      if (head.offset >= partition.flushed) {
+        partition.flush();
+      }
+      offset = head.offset;
+    }
+    List<Movement> result = new ArrayList<>(Math.min(limit, 64));
+    ByteBuffer bytes = ByteBuffer.allocate(256);
+    long[] previous = new long[1];
+    while (offset >= 0 && result.size() < limit) {
+      Movement movement = read(partition.channel, offset, bytes, previous);
+      if (movement.getTime() <= until) {
+        result.add(movement);
+      }
+      offset = previous[0] == 0 ? -1 : offset - previous[0];
+    }
+    return result;
+  }
+
+  private static Movement read(FileChannel channel, long offset, ByteBuffer bytes, long[] previous)
+      throws IOException {
+    bytes.clear();
+    channel.read(bytes, offset);
+    int length = (int) getVarLong(bytes, 0);
+    int start = varLongSize(length);
+    if (bytes.capacity() < start + length + 4) {
+      bytes = ByteBuffer.allocate(start + length + 4);
+    }
+    if (bytes.position() < start + length + 4) {
+      bytes.limit(start + length + 4);
+      while (bytes.hasRemaining()) {
+        if (channel.read(bytes, offset + bytes.position()) < 0) {
+          throw new EOFException("Stock ledger entry at " + offset + " is cut off.");
+        }
+      }
+    }
+    return decode(bytes.array(), start, length, previous);
+  }
+
+  private static Movement decode(byte[] buffer, int start, int length, long[] previous) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(buffer, start, length);
+    if ((int) crc.getValue() != getInt(buffer, start + length)) {
+      throw new IOException("Stock ledger entry failed its checksum.");
+    }
+    ByteBuffer in = ByteBuffer.wrap(buffer, start, length);
+    Reason reason = REASONS[in.get()];
+    long time = getVarLong(in);
+    previous[0] = getVarLong(in);
+    int delta = (int) unzigzag(getVarLong(in));
+    int quantity = (int) unzigzag(getVarLong(in));
+    int skuLength = (int) getVarLong(in);
+    in.position(in.position() + skuLength);
+    int referenceLength = (int) getVarLong(in);
+    String reference = referenceLength == 0 ? null
+        : new String(buffer, in.position(), referenceLength - 1, StandardCharsets.UTF_8);
+    return new Movement(time, reason, delta, quantity, reference);
+  }
+
+  /** Reads entries from {@code from} to the end of the file into the heads, cutting off a torn one. */
+  private long replay(Partition partition, long from) throws IOException {
+    long offset = from;
+    long entries = 0;
+    long[] previous = new long[1];
+    byte[] buffer = new byte[256];
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(partition.file), 1 << 16)) {
+      in.skipNBytes(from);
+      while (true) {
+        long length = readVarLong(in);
+        if (length < 0 || length > 1 << 20) {
+          break;
+        }
+        int start = varLongSize(length);
+        if (buffer.length < length + 4) {
+          buffer = new byte[(int) length + 4];
+        }
+        if (in.readNBytes(buffer, 0, (int) length + 4) != length + 4) {
+          break;
+        }
+        Movement movement;
+        String sku;
+        try {
+          movement = decode(buffer, 0, (int) length, previous);
+          ByteBuffer fields = ByteBuffer.wrap(buffer, 0, (int) length);
+          fields.get();
+          for (int i = 0; i < 4; i++) {
+            getVarLong(fields);
+          }
+          int skuLength = (int) getVarLong(fields);
+          sku = new String(buffer, fields.position(), skuLength, StandardCharsets.UTF_8);
+        } catch (IOException | RuntimeException e) {
+          break;
+        }
+        Head head = partition.heads.get(sku);
+        if (head == null) {
+          partition.heads.put(sku, new Head(offset, movement.getQuantity(), movement.getTime()));
+        } else {
+          head.offset = offset;
+          head.quantity = movement.getQuantity();
+          head.time = movement.getTime();
+        }
+        partition.lastTime = Math.max(partition.lastTime, movement.getTime());
+        offset += start + length + 4;
+        entries++;
+      }
+    }
+    if (partition.channel.size() > offset) {
+      log.println(App.ANSI_YELLOW + "Discarding " + (partition.channel.size() - offset)
+          + " bytes of a torn entry at the end of " + partition.file + "." + App.ANSI_RESET);
+      partition.channel.truncate(offset);
+      partition.channel.force(true);
+    }
+    partition.flushed = offset;
+    partition.sinceSnapshot = offset - from;
+    return entries;
+  }
+
+  /**
+   * Loads the heads from the snapshot and returns where each partition's
+   * replay starts; all zeros if there is no usable snapshot.
+   */
+  private long[] readSnapshot() throws IOException {
+    long[] from = new long[partitions.length];
+    Path file = directory.resolve(SNAPSHOT_FILE);
+    if (!Files.exists(file)) {
+      return from;
+    }
+    List<Map<String, Head>> heads = new ArrayList<>();
+    CRC32 crc = new CRC32();
+    try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+        new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc))) {
+      if (in.readLong() != MAGIC || in.readInt() != VERSION || in.readInt() != partitions.length) {
+        throw new IOException("Not a stock ledger snapshot for " + partitions.length + " partitions.");
+      }
+      for (int i = 0; i < partitions.length; i++) {
+        from[i] = in.readLong();
+        if (from[i] > partitions[i].channel.size()) {
+          throw new IOException("Snapshot is newer than " + partitions[i].file + ".");
+        }
+        int count = in.readInt();
+        Map<String, Head> partitionHeads = new HashMap<>((int) (count / 0.75f) + 1);
+        for (int j = 0; j < count; j++) {
+          partitionHeads.put(in.readUTF(), new Head(in.readLong(), in.readInt(), in.readLong()));
+        }
+        heads.add(partitionHeads);
+      }
+      long expected = crc.getValue();
+      if (in.readLong() != expected) {
+        throw new IOException("Snapshot failed its checksum.");
+      }
+    } catch (IOException e) {
+      log.println(App.ANSI_YELLOW + "Ignoring the stock ledger snapshot (" + e.getMessage()
+          + "), replaying the whole ledger." + App.ANSI_RESET);
+      return new long[partitions.length];
+    }
+    for (int i = 0; i < partitions.length; i++) {
+      partitions[i].heads.putAll(heads.get(i));
+      for (Head head : heads.get(i).values()) {
+        partitions[i].lastTime = Math.max(partitions[i].lastTime, head.time);
+      }
+    }
+    return from;
+  }
+
+  /** Flushes and syncs every partition and writes a snapshot of the heads. */
+  public void snapshot() throws IOException {
+    long start = System.nanoTime();
+    Path file = directory.resolve(SNAPSHOT_FILE);
+    Path temp = file.resolveSibling(SNAPSHOT_FILE + ".tmp");
+    CRC32 crc = new CRC32();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16), crc))) {
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(partitions.length);
+      for (Partition partition : partitions) {
+        // Each partition is captured on its own; entries appended meanwhile are replayed on the next open.
+        synchronized (partition) {
+          partition.flush();
+          partition.channel.force(false);
+          partition.dirty = false;
+          out.writeLong(partition.flushed);
+          out.writeInt(partition.heads.size());
+          for (Map.Entry<String, Head> entry : partition.heads.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().offset);
+            out.writeInt(entry.getValue().quantity);
+            out.writeLong(entry.getValue().time);
+          }
+          partition.sinceSnapshot = 0;
+        }
+      }
+      out.flush();
+      out.writeLong(crc.getValue());
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Metrics.STORAGE.get("ledger-snapshot").recordSince(start);
+  }
+
+  private void syncQuietly() {
+    try {
+      long appended = 0;
+      for (Partition partition : partitions) {
+        synchronized (partition) {
+          partition.flush();
+          if (partition.dirty) {
+            partition.channel.force(false);
+            partition.dirty = false;
+          }
+          appended += partition.sinceSnapshot;
+        }
+      }
+      if (appended >= snapshotBytes) {
+        snapshot();
+      }
+    } catch (IOException | RuntimeException e) {
+      log.println(App.ANSI_RED + "Stock ledger sync failed: " + e.getMessage() + App.ANSI_RESET);
+    }
+  }
+
+  /** Writes out what is buffered, takes a final snapshot and closes the partitions. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (syncer == null) {
+      return;
+    }
+    syncer.shutdown();
+    try {
+      syncer.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    syncer = null;
+    snapshot();
+    for (Partition partition : partitions) {
+      partition.channel.close();
+    }
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int varLongSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static int putVarLong(byte[] buffer, int pos, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[pos++] = (byte) value;
+    return pos;
+  }
+
+  private static long getVarLong(ByteBuffer in) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  private static long getVarLong(ByteBuffer in, int pos) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.get(pos++);
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  /** Reads a varint from a stream; -1 at a clean or torn end. */
+  private static long readVarLong(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        return -1;
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    return -1;
+  }
+
+  private static int putInt(byte[] buffer, int pos, int value) {
+    buffer[pos] = (byte) (value >>> 24);
+    buffer[pos + 1] = (byte) (value >>> 16);
+    buffer[pos + 2] = (byte) (value >>> 8);
+    buffer[pos + 3] = (byte) value;
+    return pos + 4;
+  }
+
+  private static int getInt(byte[] buffer, int pos) {
+    return (buffer[pos] & 0xFF) << 24 | (buffer[pos + 1] & 0xFF) << 16 | (buffer[pos + 2] & 0xFF) << 8
+        | buffer[pos + 3] & 0xFF;
+  }
+}
@@ -0,0 +1,60 @@
+package com.store.inventory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the inventory is persisted. {@link #open()} loads the stored state
+ * into the maps and list returned by {@link #products()}, {@link #suppliers()}
+ * and {@link #orders()}; App works on those in memory and reports every change
+ * back through the write methods. Writes other than orders may be buffered
+ * until {@link #flush()} or {@link #close()}.
+ */
+public interface Storage {
+  /** Loads products and suppliers. Orders may still be loading when this returns. */
+  void open();
+
+  Map<String, Product> products();
+
+  Map<String, Supplier> suppliers();
+
+  /**
+   * The list orders are loaded into. It is safe to add to while loading is in
+   * progress but should only be iterated after {@link #awaitOrders()}.
+   */
+  List<Order> orders();
+
+  boolean ordersLoaded();
+
+  void awaitOrders();
+
+  void saveProduct(Product product);
+
+  /** Stores the product's current quantity and price. */
+  void updateProduct(Product product);
+
+  void removeProduct(String sku);
+
+  void saveSupplier(Supplier supplier);
+
+  /**
+   * Applies {@code deltas} (SKU to signed quantity change), stores
+   * {@code order} and adds it to {@link #orders()}. Throws
+   * {@link InsufficientStockException} if the stored stock of any SKU is too
+   * low, in which case nothing is written. Returns the stored quantity of each
+   * changed SKU.
+   */
+  Map<String, Integer> writeOrder(Map<String, Integer> deltas, Order order);
+
+  /**
+   * Writes {@code orders}, each with the deltas at the same position, as one
+   * unit: the stock checks cover all of them, and if any fails nothing is
+   * written. Returns the stored quantity of each changed SKU after
+   * the last order.
+   */
+  Map<String, Integer> writeOrders(List<Map<String, Integer>> deltas, List<Order> orders);
+
+  void flush();
+
+  void close();
+}
@@ -0,0 +1,171 @@
+package com.store.inventory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Writes inventory and order listings to a buffered {@link Writer}. Rows are
+ * assembled in one reused StringBuilder with hand-written padding instead of
+ * a format string per line. Colour codes are only written when
+ * {@code color} is set, so the same renderer can stream to a file.
+ */
+public class TableRenderer {
+  private static final String INVENTORY_RULE = repeat('-', 85);
+  private static final String REPORT_RULE = repeat('-', 100);
+  private static final String ORDER_RULE = repeat('-', 20);
+
+  private final Writer out;
+  private final boolean color;
+  private final StringBuilder row = new StringBuilder(256);
+  private char[] chars = new char[256];
+
+  public TableRenderer(Writer out, boolean color) {
+    this.out = out;
+    this.color = color;
+  }
+
+  public void inventoryHeader() {
+    row.setLength(0);
+    pad("SKU", 10).append(' ');
+    pad("Name", 20).append(' ');
+    pad("Quantity", 10).append(' ');
+    pad("Price", 10).append(' ');
+    pad("Supplier ID", 15).append(' ');
+    pad("Date Received", 15).append('\n');
+    row.append(INVENTORY_RULE).append('\n');
+    write();
+  }
+
+  public void inventoryRow(Product product) {
+    row.setLength(0);
+    pad(product.getSku(), 10).append(' ');
+    pad(product.getName(), 20).append(' ');
+    padInt(product.getQuantity(), 10).append(" Rs. ");
+    padMoney(Money.toMinor(product.getPrice()), 9).append(' ');
+    pad(product.getSupplierId(), 15).append(' ');
+    pad(product.getDateReceived(), 15).append('\n');
+    write();
+  }
+
+  public void reportHeader() {
+    row.setLength(0);
+    pad("SKU", 10).append(' ');
+    pad("Name", 20).append(' ');
+    pad("Quantity", 10).append(' ');
+    pad("Price", 10).append(' ');
+    pad("Value", 15).append(' ');
+    pad("Supplier ID", 15).append(' ');
+    pad("Date Received", 15).append('\n');
+    row.append(REPORT_RULE).append('\n');
+    write();
+  }
+
+  public void reportRow(Product product) {
+    int quantity = product.getQuantity();
+    double price = product.getPrice();
+    row.setLength(0);
+    pad(product.getSku(), 10).append(' ');
+    pad(product.getName(), 20).append(' ');
+    padInt(quantity, 10).append(" Rs. ");
+    padMoney(Money.toMinor(price), 9).append(" Rs. ");
+    padMoney(InventoryValuation.value(quantity, price), 14).append(' ');
+    pad(product.getSupplierId(), 15).append(' ');
+    pad(product.getDateReceived(), 15).append('\n');
+    write();
+  }
+
+  public void order(Order order) {
+    row.setLength(0);
+    row.append("Order ID: ").append(order.getOrderId()).append('\n');
+    row.append("Supplier ID: ").append(order.getSupplierId()).append('\n');
+    row.append("Order Date: ").append(order.getOrderDate()).append('\n');
+    row.append("Items:\n  ");
+    pad("SKU", 10).append(' ');
+    pad("Name", 20).append(' ');
+    pad("Quantity", 10).append(' ');
+    pad("Price", 10).append(' ');
+    pad("Total", 10).append('\n');
+    row.append("  ").append(ORDER_RULE).append('\n');
+    for (OrderItem item : order.getItems()) {
+      row.append("  ");
+      pad(item.getSku(), 10).append(' ');
+      pad(item.getName() != null ? item.getName() : "", 20).append(' ');
+      padInt(item.getQuantity(), 10).append(" Rs. ");
+      padMoney(item.getUnitPrice(), 9).append(" Rs. ");
+      padMoney(item.getTotal(), 9).append('\n');
+    }
+    row.append(ORDER_RULE).append('\n');
+    colored(App.ANSI_GREEN).append("  Total Order Value: Rs. ");
+    Money.append(row, order.getTotal());
+    colored(App.ANSI_RESET).append("\n\n");
+    write();
+  }
+
+  public void title(String text, String ansiColor) {
+    row.setLength(0);
+    colored(ansiColor).append('\n').append(text);
+    colored(App.ANSI_RESET).append('\n');
+    write();
+  }
+
+  public void flush() {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private StringBuilder colored(String ansi) {
+    return color ? row.append(ansi) : row;
+  }
+
+  private StringBuilder pad(String value, int width) {
+    String text = String.valueOf(value);
+    row.append(text);
+    for (int i = text.length(); i < width; i++) {
+      row.append(' ');
+    }
+    return row;
+  }
+
+  private StringBuilder padInt(int value, int width) {
+    int start = row.length();
+    row.append(value);
+    for (int i = row.length() - start; i < width; i++) {
+      row.append(' ');
+    }
+    return row;
+  }
+
+  private StringBuilder padMoney(long minor, int width) {
+    int start = row.length();
+    Money.append(row, minor);
+    for (int i = row.length() - start; i < width; i++) {
+      row.append(' ');
+    }
+    return row;
+  }
+
+  private void write() {
+    int length = row.length();
+    if (chars.length < length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+    }
+    row.getChars(0, length, chars, 0);
+    try {
+      out.write(chars, 0, length);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder sb = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+}
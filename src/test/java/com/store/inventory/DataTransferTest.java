@@ -0,0 +1,105 @@
+package com.store.inventory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class DataTransferTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+  private LogStorage storage;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-transfer");
+    reopen("a");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    storage.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private void reopen(String name) {
+    if (storage != null) {
+      storage.close();
+    }
+    storage = new LogStorage(directory.resolve(name), 10_000, LogStorage.DEFAULT_COMPACT_MIN_BYTES, QUIET);
+    App.useStorage(storage);
+  }
+
+  private static DataTransfer.Result load(DataTransfer.Kind kind, DataTransfer.Format format, String text)
+      throws Exception {
+    return new DataTransfer(kind, format, 3, QUIET).importFrom(new BufferedReader(new StringReader(text)));
+  }
+
+  private static String dump(DataTransfer.Kind kind, DataTransfer.Format format) throws IOException {
+    StringWriter out = new StringWriter();
+    new DataTransfer(kind, format, 1, QUIET).exportTo(out);
+    return out.toString();
+  }
+
+  public void testCsvProductsAreValidatedAndUpserted() throws Exception {
+    DataTransfer.Result result = load(DataTransfer.Kind.PRODUCTS, DataTransfer.Format.CSV,
+        "price,sku,quantity,name,description\n"
+            + "10.50,A,3,Bolt,\"M6, zinc\"\n"
+            + "2,B,-1,Nut,\n"
+            + "x,C,1,Washer,\n"
+            + "\n"
+            + "1.25,D,7,\"Pipe 1\"\"\",\"two\nlines\"\n"
+            + "11,A,4,Bolt,\n");
+    assertEquals(3, result.getImported());
+    assertEquals(2, result.getRejected());
+    assertEquals(4, App.inventory().get("A").getQuantity());
+    assertEquals(11.0, App.inventory().get("A").getPrice());
+    assertNull(App.inventory().get("B"));
+    assertEquals("Pipe 1\"", App.inventory().get("D").getName());
+    assertEquals("two\nlines", App.inventory().get("D").getDescription());
+    assertEquals(2, App.inventory().size());
+    assertEquals(4400 + 875, App.valuation().total().getValue());
+  }
+
+  public void testOrdersRoundTripThroughCsvAndJson() throws Exception {
+    DataTransfer.Result result = load(DataTransfer.Kind.ORDERS, DataTransfer.Format.CSV,
+        String.join(",", DataTransfer.ORDER_COLUMNS) + "\n"
+            + "PO1,purchase,SUP1,2024-03-01,A,Bolt,5,1.10\n"
+            + "PO1,purchase,SUP1,2024-03-01,B,Nut,2,0.05\n"
+            + "SO1,sale,\"Asha, Ltd\",2024-03-02,A,Bolt,1,2.00\n"
+            + "PO1,purchase,SUP1,2024-03-03,A,Bolt,1,1.10\n");
+    assertEquals(2, result.getImported());
+    assertEquals(1, result.getRejected());
+    assertEquals(560, App.orders().get(0).getTotal());
+    String csv = dump(DataTransfer.Kind.ORDERS, DataTransfer.Format.CSV);
+    String json = dump(DataTransfer.Kind.ORDERS, DataTransfer.Format.JSONL);
+
+    reopen("b");
+    assertEquals(2, load(DataTransfer.Kind.ORDERS, DataTransfer.Format.CSV, csv).getImported());
+    assertEquals(csv, dump(DataTransfer.Kind.ORDERS, DataTransfer.Format.CSV));
+    reopen("c");
+    assertEquals(2, load(DataTransfer.Kind.ORDERS, DataTransfer.Format.JSONL, json).getImported());
+    assertEquals(csv, dump(DataTransfer.Kind.ORDERS, DataTransfer.Format.CSV));
+    assertEquals("Asha, Ltd", ((SellOrder) App.orders().get(1)).getCustomerName());
+  }
+
+  public void testMongoexportOrdersImport() throws Exception {
+    // mongoexport writes the stored BSON date as extended JSON.
+    DataTransfer.Result result = load(DataTransfer.Kind.ORDERS, DataTransfer.Format.JSONL,
+        "{\"_id\": \"SO1\", \"customerName\": \"Asha\", \"items\": [{\"sku\": \"A\", \"name\": \"Bolt\", "
+            + "\"quantity\": 2, \"unitPrice\": {\"$numberLong\": \"200\"}}], \"total\": 400, "
+            + "\"orderDate\": {\"$date\": \"2024-03-02T00:00:00Z\"}}\n");
+    assertEquals(1, result.getImported());
+    assertEquals(0, result.getRejected());
+    assertEquals(LocalDate.of(2024, 3, 2), App.orders().get(0).getOrderDate());
+    assertEquals(400, App.orders().get(0).getTotal());
+  }
+}
@@ -0,0 +1,121 @@
+package com.store.inventory;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+import org.bson.Document;
+
+public class InventoryServerTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+  private LogStorage storage;
+  private InventoryServer server;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-server");
+    storage = new LogStorage(directory, 10_000, LogStorage.DEFAULT_COMPACT_MIN_BYTES, QUIET);
+    App.useStorage(storage);
+    server = new InventoryServer(0, QUIET);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    server.stop();
+    storage.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private Document call(String method, String path, String body, int expectedStatus) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path)
+        .openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    assertEquals(path, expectedStatus, connection.getResponseCode());
+    try (InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      return Document.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  public void testProductsOrdersAndReport() throws IOException {
+    String widget = "{\"_id\": \"W1\", \"name\": \"Blue widget\", \"description\": \"Steel\", \"quantity\": 5, "
+        + "\"price\": 2.5, \"supplierId\": \"S1\", \"dateReceived\": \"2024-01-01\"}";
+    call("POST", "/products", widget, 201);
+    call("POST", "/products", widget, 409);
+    call("POST", "/products", "{\"_id\": \"W2\", \"quantity\": -1, \"price\": 1.0}", 400);
+    assertEquals("Blue widget", call("GET", "/products/W1", null, 200).getString("name"));
+    call("GET", "/products/W9", null, 404);
+    assertEquals(1, call("GET", "/products?q=widget", null, 200).getList("products", Document.class).size());
+
+    call("POST", "/orders",
+        "{\"_id\": \"PO1\", \"supplierId\": \"S1\", \"items\": [{\"sku\": \"W1\", \"quantity\": 3}]}", 201);
+    Document shortage = call("POST", "/sales",
+        "{\"_id\": \"SO1\", \"customerName\": \"Ann\", \"items\": [{\"sku\": \"W1\", \"quantity\": 9}]}", 409);
+    assertEquals(8, shortage.getInteger("available").intValue());
+    call("POST", "/sales", "{\"_id\": \"SO9\", \"items\": [{\"sku\": \"W1\", \"quantity\": 1}]}", 400);
+    call("POST", "/sales",
+        "{\"_id\": \"SO9\", \"customerName\": \" \", \"items\": [{\"sku\": \"W1\", \"quantity\": 1}]}", 400);
+    Document sale = call("POST", "/sales",
+        "{\"_id\": \"SO2\", \"customerName\": \"Ann\", \"items\": [{\"sku\": \"W1\", \"quantity\": 2}]}", 201);
+    assertEquals(500L, sale.get("total", Number.class).longValue());
+
+    Document report = call("GET", "/report", null, 200);
+    assertEquals(6L, report.get("items", Number.class).longValue());
+    assertEquals(15.0, report.getDouble("value"), 0);
+    call("DELETE", "/report", null, 405);
+  }
+
+  public void testConcurrentSalesNeverOversell() throws Exception {
+    call("POST", "/products", "{\"_id\": \"C1\", \"name\": \"Cable\", \"quantity\": 100, \"price\": 1.0}", 201);
+    ExecutorService clients = Executors.newFixedThreadPool(16);
+    Future<?>[] results = new Future<?>[200];
+    int[] sold = new int[1];
+    for (int i = 0; i < results.length; i++) {
+      String body = "{\"_id\": \"S" + i + "\", \"customerName\": \"C\", "
+          + "\"items\": [{\"sku\": \"C1\", \"quantity\": 1}]}";
+      results[i] = clients.submit(() -> {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/sales")
+            .openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        assertTrue(status == 201 || status == 409);
+        if (status == 201) {
+          synchronized (sold) {
+            sold[0]++;
+          }
+        }
+        return null;
+      });
+    }
+    for (Future<?> result : results) {
+      result.get();
+    }
+    clients.shutdown();
+    assertEquals(100, sold[0]);
+    assertEquals(0, App.inventory().get("C1").getQuantity());
+  }
+}
@@ -0,0 +1,78 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import junit.framework.TestCase;
+
+public class InventoryValuationTest extends TestCase {
+  private Map<String, Product> inventory;
+  private StockEngine engine;
+  private InventoryValuation valuation;
+
+  @Override
+  protected void setUp() {
+    inventory = new ConcurrentHashMap<>();
+    inventory.put("A", new Product("A", "Apple", "", 10, 0.1, "SUP1", "2024-01-01"));
+    inventory.put("B", new Product("B", "Bread", "", 3, 45.5, "SUP2", "2024-01-01"));
+    engine = new StockEngine(inventory, 4);
+    valuation = new InventoryValuation(inventory);
+    engine.addListener(valuation);
+  }
+
+  private void assertMatchesScan() {
+    long items = 0;
+    long value = 0;
+    for (Product product : inventory.values()) {
+      items += product.getQuantity();
+      value += Money.toMinor(product.getPrice()) * product.getQuantity();
+    }
+    InventoryValuation.Totals total = valuation.total();
+    assertEquals(inventory.size(), total.getProducts());
+    assertEquals(items, total.getItems());
+    assertEquals(value, total.getValue());
+  }
+
+  public void testTotalsFollowStockAndPriceChanges() {
+    assertEquals(10 * 10 + 3 * 4550, valuation.total().getValue());
+    engine.receive("A", 5);
+    engine.update("B", null, 40.25);
+    engine.reserve(Collections.singletonList(new OrderItem("A", 4))).commit();
+    engine.reserve(Collections.singletonList(new OrderItem("B", 1))).release();
+    assertMatchesScan();
+    assertEquals(11 * 10, valuation.supplier("SUP1").getValue());
+    assertEquals(3 * 4025, valuation.supplier("SUP2").getValue());
+  }
+
+  public void testManySmallChangesStayExact() {
+    for (int i = 0; i < 100000; i++) {
+      engine.receive("A", 1);
+    }
+    assertEquals(100010, valuation.supplier("SUP1").getItems());
+    assertEquals(100010L * 10, valuation.supplier("SUP1").getValue());
+    assertMatchesScan();
+  }
+
+  public void testAddAndRemoveProducts() {
+    Product c = new Product("C", "Cheese", "", 2, 199.99, "SUP1", "2024-02-01");
+    inventory.put("C", c);
+    valuation.add(c);
+    Product b = inventory.remove("B");
+    valuation.remove(b);
+    // Changes to a product no longer in the inventory are ignored.
+    b.setQuantity(100);
+    valuation.productChanged(b, 3, 45.5);
+    assertMatchesScan();
+    assertEquals(2, valuation.suppliers().get(0).getProducts());
+    assertEquals(1, valuation.suppliers().size());
+  }
+
+  public void testChangesCountWhateverInstanceTheInventoryHolds() {
+    Product a = inventory.get("A");
+    // As when a cache evicts A while it is being changed and loads it again.
+    inventory.put("A", new Product("A", "Apple", "", 10, 0.1, "SUP1", "2024-01-01"));
+    a.setQuantity(12);
+    valuation.productChanged(a, 10, 0.1);
+    assertEquals(12, valuation.supplier("SUP1").getItems());
+    assertEquals(12 * 10, valuation.supplier("SUP1").getValue());
+  }
+}
@@ -0,0 +1,345 @@
+package com.store.inventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class JournaledStorageTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+  private Path journalFile;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-journal");
+    journalFile = directory.resolve("orders.journal");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /** Backing storage that fails the next {@code failures} order writes, or rejects order {@code rejectedId}. */
+  private final class FailingStorage extends LogStorage {
+    final AtomicInteger failures = new AtomicInteger();
+    volatile String rejectedId;
+
+    FailingStorage() {
+      super(directory, 10_000, LogStorage.DEFAULT_COMPACT_MIN_BYTES, QUIET);
+    }
+
+    @Override
+    public Map<String, Integer> writeOrder(Map<String, Integer> deltas, Order order) {
+      if (failures.getAndDecrement() > 0) {
+        throw new IllegalStateException("Backing storage unavailable");
+      }
+      if (order.getOrderId().equals(rejectedId)) {
+        throw new InsufficientStockException(deltas.keySet().iterator().next(), 0);
+      }
+      return super.writeOrder(deltas, order);
+    }
+  }
+
+  /** Backing storage whose products are a cache, which must not be read whole. */
+  private final class CachingStorage extends LogStorage {
+    private ProductCache cache;
+
+    CachingStorage() {
+      super(directory, 10_000, LogStorage.DEFAULT_COMPACT_MIN_BYTES, QUIET);
+    }
+
+    @Override
+    public void open() {
+      super.open();
+      Map<String, Product> stored = super.products();
+      cache = new ProductCache(10, new ProductCache.Source() {
+        @Override
+        public Map<String, Product> load(Collection<String> skus) {
+          Map<String, Product> result = new HashMap<>();
+          for (String sku : skus) {
+            Product product = stored.get(sku);
+            if (product != null) {
+              result.put(sku, new Product(sku, product.getName(), null, product.getQuantity(), product.getPrice(),
+                  product.getSupplierId(), product.getDateReceived()));
+            }
+          }
+          return result;
+        }
+
+        @Override
+        public Iterator<Product> scan() {
+          throw new AssertionError("Scanned the whole catalog");
+        }
+
+        @Override
+        public int count() {
+          return stored.size();
+        }
+      });
+    }
+
+    @Override
+    public Map<String, Product> products() {
+      return cache;
+    }
+
+    /** The stored products, which another process may change behind the cache. */
+    Map<String, Product> stored() {
+      return super.products();
+    }
+  }
+
+  private LogStorage backing() {
+    return new LogStorage(directory, 10_000, LogStorage.DEFAULT_COMPACT_MIN_BYTES, QUIET);
+  }
+
+  private JournaledStorage open() {
+    JournaledStorage storage = new JournaledStorage(backing(), journalFile, 0, QUIET);
+    storage.open();
+    return storage;
+  }
+
+  private static void addProduct(Storage storage, String sku, int quantity) {
+    Product product = new Product(sku, "Product " + sku, null, quantity, 10, "SUP1", "2024-03-01");
+    storage.products().put(sku, product);
+    storage.saveProduct(product);
+  }
+
+  private static Order sale(String id, String sku, int quantity) {
+    return new SellOrder(id, "Asha", Arrays.asList(new OrderItem(sku, "Product " + sku, quantity, 1000)),
+        LocalDate.of(2024, 3, 2));
+  }
+
+  public void testOrdersReachBackingStorage() {
+    JournaledStorage storage = open();
+    addProduct(storage, "A", 5);
+    assertEquals(Integer.valueOf(3), storage.writeOrder(Collections.singletonMap("A", -2), sale("SO1", "A", 2))
+        .get("A"));
+    storage.awaitOrders();
+    assertEquals(1, storage.orders().size());
+    storage.close();
+
+    LogStorage reopened = backing();
+    reopened.open();
+    assertEquals(3, reopened.products().get("A").getQuantity());
+    assertEquals("SO1", reopened.orders().get(0).getOrderId());
+    reopened.close();
+  }
+
+  public void testUnappliedOrdersAreReplayed() throws IOException {
+    LogStorage storage = backing();
+    storage.open();
+    addProduct(storage, "A", 5);
+    storage.writeOrder(Collections.singletonMap("A", -1), sale("SO1", "A", 1));
+    storage.close();
+
+    // A crash after the journal synced SO1 and SO2 but before SO2 was applied.
+    OrderJournal journal = new OrderJournal(journalFile, QUIET);
+    assertTrue(journal.open().isEmpty());
+    journal.append(sale("SO1", "A", 1), Collections.singletonMap("A", -1));
+    journal.awaitDurable(journal.append(sale("SO2", "A", 3), Collections.singletonMap("A", -3)));
+    journal.close();
+
+    JournaledStorage journaled = open();
+    assertEquals(1, journaled.products().get("A").getQuantity());
+    assertEquals(2, journaled.orders().size());
+    assertEquals(0, Files.size(journalFile));
+    journaled.close();
+  }
+
+  public void testShortStockIsRejectedBeforeJournaling() throws IOException {
+    JournaledStorage storage = open();
+    addProduct(storage, "A", 1);
+    try {
+      storage.writeOrder(Collections.singletonMap("A", -2), sale("SO1", "A", 2));
+      fail("Expected insufficient stock");
+    } catch (InsufficientStockException e) {
+      assertEquals(1, e.getAvailable());
+    }
+    storage.awaitOrders();
+    assertTrue(storage.orders().isEmpty());
+    assertEquals(0, Files.size(journalFile));
+    storage.close();
+  }
+
+  public void testConcurrentOrdersShareSyncs() throws Exception {
+    JournaledStorage storage = new JournaledStorage(backing(), journalFile, JournaledStorage.DEFAULT_RESET_BYTES,
+        QUIET);
+    storage.open();
+    addProduct(storage, "A", 0);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 200; i++) {
+          storage.writeOrder(Collections.singletonMap("A", 1), new Order("PO" + thread + "-" + i, "SUP1",
+              Arrays.asList(new OrderItem("A", "Product A", 1, 1000)), LocalDate.of(2024, 3, 2)));
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    storage.awaitOrders();
+    assertEquals(1600, storage.orders().size());
+    assertTrue(storage.getJournalSyncs() < 1600);
+    storage.close();
+
+    LogStorage reopened = backing();
+    reopened.open();
+    assertEquals(1600, reopened.products().get("A").getQuantity());
+    reopened.close();
+  }
+
+  public void testFailedOrdersAreRetried() throws IOException {
+    FailingStorage backing = new FailingStorage();
+    JournaledStorage storage = new JournaledStorage(backing, journalFile, 0, QUIET);
+    storage.open();
+    addProduct(storage, "A", 5);
+    backing.failures.set(2);
+    storage.writeOrder(Collections.singletonMap("A", -2), sale("SO1", "A", 2));
+    storage.awaitOrders();
+    assertEquals(1, storage.orders().size());
+    storage.close();
+    assertEquals(0, Files.size(journalFile));
+
+    LogStorage reopened = backing();
+    reopened.open();
+    assertEquals(3, reopened.products().get("A").getQuantity());
+    reopened.close();
+  }
+
+  public void testOrdersLeftFailingAreReplayedOnTheNextStart() {
+    FailingStorage backing = new FailingStorage();
+    JournaledStorage storage = new JournaledStorage(backing, journalFile, 0, QUIET);
+    storage.open();
+    addProduct(storage, "A", 5);
+    backing.failures.set(Integer.MAX_VALUE);
+    storage.writeOrder(Collections.singletonMap("A", -2), sale("SO1", "A", 2));
+    storage.close();
+    assertTrue(storage.orders().isEmpty());
+
+    storage = open();
+    assertEquals(3, storage.products().get("A").getQuantity());
+    assertEquals("SO1", storage.orders().get(0).getOrderId());
+    storage.close();
+  }
+
+  public void testRejectedOrdersAreRolledBack() {
+    FailingStorage backing = new FailingStorage();
+    JournaledStorage storage = new JournaledStorage(backing, journalFile, 0, QUIET);
+    Map<String, Map<String, Integer>> rolledBack = new HashMap<>();
+    storage.setRejectionListener((order, deltas) -> rolledBack.put(order.getOrderId(), deltas));
+    storage.open();
+    addProduct(storage, "A", 5);
+    backing.rejectedId = "SO1";
+    storage.writeOrder(Collections.singletonMap("A", -4), sale("SO1", "A", 4));
+    storage.awaitOrders();
+    assertEquals(Collections.singletonMap("SO1", Collections.singletonMap("A", -4)), rolledBack);
+    assertTrue(storage.orders().isEmpty());
+
+    // The stock SO1 took is available again.
+    assertEquals(Integer.valueOf(0), storage.writeOrder(Collections.singletonMap("A", -5), sale("SO2", "A", 5))
+        .get("A"));
+    storage.awaitOrders();
+    assertEquals("SO2", storage.orders().get(0).getOrderId());
+    storage.close();
+  }
+
+  public void testRemoteChangesKeepUnappliedOrders() {
+    FailingStorage backing = new FailingStorage();
+    JournaledStorage storage = new JournaledStorage(backing, journalFile, 0, QUIET);
+    App.useStorage(storage);
+    App.putProduct(new Product("A", "Product A", null, 10, 10, "SUP1", "2024-03-01"));
+    backing.failures.set(Integer.MAX_VALUE);
+    storage.writeOrder(Collections.singletonMap("A", -2), sale("SO1", "A", 2));
+
+    // Another process restocks A; the document it left does not include SO1 yet.
+    App.remoteChanges().productsChanged(Collections.singletonMap("A",
+        new Product("A", "Product A", null, 20, 10, "SUP1", "2024-03-01")));
+    assertEquals(Integer.valueOf(1), storage.writeOrder(Collections.singletonMap("A", -17), sale("SO2", "A", 17))
+        .get("A"));
+    try {
+      storage.writeOrder(Collections.singletonMap("A", -2), sale("SO3", "A", 2));
+      fail("Expected insufficient stock");
+    } catch (InsufficientStockException e) {
+      assertEquals(1, e.getAvailable());
+    }
+
+    // Once removed elsewhere, A cannot be sold from the journal's stale stock either.
+    App.remoteChanges().productsChanged(Collections.singletonMap("A", null));
+    try {
+      storage.writeOrder(Collections.singletonMap("A", -1), sale("SO4", "A", 1));
+      fail("Expected a missing product");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Product not found: A", e.getMessage());
+    }
+    backing.failures.set(0);
+    storage.close();
+  }
+
+  public void testCachedProductsAreSeededAsTheyLoad() {
+    LogStorage plain = backing();
+    plain.open();
+    addProduct(plain, "A", 5);
+    plain.close();
+
+    JournaledStorage storage = new JournaledStorage(new CachingStorage(), journalFile, 0, QUIET);
+    storage.open();
+    assertEquals(5, storage.products().get("A").getQuantity());
+    assertEquals(Integer.valueOf(3), storage.writeOrder(Collections.singletonMap("A", -2), sale("SO1", "A", 2))
+        .get("A"));
+    storage.close();
+
+    LogStorage reopened = backing();
+    reopened.open();
+    assertEquals(3, reopened.products().get("A").getQuantity());
+    reopened.close();
+  }
+
+  public void testEvictedProductsAreSeededAgainWhenReloaded() {
+    LogStorage plain = backing();
+    plain.open();
+    for (int i = 0; i < 20; i++) {
+      addProduct(plain, "P" + i, 5);
+    }
+    plain.close();
+
+    CachingStorage backing = new CachingStorage();
+    JournaledStorage storage = new JournaledStorage(backing, journalFile, 0, QUIET);
+    storage.open();
+    storage.products().get("P0");
+    storage.writeOrder(Collections.singletonMap("P0", -2), sale("SO1", "P0", 2));
+    storage.awaitOrders();
+    for (int i = 1; i < 20; i++) {
+      // Used more often than P0, so they displace it.
+      storage.products().get("P" + i);
+      storage.products().get("P" + i);
+    }
+    assertNull(((ProductCache) storage.products()).peek("P0"));
+
+    // Restocked elsewhere while evicted; the journal must not keep selling from its old quantity.
+    backing.stored().get("P0").setQuantity(9);
+    assertEquals(9, storage.products().get("P0").getQuantity());
+    assertEquals(Integer.valueOf(1), storage.writeOrder(Collections.singletonMap("P0", -8), sale("SO2", "P0", 8))
+        .get("P0"));
+    storage.close();
+  }
+}
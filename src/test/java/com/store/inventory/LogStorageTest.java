@@ -0,0 +1,143 @@
+package com.store.inventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class LogStorageTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-log");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  private LogStorage open(long compactMinBytes) {
+    LogStorage storage = new LogStorage(directory, 10_000, compactMinBytes, QUIET);
+    storage.open();
+    return storage;
+  }
+
+  private static Product product(String sku, int quantity) {
+    return new Product(sku, "Product " + sku, null, quantity, 12.5, "SUP1", "2024-03-01");
+  }
+
+  private static Order purchase(String id, String sku, int quantity) {
+    return new Order(id, "SUP1", Arrays.asList(new OrderItem(sku, "Product " + sku, quantity, 1250)),
+        LocalDate.of(2024, 3, 2));
+  }
+
+  public void testStateSurvivesReopen() {
+    LogStorage storage = open(LogStorage.DEFAULT_COMPACT_MIN_BYTES);
+    storage.saveProduct(product("A", 5));
+    storage.saveProduct(product("B", 1));
+    storage.saveSupplier(new Supplier("SUP1", "Acme", "acme@example.com"));
+    storage.products().put("A", product("A", 5));
+    assertEquals(Integer.valueOf(12), storage.writeOrder(Collections.singletonMap("A", 7), purchase("PO1", "A", 7))
+        .get("A"));
+    Product b = product("B", 3);
+    b.setPrice(2.25);
+    storage.updateProduct(b);
+    storage.removeProduct("A");
+    storage.close();
+
+    storage = open(LogStorage.DEFAULT_COMPACT_MIN_BYTES);
+    assertNull(storage.products().get("A"));
+    assertEquals(3, storage.products().get("B").getQuantity());
+    assertEquals(2.25, storage.products().get("B").getPrice());
+    assertEquals("Acme", storage.suppliers().get("SUP1").getName());
+    assertEquals(1, storage.orders().size());
+    assertEquals(8750, storage.orders().get(0).getTotal());
+    storage.close();
+  }
+
+  public void testTornTailIsDiscarded() throws IOException {
+    LogStorage storage = open(LogStorage.DEFAULT_COMPACT_MIN_BYTES);
+    storage.saveProduct(product("A", 5));
+    storage.flush();
+    long intact = Files.size(directory.resolve(LogStorage.LOG_FILE));
+    storage.saveProduct(product("B", 5));
+    storage.close();
+    try (RandomAccessFile raf = new RandomAccessFile(directory.resolve(LogStorage.LOG_FILE).toFile(), "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    storage = open(LogStorage.DEFAULT_COMPACT_MIN_BYTES);
+    assertEquals(Collections.singleton("A"), storage.products().keySet());
+    assertEquals(intact, Files.size(directory.resolve(LogStorage.LOG_FILE)));
+    storage.saveProduct(product("C", 1));
+    storage.close();
+    assertEquals(2, open(LogStorage.DEFAULT_COMPACT_MIN_BYTES).products().size());
+  }
+
+  public void testCompactionKeepsLiveState() throws IOException {
+    LogStorage storage = open(4096);
+    storage.saveProduct(product("A", 0));
+    storage.products().put("A", product("A", 0));
+    for (int i = 1; i <= 500; i++) {
+      Product a = product("A", i);
+      storage.updateProduct(a);
+      storage.products().get("A").setQuantity(i);
+      if (i % 50 == 0) {
+        storage.flush();
+      }
+    }
+    storage.close();
+    assertTrue(Files.size(directory.resolve(LogStorage.LOG_FILE)) < 4096);
+
+    storage = open(4096);
+    assertEquals(500, storage.products().get("A").getQuantity());
+    storage.close();
+  }
+
+  public void testRecordsPendingAtCompactionAreNotReplayedTwice() throws IOException {
+    LogStorage storage = open(LogStorage.DEFAULT_COMPACT_MIN_BYTES);
+    storage.saveProduct(product("A", 5));
+    storage.products().put("A", product("A", 5));
+    storage.flush();
+    // Appended after the sync forced the log and before it compacted.
+    storage.writeOrder(Collections.singletonMap("A", 7), purchase("PO1", "A", 7));
+    storage.products().get("A").setQuantity(12);
+    storage.compact();
+    storage.close();
+
+    storage = open(LogStorage.DEFAULT_COMPACT_MIN_BYTES);
+    assertEquals(12, storage.products().get("A").getQuantity());
+    assertEquals(1, storage.orders().size());
+    storage.close();
+  }
+
+  public void testShortStockWritesNothing() {
+    LogStorage storage = open(LogStorage.DEFAULT_COMPACT_MIN_BYTES);
+    storage.saveProduct(product("A", 2));
+    storage.products().put("A", product("A", 2));
+    try {
+      storage.writeOrder(Collections.singletonMap("A", -3), purchase("SO1", "A", 3));
+      fail("Expected insufficient stock");
+    } catch (InsufficientStockException e) {
+      assertEquals(2, e.getAvailable());
+    }
+    assertTrue(storage.orders().isEmpty());
+    storage.close();
+    assertTrue(open(LogStorage.DEFAULT_COMPACT_MIN_BYTES).orders().isEmpty());
+  }
+}
@@ -0,0 +1,44 @@
+package com.store.inventory;
+
+import java.io.StringWriter;
+import junit.framework.TestCase;
+
+public class MetricsTest extends TestCase {
+  public void testBucketsCoverEveryValueInOrder() {
+    long previous = -1;
+    for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789, 1L << 40}) {
+      int bucket = LatencyHistogram.bucket(value);
+      assertTrue(value <= LatencyHistogram.highestValue(bucket));
+      assertTrue(bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1));
+      assertTrue(bucket >= previous);
+      previous = bucket;
+    }
+  }
+
+  public void testPercentilesWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100000; i++) {
+      histogram.record(i * 1000L);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100000, snapshot.getCount());
+    assertEquals(100_000_000L, snapshot.getMax());
+    assertEquals(50_000_500.0, snapshot.getMean(), 1);
+    assertEquals(50_000_000, snapshot.getValueAt(0.5), 50_000_000 / 32.0);
+    assertEquals(99_000_000, snapshot.getValueAt(0.99), 99_000_000 / 32.0);
+    assertEquals(100_000_000L, snapshot.getValueAt(1));
+  }
+
+  public void testPrometheusText() throws Exception {
+    Metrics.STORAGE.get("test-op").record(2_000_000);
+    Metrics.CACHE.get("test", "hit").add(3);
+    StringWriter out = new StringWriter();
+    Metrics.writePrometheus(out);
+    String text = out.toString();
+    assertTrue(text.contains("# TYPE inventory_storage_seconds summary\n"));
+    assertTrue(text.contains("inventory_storage_seconds{operation=\"test-op\",quantile=\"0.5\"} 0.002"));
+    assertTrue(text.contains("inventory_storage_seconds_count{operation=\"test-op\"} 1\n"));
+    assertTrue(text.contains("# TYPE inventory_cache_requests_total counter\n"));
+    assertTrue(text.contains("inventory_cache_requests_total{cache=\"test\",result=\"hit\"} 3\n"));
+  }
+}
@@ -0,0 +1,95 @@
+package com.store.inventory;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Date;
+import junit.framework.TestCase;
+
+public class ModelCodecsTest extends TestCase {
+  private static <T> T roundTrip(Codec<T> codec, T value) {
+    BasicOutputBuffer buffer = new BasicOutputBuffer();
+    codec.encode(new BsonBinaryWriter(buffer), value, EncoderContext.builder().build());
+    return codec.decode(new BsonBinaryReader(ByteBuffer.wrap(buffer.toByteArray())),
+        DecoderContext.builder().build());
+  }
+
+  private static BsonDocument encode(Codec<Order> codec, Order order) {
+    BsonDocument doc = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(doc), order, EncoderContext.builder().build());
+    return doc;
+  }
+
+  private static <T> T decode(Class<T> type, Document doc) {
+    BsonDocument bson = doc.toBsonDocument(BsonDocument.class, ModelCodecs.REGISTRY);
+    return ModelCodecs.REGISTRY.get(type).decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+  }
+
+  public void testModelsSurviveARoundTrip() {
+    Product product = roundTrip(ModelCodecs.PRODUCT, new Product("A1", "Apple", null, 7, 1.25, "S1", "2024-03-01"));
+    assertEquals("A1", product.getSku());
+    assertNull(product.getDescription());
+    assertEquals(7, product.getQuantity());
+    assertEquals(1.25, product.getPrice());
+    assertEquals("2024-03-01", product.getDateReceived());
+
+    Supplier supplier = roundTrip(ModelCodecs.SUPPLIER, new Supplier("S1", "Fresh Co", "fresh@example.com"));
+    assertEquals("fresh@example.com", supplier.getContact());
+
+    LocalDate date = LocalDate.of(2024, 2, 29);
+    SellOrder sale = (SellOrder) roundTrip(ModelCodecs.ORDER, new SellOrder("O1", "Ann",
+        Arrays.asList(new OrderItem("A1", "Apple", 2, 125), new OrderItem("B2", "Bean", 1, 300)), date));
+    assertEquals("Ann", sale.getCustomerName());
+    assertEquals(date, sale.getOrderDate());
+    assertEquals(550, sale.getTotal());
+    assertEquals("Bean", sale.getItems().get(1).getName());
+
+    Order purchase = roundTrip(ModelCodecs.ORDER,
+        new Order("P1", "S1", Arrays.asList(new OrderItem("A1", "Apple", 5, 100)), LocalDate.of(1969, 12, 31)));
+    assertFalse(purchase instanceof SellOrder);
+    assertEquals("S1", purchase.getSupplierId());
+    assertEquals(LocalDate.of(1969, 12, 31), purchase.getOrderDate());
+  }
+
+  public void testOrderDatesAreStoredAsDates() {
+    LocalDate date = LocalDate.of(2024, 5, 6);
+    BsonDocument doc = encode(ModelCodecs.ORDER, new Order("P1", "S1", Arrays.asList(new OrderItem("A1", 1)), date));
+    assertEquals(BsonType.DATE_TIME, doc.get("orderDate").getBsonType());
+    assertEquals(ModelCodecs.toDateTime(date), doc.get("orderDate"));
+
+    // As a change stream delivers it, a Document with a java.util.Date.
+    Document changed = Document.parse(doc.toJson());
+    assertTrue(changed.get("orderDate") instanceof Date);
+    assertEquals(date, App.toOrder(changed).getOrderDate());
+  }
+
+  public void testReadsDocumentsWrittenBeforeTheCodecs() {
+    LocalDate date = LocalDate.of(2023, 11, 2);
+    Document legacy = App.toDocument(new SellOrder("O1", "Ann", Arrays.asList(new OrderItem("A1", "Apple", 3, 125)),
+        date));
+    assertEquals("2023-11-02", legacy.get("orderDate"));
+    Order order = decode(Order.class, legacy);
+    assertEquals(date, order.getOrderDate());
+    assertEquals(375, order.getTotal());
+    assertTrue(order instanceof SellOrder);
+    assertSame(ModelCodecs.ORDER, ModelCodecs.REGISTRY.get(SellOrder.class));
+
+    // Numbers written by other tools and fields the model does not have.
+    Product product = decode(Product.class, new Document("_id", "A1").append("name", "Apple")
+        .append("quantity", 4L).append("price", 2).append("tags", Arrays.asList("fruit")));
+    assertEquals(4, product.getQuantity());
+    assertEquals(2.0, product.getPrice());
+    assertNull(product.getSupplierId());
+  }
+}
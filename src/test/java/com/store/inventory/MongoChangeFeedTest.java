@@ -0,0 +1,146 @@
+package com.store.inventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+public class MongoChangeFeedTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+  private LogStorage storage;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-changes");
+    storage = new LogStorage(directory, 10_000, LogStorage.DEFAULT_COMPACT_MIN_BYTES, QUIET);
+    App.useStorage(storage);
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    storage.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static Product product(String sku, String name, int quantity, double price) {
+    return new Product(sku, name, "", quantity, price, "S1", "2024-01-01");
+  }
+
+  private static BsonDocument bson(Document doc) {
+    return doc.toBsonDocument(BsonDocument.class, ModelCodecs.REGISTRY);
+  }
+
+  public void testBurstsKeepTheLatestStatePerDocument() {
+    MongoChangeFeed.Batch batch = new MongoChangeFeed.Batch();
+    for (int i = 1; i <= 100; i++) {
+      batch.add("products", "A", bson(App.toDocument(product("A", "Apple", i, 1.0))));
+    }
+    batch.add("products", "B", bson(App.toDocument(product("B", "Bean", 1, 1.0))));
+    batch.add("products", "B", null);
+    batch.add("suppliers", "S1", bson(new Document("_id", "S1").append("name", "Acme").append("contact", "x")));
+    SellOrder order = new SellOrder("O1", "C", Collections.singletonList(new OrderItem("A", "Apple", 2, 100)),
+        LocalDate.now());
+    batch.add("orders", "O1", bson(App.toDocument(order)));
+    batch.add("orders", "O2", null);
+    assertEquals(105, batch.size());
+
+    Map<String, Product> products = new HashMap<>();
+    List<Order> orders = new ArrayList<>();
+    batch.deliver(new MongoChangeFeed.Handler() {
+      @Override
+      public void productsChanged(Map<String, Product> changed) {
+        products.putAll(changed);
+      }
+
+      @Override
+      public void suppliersChanged(Map<String, Supplier> changed) {
+        assertEquals("Acme", changed.get("S1").getName());
+      }
+
+      @Override
+      public void ordersAdded(List<Order> added) {
+        orders.addAll(added);
+      }
+    });
+    assertEquals(100, products.get("A").getQuantity());
+    assertTrue(products.containsKey("B"));
+    assertNull(products.get("B"));
+    assertEquals(1, orders.size());
+    assertTrue(orders.get(0) instanceof SellOrder);
+  }
+
+  public void testRemoteChangesReachTheMapsAndIndexes() {
+    App.putProduct(product("P1", "Green tea", 10, 2.0));
+    MongoChangeFeed.Handler remote = App.remoteChanges();
+    long value = App.valuation().total().getValue();
+
+    Map<String, Product> changes = new LinkedHashMap<>();
+    changes.put("P2", product("P2", "Black coffee", 5, 3.0));
+    changes.put("P1", product("P1", "Green tea", 7, 2.5));
+    remote.productsChanged(changes);
+    assertEquals(7, App.inventory().get("P1").getQuantity());
+    assertEquals(2.5, App.inventory().get("P1").getPrice());
+    assertEquals("P2", App.productIndex().searchText("coffee", 10).get(0).getSku());
+    assertEquals(value - 2000 + 1750 + 1500, App.valuation().total().getValue());
+
+    // A held reservation stays held back from a remote quantity.
+    StockEngine.Reservation reservation = App.stockEngine().newReservation();
+    reservation.add("P2", 2);
+    remote.productsChanged(Collections.singletonMap("P2", product("P2", "Black coffee, roasted", 9, 3.0)));
+    assertEquals(7, App.inventory().get("P2").getQuantity());
+    assertEquals("P2", App.productIndex().searchText("roasted", 10).get(0).getSku());
+    reservation.release();
+    assertEquals(9, App.inventory().get("P2").getQuantity());
+
+    remote.productsChanged(Collections.singletonMap("P1", null));
+    assertNull(App.inventory().get("P1"));
+    assertTrue(App.productIndex().searchText("tea", 10).isEmpty());
+
+    remote.ordersAdded(Collections.singletonList(new Order("R1", "S1",
+        Collections.singletonList(new OrderItem("P2", "Black coffee", 1, 300)), LocalDate.now())));
+    assertEquals("R1", App.orders().get(App.orders().size() - 1).getOrderId());
+  }
+
+  public void testDocumentsFromOtherWritersDecodeOrFailAlone() {
+    MongoChangeFeed.Batch batch = new MongoChangeFeed.Batch();
+    // Another tool's integer price and missing quantity.
+    batch.add("products", "A", bson(new Document("_id", "A").append("name", "Apple").append("price", 2)));
+    try {
+      batch.add("orders", "O1", bson(new Document("_id", "O1").append("orderDate", "soon")));
+      fail();
+    } catch (RuntimeException expected) {
+    }
+    assertEquals(1, batch.size());
+    Map<String, Product> products = new HashMap<>();
+    batch.deliver(new MongoChangeFeed.Handler() {
+      @Override
+      public void productsChanged(Map<String, Product> changed) {
+        products.putAll(changed);
+      }
+
+      @Override
+      public void suppliersChanged(Map<String, Supplier> suppliers) {
+      }
+
+      @Override
+      public void ordersAdded(List<Order> orders) {
+        fail();
+      }
+    });
+    assertEquals(2.0, products.get("A").getPrice());
+    assertEquals(0, products.get("A").getQuantity());
+  }
+}
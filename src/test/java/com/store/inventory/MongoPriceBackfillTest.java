@@ -0,0 +1,24 @@
+package com.store.inventory;
+
+import java.util.*;
+import junit.framework.TestCase;
+import org.bson.Document;
+
+public class MongoPriceBackfillTest extends TestCase {
+  public void testOnlyUnpricedLinesTakeTheCurrentPrice() {
+    Map<String, Document> products = new HashMap<>();
+    products.put("A", new Document("_id", "A").append("name", "Apple").append("price", 1.25));
+    Set<String> unknown = new TreeSet<>();
+    List<Document> items = MongoPriceBackfill.priceLines(Arrays.asList(
+        new Document("sku", "A").append("quantity", 4),
+        new Document("sku", "A").append("name", "Old apple").append("quantity", 1).append("unitPrice", 99L),
+        new Document("sku", "GONE").append("quantity", 2)), products, unknown);
+
+    assertEquals(125L, items.get(0).get("unitPrice"));
+    assertEquals("Apple", items.get(0).getString("name"));
+    assertEquals(99L, items.get(1).get("unitPrice"));
+    assertEquals("Old apple", items.get(1).getString("name"));
+    assertEquals(0L, items.get(2).get("unitPrice"));
+    assertEquals(Collections.singleton("GONE"), unknown);
+  }
+}
@@ -0,0 +1,174 @@
+package com.store.inventory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoSocketOpenException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.*;
+import junit.framework.TestCase;
+
+public class MongoWriteBehindTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  /** Records the bulk writes sent to a collection, first throwing whatever is queued in {@code failures}. */
+  private static final class FakeCollection {
+    final List<List<? extends WriteModel<?>>> writes = new ArrayList<>();
+    final Deque<RuntimeException> failures = new ArrayDeque<>();
+
+    @SuppressWarnings("unchecked")
+    <T> MongoCollection<T> collection() {
+      return (MongoCollection<T>) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] {MongoCollection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "bulkWrite":
+                if (!failures.isEmpty()) {
+                  throw failures.poll();
+                }
+                writes.add((List<? extends WriteModel<?>>) args[0]);
+                return BulkWriteResult.unacknowledged();
+              case "toString":
+                return "fake collection";
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+    }
+  }
+
+  private final FakeCollection products = new FakeCollection();
+  private final FakeCollection orders = new FakeCollection();
+  private MongoWriteBehind writeBehind;
+
+  @Override
+  protected void setUp() {
+    // Neither the batch size nor the timer flushes; the tests flush themselves.
+    writeBehind = new MongoWriteBehind(products.collection(), new FakeCollection().collection(), orders.collection(),
+        Integer.MAX_VALUE, 3_600_000, QUIET);
+  }
+
+  @Override
+  protected void tearDown() {
+    writeBehind.close();
+  }
+
+  private static Product product(String sku, int quantity) {
+    return new Product(sku, "Product " + sku, null, quantity, 12.5, "SUP1", "2024-03-01");
+  }
+
+  private static Document set(String field, Object value) {
+    return new Document(field, value);
+  }
+
+  private static Order order(String id) {
+    return new Order(id, "SUP1", Arrays.asList(new OrderItem("A", "Product A", 1, 1250)), LocalDate.of(2024, 3, 2));
+  }
+
+  public void testUpdatesMergeIntoABufferedInsert() {
+    Product a = product("A", 5);
+    writeBehind.insertProduct(a);
+    a.setQuantity(99);
+    writeBehind.updateProduct("A", set("quantity", 4));
+    writeBehind.updateProduct("A", set("price", 2.5));
+
+    List<WriteModel<Product>> writes = writeBehind.pendingProductWrites();
+    assertEquals(1, writes.size());
+    Product sent = ((InsertOneModel<Product>) writes.get(0)).getDocument();
+    assertEquals(4, sent.getQuantity());
+    assertEquals(2.5, sent.getPrice());
+    assertEquals(2, writeBehind.getStats().getMerged());
+  }
+
+  public void testUpdatesMergeIntoOneSet() {
+    writeBehind.updateProduct("A", set("quantity", 4));
+    writeBehind.updateProduct("A", set("price", 2.5));
+    writeBehind.updateProduct("A", set("quantity", 3));
+
+    List<WriteModel<Product>> writes = writeBehind.pendingProductWrites();
+    assertEquals(1, writes.size());
+    assertEquals(new Document("$set", new Document("quantity", 3).append("price", 2.5)),
+        ((UpdateOneModel<Product>) writes.get(0)).getUpdate());
+  }
+
+  public void testInsertAfterDeleteBecomesAReplace() {
+    writeBehind.deleteProduct("A");
+    writeBehind.insertProduct(product("A", 7));
+    writeBehind.updateProduct("A", set("quantity", 6));
+
+    List<WriteModel<Product>> writes = writeBehind.pendingProductWrites();
+    assertEquals(1, writes.size());
+    ReplaceOneModel<Product> replace = (ReplaceOneModel<Product>) writes.get(0);
+    assertTrue(replace.getReplaceOptions().isUpsert());
+    assertEquals(6, replace.getReplacement().getQuantity());
+  }
+
+  public void testDeleteWinsOverEarlierAndLaterWrites() {
+    writeBehind.insertProduct(product("A", 5));
+    writeBehind.updateProduct("B", set("quantity", 1));
+    writeBehind.deleteProduct("A");
+    writeBehind.deleteProduct("B");
+    writeBehind.updateProduct("B", set("quantity", 2));
+
+    List<WriteModel<Product>> writes = writeBehind.pendingProductWrites();
+    assertEquals(2, writes.size());
+    assertTrue(writes.get(0) instanceof DeleteOneModel);
+    assertTrue(writes.get(1) instanceof DeleteOneModel);
+    assertEquals(3, writeBehind.getStats().getMerged());
+  }
+
+  public void testUnsentWritesAreRetriedBeforeNewerOnes() {
+    products.failures.add(new MongoSocketOpenException("Connection refused", new ServerAddress()));
+    orders.failures.add(new MongoSocketOpenException("Connection refused", new ServerAddress()));
+    writeBehind.insertProduct(product("A", 5));
+    writeBehind.insertOrder(order("PO1"));
+    assertFalse(writeBehind.flushIfDue());
+    assertTrue(products.writes.isEmpty());
+    assertTrue(writeBehind.isPending("A"));
+
+    writeBehind.updateProduct("A", set("quantity", 4));
+    assertFalse(writeBehind.flushIfDue());
+    assertTrue("newer writes wait for the retry", products.writes.isEmpty());
+
+    // Unlike the background flushes, flush() waits out the pause rather than return with writes unsent.
+    writeBehind.flush();
+    assertEquals(2, products.writes.size());
+    assertEquals(5, ((Product) ((InsertOneModel<?>) products.writes.get(0).get(0)).getDocument()).getQuantity());
+    assertTrue(products.writes.get(1).get(0) instanceof UpdateOneModel);
+    assertEquals(1, orders.writes.size());
+    assertFalse(writeBehind.isPending("A"));
+  }
+
+  public void testFlushRetriesUntilTheWritesGoOut() {
+    for (int i = 0; i < 3; i++) {
+      products.failures.add(new MongoSocketOpenException("Connection refused", new ServerAddress()));
+    }
+    writeBehind.insertProduct(product("A", 5));
+    writeBehind.flush();
+    assertEquals(1, products.writes.size());
+    assertFalse(writeBehind.isPending("A"));
+  }
+
+  public void testRefusedWritesAreNotRetried() throws InterruptedException {
+    orders.failures.add(new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+        Arrays.asList(new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0)), null,
+        new ServerAddress()));
+    writeBehind.insertOrder(order("PO1"));
+    writeBehind.flush();
+    Thread.sleep(MongoWriteBehind.FIRST_RETRY_MS + 50);
+    writeBehind.flush();
+    assertTrue(orders.writes.isEmpty());
+    assertEquals(1, writeBehind.getStats().getFailures());
+  }
+}
@@ -0,0 +1,141 @@
+package com.store.inventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class OrderArchiveTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-archive");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /** One order a day from 2023-01-01, each for SKU "S" plus its weekday; every tenth is a purchase. */
+  private static List<Order> orders(int days) {
+    List<Order> orders = Collections.synchronizedList(new ArrayList<>());
+    LocalDate first = LocalDate.of(2023, 1, 1);
+    for (int i = 0; i < days; i++) {
+      LocalDate date = first.plusDays(i);
+      List<OrderItem> items = Collections.singletonList(
+          new OrderItem("S" + date.getDayOfWeek().getValue(), "Item", i + 1, 250));
+      orders.add(i % 10 == 0 ? new Order("B" + i, "SUP", items, date) : new SellOrder("O" + i, "C" + i, items, date));
+    }
+    return orders;
+  }
+
+  public void testOldOrdersMoveIntoMonthlySegments() throws IOException {
+    List<Order> orders = orders(120);
+    OrderArchive archive = new OrderArchive(directory, QUIET);
+    archive.open();
+    assertEquals(90, archive.archive(orders, LocalDate.of(2023, 4, 1)));
+    assertEquals(30, orders.size());
+    assertEquals(LocalDate.of(2023, 4, 1), orders.get(0).getOrderDate());
+    assertEquals(3, archive.segmentCount());
+
+    OrderArchive reopened = new OrderArchive(directory, QUIET);
+    reopened.open();
+    assertEquals(90, reopened.orderCount());
+    Order purchase = reopened.find("B10");
+    assertEquals("SUP", purchase.getSupplierId());
+    assertEquals(11 * 250, purchase.getTotal());
+    SellOrder sale = (SellOrder) reopened.find("O11");
+    assertEquals("C11", sale.getCustomerName());
+    assertNull(reopened.find("O100"));
+  }
+
+  public void testQueriesSkipSegmentsOutsideTheRangeOrWithoutTheSku() throws IOException {
+    List<Order> orders = orders(365);
+    // Drop SKU S3 from everything but March.
+    orders.replaceAll(order -> order.getOrderDate().getMonthValue() != 3
+        && order.getItems().get(0).getSku().equals("S3")
+        ? new SellOrder(order.getOrderId(), "C", Collections.singletonList(new OrderItem("S9", "Item", 1, 1)),
+            order.getOrderDate())
+        : order);
+    OrderArchive archive = new OrderArchive(directory, QUIET);
+    archive.open();
+    archive.archive(orders, LocalDate.of(2024, 1, 1));
+
+    OrderArchive.Scan february = archive.query(LocalDate.of(2023, 2, 10), LocalDate.of(2023, 2, 12), null);
+    assertEquals(3, february.getOrders().size());
+    assertEquals(1, february.getSegmentsScanned());
+    assertEquals(11, february.getSegmentsSkipped());
+    assertEquals(28, february.getOrdersRead());
+    assertTrue(february.getBytesRead() > 0);
+
+    OrderArchive.Scan s3 = archive.query(null, null, "S3");
+    assertEquals(5, s3.getOrders().size());
+    // A false positive may cost a segment now and then, but most are skipped.
+    assertTrue(s3.toString(), s3.getSegmentsScanned() <= 3);
+    for (Order order : s3.getOrders()) {
+      assertEquals(3, order.getOrderDate().getMonthValue());
+    }
+  }
+
+  public void testArchivingAgainAddsOnlyNewOrders() throws IOException {
+    OrderArchive archive = new OrderArchive(directory, QUIET);
+    archive.open();
+    archive.archive(orders(40), LocalDate.of(2023, 2, 1));
+    // As after a crash between writing the segments and dropping the orders from memory.
+    List<Order> again = orders(45);
+    assertEquals(45, archive.archive(again, LocalDate.of(2023, 2, 15)));
+    assertTrue(again.isEmpty());
+    assertEquals(45, archive.orderCount());
+    assertEquals(14, archive.query(LocalDate.of(2023, 2, 1), null, null).getOrders().size());
+  }
+
+  public void testOrdersLoadedAgainAreNotMergedAgain() throws IOException {
+    OrderArchive archive = new OrderArchive(directory, QUIET);
+    archive.open();
+    archive.archive(orders(90), LocalDate.of(2023, 3, 1));
+
+    // As MongoDB hands back every archived order on the next start.
+    OrderArchive reopened = new OrderArchive(directory, QUIET);
+    reopened.open();
+    List<Order> again = orders(90);
+    again.add(new SellOrder("LATE", "C", Collections.singletonList(new OrderItem("S1", "Item", 1, 1)),
+        LocalDate.of(2023, 1, 15)));
+    long merged = Metrics.ARCHIVE.get("segments-merged").sum();
+    assertEquals(60, reopened.archive(again, LocalDate.of(2023, 3, 1)));
+    // Only January has an order missing from its header.
+    assertEquals(merged + 1, Metrics.ARCHIVE.get("segments-merged").sum());
+    assertEquals(60, reopened.orderCount());
+    assertNotNull(reopened.find("LATE"));
+  }
+
+  public void testLateOrdersAreNeverTakenAsArchived() throws IOException {
+    OrderArchive archive = new OrderArchive(directory, QUIET);
+    archive.open();
+    archive.archive(orders(31), LocalDate.of(2023, 2, 1));
+
+    // Enough late orders that a filter with a 1% false-positive rate would have dropped some unwritten.
+    List<Order> late = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 2000; i++) {
+      late.add(new SellOrder("LATE" + i, "C", Collections.singletonList(new OrderItem("S1", "Item", 1, 1)),
+          LocalDate.of(2023, 1, 1 + i % 31)));
+    }
+    assertEquals(2000, archive.archive(late, LocalDate.of(2023, 2, 1)));
+    assertEquals(2031, archive.orderCount());
+    for (int i = 0; i < 2000; i += 97) {
+      assertNotNull(archive.find("LATE" + i));
+    }
+  }
+}
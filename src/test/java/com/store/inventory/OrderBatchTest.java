@@ -0,0 +1,120 @@
+package com.store.inventory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class OrderBatchTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+  private LogStorage storage;
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("inventory-batch");
+    storage = new LogStorage(directory, 10_000, LogStorage.DEFAULT_COMPACT_MIN_BYTES, QUIET);
+    App.useStorage(storage);
+    App.putProduct(new Product("A", "Apple", "", 10, 1.5, "S1", "2024-01-01"));
+    App.putProduct(new Product("B", "Bean", "", 3, 2.0, "S1", "2024-01-01"));
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    storage.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static List<OrderItem> lines(Object... skuAndQuantity) {
+    List<OrderItem> items = new ArrayList<>();
+    for (int i = 0; i < skuAndQuantity.length; i += 2) {
+      items.add(new OrderItem((String) skuAndQuantity[i], (Integer) skuAndQuantity[i + 1]));
+    }
+    return items;
+  }
+
+  private static SellOrder sale(String orderId, Object... skuAndQuantity) {
+    return new SellOrder(orderId, "Till", lines(skuAndQuantity), LocalDate.now());
+  }
+
+  public void testEarlierSalesWinTheLastUnitsAndBadOrdersAreRejectedAlone() {
+    int before = App.orders().size();
+    OrderBatch.Result result = OrderBatch.place(Arrays.asList(
+        sale("S1", "A", 4, "B", 2),
+        new Order("P1", "S1", lines("B", 5), LocalDate.now()),
+        sale("S2", "B", 2),
+        sale("S3", "A", 6),
+        sale("S4", "X", 1, "A", 0),
+        sale("S1", "A", 1)));
+
+    assertEquals(Arrays.asList("S1", "P1", "S3"), ids(result.getPlaced()));
+    assertEquals(new HashSet<>(Arrays.asList(2, 4, 5)), result.getRejected().keySet());
+    // The purchase in the batch does not count towards its sales.
+    assertTrue(result.getRejected().get(2), result.getRejected().get(2).contains("B (available 1)"));
+    assertTrue(result.getRejected().get(4).contains("Product not found: X"));
+    assertTrue(result.getRejected().get(4).contains("A: quantity must be positive"));
+
+    assertEquals(0, App.inventory().get("A").getQuantity());
+    assertEquals(6, App.inventory().get("B").getQuantity());
+    assertStored("A", 0);
+    assertStored("B", 6);
+    assertEquals(before + 3, App.orders().size());
+    assertEquals(150 * 4 + 200 * 2, result.getPlaced().get(0).getTotal());
+  }
+
+  public void testStorageWritesNothingWhenOneOrderIsShort() {
+    List<Map<String, Integer>> deltas = Arrays.asList(Collections.singletonMap("A", -5),
+        Collections.singletonMap("A", -6));
+    try {
+      storage.writeOrders(deltas, Arrays.asList(sale("S1", "A", 5), sale("S2", "A", 6)));
+      fail();
+    } catch (InsufficientStockException e) {
+      assertEquals("A", e.getSku());
+      assertEquals(5, e.getAvailable());
+    }
+    assertStored("A", 10);
+  }
+
+  public void testReadsOrderLinesAndNamesTheBadOne() throws IOException {
+    List<Order> orders = OrderBatch.read(new BufferedReader(new StringReader(
+        "# opening stock\nreceive-order|P1|S1|A:5,B:1\nsell-order|S1|Ann|A:2\n")));
+    assertEquals(2, orders.size());
+    assertTrue(orders.get(1) instanceof SellOrder);
+    assertEquals(2, orders.get(0).getItems().size());
+    try {
+      OrderBatch.read(new BufferedReader(new StringReader("sell-order|S1|Ann|A:2\nsell-order|S2|Bob|A:x\n")));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2: "));
+    }
+  }
+
+  private void assertStored(String sku, int quantity) {
+    try {
+      storage.writeOrder(Collections.singletonMap(sku, -quantity - 1), sale("CHECK", sku, quantity + 1));
+      fail();
+    } catch (InsufficientStockException e) {
+      assertEquals(quantity, e.getAvailable());
+    }
+  }
+
+  private static List<String> ids(List<Order> orders) {
+    List<String> ids = new ArrayList<>();
+    for (Order order : orders) {
+      ids.add(order.getOrderId());
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,29 @@
+package com.store.inventory;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.bson.Document;
+import junit.framework.TestCase;
+
+public class OrderTest extends TestCase {
+  public void testTotalIsSumOfPricedLines() {
+    Order order = new Order("PO1", "SUP1", Arrays.asList(
+        new OrderItem("A", "Apple", 3, 1999),
+        new OrderItem("B", "Bread", 2, 4550)), LocalDate.of(2024, 1, 1));
+    assertEquals(3 * 1999 + 2 * 4550, order.getTotal());
+  }
+
+  public void testDocumentKeepsLineSnapshot() {
+    SellOrder order = new SellOrder("SO1", "Asha", Arrays.asList(new OrderItem("A", "Apple", 3, 1999)),
+        LocalDate.of(2024, 1, 1));
+    Document doc = App.toDocument(order);
+    assertEquals(Long.valueOf(5997), doc.get("total"));
+
+    Order loaded = App.toOrder(Document.parse(doc.toJson()));
+    assertTrue(loaded instanceof SellOrder);
+    OrderItem item = loaded.getItems().get(0);
+    assertEquals("Apple", item.getName());
+    assertEquals(1999, item.getUnitPrice());
+    assertEquals(5997, loaded.getTotal());
+  }
+}
@@ -0,0 +1,191 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class ProductCacheTest extends TestCase {
+  /** Products in a map, counting the loads and their SKUs. */
+  private static class MapSource implements ProductCache.Source {
+    final Map<String, Product> stored = new TreeMap<>();
+    final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+    volatile CountDownLatch gate;
+
+    MapSource(int count) {
+      for (int i = 0; i < count; i++) {
+        put(product("P" + i, i));
+      }
+    }
+
+    void put(Product product) {
+      stored.put(product.getSku(), product);
+    }
+
+    @Override
+    public Map<String, Product> load(Collection<String> skus) {
+      CountDownLatch wait = gate;
+      if (wait != null) {
+        try {
+          wait.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      batches.add(skus.size());
+      Map<String, Product> result = new HashMap<>();
+      for (String sku : skus) {
+        Product product = stored.get(sku);
+        if (product != null) {
+          result.put(sku, copy(product));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public Iterator<Product> scan() {
+      List<Product> copies = new ArrayList<>();
+      stored.values().forEach(product -> copies.add(copy(product)));
+      return copies.iterator();
+    }
+
+    @Override
+    public int count() {
+      return stored.size();
+    }
+  }
+
+  private static Product product(String sku, int quantity) {
+    return new Product(sku, "Product " + sku, "", quantity, 10.0, "S1", "2024-01-01");
+  }
+
+  private static Product copy(Product product) {
+    return product(product.getSku(), product.getQuantity());
+  }
+
+  public void testMissesLoadInOneBatchAndHitsStayCached() {
+    MapSource source = new MapSource(100);
+    ProductCache cache = new ProductCache(50, source);
+    Map<String, Product> found = cache.getAll(Arrays.asList("P1", "P2", "P3", "nope", "P2"));
+    assertEquals(3, found.size());
+    assertEquals(Collections.singletonList(4), source.batches);
+
+    Product first = cache.get("P1");
+    assertSame(found.get("P1"), first);
+    assertNull(cache.get("nope"));
+    assertFalse(cache.containsKey("nope"));
+    assertEquals(3, source.batches.size());
+    assertEquals(3, cache.cachedCount());
+    assertEquals(100, cache.size());
+  }
+
+  public void testFrequentlyUsedEntriesSurviveAScan() {
+    MapSource source = new MapSource(20000);
+    ProductCache cache = new ProductCache(100, source);
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 50; i++) {
+        cache.get("P" + i);
+      }
+    }
+    for (int i = 1000; i < 20000; i++) {
+      cache.get("P" + i);
+    }
+    int batches = source.batches.size();
+    for (int i = 0; i < 50; i++) {
+      cache.get("P" + i);
+    }
+    // Pure LRU would have lost all of them to the scan.
+    assertTrue(source.batches.size() - batches < 5);
+    assertTrue(cache.getEvictions() > 0);
+    assertTrue(cache.cachedCount() <= 100);
+  }
+
+  public void testConcurrentMissesShareBatches() throws Exception {
+    MapSource source = new MapSource(100);
+    ProductCache cache = new ProductCache(100, source);
+    source.gate = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(40);
+    try {
+      List<Future<Product>> lookups = new ArrayList<>();
+      for (int i = 0; i < 40; i++) {
+        String sku = "P" + i;
+        lookups.add(pool.submit(() -> cache.get(sku)));
+      }
+      Thread.sleep(200);
+      source.gate.countDown();
+      for (int i = 0; i < lookups.size(); i++) {
+        assertEquals("P" + i, lookups.get(i).get(5, TimeUnit.SECONDS).getSku());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    // The first load holds the others back until it returns, so they follow in one or a few batches.
+    int loaded = 0;
+    for (int size : source.batches) {
+      loaded += size;
+    }
+    assertEquals(40, loaded);
+    assertTrue(source.batches.toString(), source.batches.size() <= 3);
+  }
+
+  public void testWritesReplaceTheCachedProduct() {
+    MapSource source = new MapSource(10);
+    ProductCache cache = new ProductCache(10, source);
+    Product replacement = product("P1", 99);
+    Product previous = cache.put("P1", replacement);
+    assertEquals(1, previous.getQuantity());
+    assertSame(replacement, cache.get("P1"));
+    assertNull(cache.put("P20", product("P20", 5)));
+
+    Product cached = cache.get("P2");
+    for (Map.Entry<String, Product> entry : cache.entrySet()) {
+      if (entry.getKey().equals("P2")) {
+        assertSame(cached, entry.getValue());
+      }
+    }
+    assertEquals(2, cache.remove("P2").getQuantity());
+    assertNull(cache.peek("P2"));
+    assertNull(cache.remove("missing"));
+  }
+
+  public void testLoadListenersSeeEachBatchBeforeItIsUsed() {
+    MapSource source = new MapSource(10);
+    ProductCache cache = new ProductCache(10, source);
+    List<String> asked = new ArrayList<>();
+    Map<String, Product> seen = new HashMap<>();
+    cache.addLoadListener((skus, loaded) -> {
+      asked.addAll(skus);
+      seen.putAll(loaded);
+    });
+    cache.getAll(Arrays.asList("P1", "P2", "missing"));
+    cache.get("P1");
+    assertEquals(new HashSet<>(Arrays.asList("P1", "P2", "missing")), new HashSet<>(asked));
+    assertEquals(new HashSet<>(Arrays.asList("P1", "P2")), seen.keySet());
+    assertSame(cache.peek("P1"), seen.get("P1"));
+    assertEquals(2, cache.cachedProducts().size());
+  }
+
+  public void testEvictionListenersSeeEachProductEvicted() {
+    MapSource source = new MapSource(100);
+    ProductCache cache = new ProductCache(10, source);
+    Set<String> evicted = new HashSet<>();
+    cache.addEvictionListener(sku -> {
+      // Listeners run without the cache's lock held.
+      assertFalse(Thread.holdsLock(cache));
+      evicted.add(sku);
+    });
+    for (int i = 0; i < 100; i++) {
+      cache.get("P" + i);
+    }
+    cache.put("extra", product("extra", 1));
+    assertEquals(cache.getEvictions(), evicted.size());
+    for (String sku : evicted) {
+      assertNull(cache.peek(sku));
+    }
+    assertEquals(101 - evicted.size(), cache.cachedCount());
+  }
+}
@@ -0,0 +1,56 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import junit.framework.TestCase;
+
+public class ProductIndexTest extends TestCase {
+  private Map<String, Product> inventory;
+  private ProductIndex index;
+
+  @Override
+  protected void setUp() {
+    inventory = new ConcurrentHashMap<>();
+    add(new Product("A1", "Red Widget", "Small steel widget", 5, 2.5, "SUP1", "2024-01-10"));
+    add(new Product("A2", "Blue Widget", "Large widget", 3, 4.0, "SUP2", "2024-02-01"));
+    add(new Product("B1", "Garden Hose", "Green rubber hose, 20m", 8, 12.0, "SUP1", "2024-03-15"));
+    index = new ProductIndex(inventory);
+  }
+
+  private void add(Product product) {
+    inventory.put(product.getSku(), product);
+  }
+
+  private static List<String> skus(List<Product> products) {
+    List<String> skus = new ArrayList<>();
+    for (Product product : products) {
+      skus.add(product.getSku());
+    }
+    return skus;
+  }
+
+  public void testTextSearchMatchesEveryTermIgnoringCase() {
+    assertEquals(Arrays.asList("A1", "A2"), skus(index.searchText("WIDGET", 10)));
+    assertEquals(Arrays.asList("A1"), skus(index.searchText("steel widg", 10)));
+    assertEquals(Arrays.asList("B1"), skus(index.searchText("gr", 10)));
+    assertTrue(index.searchText("widget hose", 10).isEmpty());
+  }
+
+  public void testSupplierAndDateIndexes() {
+    assertEquals(Arrays.asList("A1", "B1"), skus(index.bySupplier("SUP1")));
+    assertEquals(Arrays.asList("A2", "B1"), skus(index.receivedBetween("2024-02-01", "2024-12-31", 10)));
+  }
+
+  public void testRemoveAndReplaceKeepIndexesCurrent() {
+    Product old = inventory.remove("A1");
+    index.remove(old);
+    assertEquals(Arrays.asList("A2"), skus(index.searchText("widget", 10)));
+    assertEquals(Arrays.asList("B1"), skus(index.bySupplier("SUP1")));
+
+    Product replacement = new Product("A1", "Red Gadget", "", 1, 1.0, "SUP3", "2024-04-01");
+    add(replacement);
+    index.add(replacement);
+    assertEquals(Arrays.asList("A1"), skus(index.searchText("gadget", 10)));
+    assertEquals(Arrays.asList("A1"), skus(index.bySupplier("SUP3")));
+  }
+}
@@ -0,0 +1,114 @@
+package com.store.inventory;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import junit.framework.TestCase;
+
+public class ProductStoreTest extends TestCase {
+  private static Product product(int i) {
+    return new Product("SKU" + i, "Product " + i, "Description of product " + i, i % 1000, (i % 5000) / 100.0,
+        "SUP" + (i % 100), "2024-01-" + (10 + i % 20));
+  }
+
+  public void testPutGetRemoveAndGrowth() {
+    ProductStore store = new ProductStore();
+    int count = 50000;
+    for (int i = 0; i < count; i++) {
+      assertNull(store.put("SKU" + i, product(i)));
+    }
+    assertEquals(count, store.size());
+    Product p = store.get("SKU12345");
+    assertEquals("Product 12345", p.getName());
+    assertEquals(345, p.getQuantity());
+    assertEquals(23.45, p.getPrice());
+    assertEquals("SUP45", p.getSupplierId());
+    assertEquals("2024-01-15", p.getDateReceived());
+
+    for (int i = 0; i < count; i += 2) {
+      assertEquals("SKU" + i, store.remove("SKU" + i).getSku());
+    }
+    assertEquals(count / 2, store.size());
+    assertNull(store.get("SKU12344"));
+    assertTrue(store.containsKey("SKU12345"));
+    int seen = 0;
+    for (Product product : store.values()) {
+      assertEquals(1, Integer.parseInt(product.getSku().substring(3)) % 2);
+      seen++;
+    }
+    assertEquals(count / 2, seen);
+  }
+
+  public void testViewsWriteThroughAndGoStaleWhenReplaced() {
+    ProductStore store = new ProductStore();
+    store.put("A", new Product("A", "Apple", "", 5, 1.25, "SUP1", "not a date"));
+    Product view = store.get("A");
+    view.setQuantity(7);
+    view.setPrice(2.5);
+    assertEquals(7, store.get("A").getQuantity());
+    assertEquals("not a date", view.getDateReceived());
+    assertEquals(view, store.get("A"));
+
+    Product previous = store.put("A", new Product("A", "Apricot", "", 1, 3.0, null, null));
+    assertEquals(7, previous.getQuantity());
+    assertEquals(2.5, previous.getPrice());
+    assertFalse(view.equals(store.get("A")));
+    try {
+      view.getQuantity();
+      fail("Expected a stale view");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    assertNull(store.get("A").getSupplierId());
+    assertNull(store.get("A").getDateReceived());
+  }
+
+  public void testStockChangesSurviveConcurrentGrowth() throws InterruptedException {
+    final ProductStore store = new ProductStore();
+    store.put("HOT", new Product("HOT", "Hot item", "", 0, 1.0, "SUP1", "2024-01-01"));
+    final StockEngine engine = new StockEngine(store, 8);
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 100000; i++) {
+        store.put("SKU" + i, product(i));
+      }
+    });
+    writer.start();
+    for (int i = 0; i < 100000; i++) {
+      engine.receive("HOT", 1);
+    }
+    writer.join();
+    assertEquals(100000, engine.available("HOT"));
+    assertEquals(100001, store.size());
+  }
+
+  public void testUsesLessHeapThanHashMap() {
+    int count = 200000;
+    long base = usedHeap();
+    Map<String, Product> map = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      Product product = product(i);
+      map.put(product.getSku(), product);
+    }
+    long mapBytes = usedHeap() - base;
+    assertEquals(count, map.size());
+    map = null;
+
+    base = usedHeap();
+    ProductStore store = new ProductStore(count);
+    for (int i = 0; i < count; i++) {
+      Product product = product(i);
+      store.put(product.getSku(), product);
+    }
+    long storeBytes = usedHeap() - base;
+    assertEquals(count, store.size());
+    assertTrue("store " + storeBytes + " bytes, map " + mapBytes + " bytes", storeBytes < mapBytes * 3 / 4);
+  }
+
+  private static long usedHeap() {
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      used = Math.min(used, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+    return used;
+  }
+}
@@ -0,0 +1,79 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+public class ReorderEngineTest extends TestCase {
+  private static final long DAY = 86_400_000L;
+
+  private final Map<String, Product> products = new HashMap<>();
+  private final AtomicLong now = new AtomicLong(1_700_000_000_000L);
+  private ReorderEngine engine;
+
+  @Override
+  protected void setUp() {
+    for (int i = 0; i < 6; i++) {
+      products.put("P" + i, new Product("P" + i, "Product " + i, "", 100, 2.5, "S" + (i % 2), "2024-01-01"));
+    }
+    engine = new ReorderEngine(products, 7, 14, 30, now::get);
+  }
+
+  public void testSteadySalesConvergeToTheDailyRate() {
+    for (int day = 0; day < 200; day++) {
+      engine.sale("P0", 4);
+      now.addAndGet(DAY);
+    }
+    now.addAndGet(-DAY / 2);
+    assertEquals(4.0, engine.dailyRate("P0"), 0.3);
+    // A week without sales halves the rate.
+    double rate = engine.dailyRate("P0");
+    now.addAndGet(7 * DAY);
+    assertEquals(rate / 2, engine.dailyRate("P0"), 1e-9);
+    assertEquals(0.0, engine.dailyRate("P5"));
+  }
+
+  public void testLowStockIsOrderedByCover() {
+    engine.sale("P1", 100);
+    engine.sale("P2", 20);
+    engine.sale("P3", 1);
+    List<ReorderEngine.Suggestion> low = engine.lowStock(10);
+    // A sale counts as a tenth of itself per day: 100 units last 10, 50 and 1000 days for P1, P2 and P3.
+    assertEquals(1, low.size());
+    assertEquals("P1", low.get(0).getSku());
+
+    engine.stock("P2", 10);
+    engine.stock("P1", 0);
+    low = engine.lowStock(10);
+    assertEquals(Arrays.asList("P1", "P2"), Arrays.asList(low.get(0).getSku(), low.get(1).getSku()));
+    assertEquals(0.0, low.get(0).getDaysOfCover());
+    assertTrue(low.get(1).getDaysOfCover() < 14);
+    assertEquals(1, engine.lowStock(1).size());
+
+    // Cover grows as the rate decays, until the SKU is no longer low.
+    now.addAndGet(30 * DAY);
+    low = engine.lowStock(10);
+    assertEquals(1, low.size());
+    assertEquals("P1", low.get(0).getSku());
+  }
+
+  public void testDraftsAreGroupedBySupplier() {
+    for (String sku : Arrays.asList("P0", "P1", "P2", "P4")) {
+      engine.sale(sku, 100);
+      engine.stock(sku, 10);
+    }
+    engine.sale("P3", 1);
+    engine.removed("P4");
+    List<Order> drafts = engine.draftOrders();
+    assertEquals(2, drafts.size());
+    Order first = drafts.get(0);
+    assertEquals("S0", first.getSupplierId());
+    assertEquals(2, first.getItems().size());
+    OrderItem item = first.getItems().get(0);
+    // About 10 a day for 30 days, less the 10 in stock.
+    assertTrue(item.getQuantity() > 250 && item.getQuantity() < 300);
+    assertEquals(250, item.getUnitPrice());
+    assertEquals("S1", drafts.get(1).getSupplierId());
+    assertEquals("P1", drafts.get(1).getItems().get(0).getSku());
+  }
+}
@@ -0,0 +1,110 @@
+package com.store.inventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.*;
+import junit.framework.TestCase;
+
+public class SalesAnalyticsTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private final Map<String, Product> products = new HashMap<>();
+  private final List<Order> orders = Collections.synchronizedList(new ArrayList<>());
+
+  @Override
+  protected void setUp() {
+    for (int i = 0; i < 20; i++) {
+      products.put("P" + i, new Product("P" + i, "Product " + i, "", 100, 1.0, "S" + (i % 3), "2024-01-01"));
+    }
+  }
+
+  private static SellOrder sale(String id, LocalDate date, String sku, int quantity, long unitPrice) {
+    return new SellOrder(id, "C", Collections.singletonList(new OrderItem(sku, sku, quantity, unitPrice)), date);
+  }
+
+  public void testRangesMatchAScanOfTheOrders() {
+    Random random = new Random(7);
+    LocalDate first = LocalDate.of(2023, 11, 20);
+    for (int i = 0; i < 20000; i++) {
+      LocalDate date = first.plusDays(random.nextInt(120));
+      String sku = "P" + random.nextInt(20);
+      int quantity = 1 + random.nextInt(5);
+      if (random.nextInt(4) == 0) {
+        orders.add(new Order("R" + i, "S9", Collections.singletonList(new OrderItem(sku, sku, quantity, 50)), date));
+      } else {
+        orders.add(sale("O" + i, date, sku, quantity, 100 + random.nextInt(100)));
+      }
+    }
+    SalesAnalytics analytics = new SalesAnalytics(orders, products, QUIET);
+    LocalDate from = LocalDate.of(2023, 12, 14);
+    LocalDate to = LocalDate.of(2024, 2, 29);
+
+    Map<String, long[]> expected = new HashMap<>();
+    Map<String, Long> bySupplier = new HashMap<>();
+    for (Order order : orders) {
+      if (order instanceof SellOrder && !order.getOrderDate().isBefore(from) && !order.getOrderDate().isAfter(to)) {
+        OrderItem item = order.getItems().get(0);
+        long[] totals = expected.computeIfAbsent(item.getSku(), sku -> new long[2]);
+        totals[0] += item.getQuantity();
+        totals[1] += item.getTotal();
+        bySupplier.merge(products.get(item.getSku()).getSupplierId(), item.getTotal(), Long::sum);
+      }
+    }
+    List<SalesQueries.Total> top = analytics.topSkus(SalesQueries.Kind.SALES, from, to, 5, false);
+    assertEquals(5, top.size());
+    for (int i = 0; i < top.size(); i++) {
+      SalesQueries.Total total = top.get(i);
+      assertEquals(expected.get(total.getKey())[0], total.getUnits());
+      assertEquals(expected.get(total.getKey())[1], total.getValue());
+      assertTrue(i == 0 || top.get(i - 1).getUnits() >= total.getUnits());
+    }
+    long bestValue = Collections.max(expected.values(), Comparator.comparingLong(t -> t[1]))[1];
+    assertEquals(bestValue, analytics.topSkus(SalesQueries.Kind.SALES, from, to, 1, true).get(0).getValue());
+
+    List<SalesQueries.Total> suppliers = analytics.suppliers(SalesQueries.Kind.SALES, from, to);
+    assertEquals(3, suppliers.size());
+    for (SalesQueries.Total total : suppliers) {
+      assertEquals(bySupplier.get(total.getKey()).longValue(), total.getValue());
+    }
+    assertEquals("S9", analytics.suppliers(SalesQueries.Kind.RECEIPTS, from, to).get(0).getKey());
+
+    SortedMap<LocalDate, SalesQueries.Total> daily = analytics.daily(SalesQueries.Kind.SALES, "S1", from, to);
+    long sum = 0;
+    for (SalesQueries.Total total : daily.values()) {
+      sum += total.getValue();
+    }
+    assertEquals(bySupplier.get("S1").longValue(), sum);
+    assertEquals(from, daily.firstKey());
+
+    // Whole years come from the year rollups.
+    long units = 0;
+    for (Order order : orders) {
+      if (order instanceof SellOrder) {
+        units += order.getItems().get(0).getQuantity();
+      }
+    }
+    long rolledUp = 0;
+    for (SalesQueries.Total total : analytics.topSkus(SalesQueries.Kind.SALES, LocalDate.of(2023, 1, 1),
+        LocalDate.of(2024, 12, 31), 20, false)) {
+      rolledUp += total.getUnits();
+    }
+    assertEquals(units, rolledUp);
+  }
+
+  public void testOrdersAddedLaterAreFoldedIn() {
+    LocalDate day = LocalDate.of(2024, 3, 1);
+    orders.add(sale("O1", day, "P1", 2, 100));
+    SalesAnalytics analytics = new SalesAnalytics(orders, products, QUIET);
+    assertEquals(2, analytics.topSkus(SalesQueries.Kind.SALES, day, day, 1, false).get(0).getUnits());
+
+    orders.add(sale("O2", day, "P2", 5, 100));
+    analytics.update();
+    orders.add(sale("O3", day, "P1", 4, 100));
+    List<SalesQueries.Total> top = analytics.topSkus(SalesQueries.Kind.SALES, day, day, 2, false);
+    assertEquals("P1", top.get(0).getKey());
+    assertEquals(6, top.get(0).getUnits());
+    assertEquals(5, top.get(1).getUnits());
+    assertTrue(analytics.topSkus(SalesQueries.Kind.SALES, day.plusDays(1), day.plusMonths(2), 5, false).isEmpty());
+  }
+}
@@ -0,0 +1,90 @@
+package com.store.inventory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import junit.framework.TestCase;
+
+public class SnapshotTest extends TestCase {
+  private Path file;
+  private Map<String, Product> products;
+  private Map<String, Supplier> suppliers;
+  private List<Order> orders;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = Files.createTempFile("inventory", ".snapshot");
+    products = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      products.put("SKU" + i, new Product("SKU" + i, "Product " + i, i % 2 == 0 ? null : "D\u00e9j\u00e0 vu " + i, i,
+          i / 100.0, "SUP" + (i % 7), i % 3 == 0 ? "2024-02-" + (10 + i % 18) : "someday"));
+    }
+    suppliers = new HashMap<>();
+    suppliers.put("SUP1", new Supplier("SUP1", "Acme", null));
+    orders = new ArrayList<>();
+    orders.add(new Order("PO1", "SUP1", Arrays.asList(new OrderItem("SKU1", "Product 1", 4, 1)),
+        LocalDate.of(2024, 3, 1)));
+    orders.add(new SellOrder("SO1", "Asha", Arrays.asList(new OrderItem("SKU2", "Product 2", 1, 2),
+        new OrderItem("SKU3", null, 2, 3)), LocalDate.of(2024, 3, 2)));
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  public void testRoundTrip() throws IOException {
+    Snapshot.write(file, "{\"_data\": \"8263\"}", products, suppliers, orders);
+    Snapshot snapshot = Snapshot.read(file);
+    assertEquals("{\"_data\": \"8263\"}", snapshot.getResumeToken());
+    assertEquals(products.size(), snapshot.getProducts().size());
+    for (Product expected : products.values()) {
+      Product actual = snapshot.getProducts().get(expected.getSku());
+      assertEquals(expected.getName(), actual.getName());
+      assertEquals(expected.getDescription(), actual.getDescription());
+      assertEquals(expected.getQuantity(), actual.getQuantity());
+      assertEquals(expected.getPrice(), actual.getPrice());
+      assertEquals(expected.getSupplierId(), actual.getSupplierId());
+      assertEquals(expected.getDateReceived(), actual.getDateReceived());
+    }
+    assertEquals("Acme", snapshot.getSuppliers().get("SUP1").getName());
+    assertNull(snapshot.getSuppliers().get("SUP1").getContact());
+    assertEquals(2, snapshot.getOrders().size());
+    Order sell = snapshot.getOrders().get(1);
+    assertEquals("Asha", ((SellOrder) sell).getCustomerName());
+    assertEquals(8, sell.getTotal());
+    assertNull(sell.getItems().get(1).getName());
+  }
+
+  public void testCorruptionIsDetected() throws IOException {
+    Snapshot.write(file, null, products, suppliers, orders);
+    assertNull(Snapshot.read(file).getResumeToken());
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      long position = raf.length() / 2;
+      raf.seek(position);
+      int b = raf.read();
+      raf.seek(position);
+      raf.write(b ^ 0x10);
+    }
+    try {
+      Snapshot.read(file);
+      fail("Expected a checksum failure");
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    Snapshot.write(file, null, products, suppliers, orders);
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.setLength(raf.length() - 20);
+    }
+    try {
+      Snapshot.read(file);
+      fail("Expected a truncated snapshot");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.store.inventory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import junit.framework.TestCase;
+
+public class StockEngineTest extends TestCase {
+  private static final int SKUS = 16;
+  private static final int INITIAL = 500;
+
+  private Map<String, Product> inventory;
+  private StockEngine engine;
+
+  @Override
+  protected void setUp() {
+    inventory = new ConcurrentHashMap<>();
+    for (int i = 0; i < SKUS; i++) {
+      inventory.put(sku(i), new Product(sku(i), "Product " + i, "", INITIAL, 10.0, "SUP1", "2024-01-01"));
+    }
+    engine = new StockEngine(inventory, 8);
+  }
+
+  private static String sku(int i) {
+    return "SKU" + i;
+  }
+
+  public void testReservationIsAllOrNothing() {
+    inventory.get(sku(1)).setQuantity(2);
+    try {
+      engine.reserve(Arrays.asList(new OrderItem(sku(0), 5), new OrderItem(sku(1), 3)));
+      fail("Expected insufficient stock");
+    } catch (InsufficientStockException e) {
+      assertEquals(sku(1), e.getSku());
+      assertEquals(2, e.getAvailable());
+    }
+    assertEquals(INITIAL, engine.available(sku(0)));
+    assertEquals(2, engine.available(sku(1)));
+  }
+
+  public void testRepeatedSkuLinesAreCheckedTogether() {
+    inventory.get(sku(0)).setQuantity(5);
+    try {
+      engine.reserve(Arrays.asList(new OrderItem(sku(0), 3), new OrderItem(sku(0), 3)));
+      fail("Expected insufficient stock");
+    } catch (InsufficientStockException e) {
+      assertEquals(5, e.getAvailable());
+    }
+    assertEquals(5, engine.available(sku(0)));
+  }
+
+  public void testReleaseRestoresStockAndCommitKeepsIt() {
+    StockEngine.Reservation released = engine.reserve(Collections.singletonList(new OrderItem(sku(0), 7)));
+    assertEquals(INITIAL - 7, engine.available(sku(0)));
+    released.release();
+    assertEquals(INITIAL, engine.available(sku(0)));
+
+    StockEngine.Reservation committed = engine.reserve(Collections.singletonList(new OrderItem(sku(0), 7)));
+    committed.commit();
+    committed.release();
+    assertEquals(INITIAL - 7, engine.available(sku(0)));
+  }
+
+  public void testRefreshKeepsOpenReservationsHeld() {
+    StockEngine.Reservation open = engine.reserve(Collections.singletonList(new OrderItem(sku(0), 5)));
+    engine.refresh(sku(0), 480);
+    assertEquals(475, engine.available(sku(0)));
+
+    open.commit(Collections.singletonMap(sku(0), 475));
+    assertEquals(475, engine.available(sku(0)));
+  }
+
+  public void testConcurrentSalesNeverOversell() throws InterruptedException {
+    final int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    final int ordersPerThread = 20000;
+    final AtomicLongArray sold = new AtomicLongArray(SKUS);
+    final AtomicLongArray received = new AtomicLongArray(SKUS);
+    final AtomicBoolean negative = new AtomicBoolean();
+    engine.addListener((product, oldQuantity, oldPrice) -> {
+      if (product.getQuantity() < 0) {
+        negative.set(true);
+      }
+    });
+
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final boolean receiver = t == 0;
+      Thread worker = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int n = 0; n < ordersPerThread; n++) {
+          if (receiver) {
+            if (n % 10 == 0) {
+              int i = random.nextInt(SKUS);
+              engine.receive(sku(i), 5);
+              received.addAndGet(i, 5);
+            }
+            continue;
+          }
+          int lines = 1 + random.nextInt(4);
+          List<OrderItem> items = new ArrayList<>(lines);
+          for (int l = 0; l < lines; l++) {
+            items.add(new OrderItem(sku(random.nextInt(SKUS)), 1 + random.nextInt(3)));
+          }
+          try {
+            StockEngine.Reservation reservation = engine.reserve(items);
+            if (random.nextInt(5) == 0) {
+              reservation.release();
+            } else {
+              reservation.commit();
+              for (OrderItem item : items) {
+                sold.addAndGet(Integer.parseInt(item.getSku().substring(3)), item.getQuantity());
+              }
+            }
+          } catch (InsufficientStockException e) {
+            // Expected once stock runs low.
+          }
+        }
+      });
+      workers.add(worker);
+      worker.start();
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    assertFalse("Stock went negative", negative.get());
+    for (int i = 0; i < SKUS; i++) {
+      int quantity = engine.available(sku(i));
+      assertTrue(quantity >= 0);
+      assertEquals(INITIAL + received.get(i) - sold.get(i), quantity);
+    }
+  }
+}
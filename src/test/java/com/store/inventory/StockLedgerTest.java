@@ -0,0 +1,138 @@
+package com.store.inventory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class StockLedgerTest extends TestCase {
+  private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+  private Path directory;
+  private final AtomicLong clock = new AtomicLong(1_000);
+
+  @Override
+  protected void setUp() throws IOException {
+    directory = Files.createTempDirectory("stock-ledger");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private StockLedger open(long snapshotBytes) throws IOException {
+    StockLedger ledger = new StockLedger(directory, 4, snapshotBytes, clock::get, QUIET);
+    ledger.open();
+    return ledger;
+  }
+
+  public void testPointInTimeQuantities() throws IOException {
+    StockLedger ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    ledger.set("A", StockLedger.Reason.ADD, 10, null);
+    clock.set(2_000);
+    assertEquals(15, ledger.append("A", StockLedger.Reason.RECEIVE, 5, "PO1"));
+    ledger.append("B", StockLedger.Reason.RECEIVE, 7, "PO1");
+    clock.set(3_000);
+    assertEquals(12, ledger.append("A", StockLedger.Reason.SALE, -3, "SO1"));
+    assertEquals(12, ledger.set("A", StockLedger.Reason.ADJUST, 12, null));
+
+    assertEquals(0, ledger.quantityAt("A", 999));
+    assertEquals(10, ledger.quantityAt("A", 1_999));
+    assertEquals(15, ledger.quantityAt("A", 2_000));
+    assertEquals(12, ledger.quantityAt("A", 5_000));
+    assertEquals(7, ledger.quantityAt("B", 2_500));
+    assertEquals(0, ledger.quantityAt("C", 5_000));
+
+    List<StockLedger.Movement> history = ledger.history("A", 10);
+    assertEquals(3, history.size());
+    assertEquals(StockLedger.Reason.SALE, history.get(0).getReason());
+    assertEquals(-3, history.get(0).getDelta());
+    assertEquals("SO1", history.get(0).getReference());
+    assertEquals(StockLedger.Reason.ADD, history.get(2).getReason());
+    assertNull(history.get(2).getReference());
+    ledger.close();
+  }
+
+  public void testReopenFromSnapshotAndTail() throws IOException {
+    StockLedger ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    for (int i = 0; i < 1000; i++) {
+      clock.incrementAndGet();
+      ledger.append("SKU" + (i % 50), StockLedger.Reason.RECEIVE, 1, "PO" + i);
+    }
+    ledger.close();
+
+    // Entries after the snapshot are replayed from the partition files.
+    ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    for (int i = 0; i < 100; i++) {
+      clock.incrementAndGet();
+      ledger.append("SKU" + (i % 50), StockLedger.Reason.SALE, -1, "SO" + i);
+    }
+    ledger.snapshot();
+    Path snapshot = directory.resolve(StockLedger.SNAPSHOT_FILE);
+    byte[] older = Files.readAllBytes(snapshot);
+    ledger.append("SKU0", StockLedger.Reason.SALE, -5, "SO-last");
+    ledger.close();
+
+    // An older snapshot leaves the last entry to the replay, and none replays everything.
+    Files.write(snapshot, older);
+    ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    assertReopened(ledger);
+    ledger.close();
+    Files.delete(snapshot);
+    ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    assertReopened(ledger);
+    ledger.close();
+  }
+
+  private static void assertReopened(StockLedger ledger) throws IOException {
+    assertEquals(50, ledger.skuCount());
+    assertEquals(13, ledger.quantity("SKU0"));
+    assertEquals(18, ledger.quantity("SKU1"));
+    assertEquals(1, ledger.quantityAt("SKU0", 1_001));
+    assertEquals(20, ledger.quantityAt("SKU0", 2_000));
+    assertEquals(19, ledger.quantityAt("SKU0", 2_001));
+    assertEquals("SO-last", ledger.history("SKU0", 1).get(0).getReference());
+  }
+
+  public void testTornEntryIsDiscarded() throws IOException {
+    StockLedger ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    ledger.set("A", StockLedger.Reason.ADD, 10, null);
+    ledger.append("A", StockLedger.Reason.SALE, -4, "SO1");
+    ledger.close();
+    Files.delete(directory.resolve(StockLedger.SNAPSHOT_FILE));
+    Path partition;
+    try (Stream<Path> files = Files.list(directory)) {
+      partition = files.filter(file -> {
+        try {
+          return Files.size(file) > 0;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }).findFirst().get();
+    }
+    try (FileChannel channel = FileChannel.open(partition, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 2);
+    }
+
+    ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    assertEquals(10, ledger.quantity("A"));
+    assertEquals(1, ledger.history("A", 10).size());
+    assertEquals(13, ledger.append("A", StockLedger.Reason.RECEIVE, 3, "PO1"));
+    ledger.close();
+    ledger = open(StockLedger.DEFAULT_SNAPSHOT_BYTES);
+    assertEquals(13, ledger.quantity("A"));
+    assertEquals(2, ledger.history("A", 10).size());
+    ledger.close();
+  }
+}